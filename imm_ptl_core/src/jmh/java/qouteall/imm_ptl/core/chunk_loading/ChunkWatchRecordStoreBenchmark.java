@@ -0,0 +1,144 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.world.level.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the chunk tracking update of {@link NewChunkTrackingGraph}:
+ * every player updates the records in its view square, which moves by one chunk per update,
+ * then the outdated records are purged.
+ * The columnar store is compared with the previous structure, a map from chunk to a list of record objects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkWatchRecordStoreBenchmark {
+    
+    @Param({"8", "32"})
+    public int playerNum;
+    
+    @Param({"12"})
+    public int radius;
+    
+    private ChunkWatchRecordStore store;
+    private Long2ObjectLinkedOpenHashMap<ArrayList<ObjectRecord>> objectStore;
+    private long time;
+    
+    // the record of the previous structure
+    private static class ObjectRecord {
+        public final Object player;
+        public final long chunkPos;
+        public long lastWatchTime;
+        public int distanceToSource;
+        public boolean isDirectLoading;
+        public boolean isLoadedToPlayer;
+        
+        public ObjectRecord(Object player, long chunkPos, long lastWatchTime, int distanceToSource) {
+            this.player = player;
+            this.chunkPos = chunkPos;
+            this.lastWatchTime = lastWatchTime;
+            this.distanceToSource = distanceToSource;
+        }
+    }
+    
+    private Object[] players;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        store = new ChunkWatchRecordStore(null, 0);
+        objectStore = new Long2ObjectLinkedOpenHashMap<>();
+        players = new Object[playerNum];
+        for (int i = 0; i < playerNum; i++) {
+            players[i] = new Object();
+        }
+        time = 0;
+    }
+    
+    // the players are spread in a line with overlapping views
+    private int getPlayerCenterX(int player) {
+        return player * radius + (int) time;
+    }
+    
+    @Benchmark
+    public int columnarStore() {
+        time++;
+        for (int player = 0; player < playerNum; player++) {
+            int centerX = getPlayerCenterX(player);
+            for (int x = centerX - radius; x <= centerX + radius; x++) {
+                for (int z = -radius; z <= radius; z++) {
+                    long chunkPos = ChunkPos.asLong(x, z);
+                    int distance = Math.max(Math.abs(x - centerX), Math.abs(z));
+                    int record = store.find(chunkPos, player);
+                    if (record == -1) {
+                        store.add(chunkPos, player, time, distance, false, false);
+                    }
+                    else {
+                        store.setLastWatchTime(record, time);
+                        store.setDistanceToSource(record, distance);
+                        store.setLoadedToPlayer(record, true);
+                    }
+                }
+            }
+        }
+        
+        long currTime = time;
+        store.removeIf(record -> store.getLastWatchTime(record) != currTime, record -> {});
+        return store.getRecordNum();
+    }
+    
+    @Benchmark
+    public int objectStore() {
+        time++;
+        for (int player = 0; player < playerNum; player++) {
+            Object playerObj = players[player];
+            int centerX = getPlayerCenterX(player);
+            for (int x = centerX - radius; x <= centerX + radius; x++) {
+                for (int z = -radius; z <= radius; z++) {
+                    long chunkPos = ChunkPos.asLong(x, z);
+                    int distance = Math.max(Math.abs(x - centerX), Math.abs(z));
+                    ArrayList<ObjectRecord> records = objectStore.computeIfAbsent(chunkPos, k -> new ArrayList<>());
+                    ObjectRecord found = null;
+                    for (ObjectRecord r : records) {
+                        if (r.player == playerObj) {
+                            found = r;
+                            break;
+                        }
+                    }
+                    if (found == null) {
+                        records.add(new ObjectRecord(playerObj, chunkPos, time, distance));
+                    }
+                    else {
+                        found.lastWatchTime = time;
+                        found.distanceToSource = distance;
+                        found.isLoadedToPlayer = true;
+                    }
+                }
+            }
+        }
+        
+        long currTime = time;
+        objectStore.values().removeIf(records -> {
+            records.removeIf(r -> r.lastWatchTime != currTime);
+            return records.isEmpty();
+        });
+        return objectStore.size();
+    }
+}
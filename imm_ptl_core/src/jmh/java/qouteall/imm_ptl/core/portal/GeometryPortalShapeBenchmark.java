@@ -0,0 +1,98 @@
+package qouteall.imm_ptl.core.portal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point queries on a round special shape like the one made by the "make_portal_round" command,
+ * with more triangles for the finer shapes.
+ * The accelerated query is compared with testing every triangle, which is what it did before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeometryPortalShapeBenchmark {
+    
+    @Param({"30", "300", "3000"})
+    public int triangleNum;
+    
+    @Param({"1024"})
+    public int queryNum;
+    
+    private GeometryPortalShape shape;
+    private double[] queryX;
+    private double[] queryY;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        
+        double width = 4;
+        double height = 6;
+        double twoPi = Math.PI * 2;
+        shape = new GeometryPortalShape();
+        for (int i = 0; i < triangleNum; i++) {
+            shape.triangles.add(new GeometryPortalShape.TriangleInPlane(
+                0, 0,
+                width * 0.5 * Math.cos(twoPi * ((double) i) / triangleNum),
+                height * 0.5 * Math.sin(twoPi * ((double) i) / triangleNum),
+                width * 0.5 * Math.cos(twoPi * ((double) i + 1) / triangleNum),
+                height * 0.5 * Math.sin(twoPi * ((double) i + 1) / triangleNum)
+            ));
+        }
+        
+        // the points are in the portal's rectangle
+        queryX = new double[queryNum];
+        queryY = new double[queryNum];
+        for (int i = 0; i < queryNum; i++) {
+            queryX[i] = (random.nextDouble() - 0.5) * width;
+            queryY[i] = (random.nextDouble() - 0.5) * height;
+        }
+    }
+    
+    @Benchmark
+    public int accelerated() {
+        int inside = 0;
+        for (int i = 0; i < queryNum; i++) {
+            if (shape.isPointInShape(queryX[i], queryY[i])) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+    
+    @Benchmark
+    public int linear() {
+        int inside = 0;
+        for (int i = 0; i < queryNum; i++) {
+            double x = queryX[i];
+            double y = queryY[i];
+            if (shape.triangles.stream().anyMatch(triangle -> triangle.isPointInTriangle(x, y))) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+    
+    // the accelerator is rebuilt after the shape changes
+    @Benchmark
+    public int modifiedThenQueried() {
+        shape.triangles.set(0, shape.triangles.get(0));
+        return accelerated();
+    }
+}
@@ -0,0 +1,254 @@
+package qouteall.imm_ptl.core.portal;
+
+import com.mojang.math.Quaternion;
+import com.mojang.math.Vector3f;
+import net.minecraft.core.Registry;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import qouteall.q_misc_util.my_util.BoxPredicate;
+
+import javax.annotation.Nullable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame and per-tick geometry of {@link Portal} on synthetic portals and query points.
+ * A portal entity cannot be created without booting MC, so {@link FakePortal} holds the same geometric state
+ * and computes in the same way as {@link Portal}, through {@link PortalGeometry}.
+ * The transformation desc is the real {@link Portal.TransformationDesc}, it only needs a dimension key.
+ * Run with "-prof gc" to see the allocation of each operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PortalGeometryBenchmark {
+    
+    @Param({"false", "true"})
+    public boolean rotated;
+    
+    @Param({"1024"})
+    public int queryNum;
+    
+    private static class FakePortal {
+        public final Vec3 originPos;
+        public final Vec3 destPos;
+        public final Vec3 axisW;
+        public final Vec3 axisH;
+        public final Vec3 normal;
+        public final double width;
+        public final double height;
+        @Nullable
+        public final Quaternion rotation;
+        public final double scaling;
+        public final ResourceKey<Level> destDim;
+        
+        public FakePortal(
+            Vec3 originPos, Vec3 destPos, Vec3 axisW, Vec3 axisH, double width, double height,
+            @Nullable Quaternion rotation, double scaling, ResourceKey<Level> destDim
+        ) {
+            this.originPos = originPos;
+            this.destPos = destPos;
+            this.axisW = axisW;
+            this.axisH = axisH;
+            this.normal = axisW.cross(axisH).normalize();
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.scaling = scaling;
+            this.destDim = destDim;
+        }
+        
+        public Vec3 transformPoint(Vec3 pos) {
+            Vec3 localPos = pos.subtract(originPos);
+            
+            return transformLocalVec(localPos).add(destPos);
+        }
+        
+        public Vec3 transformLocalVec(Vec3 localVec) {
+            return PortalGeometry.transformLocalVecNonScale(localVec, rotation).scale(scaling);
+        }
+        
+        @Nullable
+        public Vec3 rayTrace(Vec3 from, Vec3 to) {
+            Vec3 collidingPoint = PortalGeometry.rayTracePlane(from, to, originPos, normal);
+            
+            if (collidingPoint != null && PortalGeometry.isPointInRectProjection(
+                collidingPoint, originPos, axisW, axisH, width, height
+            )) {
+                return collidingPoint;
+            }
+            else {
+                return null;
+            }
+        }
+        
+        public double getDistanceToNearestPointInPortal(Vec3 point) {
+            return PortalGeometry.getDistanceToNearestPointInRect(
+                point, originPos, normal, axisW, axisH, width, height
+            );
+        }
+        
+        public boolean isRoughlyVisibleTo(Vec3 cameraPos) {
+            return PortalGeometry.getDistanceToPlane(cameraPos, originPos, normal) > 0;
+        }
+        
+        public BoxPredicate getInnerFrustumCullingFunc(double cameraX, double cameraY, double cameraZ) {
+            Vec3[] vertices = PortalGeometry.getRectVerticesLocal(axisW, axisH, width, height, 0);
+            for (int i = 0; i < 4; i++) {
+                vertices[i] = transformLocalVec(vertices[i]);
+            }
+            return PortalGeometry.getInnerFrustumCullingFunc(
+                cameraX, cameraY, cameraZ, destPos, vertices
+            );
+        }
+        
+        public Portal.TransformationDesc getTransformationDesc() {
+            return new Portal.TransformationDesc(
+                destDim, rotation, scaling,
+                destPos.scale(1.0 / scaling).subtract(originPos),
+                false
+            );
+        }
+    }
+    
+    private FakePortal[] portals;
+    // the query points are near the portal of the same index
+    private Vec3[] points;
+    private Vec3[] lastTickPoints;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ResourceKey<Registry<Level>> dimensionRegistry =
+            ResourceKey.createRegistryKey(new ResourceLocation("dimension"));
+        ResourceKey<Level> overworld = ResourceKey.create(dimensionRegistry, new ResourceLocation("overworld"));
+        ResourceKey<Level> nether = ResourceKey.create(dimensionRegistry, new ResourceLocation("the_nether"));
+        
+        portals = new FakePortal[queryNum];
+        points = new Vec3[queryNum];
+        lastTickPoints = new Vec3[queryNum];
+        for (int i = 0; i < queryNum; i++) {
+            Vec3 originPos = new Vec3(
+                random.nextDouble() * 1000, 64 + random.nextDouble() * 64, random.nextDouble() * 1000
+            );
+            // portals next to each other often have the same transformation, like in a portal group
+            Vec3 offset = new Vec3((i / 4) * 16, 0, 0);
+            Vec3 destPos = originPos.add(offset);
+            boolean facingX = random.nextBoolean();
+            Vec3 axisW = facingX ? new Vec3(0, 0, 1) : new Vec3(1, 0, 0);
+            Vec3 axisH = new Vec3(0, 1, 0);
+            Quaternion rotation = rotated ?
+                Vector3f.YP.rotationDegrees((i / 4) % 4 * 90 + 30) : null;
+            double scaling = rotated ? 2 : 1;
+            
+            portals[i] = new FakePortal(
+                originPos, destPos, axisW, axisH,
+                1 + random.nextDouble() * 8, 1 + random.nextDouble() * 8,
+                rotation, scaling, (i / 4) % 2 == 0 ? overworld : nether
+            );
+            
+            Vec3 normal = portals[i].normal;
+            Vec3 inPlane = axisW.scale(random.nextDouble() * 4 - 2).add(axisH.scale(random.nextDouble() * 4 - 2));
+            points[i] = originPos.add(inPlane).add(normal.scale(-random.nextDouble() * 0.5));
+            lastTickPoints[i] = originPos.add(inPlane).add(normal.scale(random.nextDouble() * 0.5));
+        }
+    }
+    
+    @Benchmark
+    public double transformPoint() {
+        double sum = 0;
+        for (int i = 0; i < queryNum; i++) {
+            sum += portals[i].transformPoint(points[i]).x;
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public double transformLocalVec() {
+        double sum = 0;
+        for (int i = 0; i < queryNum; i++) {
+            sum += portals[i].transformLocalVec(points[i]).x;
+        }
+        return sum;
+    }
+    
+    // like checking whether entities moved through the portal in a tick
+    @Benchmark
+    public int rayTrace() {
+        int hit = 0;
+        for (int i = 0; i < queryNum; i++) {
+            if (portals[i].rayTrace(lastTickPoints[i], points[i]) != null) {
+                hit++;
+            }
+        }
+        return hit;
+    }
+    
+    @Benchmark
+    public double getDistanceToNearestPointInPortal() {
+        double sum = 0;
+        for (int i = 0; i < queryNum; i++) {
+            sum += portals[i].getDistanceToNearestPointInPortal(points[i]);
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public int isRoughlyVisibleTo() {
+        int visible = 0;
+        for (int i = 0; i < queryNum; i++) {
+            if (portals[i].isRoughlyVisibleTo(lastTickPoints[i])) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+    
+    // creates the culling function once per portal and tests a few section boxes with it, like in a frame
+    @Benchmark
+    public int getInnerFrustumCullingFunc() {
+        int culled = 0;
+        for (int i = 0; i < queryNum; i++) {
+            FakePortal portal = portals[i];
+            Vec3 camera = portal.transformPoint(lastTickPoints[i]);
+            BoxPredicate func = portal.getInnerFrustumCullingFunc(camera.x, camera.y, camera.z);
+            for (int j = 0; j < 8; j++) {
+                double x = portal.destPos.x - camera.x + (j - 4) * 16;
+                double y = portal.destPos.y - camera.y;
+                double z = portal.destPos.z - camera.z + (j & 1) * 16;
+                if (func.test(x, y, z, x + 16, y + 16, z + 16)) {
+                    culled++;
+                }
+            }
+        }
+        return culled;
+    }
+    
+    // the portal grouping compares the transformation desc with the nearby portals'
+    @Benchmark
+    public int transformationDesc() {
+        int equalNum = 0;
+        for (int i = 1; i < queryNum; i++) {
+            if (portals[i].getTransformationDesc().equals(portals[i - 1].getTransformationDesc())) {
+                equalNum++;
+            }
+        }
+        return equalNum;
+    }
+}
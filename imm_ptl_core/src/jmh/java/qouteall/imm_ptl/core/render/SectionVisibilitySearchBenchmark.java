@@ -0,0 +1,191 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.world.level.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the visible section discovery of {@link VisibleSectionDiscovery} on a synthetic built chunk storage,
+ * which is a map of columns like {@link MyBuiltChunkStorage}, with a frustum that turns a little every frame.
+ * The grid search is compared with the previous search, which fetched the built chunk of every neighbor
+ * from the storage and marked the visited built chunks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SectionVisibilitySearchBenchmark {
+    
+    private static final int minSectionY = -4;
+    private static final int endSectionY = 20;
+    private static final int centerX = 3;
+    private static final int centerY = 4;
+    private static final int centerZ = -7;
+    
+    @Param({"8", "16"})
+    public int radius;
+    
+    private static class FakeChunk {
+        public final int cx;
+        public final int cy;
+        public final int cz;
+        public long mark;
+        
+        public FakeChunk(int cx, int cy, int cz) {
+            this.cx = cx;
+            this.cy = cy;
+            this.cz = cz;
+        }
+    }
+    
+    private static class FakeColumn {
+        public final FakeChunk[] chunks = new FakeChunk[endSectionY - minSectionY];
+        public long mark;
+    }
+    
+    private final Long2ObjectOpenHashMap<FakeColumn> columns = new Long2ObjectOpenHashMap<>();
+    private final SectionVisibilitySearch<FakeChunk> search = new SectionVisibilitySearch<>();
+    private final ArrayDeque<FakeChunk> markedQueue = new ArrayDeque<>();
+    private final ArrayList<FakeChunk> result = new ArrayList<>();
+    
+    private long timeMark = 0;
+    private double yaw = 0;
+    // the inward normals of the left, right, top and bottom planes
+    private final double[] planes = new double[12];
+    
+    private final SectionVisibilitySearch.SectionSource<FakeChunk> source =
+        new SectionVisibilitySearch.SectionSource<>() {
+            @Override
+            public FakeChunk fetch(int cx, int cy, int cz) {
+                return SectionVisibilitySearchBenchmark.this.fetch(cx, cy, cz);
+            }
+            
+            @Override
+            public boolean isVisible(FakeChunk section, int cx, int cy, int cz) {
+                return isInFrustum(cx, cy, cz);
+            }
+        };
+    
+    @Setup
+    public void setup() {
+        for (int cx = centerX - radius - 1; cx <= centerX + radius + 1; cx++) {
+            for (int cz = centerZ - radius - 1; cz <= centerZ + radius + 1; cz++) {
+                FakeColumn column = new FakeColumn();
+                for (int cy = minSectionY; cy < endSectionY; cy++) {
+                    column.chunks[cy - minSectionY] = new FakeChunk(cx, cy, cz);
+                }
+                columns.put(ChunkPos.asLong(cx, cz), column);
+            }
+        }
+    }
+    
+    private FakeChunk fetch(int cx, int cy, int cz) {
+        if (cy < minSectionY || cy >= endSectionY) {
+            return null;
+        }
+        FakeColumn column = columns.get(ChunkPos.asLong(cx, cz));
+        if (column == null) {
+            return null;
+        }
+        column.mark = timeMark;
+        return column.chunks[cy - minSectionY];
+    }
+    
+    // like the frustum test, on the section's bounds relative to the camera at the center section's middle
+    // a section is culled if it is fully outside a side plane, the planes go through the camera
+    private boolean isInFrustum(int cx, int cy, int cz) {
+        double minX = (cx - centerX) * 16 - 8;
+        double minY = (cy - centerY) * 16 - 8;
+        double minZ = (cz - centerZ) * 16 - 8;
+        for (int i = 0; i < 4; i++) {
+            double nx = planes[i * 3];
+            double ny = planes[i * 3 + 1];
+            double nz = planes[i * 3 + 2];
+            // the corner that is the farthest along the normal
+            double px = nx > 0 ? minX + 16 : minX;
+            double py = ny > 0 ? minY + 16 : minY;
+            double pz = nz > 0 ? minZ + 16 : minZ;
+            if (nx * px + ny * py + nz * pz < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void nextFrame() {
+        timeMark++;
+        yaw += 0.05;
+        double sin = Math.sin(yaw);
+        double cos = Math.cos(yaw);
+        // 90 degrees horizontal and 60 degrees vertical field of view, the look vector is (sin, 0, cos)
+        setPlane(0, cos + sin, 0, cos - sin);
+        setPlane(1, sin - cos, 0, cos + sin);
+        double tan = Math.tan(Math.toRadians(30));
+        setPlane(2, sin * tan, 1, cos * tan);
+        setPlane(3, sin * tan, -1, cos * tan);
+        result.clear();
+    }
+    
+    private void setPlane(int index, double nx, double ny, double nz) {
+        planes[index * 3] = nx;
+        planes[index * 3 + 1] = ny;
+        planes[index * 3 + 2] = nz;
+    }
+    
+    @Benchmark
+    public int gridSearch() {
+        nextFrame();
+        search.searchFromCenter(centerX, centerY, centerZ, radius, minSectionY, endSectionY, source);
+        result.addAll(search.getVisibleSections());
+        return result.size();
+    }
+    
+    @Benchmark
+    public int markedSearch() {
+        nextFrame();
+        markedQueue.clear();
+        checkMarked(centerX, centerY, centerZ, true);
+        while (!markedQueue.isEmpty()) {
+            FakeChunk curr = markedQueue.poll();
+            checkMarked(curr.cx + 1, curr.cy, curr.cz, false);
+            checkMarked(curr.cx - 1, curr.cy, curr.cz, false);
+            checkMarked(curr.cx, curr.cy + 1, curr.cz, false);
+            checkMarked(curr.cx, curr.cy - 1, curr.cz, false);
+            checkMarked(curr.cx, curr.cy, curr.cz + 1, false);
+            checkMarked(curr.cx, curr.cy, curr.cz - 1, false);
+        }
+        return result.size();
+    }
+    
+    private void checkMarked(int cx, int cy, int cz, boolean skipTest) {
+        if (Math.abs(cx - centerX) > radius || Math.abs(cy - centerY) > radius ||
+            Math.abs(cz - centerZ) > radius
+        ) {
+            return;
+        }
+        FakeChunk chunk = fetch(cx, cy, cz);
+        if (chunk != null && chunk.mark != timeMark) {
+            chunk.mark = timeMark;
+            if (skipTest || isInFrustum(cx, cy, cz)) {
+                markedQueue.add(chunk);
+                result.add(chunk);
+            }
+        }
+    }
+}
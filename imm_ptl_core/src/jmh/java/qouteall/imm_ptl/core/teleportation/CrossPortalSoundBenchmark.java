@@ -0,0 +1,204 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import com.mojang.math.Quaternion;
+import com.mojang.math.Vector3f;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import qouteall.imm_ptl.core.portal.PortalGeometry;
+import qouteall.q_misc_util.my_util.BoxGridIndex;
+
+import javax.annotation.Nullable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of sounds (like an explosion chain) in a world with many portals is routed in one frame.
+ * The portals are scattered in a square area and some of them lead to the camera.
+ * Querying the portals near each sound is compared with precomputing every portal in the world,
+ * which is what the routing did per frame before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CrossPortalSoundBenchmark {
+    
+    public static final double areaSize = 4096;
+    
+    @Param({"1000", "10000"})
+    public int portalNum;
+    
+    @Param({"256"})
+    public int soundNum;
+    
+    private static class FakePortal {
+        public final Vec3 originPos;
+        public final Vec3 destPos;
+        public final Vec3 axisW;
+        public final Vec3 axisH;
+        public final double width;
+        public final double height;
+        @Nullable
+        public final Quaternion rotation;
+        public final double scaling;
+        public final AABB box;
+        
+        public FakePortal(
+            Vec3 originPos, Vec3 destPos, Vec3 axisW, Vec3 axisH, double width, double height,
+            @Nullable Quaternion rotation, double scaling
+        ) {
+            this.originPos = originPos;
+            this.destPos = destPos;
+            this.axisW = axisW;
+            this.axisH = axisH;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.scaling = scaling;
+            Vec3 halfW = axisW.scale(width / 2);
+            Vec3 halfH = axisH.scale(height / 2);
+            this.box = new AABB(originPos.subtract(halfW).subtract(halfH), originPos.add(halfW).add(halfH))
+                .inflate(0.1);
+        }
+    }
+    
+    private static class FakePortalShape implements CrossPortalSoundRouting.PortalShape<FakePortal> {
+        @Override
+        public Vec3 getOriginPos(FakePortal portal) {
+            return portal.originPos;
+        }
+        
+        @Override
+        public Vec3 getDestPos(FakePortal portal) {
+            return portal.destPos;
+        }
+        
+        @Override
+        public Vec3 getAxisW(FakePortal portal) {
+            return portal.axisW;
+        }
+        
+        @Override
+        public Vec3 getAxisH(FakePortal portal) {
+            return portal.axisH;
+        }
+        
+        @Override
+        public double getWidth(FakePortal portal) {
+            return portal.width;
+        }
+        
+        @Override
+        public double getHeight(FakePortal portal) {
+            return portal.height;
+        }
+        
+        @Override
+        public void transformLocalVec(FakePortal portal, double x, double y, double z, double[] result) {
+            Vec3 vec = PortalGeometry.transformLocalVecNonScale(new Vec3(x, y, z), portal.rotation)
+                .scale(portal.scaling);
+            result[0] = vec.x;
+            result[1] = vec.y;
+            result[2] = vec.z;
+        }
+    }
+    
+    private final Vec3 cameraPos = new Vec3(0, 64, 0);
+    
+    private BoxGridIndex<FakePortal> index;
+    private CrossPortalSoundRouting<FakePortal> routing;
+    private Vec3[] soundPositions;
+    private double[] soundRadii;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        
+        index = new BoxGridIndex<>(portal -> portal.box);
+        FakePortal[] portals = new FakePortal[portalNum];
+        for (int i = 0; i < portalNum; i++) {
+            Vec3 originPos = new Vec3(
+                random.nextDouble() * areaSize, 64 + random.nextDouble() * 64, random.nextDouble() * areaSize
+            );
+            // a quarter of the portals lead to the camera
+            Vec3 destPos = i % 4 == 0 ?
+                cameraPos.add(random.nextDouble() * 64 - 32, 0, random.nextDouble() * 64 - 32) :
+                new Vec3(random.nextDouble() * areaSize, 64, random.nextDouble() * areaSize);
+            boolean facingX = random.nextBoolean();
+            Quaternion rotation = i % 3 == 0 ? Vector3f.YP.rotationDegrees(90) : null;
+            portals[i] = new FakePortal(
+                originPos, destPos,
+                facingX ? new Vec3(0, 0, 1) : new Vec3(1, 0, 0), new Vec3(0, 1, 0),
+                1 + random.nextDouble() * 8, 1 + random.nextDouble() * 8,
+                rotation, i % 5 == 0 ? 2 : 1
+            );
+            index.add(portals[i]);
+        }
+        
+        // the sounds are clustered around a few portals, like explosions near a portal
+        soundPositions = new Vec3[soundNum];
+        soundRadii = new double[soundNum];
+        for (int i = 0; i < soundNum; i++) {
+            FakePortal near = portals[(i / 32) * 4 % portalNum];
+            soundPositions[i] = near.originPos.add(
+                random.nextDouble() * 16 - 8, random.nextDouble() * 16 - 8, random.nextDouble() * 16 - 8
+            );
+            soundRadii[i] = 16 + random.nextDouble() * 48;
+        }
+        
+        routing = new CrossPortalSoundRouting<>(new FakePortalShape());
+    }
+    
+    // like CrossPortalSound.addCandidates
+    private void addCandidates(Vec3 soundPos, double soundRadius) {
+        routing.clearCandidates();
+        index.foreachNear(soundPos, Math.max((int) soundRadius, 16), portal -> routing.addCandidate(portal, false));
+    }
+    
+    @Benchmark
+    public int nearbyQuery() {
+        routing.clear();
+        routing.setCameraPos(cameraPos);
+        
+        int routed = 0;
+        for (int i = 0; i < soundNum; i++) {
+            Vec3 soundPos = soundPositions[i];
+            addCandidates(soundPos, soundRadii[i]);
+            if (routing.route(soundPos.x, soundPos.y, soundPos.z, soundRadii[i])) {
+                routed++;
+            }
+        }
+        return routed;
+    }
+    
+    // every portal is precomputed at the start of the frame, then the sounds are routed in the same way
+    @Benchmark
+    public int precomputeAll() {
+        routing.clear();
+        routing.setCameraPos(cameraPos);
+        index.foreachObject(portal -> routing.addCandidate(portal, false));
+        
+        int routed = 0;
+        for (int i = 0; i < soundNum; i++) {
+            Vec3 soundPos = soundPositions[i];
+            addCandidates(soundPos, soundRadii[i]);
+            if (routing.route(soundPos.x, soundPos.y, soundPos.z, soundRadii[i])) {
+                routed++;
+            }
+        }
+        return routed;
+    }
+}
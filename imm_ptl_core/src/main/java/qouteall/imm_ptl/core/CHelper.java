@@ -18,9 +18,11 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL32;
 import qouteall.imm_ptl.core.ducks.IEClientWorld;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.q_misc_util.Helper;
 
+import javax.annotation.Nullable;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Collections;
@@ -54,6 +56,16 @@ public class CHelper {
         }
     }
     
+    @Nullable
+    public static PortalSpatialIndex getClientGlobalPortalIndex(Level world) {
+        if (world instanceof ClientLevel) {
+            return ((IEClientWorld) world).getGlobalPortalIndex();
+        }
+        else {
+            return null;
+        }
+    }
+    
     public static Stream<Portal> getClientNearbyPortals(double range) {
         return IPMcHelper.getNearbyPortals(Minecraft.getInstance().player, range);
     }
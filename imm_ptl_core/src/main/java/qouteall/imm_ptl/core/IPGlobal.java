@@ -63,6 +63,12 @@ public class IPGlobal {
     
     public static boolean cacheGlBuffer = true;
     
+    // by the estimation of MyBuiltChunkStorage, an overworld column of 24 sections is about 400KB
+    // when half of the sections have a non-empty layer, so 512MB holds render distance 16 (33 * 33 columns)
+    // with some room for the sections cached for portals.
+    // the columns in the current view are not evicted, so a low budget only limits the cache
+    public static int builtChunkStorageMemoryBudgetMB = 512;
+    
     public static boolean enableAlternateDimensions = true;
     
     public static boolean reducedPortalRendering = false;
@@ -16,6 +16,8 @@ import net.minecraft.world.phys.HitResult;
 import net.minecraft.world.phys.Vec3;
 import qouteall.imm_ptl.core.ducks.IERayTraceContext;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalEntityRegistry;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.CrossPortalEntityRenderer;
 import qouteall.q_misc_util.my_util.LimitedLogger;
@@ -34,17 +36,22 @@ public class IPMcHelper {
     public static void foreachNearbyPortals(
         Level world, Vec3 pos, int range, Consumer<Portal> func
     ) {
-        List<Portal> globalPortals = GlobalPortalStorage.getGlobalPortals(world);
+        PortalSpatialIndex globalPortalIndex = GlobalPortalStorage.getGlobalPortalIndex(world);
         
-        for (Portal globalPortal : globalPortals) {
-            if (globalPortal.getDistanceToNearestPointInPortal(pos) < range * 2) {
-                func.accept(globalPortal);
-            }
+        if (globalPortalIndex != null) {
+            globalPortalIndex.foreachNear(pos, range * 2, globalPortal -> {
+                if (globalPortal.getDistanceToNearestPointInPortal(pos) < range * 2) {
+                    func.accept(globalPortal);
+                }
+            });
         }
         
-        McHelper.foreachEntitiesByPointAndRoughRadius(
-            Portal.class, world, pos, range, func
-        );
+        // The entity section query that it replaces returned the portals whose position is
+        // within max(range / 16, 1) sections of the point's section. That always includes the portals
+        // whose position is within max(range, 16) blocks of the point in each axis
+        // (the rest depends on the section alignment). The position is inside the bounding box,
+        // so testing the bounding box against that range includes all of them.
+        PortalEntityRegistry.foreachPortalNear(world, pos, Math.max(range, 16), func);
     }
     
     // include global portals
@@ -6,6 +6,7 @@ import net.minecraftforge.eventbus.api.SubscribeEvent;
 import qouteall.imm_ptl.core.chunk_loading.*;
 import qouteall.imm_ptl.core.compat.IPPortingLibCompat;
 import qouteall.imm_ptl.core.miscellaneous.GcMonitor;
+import qouteall.imm_ptl.core.portal.PortalEntityRegistry;
 import qouteall.imm_ptl.core.portal.PortalExtension;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.teleportation.CollisionHelper;
@@ -34,10 +35,16 @@ public class IPModMain {
         
         NewChunkTrackingGraph.init();
         
+        ChunkReadinessTracker.init();
+        
+        ChunkPacketCache.init();
+        
         WorldInfoSender.init();
         
         GlobalPortalStorage.init();
         
+        PortalEntityRegistry.init();
+        
         EntitySync.init();
         
         CollisionHelper.init();
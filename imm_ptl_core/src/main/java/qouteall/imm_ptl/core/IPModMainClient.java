@@ -26,6 +26,7 @@ import qouteall.imm_ptl.core.render.context_management.PortalRendering;
 import qouteall.imm_ptl.core.render.optimization.GLResourceCache;
 import qouteall.imm_ptl.core.render.optimization.SharedBlockMeshBuffers;
 import qouteall.imm_ptl.core.teleportation.CollisionHelper;
+import qouteall.imm_ptl.core.teleportation.CrossPortalSound;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.MyTaskList;
 
@@ -148,6 +149,8 @@ public class IPModMainClient {
         
         VisibleSectionDiscovery.init();
         
+        CrossPortalSound.init();
+        
         MyBuiltChunkStorage.init();
         
         IPFlywheelCompat.init();
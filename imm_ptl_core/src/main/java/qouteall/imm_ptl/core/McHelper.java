@@ -356,6 +356,13 @@ public class McHelper {
             .portal_isChunkGenerated(new ChunkPos(toPos));
     }
     
+    public static CompletableFuture<Boolean> getIsServerChunkGeneratedAsync(
+        ResourceKey<Level> toDimension, BlockPos toPos
+    ) {
+        return getIEStorage(toDimension)
+            .portal_isChunkGeneratedAsync(new ChunkPos(toPos));
+    }
+    
     // because withUnderline is client only
     @OnlyIn(Dist.CLIENT)
     public static MutableComponent getLinkText(String link) {
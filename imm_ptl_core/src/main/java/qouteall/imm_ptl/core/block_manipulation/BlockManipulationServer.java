@@ -16,12 +16,14 @@ import net.minecraft.world.InteractionResult;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.BlockHitResult;
 import net.minecraft.world.phys.Vec3;
 import qouteall.imm_ptl.core.IPMcHelper;
 import qouteall.imm_ptl.core.compat.PehkuiInterface;
 import qouteall.imm_ptl.core.network.PacketRedirection;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
@@ -78,14 +80,14 @@ public class BlockManipulationServer {
                 return true;
             }
         }
-        return IPMcHelper.getNearbyPortals(
-            player,
-            20
-        ).anyMatch(portal ->
-            portal.dimensionTo == dimension &&
-                portal.transformPoint(playerPos).distanceToSqr(pos) <
-                    distanceSquare * portal.getScale() * portal.getScale()
-        );
+        for (Portal portal : IPMcHelper.getNearbyPortalList(player, 20, p -> p.dimensionTo == dimension)) {
+            if (portal.transformPoint(playerPos).distanceToSqr(pos) <
+                distanceSquare * portal.getScale() * portal.getScale()
+            ) {
+                return true;
+            }
+        }
+        return false;
     }
     
     // vanilla copy
@@ -139,7 +141,15 @@ public class BlockManipulationServer {
         Vec3 sideVec = Vec3.atLowerCornerOf(side.getNormal());
         Vec3 hitCenter = Vec3.atCenterOf(blockHitResult.getBlockPos());
         
-        List<Portal> globalPortals = GlobalPortalStorage.getGlobalPortals(world);
+        PortalSpatialIndex globalPortalIndex = GlobalPortalStorage.getGlobalPortalIndex(world);
+        if (globalPortalIndex == null) {
+            return new Tuple<>(blockHitResult, world.dimension());
+        }
+        
+        // the block center is within 0.6 to the portal plane
+        List<Portal> globalPortals = globalPortalIndex.getIntersecting(
+            new AABB(hitCenter, hitCenter).inflate(1)
+        );
         
         Portal portal = globalPortals.stream().filter(p ->
             p.getNormal().dot(sideVec) < -0.9
@@ -62,11 +62,10 @@ public class ChunkDataSyncManager {
             if (chunk != null) {
                 MiscHelper.getServer().getProfiler().push("ptl_create_chunk_packet");
                 
-                PacketRedirection.sendRedirectedMessage(
-                    player,
-                    chunkPos.dimension,
-                    new ClientboundLevelChunkWithLightPacket((chunk), lightingProvider, null, null, true)
-                );
+                player.connection.send(ChunkPacketCache.getOrCreate(
+                    chunkPos.dimension, chunk,
+                    () -> createChunkDataPacketRedirected(chunkPos.dimension, chunk, lightingProvider)
+                ));
                 
                 ieStorage.ip_updateEntityTrackersAfterSendingChunkPacket(chunk, player);
                 
@@ -86,24 +85,36 @@ public class ChunkDataSyncManager {
         
         MiscHelper.getServer().getProfiler().push("ptl_create_chunk_packet");
         
-        Supplier<Packet> chunkDataPacketRedirected = Helper.cached(
-            () -> PacketRedirection.createRedirectedMessage(
-                dimension,
-                new ClientboundLevelChunkWithLightPacket((chunk), lightingProvider, null, null, true)
+        // the chunk is newly provided, so the cached packet (if any) is outdated
+        ChunkPacketCache.invalidate(dimension, chunk.getPos().toLong());
+        
+        Supplier<Packet<?>> chunkDataPacketRedirected = Helper.cached(
+            () -> ChunkPacketCache.getOrCreate(
+                dimension, chunk,
+                () -> createChunkDataPacketRedirected(dimension, chunk, lightingProvider)
             )
         );
         
-        NewChunkTrackingGraph.getPlayersViewingChunk(
-            dimension, chunk.getPos().x, chunk.getPos().z
-        ).forEach(player -> {
-            player.connection.send(chunkDataPacketRedirected.get());
-            
-            ieStorage.ip_updateEntityTrackersAfterSendingChunkPacket(chunk, player);
-        });
+        NewChunkTrackingGraph.foreachPlayerViewingChunk(
+            dimension, chunk.getPos().x, chunk.getPos().z, player -> {
+                player.connection.send(chunkDataPacketRedirected.get());
+                
+                ieStorage.ip_updateEntityTrackersAfterSendingChunkPacket(chunk, player);
+            }
+        );
         
         MiscHelper.getServer().getProfiler().pop();
     }
     
+    private static Packet<?> createChunkDataPacketRedirected(
+        ResourceKey<Level> dimension, LevelChunk chunk, ThreadedLevelLightEngine lightingProvider
+    ) {
+        return PacketRedirection.createRedirectedMessage(
+            dimension,
+            new ClientboundLevelChunkWithLightPacket((chunk), lightingProvider, null, null, true)
+        );
+    }
+    
     private void onEndWatch(ServerPlayer player, DimensionalChunkPos chunkPos) {
         
         player.connection.send(
@@ -148,6 +159,8 @@ public class ChunkDataSyncManager {
             (IEThreadedAnvilChunkStorage) chunkManager.chunkMap;
         storage.ip_onDimensionRemove();
         
+        ChunkPacketCache.invalidateDimension(dimension);
+        
         NewChunkTrackingGraph.forceRemoveDimension(dimension);
     }
 }
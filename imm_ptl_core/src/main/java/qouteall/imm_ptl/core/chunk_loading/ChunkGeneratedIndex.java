@@ -0,0 +1,183 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import qouteall.q_misc_util.Helper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Knows which chunks of a dimension have been saved to the region files, without reading the chunk data.
+ * A region file begins with a 4 KiB table of 1024 chunk locations. A non-zero location means that the chunk exists.
+ * The table of a region is read lazily in the executor and then kept in memory.
+ * Chunks that are saved later are marked through {@link #markGenerated(int, int)}.
+ * It does not involve Minecraft classes, so it can work on any directory of region files.
+ */
+public class ChunkGeneratedIndex {
+    
+    private static final int REGION_CHUNK_NUM = 32 * 32;
+    private static final int HEADER_BYTES = REGION_CHUNK_NUM * 4;
+    
+    private static Executor ioExecutor;
+    
+    /**
+     * A dedicated thread for reading the region headers.
+     * The shared background executor also runs world generation, so a header read queued there
+     * may wait behind chunk generation, and the blocking lookup would stall the server tick with it.
+     */
+    public static synchronized Executor getIOExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("ImmPtl Region Indexing")
+                    .setDaemon(true)
+                    .build()
+            );
+        }
+        return ioExecutor;
+    }
+    
+    private static class RegionEntry {
+        // guarded by the index
+        public final long[] bits = new long[REGION_CHUNK_NUM / 64];
+        public final CompletableFuture<Void> loadFuture = new CompletableFuture<>();
+    }
+    
+    private final Path regionFolder;
+    private final Executor executor;
+    
+    // guarded by this
+    private final Long2ObjectOpenHashMap<RegionEntry> regions = new Long2ObjectOpenHashMap<>();
+    
+    public ChunkGeneratedIndex(Path regionFolder, Executor executor) {
+        this.regionFolder = regionFolder;
+        this.executor = executor;
+    }
+    
+    public CompletableFuture<Boolean> isChunkGeneratedAsync(int chunkX, int chunkZ) {
+        RegionEntry entry = getOrStartLoading(chunkX >> 5, chunkZ >> 5);
+        int bitIndex = getBitIndex(chunkX, chunkZ);
+        return entry.loadFuture.thenApply(v -> testBit(entry, bitIndex));
+    }
+    
+    /**
+     * Blocks if the region has not been indexed yet. Reading the region header is
+     * much cheaper than reading and parsing the chunk.
+     * With {@link #getIOExecutor()} it only waits for the header reads.
+     * Prefer {@link #isChunkGeneratedAsync(int, int)} on the server thread.
+     */
+    public boolean isChunkGenerated(int chunkX, int chunkZ) {
+        return isChunkGeneratedAsync(chunkX, chunkZ).join();
+    }
+    
+    /**
+     * Called when a chunk is saved. The saved data may still be pending in the IO worker,
+     * so the region file header alone is not enough.
+     */
+    public void markGenerated(int chunkX, int chunkZ) {
+        RegionEntry entry = getOrStartLoading(chunkX >> 5, chunkZ >> 5);
+        int bitIndex = getBitIndex(chunkX, chunkZ);
+        synchronized (this) {
+            entry.bits[bitIndex >> 6] |= 1L << bitIndex;
+        }
+    }
+    
+    public synchronized int getIndexedRegionNum() {
+        return regions.size();
+    }
+    
+    public synchronized void clear() {
+        regions.clear();
+    }
+    
+    private RegionEntry getOrStartLoading(int regionX, int regionZ) {
+        RegionEntry entry;
+        synchronized (this) {
+            long key = getRegionKey(regionX, regionZ);
+            entry = regions.get(key);
+            if (entry != null) {
+                return entry;
+            }
+            entry = new RegionEntry();
+            regions.put(key, entry);
+        }
+        
+        RegionEntry finalEntry = entry;
+        executor.execute(() -> loadRegion(regionX, regionZ, finalEntry));
+        return entry;
+    }
+    
+    private void loadRegion(int regionX, int regionZ, RegionEntry entry) {
+        try {
+            long[] bits = readRegionHeader(getRegionFilePath(regionFolder, regionX, regionZ));
+            synchronized (this) {
+                // merge with the chunks that are marked during loading
+                for (int i = 0; i < bits.length; i++) {
+                    entry.bits[i] |= bits[i];
+                }
+            }
+        }
+        catch (Throwable e) {
+            Helper.err("Failed to index region file " + regionX + " " + regionZ + " " + e);
+        }
+        finally {
+            entry.loadFuture.complete(null);
+        }
+    }
+    
+    private synchronized boolean testBit(RegionEntry entry, int bitIndex) {
+        return (entry.bits[bitIndex >> 6] & (1L << bitIndex)) != 0;
+    }
+    
+    /**
+     * @return the bits of the generated chunks, indexed by (chunkX & 31) + (chunkZ & 31) * 32.
+     * All zero if the file does not exist.
+     */
+    public static long[] readRegionHeader(Path regionFile) throws IOException {
+        long[] bits = new long[REGION_CHUNK_NUM / 64];
+        
+        if (!Files.exists(regionFile)) {
+            return bits;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(regionFile, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    break;
+                }
+            }
+        }
+        buffer.flip();
+        
+        // an incomplete header means a corrupted file, the missing entries are treated as absent
+        int entryNum = buffer.remaining() / 4;
+        for (int i = 0; i < entryNum; i++) {
+            if (buffer.getInt(i * 4) != 0) {
+                bits[i >> 6] |= 1L << i;
+            }
+        }
+        
+        return bits;
+    }
+    
+    public static Path getRegionFilePath(Path regionFolder, int regionX, int regionZ) {
+        return regionFolder.resolve("r." + regionX + "." + regionZ + ".mca");
+    }
+    
+    private static int getBitIndex(int chunkX, int chunkZ) {
+        return (chunkX & 31) + (chunkZ & 31) * 32;
+    }
+    
+    private static long getRegionKey(int regionX, int regionZ) {
+        return (((long) regionX) << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+}
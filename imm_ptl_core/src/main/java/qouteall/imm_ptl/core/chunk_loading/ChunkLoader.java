@@ -27,6 +27,7 @@ public class ChunkLoader {
         this.isDirectLoader = isDirectLoader;
     }
     
+    // it checks every chunk in the area, use ChunkReadinessTracker for waiting chunks to load
     public int getLoadedChunkNum() {
         int[] numBox = {0};
         foreachChunkPos((dim, x, z, dist) -> {
@@ -64,13 +65,13 @@ public class ChunkLoader {
     public void loadChunksAndDo(Runnable runnable) {
         NewChunkTrackingGraph.addGlobalAdditionalChunkLoader(this);
         
-        IPGlobal.serverTaskList.addTask(MyTaskList.withDelayCondition(
-            () -> getLoadedChunkNum() < getChunkNum(),
-            MyTaskList.oneShotTask(() -> {
+        // run it in the task list like before, not inside the chunk loading callback
+        ChunkReadinessTracker.track(this).getFuture().thenRun(
+            () -> IPGlobal.serverTaskList.addTask(MyTaskList.oneShotTask(() -> {
                 NewChunkTrackingGraph.removeGlobalAdditionalChunkLoader(this);
                 runnable.run();
-            })
-        ));
+            }))
+        );
     }
     
     @Override
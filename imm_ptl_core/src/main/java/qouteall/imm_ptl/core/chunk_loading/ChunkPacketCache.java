@@ -0,0 +1,150 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Caches the redirected chunk data packets so that multiple players that begin watching
+ * the same chunk share one packet. Creating {@link net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket}
+ * serializes the chunk and light data, so sharing the packet also shares the serialization.
+ * The packet is invalidated when a block, a block entity or light in that chunk changes.
+ * Block changes are caught in {@link net.minecraft.world.level.chunk.LevelChunk#setBlockState},
+ * so the ones that are not synced to the client (set without flag 2) are also caught.
+ * Block entity data changes are caught through {@link net.minecraft.world.level.Level#blockEntityChanged},
+ * which {@link net.minecraft.world.level.block.entity.BlockEntity#setChanged()} calls.
+ * A block entity whose data is changed without marking it changed is not caught.
+ * Such a change is not saved either, and the entry lifetime limits how stale the packet can be.
+ * Only accessed on the server thread.
+ */
+public class ChunkPacketCache {
+    
+    public static final int maxEntriesPerDimension = 256;
+    
+    // limits the staleness in case some change does not go through the invalidation path
+    public static final int entryLifetimeTicks = 20 * 10;
+    
+    private static class Entry {
+        // the chunk object may be unloaded and reloaded, the packet is only valid for the same object
+        public final LevelChunk chunk;
+        public final Packet<?> packet;
+        public final long createTime;
+        
+        public Entry(LevelChunk chunk, Packet<?> packet, long createTime) {
+            this.chunk = chunk;
+            this.packet = packet;
+            this.createTime = createTime;
+        }
+    }
+    
+    private static final Map<ResourceKey<Level>, Long2ObjectLinkedOpenHashMap<Entry>> data =
+        new HashMap<>();
+    
+    private static long hitCount = 0;
+    private static long missCount = 0;
+    private static long invalidationCount = 0;
+    
+    public static void init() {
+        IPGlobal.postServerTickSignal.connect(ChunkPacketCache::tick);
+        IPGlobal.serverCleanupSignal.connect(ChunkPacketCache::cleanup);
+    }
+    
+    private static Long2ObjectLinkedOpenHashMap<Entry> getMap(ResourceKey<Level> dimension) {
+        return data.computeIfAbsent(dimension, k -> new Long2ObjectLinkedOpenHashMap<>());
+    }
+    
+    public static Packet<?> getOrCreate(
+        ResourceKey<Level> dimension, LevelChunk chunk, Supplier<Packet<?>> creator
+    ) {
+        Long2ObjectLinkedOpenHashMap<Entry> map = getMap(dimension);
+        long chunkPos = chunk.getPos().toLong();
+        long currTime = getTime();
+        
+        Entry entry = map.getAndMoveToLast(chunkPos);
+        if (entry != null && entry.chunk == chunk && !isExpired(entry, currTime)) {
+            hitCount++;
+            return entry.packet;
+        }
+        
+        missCount++;
+        Packet<?> packet = creator.get();
+        map.putAndMoveToLast(chunkPos, new Entry(chunk, packet, currTime));
+        
+        while (map.size() > maxEntriesPerDimension) {
+            map.removeFirst();
+        }
+        
+        return packet;
+    }
+    
+    public static void invalidate(ResourceKey<Level> dimension, long chunkPos) {
+        Long2ObjectLinkedOpenHashMap<Entry> map = data.get(dimension);
+        if (map == null) {
+            return;
+        }
+        
+        if (map.remove(chunkPos) != null) {
+            invalidationCount++;
+        }
+    }
+    
+    public static void invalidateDimension(ResourceKey<Level> dimension) {
+        Long2ObjectLinkedOpenHashMap<Entry> map = data.remove(dimension);
+        if (map != null) {
+            invalidationCount += map.size();
+        }
+    }
+    
+    private static boolean isExpired(Entry entry, long currTime) {
+        return currTime - entry.createTime > entryLifetimeTicks;
+    }
+    
+    private static long getTime() {
+        return McHelper.getOverWorldOnServer().getGameTime();
+    }
+    
+    private static void tick() {
+        long currTime = getTime();
+        if (currTime % 20 != 0) {
+            return;
+        }
+        
+        // the entries are ordered by access time, not creation time, so check all of them
+        data.values().forEach(map ->
+            map.values().removeIf(entry -> isExpired(entry, currTime))
+        );
+    }
+    
+    private static void cleanup() {
+        data.clear();
+        hitCount = 0;
+        missCount = 0;
+        invalidationCount = 0;
+    }
+    
+    public static String getReport() {
+        int entryNum = data.values().stream().mapToInt(Map::size).sum();
+        long total = hitCount + missCount;
+        return String.format(
+            "Chunk Packet Cache: entries:%d hit:%d miss:%d invalidated:%d hit rate:%.1f%%",
+            entryNum, hitCount, missCount, invalidationCount,
+            total == 0 ? 0.0 : hitCount * 100.0 / total
+        );
+    }
+    
+    public static String getReport(ResourceKey<Level> dimension) {
+        Long2ObjectLinkedOpenHashMap<Entry> map = data.get(dimension);
+        return String.format(
+            "Cached Chunk Packets: %d",
+            map == null ? 0 : map.size()
+        );
+    }
+}
@@ -0,0 +1,217 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.chunk.LevelChunk;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Counts down the chunks of a chunk loader that are not yet loaded (ticking).
+ * It checks the chunks once when created, then it's notified when a chunk becomes ticking
+ * so it does not need to check every chunk in the area every tick.
+ * The pending chunks are also re-checked every second in case that a notification is missed.
+ * The future completes in the server thread when all chunks are loaded.
+ * The chunk loader should be added before tracking, otherwise the chunks may never load.
+ * As the chunk loader keeps the chunks loaded, the unloading of a counted chunk is not considered.
+ */
+public class ChunkReadinessTracker {
+    
+    private static final int recheckIntervalTicks = 20;
+    
+    // dimension -> chunk pos -> the trackers that wait for the chunk
+    private static final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<ArrayList<ChunkReadinessTracker>>>
+        waitingTrackers = new HashMap<>();
+    
+    private static final ArrayList<ChunkReadinessTracker> activeTrackers = new ArrayList<>();
+    
+    private static int tickCounter = 0;
+    
+    public final ChunkLoader chunkLoader;
+    private final LongOpenHashSet pendingChunks = new LongOpenHashSet();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private boolean isCancelled = false;
+    
+    public static void init() {
+        IPGlobal.postServerTickSignal.connect(ChunkReadinessTracker::tick);
+        IPGlobal.serverCleanupSignal.connect(ChunkReadinessTracker::cleanup);
+    }
+    
+    private ChunkReadinessTracker(ChunkLoader chunkLoader) {
+        this.chunkLoader = chunkLoader;
+    }
+    
+    /**
+     * Should be called in the server thread.
+     */
+    public static ChunkReadinessTracker track(ChunkLoader chunkLoader) {
+        ChunkReadinessTracker tracker = new ChunkReadinessTracker(chunkLoader);
+        
+        chunkLoader.foreachChunkPos((dim, x, z, dist) -> {
+            if (McHelper.getServerChunkIfPresent(dim, x, z) == null) {
+                tracker.pendingChunks.add(ChunkPos.asLong(x, z));
+            }
+        });
+        
+        if (tracker.pendingChunks.isEmpty()) {
+            tracker.future.complete(null);
+            return tracker;
+        }
+        
+        Long2ObjectOpenHashMap<ArrayList<ChunkReadinessTracker>> map = getWaitingMap(chunkLoader.center.dimension);
+        LongIterator iterator = tracker.pendingChunks.iterator();
+        while (iterator.hasNext()) {
+            map.computeIfAbsent(iterator.nextLong(), k -> new ArrayList<>()).add(tracker);
+        }
+        activeTrackers.add(tracker);
+        
+        return tracker;
+    }
+    
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+    
+    public boolean isReady() {
+        return future.isDone() && !isCancelled;
+    }
+    
+    public int getChunkNum() {
+        return chunkLoader.getChunkNum();
+    }
+    
+    public int getLoadedChunkNum() {
+        return getChunkNum() - pendingChunks.size();
+    }
+    
+    /**
+     * The future will never complete after cancelling.
+     */
+    public void cancel() {
+        if (isCancelled || future.isDone()) {
+            return;
+        }
+        isCancelled = true;
+        unregisterPending();
+        activeTrackers.remove(this);
+    }
+    
+    /**
+     * Called in the server thread when the chunk becomes ticking.
+     */
+    public static void onChunkLoaded(LevelChunk chunk) {
+        Long2ObjectOpenHashMap<ArrayList<ChunkReadinessTracker>> map =
+            waitingTrackers.get(chunk.getLevel().dimension());
+        if (map == null) {
+            return;
+        }
+        
+        long chunkPos = chunk.getPos().toLong();
+        ArrayList<ChunkReadinessTracker> trackers = map.remove(chunkPos);
+        if (trackers == null) {
+            return;
+        }
+        
+        for (ChunkReadinessTracker tracker : trackers) {
+            tracker.onPendingChunkLoaded(chunkPos);
+        }
+    }
+    
+    private void onPendingChunkLoaded(long chunkPos) {
+        if (isCancelled) {
+            return;
+        }
+        pendingChunks.remove(chunkPos);
+        if (pendingChunks.isEmpty()) {
+            activeTrackers.remove(this);
+            future.complete(null);
+        }
+    }
+    
+    private void recheckPending() {
+        ResourceKey<Level> dimension = chunkLoader.center.dimension;
+        LongIterator iterator = pendingChunks.iterator();
+        LongArrayList loaded = null;
+        while (iterator.hasNext()) {
+            long chunkPos = iterator.nextLong();
+            LevelChunk chunk = McHelper.getServerChunkIfPresent(
+                dimension, ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos)
+            );
+            if (chunk != null) {
+                if (loaded == null) {
+                    loaded = new LongArrayList();
+                }
+                loaded.add(chunkPos);
+            }
+        }
+        
+        if (loaded != null) {
+            for (int i = 0; i < loaded.size(); i++) {
+                long chunkPos = loaded.getLong(i);
+                removeWaiting(dimension, chunkPos, this);
+                onPendingChunkLoaded(chunkPos);
+            }
+        }
+    }
+    
+    private void unregisterPending() {
+        ResourceKey<Level> dimension = chunkLoader.center.dimension;
+        LongIterator iterator = pendingChunks.iterator();
+        while (iterator.hasNext()) {
+            removeWaiting(dimension, iterator.nextLong(), this);
+        }
+    }
+    
+    private static void removeWaiting(
+        ResourceKey<Level> dimension, long chunkPos, ChunkReadinessTracker tracker
+    ) {
+        Long2ObjectOpenHashMap<ArrayList<ChunkReadinessTracker>> map = waitingTrackers.get(dimension);
+        if (map == null) {
+            return;
+        }
+        ArrayList<ChunkReadinessTracker> trackers = map.get(chunkPos);
+        if (trackers != null) {
+            trackers.remove(tracker);
+            if (trackers.isEmpty()) {
+                map.remove(chunkPos);
+            }
+        }
+    }
+    
+    private static Long2ObjectOpenHashMap<ArrayList<ChunkReadinessTracker>> getWaitingMap(
+        ResourceKey<Level> dimension
+    ) {
+        return waitingTrackers.computeIfAbsent(dimension, k -> new Long2ObjectOpenHashMap<>());
+    }
+    
+    private static void tick() {
+        tickCounter++;
+        if (tickCounter % recheckIntervalTicks != 0) {
+            return;
+        }
+        
+        // copy because the trackers may be removed during rechecking
+        for (ChunkReadinessTracker tracker : new ArrayList<>(activeTrackers)) {
+            tracker.recheckPending();
+        }
+    }
+    
+    private static void cleanup() {
+        waitingTrackers.clear();
+        activeTrackers.clear();
+    }
+    
+    public static int getActiveTrackerNum() {
+        return activeTrackers.size();
+    }
+}
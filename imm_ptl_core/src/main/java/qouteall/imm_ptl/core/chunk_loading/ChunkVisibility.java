@@ -10,6 +10,7 @@ import net.minecraft.world.phys.Vec3;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
@@ -53,9 +54,9 @@ public class ChunkVisibility {
             NewChunkTrackingGraph.getPlayerInfo(player).performanceLevel;
         int cap1 = PerformanceLevel.getIndirectLoadingRadiusCap(performanceLevel);
         int cap2 = IPGlobal.indirectLoadingRadiusCap;
-        int cap3 = PerformanceLevel.getIndirectLoadingRadiusCap(ServerPerformanceMonitor.getLevel());
+        int cap3 = ServerPerformanceMonitor.getIndirectLoadingRadiusCap();
         
-        int cap = Math.min(cap1, cap2);
+        int cap = Math.min(Math.min(cap1, cap2), cap3);
         
         // load more for scaling portal
         if (portal.getScale() > 2) {
@@ -79,11 +80,14 @@ public class ChunkVisibility {
             predicate
         );
         
-        for (Portal globalPortal : GlobalPortalStorage.getGlobalPortals(world)) {
-            double distance = globalPortal.getDistanceToNearestPointInPortal(pos);
-            if (distance < radiusChunksForGlobalPortals * 16) {
-                result.add(globalPortal);
-            }
+        PortalSpatialIndex globalPortalIndex = GlobalPortalStorage.getGlobalPortalIndex(world);
+        if (globalPortalIndex != null) {
+            globalPortalIndex.foreachNear(pos, radiusChunksForGlobalPortals * 16, globalPortal -> {
+                double distance = globalPortal.getDistanceToNearestPointInPortal(pos);
+                if (distance < radiusChunksForGlobalPortals * 16) {
+                    result.add(globalPortal);
+                }
+            });
         }
         
         if (result.size() > 50) {
@@ -185,8 +189,14 @@ public class ChunkVisibility {
         ServerPlayer player
     ) {
         PerformanceLevel perfLevel = NewChunkTrackingGraph.getPlayerInfo(player).performanceLevel;
-        int visiblePortalRangeChunks = PerformanceLevel.getVisiblePortalRangeChunks(perfLevel);
-        int indirectVisiblePortalRangeChunks = PerformanceLevel.getIndirectVisiblePortalRangeChunks(perfLevel);
+        int visiblePortalRangeChunks = Math.min(
+            PerformanceLevel.getVisiblePortalRangeChunks(perfLevel),
+            ServerPerformanceMonitor.getVisiblePortalRangeChunks()
+        );
+        int indirectVisiblePortalRangeChunks = Math.min(
+            PerformanceLevel.getIndirectVisiblePortalRangeChunks(perfLevel),
+            ServerPerformanceMonitor.getIndirectVisiblePortalRangeChunks()
+        );
         
         ChunkLoader playerDirectLoader = playerDirectLoader(player);
         
@@ -229,7 +239,7 @@ public class ChunkVisibility {
     }
     
     public static boolean isShrinkLoading() {
-        return ServerPerformanceMonitor.getLevel() != PerformanceLevel.good;
+        return ServerPerformanceMonitor.isShrinkLoading();
     }
     
 }
@@ -0,0 +1,318 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Stores the player watch records of one dimension in primitive columns.
+ * A record is identified by its index. The records of the same chunk form a linked list
+ * through {@link #next}. Removed indices are recycled through a free list.
+ * Every index has a generation that increments on removal, so that a record handle
+ * that outlives the record (for example in the pending loading queue) can be detected.
+ * The handle only keeps the low bits of the generation, so an index whose generation wraps around
+ * is retired instead of being recycled. Otherwise a stale handle could match a new record.
+ */
+public class ChunkWatchRecordStore {
+    
+    private static final byte FLAG_DIRECT_LOADING = 1;
+    private static final byte FLAG_LOADED_TO_PLAYER = 2;
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private static final int GENERATION_MASK = 0xFFFF;
+    
+    public final ResourceKey<Level> dimension;
+    public final int storeId;
+    
+    // chunk pos -> index of the first record of that chunk
+    private final Long2IntOpenHashMap chunkToFirstRecord = new Long2IntOpenHashMap();
+    
+    private long[] chunkPos = new long[INITIAL_CAPACITY];
+    private int[] playerSlot = new int[INITIAL_CAPACITY];
+    private long[] lastWatchTime = new long[INITIAL_CAPACITY];
+    private int[] distanceToSource = new int[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    // next record of the same chunk, or next free index for removed records
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int[] generation = new int[INITIAL_CAPACITY];
+    
+    // the indices below this are either used or in the free list
+    private int allocatedNum = 0;
+    private int freeHead = -1;
+    private int recordNum = 0;
+    
+    public ChunkWatchRecordStore(ResourceKey<Level> dimension, int storeId) {
+        this.dimension = dimension;
+        this.storeId = storeId;
+        chunkToFirstRecord.defaultReturnValue(-1);
+    }
+    
+    public int getRecordNum() {
+        return recordNum;
+    }
+    
+    public int getChunkNum() {
+        return chunkToFirstRecord.size();
+    }
+    
+    public boolean isEmpty() {
+        return chunkToFirstRecord.isEmpty();
+    }
+    
+    public boolean containsChunk(long chunkPos) {
+        return chunkToFirstRecord.containsKey(chunkPos);
+    }
+    
+    /**
+     * @return the first record index of the chunk, -1 for none
+     */
+    public int getFirstRecord(long chunkPos) {
+        return chunkToFirstRecord.get(chunkPos);
+    }
+    
+    /**
+     * @return the next record index of the same chunk, -1 for none
+     */
+    public int getNextRecord(int index) {
+        return next[index];
+    }
+    
+    /**
+     * @return the record index, -1 for none
+     */
+    public int find(long chunkPos, int playerSlot) {
+        for (int i = chunkToFirstRecord.get(chunkPos); i != -1; i = next[i]) {
+            if (this.playerSlot[i] == playerSlot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    public int add(
+        long chunkPos, int playerSlot, long lastWatchTime,
+        int distanceToSource, boolean isDirectLoading, boolean isLoadedToPlayer
+    ) {
+        int index = allocateIndex();
+        
+        this.chunkPos[index] = chunkPos;
+        this.playerSlot[index] = playerSlot;
+        this.lastWatchTime[index] = lastWatchTime;
+        this.distanceToSource[index] = distanceToSource;
+        this.flags[index] = 0;
+        setDirectLoading(index, isDirectLoading);
+        setLoadedToPlayer(index, isLoadedToPlayer);
+        
+        // the new record becomes the head of the chunk's list
+        next[index] = chunkToFirstRecord.put(chunkPos, index);
+        recordNum++;
+        
+        return index;
+    }
+    
+    /**
+     * Removes the records that match the predicate.
+     * The informer is invoked before the record is removed, so the record can still be read.
+     * Chunks that have no record left are removed.
+     */
+    public void removeIf(IntPredicate predicate, IntConsumer informer) {
+        ObjectIterator<Long2IntMap.Entry> iterator =
+            chunkToFirstRecord.long2IntEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            Long2IntMap.Entry entry = iterator.next();
+            int head = removeIfInList(entry.getIntValue(), predicate, informer);
+            if (head == -1) {
+                iterator.remove();
+            }
+            else if (head != entry.getIntValue()) {
+                entry.setValue(head);
+            }
+        }
+    }
+    
+    // returns the new head
+    private int removeIfInList(int head, IntPredicate predicate, IntConsumer informer) {
+        int newHead = head;
+        int prev = -1;
+        int curr = head;
+        while (curr != -1) {
+            int nextIndex = next[curr];
+            if (predicate.test(curr)) {
+                informer.accept(curr);
+                if (prev == -1) {
+                    newHead = nextIndex;
+                }
+                else {
+                    next[prev] = nextIndex;
+                }
+                freeIndex(curr);
+            }
+            else {
+                prev = curr;
+            }
+            curr = nextIndex;
+        }
+        return newHead;
+    }
+    
+    public void forEachChunk(ChunkConsumer consumer) {
+        ObjectIterator<Long2IntMap.Entry> iterator =
+            chunkToFirstRecord.long2IntEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            Long2IntMap.Entry entry = iterator.next();
+            consumer.accept(entry.getLongKey(), entry.getIntValue());
+        }
+    }
+    
+    public void clear() {
+        chunkToFirstRecord.clear();
+        for (int i = 0; i < allocatedNum; i++) {
+            if (playerSlot[i] != -1) {
+                freeIndex(i);
+            }
+        }
+    }
+    
+    private int allocateIndex() {
+        if (freeHead != -1) {
+            int index = freeHead;
+            freeHead = next[index];
+            return index;
+        }
+        
+        if (allocatedNum == chunkPos.length) {
+            int newCapacity = chunkPos.length * 2;
+            chunkPos = Arrays.copyOf(chunkPos, newCapacity);
+            playerSlot = Arrays.copyOf(playerSlot, newCapacity);
+            lastWatchTime = Arrays.copyOf(lastWatchTime, newCapacity);
+            distanceToSource = Arrays.copyOf(distanceToSource, newCapacity);
+            flags = Arrays.copyOf(flags, newCapacity);
+            next = Arrays.copyOf(next, newCapacity);
+            generation = Arrays.copyOf(generation, newCapacity);
+        }
+        
+        return allocatedNum++;
+    }
+    
+    private void freeIndex(int index) {
+        generation[index]++;
+        playerSlot[index] = -1;
+        recordNum--;
+        
+        if ((generation[index] & GENERATION_MASK) == 0) {
+            // retired, one index per 65536 reuses
+            next[index] = -1;
+            return;
+        }
+        
+        next[index] = freeHead;
+        freeHead = index;
+    }
+    
+    /**
+     * The handle packs the store id, the index and the low bits of the generation.
+     * It becomes stale after the record is removed.
+     */
+    public long getHandle(int index) {
+        return (((long) (storeId & 0xFFFF)) << 48) |
+            (((long) (generation[index] & GENERATION_MASK)) << 32) |
+            (index & 0xFFFFFFFFL);
+    }
+    
+    public static int getStoreIdFromHandle(long handle) {
+        return (int) (handle >>> 48);
+    }
+    
+    /**
+     * @return the record index, -1 if the handle is stale
+     */
+    public int resolveHandle(long handle) {
+        int index = (int) handle;
+        if (index < 0 || index >= allocatedNum) {
+            return -1;
+        }
+        if (playerSlot[index] == -1) {
+            return -1;
+        }
+        if ((generation[index] & GENERATION_MASK) != (int) ((handle >>> 32) & GENERATION_MASK)) {
+            return -1;
+        }
+        return index;
+    }
+    
+    public long getChunkPos(int index) {
+        return chunkPos[index];
+    }
+    
+    public int getPlayerSlot(int index) {
+        return playerSlot[index];
+    }
+    
+    public long getLastWatchTime(int index) {
+        return lastWatchTime[index];
+    }
+    
+    public void setLastWatchTime(int index, long value) {
+        lastWatchTime[index] = value;
+    }
+    
+    public int getDistanceToSource(int index) {
+        return distanceToSource[index];
+    }
+    
+    public void setDistanceToSource(int index, int value) {
+        distanceToSource[index] = value;
+    }
+    
+    public boolean isDirectLoading(int index) {
+        return (flags[index] & FLAG_DIRECT_LOADING) != 0;
+    }
+    
+    public void setDirectLoading(int index, boolean value) {
+        if (value) {
+            flags[index] |= FLAG_DIRECT_LOADING;
+        }
+        else {
+            flags[index] &= ~FLAG_DIRECT_LOADING;
+        }
+    }
+    
+    public boolean isLoadedToPlayer(int index) {
+        return (flags[index] & FLAG_LOADED_TO_PLAYER) != 0;
+    }
+    
+    public void setLoadedToPlayer(int index, boolean value) {
+        if (value) {
+            flags[index] |= FLAG_LOADED_TO_PLAYER;
+        }
+        else {
+            flags[index] &= ~FLAG_LOADED_TO_PLAYER;
+        }
+    }
+    
+    public String recordToString(int index) {
+        return String.format(
+            "%s (%d,%d) slot:%d distance:%d direct:%s loaded:%s",
+            dimension.location(),
+            ChunkPos.getX(chunkPos[index]),
+            ChunkPos.getZ(chunkPos[index]),
+            playerSlot[index],
+            distanceToSource[index],
+            isDirectLoading(index),
+            isLoadedToPlayer(index)
+        );
+    }
+    
+    @FunctionalInterface
+    public static interface ChunkConsumer {
+        void accept(long chunkPos, int firstRecord);
+    }
+}
@@ -2,22 +2,19 @@ package qouteall.imm_ptl.core.chunk_loading;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import net.minecraft.core.SectionPos;
-import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ChunkMap;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.world.level.Level;
+import net.minecraft.world.level.ChunkPos;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.ducks.IEEntityTracker;
 import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
 import qouteall.imm_ptl.core.network.PacketRedirection;
 import qouteall.q_misc_util.MiscHelper;
-import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -25,13 +22,32 @@ import java.util.List;
  * One is in {@link net.minecraft.server.world.ServerEntityManager},
  * one is in {@link net.minecraft.server.world.ThreadedAnvilChunkStorage.EntityTracker}
  *  and {@link net.minecraft.server.network.EntityTrackerEntry}
+ * 
+ * The trackers are indexed by chunk in {@link EntityTrackerIndex}.
+ * When an entity moves to another section, only that entity's tracker is updated for all players.
+ * A player's tracking status of an entity only depends on the player's watch record of the entity's chunk,
+ * so the trackers are updated for a player only when the chunk tracking graph changes that player's watching:
+ * the trackers in a newly watched chunk are updated when the chunk is sent,
+ * the ones in a chunk that stops being watched or whose watch distance changes are updated in the next tick.
  * */
 public class EntitySync {
     private static final LimitedLogger limitedLogger = new LimitedLogger(100);
     
     public static void init() {
         IPGlobal.postServerTickSignal.connect(EntitySync::tick);
-        DynamicDimensionsImpl.beforeRemovingDimensionSignal.connect(EntitySync::forceRemoveDimension);
+        NewChunkTrackingGraph.endWatchChunkSignal.connect(EntitySync::onWatchChanged);
+        NewChunkTrackingGraph.watchDistanceChangeSignal.connect(EntitySync::onWatchChanged);
+    }
+    
+    // the watch record is not yet removed when the end watch signal emits, so it's handled later
+    private static void onWatchChanged(ServerPlayer player, DimensionalChunkPos chunkPos) {
+        ServerLevel world = MiscHelper.getServer().getLevel(chunkPos.dimension);
+        if (world == null) {
+            return;
+        }
+        
+        ((IEThreadedAnvilChunkStorage) world.getChunkSource().chunkMap).ip_getEntityTrackerIndex()
+            .onWatchChanged(player, ChunkPos.asLong(chunkPos.x, chunkPos.z));
     }
     
     /**
@@ -45,48 +61,34 @@ public class EntitySync {
         
         List<ServerPlayer> playerList = McHelper.getRawPlayerList();
         
-        List<ServerPlayer> dirtyPlayers = new ArrayList<>();
-        
-        for (ServerPlayer player : playerList) {
-            ChunkMap storage =
-                ((ServerLevel) player.level).getChunkSource().chunkMap;
-            Int2ObjectMap<ChunkMap.TrackedEntity> entityTrackerMap =
-                ((IEThreadedAnvilChunkStorage) storage).ip_getEntityTrackerMap();
-            
-            ChunkMap.TrackedEntity playerItselfTracker =
-                entityTrackerMap.get(player.getId());
-            if (playerItselfTracker != null) {
-                if (isDirty(playerItselfTracker)) {
-                    dirtyPlayers.add(player);
-                }
-            }
-            else {
-//                limitedLogger.err(
-//                    "Entity tracker abnormal " + player + player.world.getRegistryKey().getValue()
-//                );
-            }
-        }
-        
         server.getAllLevels().forEach(world -> {
             ChunkMap storage = world.getChunkSource().chunkMap;
             Int2ObjectMap<ChunkMap.TrackedEntity> entityTrackerMap =
                 ((IEThreadedAnvilChunkStorage) storage).ip_getEntityTrackerMap();
+            EntityTrackerIndex<ChunkMap.TrackedEntity, ServerPlayer> index =
+                ((IEThreadedAnvilChunkStorage) storage).ip_getEntityTrackerIndex();
             
             PacketRedirection.withForceRedirect(world, () -> {
                 for (ChunkMap.TrackedEntity tracker : entityTrackerMap.values()) {
                     ((IEEntityTracker) tracker).tickEntry();
                     
-                    boolean dirty = isDirty(tracker);
-                    List<ServerPlayer> updatedPlayerList = dirty ? playerList : dirtyPlayers;
-                    
-                    for (ServerPlayer player : updatedPlayerList) {
-                        ((IEEntityTracker) tracker).updateEntityTrackingStatus(player);
-                    }
-                    
-                    if (dirty) {
+                    if (isDirty(tracker)) {
+                        for (ServerPlayer player : playerList) {
+                            ((IEEntityTracker) tracker).updateEntityTrackingStatus(player);
+                        }
+                        
                         markUnDirty(tracker);
+                        index.update(
+                            tracker, ((IEEntityTracker) tracker).getEntity_().chunkPosition().toLong()
+                        );
                     }
                 }
+                
+                index.flushWatchChanges((tracker, player) -> {
+                    if (!player.isRemoved()) {
+                        ((IEEntityTracker) tracker).updateEntityTrackingStatus(player);
+                    }
+                });
             });
         });
         
@@ -103,8 +105,4 @@ public class EntitySync {
         ((IEEntityTracker) tracker).setLastCameraPosition(currPos);
     }
     
-    private static void forceRemoveDimension(ResourceKey<Level> dimension) {
-    
-    }
-    
 }
@@ -0,0 +1,163 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import net.minecraft.server.level.ChunkMap;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Indexes the entity trackers of a {@link ChunkMap} by the chunk that the entity is in,
+ * and keeps the changes of the players' chunk watching that are not handled yet.
+ * It's generic over the tracker and the player, so it can be used without a server.
+ * <p>
+ * It's updated by {@link EntitySync} when the entity moves to another section,
+ * so the indexed chunk may lag behind the entity's real chunk for at most one tick.
+ * The lag does not make a tracking status wrong:
+ * a tracker that is indexed in an old chunk has its entity in another section than its last section,
+ * so it's updated for all players in the next {@link EntitySync} tick.
+ * The tracking status itself is always decided by the entity's real chunk.
+ * So when a chunk is sent to a player, updating only the trackers indexed in that chunk is enough.
+ */
+public class EntityTrackerIndex<T, P> {
+    
+    public static interface TrackingStatusUpdater<T, P> {
+        void update(T tracker, P player);
+    }
+    
+    private static class WatchChange<P> {
+        public final P player;
+        public final long chunkPos;
+        
+        public WatchChange(P player, long chunkPos) {
+            this.player = player;
+            this.chunkPos = chunkPos;
+        }
+    }
+    
+    private final Long2ObjectOpenHashMap<ArrayList<T>> chunkToTrackers =
+        new Long2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<T> trackerToChunk =
+        new Reference2LongOpenHashMap<>();
+    
+    private ArrayList<WatchChange<P>> pendingWatchChanges = new ArrayList<>();
+    
+    public EntityTrackerIndex() {
+    }
+    
+    public void add(T tracker, long chunkPos) {
+        if (trackerToChunk.containsKey(tracker)) {
+            update(tracker, chunkPos);
+            return;
+        }
+        trackerToChunk.put(tracker, chunkPos);
+        chunkToTrackers.computeIfAbsent(chunkPos, k -> new ArrayList<>()).add(tracker);
+    }
+    
+    public void remove(T tracker) {
+        if (!trackerToChunk.containsKey(tracker)) {
+            return;
+        }
+        long chunkPos = trackerToChunk.removeLong(tracker);
+        removeFromChunk(tracker, chunkPos);
+    }
+    
+    public void update(T tracker, long newChunkPos) {
+        if (!trackerToChunk.containsKey(tracker)) {
+            return;
+        }
+        long oldChunkPos = trackerToChunk.getLong(tracker);
+        if (oldChunkPos == newChunkPos) {
+            return;
+        }
+        removeFromChunk(tracker, oldChunkPos);
+        trackerToChunk.put(tracker, newChunkPos);
+        chunkToTrackers.computeIfAbsent(newChunkPos, k -> new ArrayList<>()).add(tracker);
+    }
+    
+    /**
+     * Called when the player stops watching the chunk or the chunk's distance to the player changes.
+     * The trackers in the chunk will be updated for the player in {@link #flushWatchChanges}.
+     * It's ignored if no tracker is indexed in the chunk.
+     * If an entity is in the chunk but not indexed in it yet, it has moved to another section,
+     * so it will be updated for all players anyway.
+     */
+    public void onWatchChanged(P player, long chunkPos) {
+        if (!chunkToTrackers.containsKey(chunkPos)) {
+            return;
+        }
+        pendingWatchChanges.add(new WatchChange<>(player, chunkPos));
+    }
+    
+    /**
+     * Updates the trackers in the chunks whose watching changed, only for the players of the changes.
+     */
+    public void flushWatchChanges(TrackingStatusUpdater<T, P> updater) {
+        if (pendingWatchChanges.isEmpty()) {
+            return;
+        }
+        
+        // the updater may cause new changes
+        ArrayList<WatchChange<P>> changes = pendingWatchChanges;
+        pendingWatchChanges = new ArrayList<>();
+        
+        for (WatchChange<P> change : changes) {
+            ArrayList<T> trackers = chunkToTrackers.get(change.chunkPos);
+            if (trackers == null) {
+                continue;
+            }
+            for (int i = 0; i < trackers.size(); i++) {
+                updater.update(trackers.get(i), change.player);
+            }
+        }
+    }
+    
+    public int getPendingWatchChangeNum() {
+        return pendingWatchChanges.size();
+    }
+    
+    /**
+     * The index should not be modified during iterating.
+     */
+    public void foreachTrackerInChunk(long chunkPos, Consumer<T> func) {
+        ArrayList<T> trackers = chunkToTrackers.get(chunkPos);
+        if (trackers == null) {
+            return;
+        }
+        for (int i = 0; i < trackers.size(); i++) {
+            func.accept(trackers.get(i));
+        }
+    }
+    
+    public int getTrackerNum() {
+        return trackerToChunk.size();
+    }
+    
+    public int getChunkNum() {
+        return chunkToTrackers.size();
+    }
+    
+    public void clear() {
+        chunkToTrackers.clear();
+        trackerToChunk.clear();
+        pendingWatchChanges.clear();
+    }
+    
+    private void removeFromChunk(T tracker, long chunkPos) {
+        ArrayList<T> trackers = chunkToTrackers.get(chunkPos);
+        if (trackers == null) {
+            return;
+        }
+        // swap remove, the order in a chunk does not matter
+        int index = trackers.indexOf(tracker);
+        if (index != -1) {
+            int lastIndex = trackers.size() - 1;
+            trackers.set(index, trackers.get(lastIndex));
+            trackers.remove(lastIndex);
+        }
+        if (trackers.isEmpty()) {
+            chunkToTrackers.remove(chunkPos);
+        }
+    }
+}
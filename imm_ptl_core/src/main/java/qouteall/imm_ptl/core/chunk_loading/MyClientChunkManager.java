@@ -1,6 +1,5 @@
 package qouteall.imm_ptl.core.chunk_loading;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import net.minecraft.ChatFormatting;
 import net.minecraft.client.multiplayer.ClientChunkCache;
 import net.minecraft.client.multiplayer.ClientLevel;
@@ -26,8 +25,8 @@ import qouteall.imm_ptl.core.CHelper;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.platform_specific.O_O;
 import qouteall.q_misc_util.my_util.SignalArged;
+import qouteall.q_misc_util.my_util.StripedLong2ObjectMap;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -39,8 +38,10 @@ public class MyClientChunkManager extends ClientChunkCache {
     protected final LevelLightEngine lightingProvider;
     protected final ClientLevel world;
     
-    protected final Long2ObjectLinkedOpenHashMap<LevelChunk> chunkMap =
-        new Long2ObjectLinkedOpenHashMap<>();
+    // accessed by the render thread, the networking thread and the chunk building threads
+    // only the client main thread loads and unloads chunks
+    protected final StripedLong2ObjectMap<LevelChunk> chunkMap =
+        new StripedLong2ObjectMap<>(4);
     
     public static final SignalArged<LevelChunk> clientChunkLoadSignal = new SignalArged<>();
     public static final SignalArged<LevelChunk> clientChunkUnloadSignal = new SignalArged<>();
@@ -69,37 +70,31 @@ public class MyClientChunkManager extends ClientChunkCache {
     
     @Override
     public void drop(int x, int z) {
-        synchronized (chunkMap) {
-            
-            ChunkPos chunkPos = new ChunkPos(x, z);
-            LevelChunk chunk = chunkMap.get(chunkPos.toLong());
-            if (isValidChunk(chunk, x, z)) {
-                chunkMap.remove(chunkPos.toLong());
-                O_O.postClientChunkUnloadEvent(chunk);
-                // wrong yarn name, also unloads entities
-                world.unload(chunk);
-                clientChunkUnloadSignal.emit(chunk);
+        long chunkPos = ChunkPos.asLong(x, z);
+        LevelChunk chunk = chunkMap.get(chunkPos);
+        if (isValidChunk(chunk, x, z)) {
+            if (!chunkMap.remove(chunkPos, chunk)) {
+                return;
             }
+            O_O.postClientChunkUnloadEvent(chunk);
+            // wrong yarn name, also unloads entities
+            world.unload(chunk);
+            clientChunkUnloadSignal.emit(chunk);
         }
     }
     
     @Override
     public LevelChunk getChunk(int x, int z, ChunkStatus chunkStatus, boolean create) {
-        // the profiler shows that this is not a hot spot
-        synchronized (chunkMap) {
-            LevelChunk chunk = chunkMap.get(ChunkPos.asLong(x, z));
-            if (isValidChunk(chunk, x, z)) {
-                return chunk;
-            }
-            
-            return create ? this.emptyChunk : null;
+        LevelChunk chunk = chunkMap.get(ChunkPos.asLong(x, z));
+        if (isValidChunk(chunk, x, z)) {
+            return chunk;
         }
+        
+        return create ? this.emptyChunk : null;
     }
     
     public boolean isChunkLoaded(int x,int z) {
-        synchronized (chunkMap) {
-            return chunkMap.containsKey(ChunkPos.asLong(x, z));
-        }
+        return chunkMap.containsKey(ChunkPos.asLong(x, z));
     }
     
     @Override
@@ -114,19 +109,16 @@ public class MyClientChunkManager extends ClientChunkCache {
     ) {
         long chunkPosLong = ChunkPos.asLong(x, z);
         
-        LevelChunk worldChunk;
+        LevelChunk worldChunk = chunkMap.get(chunkPosLong);
         
-        synchronized (chunkMap) {
-            worldChunk = chunkMap.get(chunkPosLong);
-            ChunkPos chunkPos = new ChunkPos(x, z);
-            if (!isValidChunk(worldChunk, x, z)) {
-                worldChunk = new LevelChunk(this.world, chunkPos);
-                loadChunkDataFromPacket(buf, nbt, worldChunk, consumer);
-                chunkMap.put(chunkPosLong, worldChunk);
-            }
-            else {
-                loadChunkDataFromPacket(buf, nbt, worldChunk, consumer);
-            }
+        if (!isValidChunk(worldChunk, x, z)) {
+            worldChunk = new LevelChunk(this.world, new ChunkPos(x, z));
+            // the new chunk becomes visible to other threads after it's loaded
+            loadChunkDataFromPacket(buf, nbt, worldChunk, consumer);
+            chunkMap.put(chunkPosLong, worldChunk);
+        }
+        else {
+            loadChunkDataFromPacket(buf, nbt, worldChunk, consumer);
         }
         
         // wrong yarn name. it loads entities
@@ -173,9 +165,7 @@ public class MyClientChunkManager extends ClientChunkCache {
     }
     
     public List<LevelChunk> getCopiedChunkList() {
-        synchronized (chunkMap) {
-            return Arrays.asList(chunkMap.values().toArray(new LevelChunk[0]));
-        }
+        return chunkMap.getCopiedValues();
     }
     
     @Override
@@ -195,9 +185,7 @@ public class MyClientChunkManager extends ClientChunkCache {
     
     @Override
     public int getLoadedChunksCount() {
-        synchronized (chunkMap) {
-            return chunkMap.size();
-        }
+        return chunkMap.size();
     }
     
     @Override
@@ -1,5 +1,7 @@
 package qouteall.imm_ptl.core.chunk_loading;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.*;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundForgetLevelChunkPacket;
@@ -17,107 +19,68 @@ import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.my_util.SignalBiArged;
 
+import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class NewChunkTrackingGraph {
     
     public static final int updateInterval = 40;
     
-    public static class PlayerWatchRecord {
-        public final ServerPlayer player;
-        public final ResourceKey<Level> dimension;
-        public final long chunkPos;
-        public long lastWatchTime;
-        public int distanceToSource;
-        public boolean isDirectLoading;
-        public boolean isLoadedToPlayer;
-        public boolean isValid = true;
-        
-        public PlayerWatchRecord(
-            ServerPlayer player, ResourceKey<Level> dimension,
-            long chunkPos, long lastWatchTime,
-            int distanceToSource, boolean isDirectLoading, boolean isLoadedToPlayer
-        ) {
-            this.player = player;
-            this.dimension = dimension;
-            this.chunkPos = chunkPos;
-            this.lastWatchTime = lastWatchTime;
-            this.distanceToSource = distanceToSource;
-            this.isDirectLoading = isDirectLoading;
-            this.isLoadedToPlayer = isLoadedToPlayer;
-        }
-        
-        @Override
-        public String toString() {
-            return String.format(
-                "%s (%d,%d) distance:%d valid:%s loaded:%s",
-                dimension.location(),
-                ChunkPos.getX(chunkPos),
-                ChunkPos.getZ(chunkPos),
-                distanceToSource,
-                isValid,
-                isLoadedToPlayer
-            );
-        }
-    }
-    
-    private static void removeInactiveWatchers(
-        ArrayList<PlayerWatchRecord> records,
-        Predicate<PlayerWatchRecord> predicate,
-        Consumer<PlayerWatchRecord> informer
-    ) {
-        records.removeIf(r -> {
-            Validate.isTrue(r.isValid);
-            
-            boolean shouldRemove = predicate.test(r);
-            if (shouldRemove) {
-                informer.accept(r);
-                r.isValid = false;
-            }
-            return shouldRemove;
-        });
-    }
-    
     private static boolean shouldAddCustomTicket(
-        ServerLevel world,
-        long chunkPos,
-        ArrayList<PlayerWatchRecord> records
+        ChunkWatchRecordStore store,
+        long chunkPos
     ) {
-        return Helper.indexOf(records, r ->
-            (r.isLoadedToPlayer) && (!r.isDirectLoading)
-        ) != -1;
+        for (int i = store.getFirstRecord(chunkPos); i != -1; i = store.getNextRecord(i)) {
+            if (store.isLoadedToPlayer(i) && !store.isDirectLoading(i)) {
+                return true;
+            }
+        }
+        return false;
     }
     
-    // Every chunk has a list of watching records
-    private static final Map<ResourceKey<Level>, Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>>>
+    // Every chunk has a linked list of watching records, stored in primitive columns
+    private static final Map<ResourceKey<Level>, ChunkWatchRecordStore>
         data = new HashMap<>();
     
+    // used for resolving the record handles in the pending loading queues
+    private static final Int2ObjectOpenHashMap<ChunkWatchRecordStore> storeById =
+        new Int2ObjectOpenHashMap<>();
+    private static int nextStoreId = 0;
+    
+    // the records refer to players by slot
+    // the references are weak so that the players can be GCed like in playerInfoMap,
+    // a slot whose player is GCed is freed after its records are purged
+    private static final ArrayList<WeakReference<ServerPlayer>> slotToPlayer = new ArrayList<>();
+    private static final IntArrayList freeSlots = new IntArrayList();
+    
     private static final ArrayList<WeakReference<ChunkLoader>>
         additionalChunkLoaders = new ArrayList<>();
     
     public static class PlayerInfo {
+        public final int slot;
         public final Set<ResourceKey<Level>> visibleDimensions = new HashSet<>();
         public final ArrayList<ChunkLoader> additionalChunkLoaders
             = new ArrayList<>();
-        public final ArrayList<ArrayDeque<PlayerWatchRecord>> distanceToPendingChunks =
+        // the elements are record handles, see ChunkWatchRecordStore.getHandle
+        public final ArrayList<LongArrayFIFOQueue> distanceToPendingChunks =
             new ArrayList<>();
         
         public PerformanceLevel performanceLevel = PerformanceLevel.bad;
         
-        public PlayerInfo() {
+        public PlayerInfo(int slot) {
+            this.slot = slot;
         }
         
         // one chunk may mark pending loading multiple times with different distanceToSource
-        public void markPendingLoading(PlayerWatchRecord record) {
+        public void markPendingLoading(ChunkWatchRecordStore store, int record) {
             Helper.arrayListComputeIfAbsent(
                 distanceToPendingChunks,
-                record.distanceToSource,
-                ArrayDeque::new
-            ).add(record);
+                store.getDistanceToSource(record),
+                LongArrayFIFOQueue::new
+            ).enqueue(store.getHandle(record));
         }
     }
     
@@ -126,13 +89,46 @@ public class NewChunkTrackingGraph {
     public static final SignalBiArged<ServerPlayer, DimensionalChunkPos> beginWatchChunkSignal = new SignalBiArged<>();
     public static final SignalBiArged<ServerPlayer, DimensionalChunkPos> endWatchChunkSignal = new SignalBiArged<>();
     public static final SignalBiArged<ResourceKey<Level>, Long> watchStatusChangeSignal = new SignalBiArged<>();
-    
-    private static Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> getChunkRecordMap(ResourceKey<Level> dimension) {
-        return data.computeIfAbsent(dimension, k -> new Long2ObjectLinkedOpenHashMap<>());
+    // emitted when the distance to source of a chunk that is loaded to the player changes
+    public static final SignalBiArged<ServerPlayer, DimensionalChunkPos> watchDistanceChangeSignal = new SignalBiArged<>();
+    
+    private static ChunkWatchRecordStore getChunkRecordMap(ResourceKey<Level> dimension) {
+        return data.computeIfAbsent(dimension, k -> {
+            ChunkWatchRecordStore store = new ChunkWatchRecordStore(k, nextStoreId);
+            nextStoreId = (nextStoreId + 1) & 0xFFFF;
+            storeById.put(store.storeId, store);
+            return store;
+        });
     }
     
     public static PlayerInfo getPlayerInfo(ServerPlayer player) {
-        return playerInfoMap.computeIfAbsent(player, k -> new PlayerInfo());
+        return playerInfoMap.computeIfAbsent(player, k -> new PlayerInfo(allocateSlot(player)));
+    }
+    
+    private static int allocateSlot(ServerPlayer player) {
+        if (!freeSlots.isEmpty()) {
+            int slot = freeSlots.popInt();
+            slotToPlayer.set(slot, new WeakReference<>(player));
+            return slot;
+        }
+        slotToPlayer.add(new WeakReference<>(player));
+        return slotToPlayer.size() - 1;
+    }
+    
+    private static void freeSlot(int slot) {
+        slotToPlayer.set(slot, null);
+        freeSlots.add(slot);
+    }
+    
+    @Nullable
+    private static ServerPlayer getPlayerBySlot(int slot) {
+        WeakReference<ServerPlayer> ref = slotToPlayer.get(slot);
+        return ref == null ? null : ref.get();
+    }
+    
+    private static boolean isPlayerRemovedBySlot(int slot) {
+        ServerPlayer player = getPlayerBySlot(slot);
+        return player == null || player.isRemoved();
     }
     
     public static void updateForPlayer(ServerPlayer player) {
@@ -158,28 +154,40 @@ public class NewChunkTrackingGraph {
         int directLoaded = 0;
         
         for (int distance = 0; distance < playerInfo.distanceToPendingChunks.size(); distance++) {
-            ArrayDeque<PlayerWatchRecord> records = playerInfo.distanceToPendingChunks.get(distance);
-            if (records != null) {
-                while (!records.isEmpty() && loaded < limit && directLoaded < 5) {
-                    PlayerWatchRecord record = records.pollFirst();
-                    if (record.isValid && !record.isLoadedToPlayer) {
-                        record.isLoadedToPlayer = true;
+            LongArrayFIFOQueue handles = playerInfo.distanceToPendingChunks.get(distance);
+            if (handles != null) {
+                while (!handles.isEmpty() && loaded < limit && directLoaded < 5) {
+                    long handle = handles.dequeueLong();
+                    
+                    ChunkWatchRecordStore store =
+                        storeById.get(ChunkWatchRecordStore.getStoreIdFromHandle(handle));
+                    if (store == null) {
+                        continue;
+                    }
+                    int record = store.resolveHandle(handle);
+                    
+                    if (record != -1 && !store.isLoadedToPlayer(record)) {
+                        store.setLoadedToPlayer(record, true);
                         
-                        if (MiscHelper.getServer().getLevel(record.dimension) != null) {
+                        ResourceKey<Level> dimension = store.dimension;
+                        long chunkPos = store.getChunkPos(record);
+                        boolean isDirectLoading = store.isDirectLoading(record);
+                        
+                        if (MiscHelper.getServer().getLevel(dimension) != null) {
                             beginWatchChunkSignal.emit(player, new DimensionalChunkPos(
-                                record.dimension, new ChunkPos(record.chunkPos)
+                                dimension, new ChunkPos(chunkPos)
                             ));
-                            if (!record.isDirectLoading) {
+                            if (!isDirectLoading) {
                                 MyLoadingTicket.addTicketIfNotLoaded(
-                                    McHelper.getServerWorld(record.dimension),
-                                    new ChunkPos(record.chunkPos)
+                                    McHelper.getServerWorld(dimension),
+                                    new ChunkPos(chunkPos)
                                 );
                             }
                             watchStatusChangeSignal.emit(
-                                record.dimension, record.chunkPos
+                                dimension, chunkPos
                             );
                             
-                            if (!record.isDirectLoading) {
+                            if (!isDirectLoading) {
                                 loaded++;
                             }
                             else {
@@ -188,7 +196,7 @@ public class NewChunkTrackingGraph {
                         }
                         else {
                             Helper.err(
-                                "Missing dimension when flushing pending loading " + record.dimension.location()
+                                "Missing dimension when flushing pending loading " + dimension.location()
                             );
                         }
                     }
@@ -206,15 +214,25 @@ public class NewChunkTrackingGraph {
         
         PlayerInfo playerInfo = getPlayerInfo(player);
         
+        double rate;
         if (playerInfo.performanceLevel == PerformanceLevel.good) {
-            return 5;
+            rate = 5;
         }
         else if (playerInfo.performanceLevel == PerformanceLevel.medium) {
-            return 1;
+            rate = 1;
         }
         else {
-            return player.tickCount % 4 == 0 ? 1 : 0;
+            rate = 0.25;
+        }
+        
+        rate *= ServerPerformanceMonitor.getChunkDeliveryRateScale();
+        
+        // the fractional part is delivered randomly so the average rate is kept
+        int limit = (int) rate;
+        if (random.nextDouble() < rate - limit) {
+            limit++;
         }
+        return limit;
     }
     
     private static void updatePlayerForChunkLoader(
@@ -224,95 +242,108 @@ public class NewChunkTrackingGraph {
         ResourceKey<Level> chunkLoaderDim = chunkLoader.center.dimension;
         playerInfo.visibleDimensions.add(chunkLoaderDim);
         
-        Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> chunkRecordMap =
-            getChunkRecordMap(chunkLoaderDim);
+        ChunkWatchRecordStore store = getChunkRecordMap(chunkLoaderDim);
+        int slot = playerInfo.slot;
         
         chunkLoader.foreachChunkPos(
             (dimension, x, z, distanceToSource) -> {
                 long chunkPos = ChunkPos.asLong(x, z);
-                ArrayList<PlayerWatchRecord> records = chunkRecordMap.computeIfAbsent(
-                    chunkPos,
-                    k -> new ArrayList<>()
-                );
                 
-                int index = Helper.indexOf(records, r -> r.player == player);
-                if (index == -1) {
-                    PlayerWatchRecord newRecord = new PlayerWatchRecord(
-                        player, dimension, chunkPos, gameTime, distanceToSource, chunkLoader.isDirectLoader,
+                int record = store.find(chunkPos, slot);
+                if (record == -1) {
+                    int newRecord = store.add(
+                        chunkPos, slot, gameTime, distanceToSource, chunkLoader.isDirectLoader,
                         false
                     );
-                    records.add(newRecord);
-                    playerInfo.markPendingLoading(newRecord);
+                    playerInfo.markPendingLoading(store, newRecord);
                 }
                 else {
-                    PlayerWatchRecord record = records.get(index);
-                    
-                    if (record.lastWatchTime == gameTime) {
+                    if (store.getLastWatchTime(record) == gameTime) {
                         //being updated again in the same turn
-                        int oldDistance = record.distanceToSource;
+                        int oldDistance = store.getDistanceToSource(record);
                         if (distanceToSource < oldDistance) {
-                            record.distanceToSource = distanceToSource;
-                            playerInfo.markPendingLoading(record);
+                            store.setDistanceToSource(record, distanceToSource);
+                            playerInfo.markPendingLoading(store, record);
+                            onDistanceChanged(player, store, record);
                         }
                         
-                        record.isDirectLoading = (record.isDirectLoading | chunkLoader.isDirectLoader);
+                        store.setDirectLoading(
+                            record, store.isDirectLoading(record) | chunkLoader.isDirectLoader
+                        );
                     }
                     else {
                         //being updated at the first time in this turn
-                        int oldDistance = record.distanceToSource;
+                        int oldDistance = store.getDistanceToSource(record);
                         if (distanceToSource < oldDistance) {
-                            playerInfo.markPendingLoading(record);
+                            playerInfo.markPendingLoading(store, record);
                         }
                         
-                        record.distanceToSource = distanceToSource;
-                        record.lastWatchTime = gameTime;
-                        record.isDirectLoading = chunkLoader.isDirectLoader;
+                        store.setDistanceToSource(record, distanceToSource);
+                        store.setLastWatchTime(record, gameTime);
+                        store.setDirectLoading(record, chunkLoader.isDirectLoader);
+                        if (distanceToSource != oldDistance) {
+                            onDistanceChanged(player, store, record);
+                        }
                     }
                 }
             }
         );
     }
     
+    private static void onDistanceChanged(ServerPlayer player, ChunkWatchRecordStore store, int record) {
+        // the ones not loaded to the player will be handled when they begin to be watched
+        if (store.isLoadedToPlayer(record)) {
+            long chunkPos = store.getChunkPos(record);
+            watchDistanceChangeSignal.emit(player, new DimensionalChunkPos(
+                store.dimension, ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos)
+            ));
+        }
+    }
+    
     private static void updateAndPurge() {
         long currTime = McHelper.getOverWorldOnServer().getGameTime();
-        data.forEach((dimension, chunkRecords) -> {
-            chunkRecords.long2ObjectEntrySet().removeIf(entry -> {
-                long chunkPosLong = entry.getLongKey();
-                
-                ArrayList<PlayerWatchRecord> records = entry.getValue();
-                
-                removeInactiveWatchers(
-                    records,
-                    (record) -> {
-                        return shouldUnload(currTime, record);
-                    },
-                    (record) -> {
-                        if (record.player.isRemoved()) return;
-                        
-                        if (record.isLoadedToPlayer) {
-                            endWatchChunkSignal.emit(
-                                record.player,
-                                new DimensionalChunkPos(
-                                    dimension,
-                                    ChunkPos.getX(chunkPosLong),
-                                    ChunkPos.getZ(chunkPosLong)
-                                )
-                            );
-                        }
-                        
-                        watchStatusChangeSignal.emit(
-                            record.dimension, record.chunkPos
+        
+        // GC may clear a reference during the purge, then the purge may have kept some of its records.
+        // only the slots cleared before the purge can be freed,
+        // otherwise the kept records would belong to the next player that takes the slot
+        IntArrayList gcedSlots = new IntArrayList();
+        for (int slot = 0; slot < slotToPlayer.size(); slot++) {
+            WeakReference<ServerPlayer> ref = slotToPlayer.get(slot);
+            if (ref != null && ref.get() == null) {
+                gcedSlots.add(slot);
+            }
+        }
+        
+        data.forEach((dimension, store) -> {
+            store.removeIf(
+                record -> shouldUnload(currTime, store, record),
+                record -> {
+                    ServerPlayer player = getPlayerBySlot(store.getPlayerSlot(record));
+                    if (player == null || player.isRemoved()) return;
+                    
+                    long chunkPos = store.getChunkPos(record);
+                    
+                    if (store.isLoadedToPlayer(record)) {
+                        endWatchChunkSignal.emit(
+                            player,
+                            new DimensionalChunkPos(
+                                dimension,
+                                ChunkPos.getX(chunkPos),
+                                ChunkPos.getZ(chunkPos)
+                            )
                         );
                     }
-                );
-                
-                return records.isEmpty();
-            });
+                    
+                    watchStatusChangeSignal.emit(
+                        dimension, chunkPos
+                    );
+                }
+            );
         });
         
         MiscHelper.getServer().getAllLevels().forEach(world -> {
             
-            Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> chunkRecordMap = getChunkRecordMap(world.dimension());
+            ChunkWatchRecordStore store = getChunkRecordMap(world.dimension());
             
             LongSortedSet additionalLoadedChunks = new LongLinkedOpenHashSet();
             additionalChunkLoaders.forEach(weakRef -> {
@@ -334,7 +365,7 @@ public class NewChunkTrackingGraph {
             
             LongList chunksToUnload = new LongArrayList();
             MyLoadingTicket.getRecord(world).forEach((long longChunkPos) -> {
-                if (!chunkRecordMap.containsKey(longChunkPos) &&
+                if (!store.containsChunk(longChunkPos) &&
                     !additionalLoadedChunks.contains(longChunkPos)
                 ) {
                     chunksToUnload.add(longChunkPos);
@@ -346,11 +377,22 @@ public class NewChunkTrackingGraph {
             });
         });
         
-        playerInfoMap.entrySet().removeIf(e -> e.getKey().isRemoved());
+        // a player is marked removed on the server thread, so it was already removed during the purge
+        // and all of its records are purged
+        playerInfoMap.entrySet().removeIf(e -> {
+            if (e.getKey().isRemoved()) {
+                freeSlot(e.getValue().slot);
+                return true;
+            }
+            return false;
+        });
+        
+        // the slots cleared later are freed in the next purge
+        gcedSlots.forEach(slot -> freeSlot(slot));
     }
     
-    private static boolean shouldUnload(long currTime, PlayerWatchRecord record) {
-        if (record.player.isRemoved()) {
+    private static boolean shouldUnload(long currTime, ChunkWatchRecordStore store, int record) {
+        if (isPlayerRemovedBySlot(store.getPlayerSlot(record))) {
             return true;
         }
         long unloadDelay = IPGlobal.chunkUnloadDelayTicks;
@@ -364,7 +406,7 @@ public class NewChunkTrackingGraph {
             unloadDelay = updateInterval + 1;
         }
         
-        return currTime - record.lastWatchTime > unloadDelay;
+        return currTime - store.getLastWatchTime(record) > unloadDelay;
     }
     
     private static void tick() {
@@ -389,30 +431,29 @@ public class NewChunkTrackingGraph {
         IPGlobal.serverCleanupSignal.connect(NewChunkTrackingGraph::cleanup);
     }
     
-    public static boolean isPlayerWatchingChunk(
+    /**
+     * @return the record index in the store of that dimension, -1 if the chunk is not loaded to the player
+     */
+    private static int getLoadedRecord(
         ServerPlayer player,
-        ResourceKey<Level> dimension,
-        int x, int z,
-        Predicate<PlayerWatchRecord> predicate
+        ChunkWatchRecordStore store,
+        int x, int z
     ) {
-        long chunkPos = ChunkPos.asLong(x, z);
-        
-        ArrayList<PlayerWatchRecord> recordMap = getChunkRecordMap(dimension).get(chunkPos);
-        if (recordMap == null) {
-            return false;
-        }
-        int i = Helper.indexOf(recordMap, r -> r.player == player);
-        if (i == -1) {
-            return false;
+        PlayerInfo playerInfo = playerInfoMap.get(player);
+        if (playerInfo == null) {
+            return -1;
         }
         
-        PlayerWatchRecord record = recordMap.get(i);
+        int record = store.find(ChunkPos.asLong(x, z), playerInfo.slot);
+        if (record == -1) {
+            return -1;
+        }
         
-        if (!record.isLoadedToPlayer) {
-            return false;
+        if (!store.isLoadedToPlayer(record)) {
+            return -1;
         }
         
-        return predicate.test(record);
+        return record;
     }
     
     public static boolean isPlayerWatchingChunk(
@@ -420,7 +461,7 @@ public class NewChunkTrackingGraph {
         ResourceKey<Level> dimension,
         int x, int z
     ) {
-        return isPlayerWatchingChunk(player, dimension, x, z, r -> true);
+        return getLoadedRecord(player, getChunkRecordMap(dimension), x, z) != -1;
     }
     
     public static boolean isPlayerWatchingChunkWithinRaidus(
@@ -429,28 +470,56 @@ public class NewChunkTrackingGraph {
         int x, int z,
         int radiusBlocks
     ) {
-        boolean result = isPlayerWatchingChunk(
-            player, dimension, x, z,
-            r -> r.distanceToSource * 16 <= radiusBlocks
-        );
-        return result;
+        ChunkWatchRecordStore store = getChunkRecordMap(dimension);
+        int record = getLoadedRecord(player, store, x, z);
+        if (record == -1) {
+            return false;
+        }
+        return store.getDistanceToSource(record) * 16 <= radiusBlocks;
     }
     
     private static void cleanup() {
         data.clear();
+        storeById.clear();
         additionalChunkLoaders.clear();
+        
+        // the pending queues refer to the cleared stores
+        playerInfoMap.clear();
+        slotToPlayer.clear();
+        freeSlots.clear();
+    }
+    
+    /**
+     * Iterates the records of the chunk directly, without collecting the players.
+     * The consumer should not change the chunk tracking.
+     */
+    public static void foreachPlayerViewingChunk(
+        ResourceKey<Level> dimension,
+        int x, int z,
+        Consumer<ServerPlayer> func
+    ) {
+        ChunkWatchRecordStore store = data.get(dimension);
+        if (store == null) {
+            return;
+        }
+        
+        for (int i = store.getFirstRecord(ChunkPos.asLong(x, z)); i != -1; i = store.getNextRecord(i)) {
+            if (store.isLoadedToPlayer(i)) {
+                ServerPlayer player = getPlayerBySlot(store.getPlayerSlot(i));
+                if (player != null) {
+                    func.accept(player);
+                }
+            }
+        }
     }
     
     public static Stream<ServerPlayer> getPlayersViewingChunk(
         ResourceKey<Level> dimension,
         int x, int z
     ) {
-        ArrayList<PlayerWatchRecord> records = getChunkRecordMap(dimension)
-            .get(ChunkPos.asLong(x, z));
-        if (records == null) {
-            return Stream.empty();
-        }
-        return records.stream().filter(r -> r.isLoadedToPlayer).map(r -> r.player);
+        Stream.Builder<ServerPlayer> builder = Stream.builder();
+        foreachPlayerViewingChunk(dimension, x, z, builder);
+        return builder.build();
     }
     
     // return -1 for none
@@ -458,14 +527,18 @@ public class NewChunkTrackingGraph {
         ResourceKey<Level> dimension,
         long chunkPos
     ) {
-        ArrayList<PlayerWatchRecord> records = getChunkRecordMap(dimension)
-            .get(chunkPos);
-        if (records == null) {
-            return -1;
-        }
+        ChunkWatchRecordStore store = getChunkRecordMap(dimension);
         
-        return records.stream().filter(r -> r.isLoadedToPlayer)
-            .mapToInt(r -> r.distanceToSource).min().orElse(-1);
+        int result = -1;
+        for (int i = store.getFirstRecord(chunkPos); i != -1; i = store.getNextRecord(i)) {
+            if (store.isLoadedToPlayer(i)) {
+                int distance = store.getDistanceToSource(i);
+                if (result == -1 || distance < result) {
+                    result = distance;
+                }
+            }
+        }
+        return result;
     }
     
     /**
@@ -479,55 +552,80 @@ public class NewChunkTrackingGraph {
         int x, int z
     ) {
         return getPlayersViewingChunk(dimension, x, z)
-            .filter(player -> {
-                ChunkPos chunkPos = player.chunkPosition();
-                return player.level.dimension() != dimension ||
-                    Helper.getChebyshevDistance(x, z, chunkPos.x, chunkPos.z) > 4;
-            });
+            .filter(player -> isFarWatcher(player, dimension, x, z));
+    }
+    
+    public static void foreachFarWatcher(
+        ResourceKey<Level> dimension,
+        int x, int z,
+        Consumer<ServerPlayer> func
+    ) {
+        foreachPlayerViewingChunk(dimension, x, z, player -> {
+            if (isFarWatcher(player, dimension, x, z)) {
+                func.accept(player);
+            }
+        });
+    }
+    
+    private static boolean isFarWatcher(
+        ServerPlayer player, ResourceKey<Level> dimension, int x, int z
+    ) {
+        ChunkPos chunkPos = player.chunkPosition();
+        return player.level.dimension() != dimension ||
+            Helper.getChebyshevDistance(x, z, chunkPos.x, chunkPos.z) > 4;
     }
     
     public static void forceRemovePlayer(ServerPlayer player) {
         Helper.log("Chunk Tracking Graph Force Remove " + player.getName().getContents());
-        data.forEach((dim, map) -> map.forEach(
-            (chunkPos, records) -> removeInactiveWatchers(
-                records,
-                (r) -> r.player == player,
-                record -> {
-                    record.isValid = false;
-                    PacketRedirection.sendRedirectedMessage(
-                        record.player, dim, new ClientboundForgetLevelChunkPacket(
-                            ChunkPos.getX(chunkPos),
-                            ChunkPos.getZ(chunkPos)
-                        )
-                    );
-                }
-            )
+        
+        PlayerInfo playerInfo = playerInfoMap.get(player);
+        if (playerInfo == null) {
+            return;
+        }
+        int slot = playerInfo.slot;
+        
+        data.forEach((dim, store) -> store.removeIf(
+            record -> store.getPlayerSlot(record) == slot,
+            record -> {
+                long chunkPos = store.getChunkPos(record);
+                PacketRedirection.sendRedirectedMessage(
+                    player, dim, new ClientboundForgetLevelChunkPacket(
+                        ChunkPos.getX(chunkPos),
+                        ChunkPos.getZ(chunkPos)
+                    )
+                );
+            }
         ));
     }
     
     public static void forceRemoveDimension(ResourceKey<Level> dim) {
-        Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> map = data.get(dim);
+        ChunkWatchRecordStore store = data.get(dim);
         
-        if (map == null) {
+        if (store == null) {
             return;
         }
         
-        map.forEach((chunkPos, records) -> {
+        store.forEachChunk((chunkPos, firstRecord) -> {
             Packet unloadPacket = PacketRedirection.createRedirectedMessage(
                 dim, new ClientboundForgetLevelChunkPacket(
                     ChunkPos.getX(chunkPos),
                     ChunkPos.getZ(chunkPos)
                 )
             );
-            for (PlayerWatchRecord record : records) {
-                if (record.isValid && record.isLoadedToPlayer) {
-                    record.player.connection.send(unloadPacket);
+            for (int i = firstRecord; i != -1; i = store.getNextRecord(i)) {
+                if (store.isLoadedToPlayer(i)) {
+                    ServerPlayer player = getPlayerBySlot(store.getPlayerSlot(i));
+                    if (player != null) {
+                        player.connection.send(unloadPacket);
+                    }
                 }
-                record.isValid = false;
             }
         });
         
+        // invalidates the handles in pending loading queues
+        store.clear();
         data.remove(dim);
+        storeById.remove(store.storeId);
         
         additionalChunkLoaders.removeIf(l -> {
             ChunkLoader chunkLoader = l.get();
@@ -540,12 +638,11 @@ public class NewChunkTrackingGraph {
     }
     
     public static boolean shouldLoadDimension(ResourceKey<Level> dimension) {
-        if (!data.containsKey(dimension)) {
+        ChunkWatchRecordStore store = data.get(dimension);
+        if (store == null) {
             return false;
         }
-        Long2ObjectLinkedOpenHashMap<ArrayList<PlayerWatchRecord>> map =
-            data.get(dimension);
-        return !map.isEmpty();
+        return !store.isEmpty();
     }
     
     public static void addGlobalAdditionalChunkLoader(ChunkLoader chunkLoader) {
@@ -574,7 +671,7 @@ public class NewChunkTrackingGraph {
     }
     
     public static int getLoadedChunkNum(ResourceKey<Level> dimension) {
-        return getChunkRecordMap(dimension).size();
+        return getChunkRecordMap(dimension).getChunkNum();
     }
     
     public static void addPerPlayerAdditionalChunkLoader(
@@ -0,0 +1,186 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+/**
+ * An AIMD (additive increase, multiplicative decrease) controller of the server load factor.
+ * The factor is in [minFactor, 1]. 1 means the server is not overloaded.
+ * It's used to scale the chunk delivery rate, the indirect loading radius and the visible portal range.
+ * <p>
+ * The input is the duration of every tick. The average of a sliding window of recent ticks is compared
+ * with two thresholds. Above the high threshold, the factor decreases multiplicatively,
+ * then it holds for a cooldown so that the window can reflect the effect of the decrease.
+ * Below the low threshold, the factor increases additively. Between them, the factor holds.
+ * The gap between the thresholds is the hysteresis that avoids oscillating around one threshold.
+ * <p>
+ * It does not depend on MC so it can be driven by a synthetic tick duration trace.
+ */
+public class PerformanceGovernor {
+    
+    private final double lowThresholdMs;
+    private final double highThresholdMs;
+    private final double minFactor;
+    private final double increaseStep;
+    private final double decreaseRatio;
+    private final int evaluationIntervalTicks;
+    private final int cooldownTicks;
+    
+    private final double[] window;
+    private int windowHead = 0;
+    private int sampleNum = 0;
+    private double windowSum = 0;
+    
+    private double factor = 1;
+    private int ticksUntilEvaluation;
+    private int remainingCooldown = 0;
+    private long decreaseNum = 0;
+    private long increaseNum = 0;
+    
+    /**
+     * @param windowSize              the tick number of the sliding window
+     * @param lowThresholdMs          increase when the window average is below it
+     * @param highThresholdMs         decrease when the window average is above it
+     * @param minFactor               the lower bound of the factor, should be positive
+     * @param increaseStep            the addend of one increase
+     * @param decreaseRatio           the multiplier of one decrease, in (0, 1)
+     * @param evaluationIntervalTicks evaluate once every this number of ticks
+     */
+    public PerformanceGovernor(
+        int windowSize,
+        double lowThresholdMs, double highThresholdMs,
+        double minFactor, double increaseStep, double decreaseRatio,
+        int evaluationIntervalTicks
+    ) {
+        if (windowSize <= 0 || evaluationIntervalTicks <= 0) {
+            throw new IllegalArgumentException("Invalid window size or interval");
+        }
+        if (lowThresholdMs > highThresholdMs) {
+            throw new IllegalArgumentException("The low threshold is higher than the high threshold");
+        }
+        if (minFactor <= 0 || minFactor > 1 || decreaseRatio <= 0 || decreaseRatio >= 1) {
+            throw new IllegalArgumentException("Invalid factor parameters");
+        }
+        
+        this.window = new double[windowSize];
+        this.lowThresholdMs = lowThresholdMs;
+        this.highThresholdMs = highThresholdMs;
+        this.minFactor = minFactor;
+        this.increaseStep = increaseStep;
+        this.decreaseRatio = decreaseRatio;
+        this.evaluationIntervalTicks = evaluationIntervalTicks;
+        this.cooldownTicks = windowSize;
+        this.ticksUntilEvaluation = evaluationIntervalTicks;
+    }
+    
+    /**
+     * The default parameters for the server. The window is 2 seconds.
+     * The tick time is kept between 35 ms and 45 ms.
+     * From the minimum factor, it takes about 22 seconds to fully recover.
+     */
+    public static PerformanceGovernor createForServer() {
+        return new PerformanceGovernor(
+            40,
+            35, 45,
+            0.1, 0.02, 0.7,
+            10
+        );
+    }
+    
+    public void onTick(double tickDurationMs) {
+        if (sampleNum == window.length) {
+            windowSum -= window[windowHead];
+        }
+        else {
+            sampleNum++;
+        }
+        window[windowHead] = tickDurationMs;
+        windowSum += tickDurationMs;
+        windowHead = (windowHead + 1) % window.length;
+        
+        if (remainingCooldown > 0) {
+            remainingCooldown--;
+        }
+        
+        ticksUntilEvaluation--;
+        if (ticksUntilEvaluation > 0) {
+            return;
+        }
+        ticksUntilEvaluation = evaluationIntervalTicks;
+        
+        evaluate();
+    }
+    
+    private void evaluate() {
+        double average = getWindowAverageMs();
+        
+        if (average > highThresholdMs) {
+            if (remainingCooldown > 0) {
+                return;
+            }
+            double newFactor = Math.max(minFactor, factor * decreaseRatio);
+            if (newFactor < factor) {
+                factor = newFactor;
+                decreaseNum++;
+            }
+            remainingCooldown = cooldownTicks;
+        }
+        else if (average < lowThresholdMs) {
+            double newFactor = Math.min(1, factor + increaseStep);
+            if (newFactor > factor) {
+                factor = newFactor;
+                increaseNum++;
+            }
+        }
+    }
+    
+    /**
+     * Forget the recent ticks and go back to the unloaded state.
+     */
+    public void reset() {
+        windowHead = 0;
+        sampleNum = 0;
+        windowSum = 0;
+        factor = 1;
+        ticksUntilEvaluation = evaluationIntervalTicks;
+        remainingCooldown = 0;
+    }
+    
+    public double getFactor() {
+        return factor;
+    }
+    
+    public double getWindowAverageMs() {
+        if (sampleNum == 0) {
+            return 0;
+        }
+        return windowSum / sampleNum;
+    }
+    
+    /**
+     * Linearly maps the factor from [minFactor, 1] to [minValue, maxValue].
+     */
+    public int interpolate(int minValue, int maxValue) {
+        double t = minFactor == 1 ? 1 : (factor - minFactor) / (1 - minFactor);
+        return (int) Math.round(minValue + (maxValue - minValue) * t);
+    }
+    
+    public boolean isAtFullCapacity() {
+        return factor >= 1;
+    }
+    
+    public long getDecreaseNum() {
+        return decreaseNum;
+    }
+    
+    public long getIncreaseNum() {
+        return increaseNum;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(
+            "factor %.3f, tick time average %.2fms over %d ticks (low %.1fms high %.1fms), " +
+                "cooldown %d, increased %d times, decreased %d times",
+            factor, getWindowAverageMs(), sampleNum, lowThresholdMs, highThresholdMs,
+            remainingCooldown, increaseNum, decreaseNum
+        );
+    }
+}
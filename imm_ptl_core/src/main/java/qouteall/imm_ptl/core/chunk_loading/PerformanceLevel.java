@@ -18,19 +18,6 @@ public enum PerformanceLevel {
         }
     }
     
-    
-    public static PerformanceLevel getServerPerformanceLevel(float tickTimeMs) {
-        if (tickTimeMs < 40) {
-            return good;
-        }
-        else if (tickTimeMs < 80) {
-            return medium;
-        }
-        else {
-            return bad;
-        }
-    }
-    
     public static int getVisiblePortalRangeChunks(PerformanceLevel level) {
         if (level == good) {
             return 8;
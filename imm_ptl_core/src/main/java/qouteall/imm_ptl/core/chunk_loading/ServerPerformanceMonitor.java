@@ -2,27 +2,29 @@ package qouteall.imm_ptl.core.chunk_loading;
 
 import net.minecraft.server.MinecraftServer;
 import qouteall.imm_ptl.core.IPGlobal;
-import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
+/**
+ * Feeds the server tick durations into a {@link PerformanceGovernor}.
+ * The chunk delivery rate, the indirect loading radius and the visible portal range are scaled by it.
+ */
 public class ServerPerformanceMonitor {
     
-    private static final int sampleNum = 20;
-    
-    private static PerformanceLevel level = PerformanceLevel.bad;
+    private static final PerformanceGovernor governor = PerformanceGovernor.createForServer();
     
     private static final LimitedLogger limitedLogger = new LimitedLogger(50);
     
+    private static boolean lastFullCapacity = true;
+    
     public static void init() {
         IPGlobal.postServerTickSignal.connect(ServerPerformanceMonitor::tick);
+        IPGlobal.serverCleanupSignal.connect(governor::reset);
     }
     
-    private static long lastUpdateTime = 0;
-    
     private static void tick() {
         if (!IPGlobal.enableServerPerformanceAdjustment) {
-            level = PerformanceLevel.good;
+            governor.reset();
             return;
         }
         
@@ -35,26 +37,50 @@ public class ServerPerformanceMonitor {
             return;
         }
         
-        long currTime = System.nanoTime();
-        
-        // update every 20 seconds
-        if (currTime - lastUpdateTime < Helper.secondToNano(20)) {
+        // this is called during ticking, the duration of the current tick is not yet recorded
+        int tickCount = server.getTickCount();
+        if (tickCount <= 1) {
             return;
         }
-        else {
-            lastUpdateTime = currTime;
-        }
+        long lastTickNanos = server.tickTimes[(tickCount - 1) % server.tickTimes.length];
+        governor.onTick(lastTickNanos / 1000000.0);
         
-        float tickTime = server.getAverageTickTime();
-        PerformanceLevel newLevel = PerformanceLevel.getServerPerformanceLevel(tickTime);
-        if (newLevel != level) {
-            level = newLevel;
-            limitedLogger.log("Server performance level: " + newLevel);
+        boolean fullCapacity = governor.isAtFullCapacity();
+        if (fullCapacity != lastFullCapacity) {
+            lastFullCapacity = fullCapacity;
+            limitedLogger.log("Server performance adjustment: " + governor);
         }
     }
     
-    public static PerformanceLevel getLevel() {
-        return level;
+    public static double getFactor() {
+        return governor.getFactor();
+    }
+    
+    /**
+     * Multiplied to the chunk delivery rate of every player.
+     */
+    public static double getChunkDeliveryRateScale() {
+        return governor.getFactor();
+    }
+    
+    public static int getIndirectLoadingRadiusCap() {
+        return governor.interpolate(2, 32);
+    }
+    
+    public static int getVisiblePortalRangeChunks() {
+        return governor.interpolate(1, 8);
+    }
+    
+    public static int getIndirectVisiblePortalRangeChunks() {
+        return governor.interpolate(0, 2);
+    }
+    
+    public static boolean isShrinkLoading() {
+        return governor.getFactor() < 0.75;
+    }
+    
+    public static String getDebugString() {
+        return governor.toString();
     }
     
 }
@@ -2098,7 +2098,7 @@ public class PortalCommand {
                 portal.height * 0.5 * Math.sin(twoPi * ((double) i) / triangleNum),
                 portal.width * 0.5 * Math.cos(twoPi * ((double) i + 1) / triangleNum),
                 portal.height * 0.5 * Math.sin(twoPi * ((double) i + 1) / triangleNum)
-            )).collect(Collectors.toList());
+            )).collect(Collectors.toCollection(GeometryPortalShape.TriangleList::new));
         portal.specialShape = shape;
         portal.cullableXStart = 0;
         portal.cullableXEnd = 0;
@@ -34,9 +34,11 @@ import qouteall.imm_ptl.core.CHelper;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.api.example.ExampleGuiPortalRendering;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPacketCache;
 import qouteall.imm_ptl.core.chunk_loading.ChunkVisibility;
 import qouteall.imm_ptl.core.chunk_loading.MyLoadingTicket;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
+import qouteall.imm_ptl.core.chunk_loading.ServerPerformanceMonitor;
 import qouteall.imm_ptl.core.ducks.IEServerWorld;
 import qouteall.imm_ptl.core.ducks.IEWorld;
 import qouteall.imm_ptl.core.mixin.common.mc_util.IELevelEntityGetterAdapter;
@@ -251,6 +253,26 @@ public class PortalDebugCommands {
             })
         );
         
+        builder.then(Commands
+            .literal("report_server_performance")
+            .requires(serverCommandSource -> serverCommandSource.hasPermission(2))
+            .executes(context -> {
+                context.getSource().sendSuccess(
+                    new TextComponent(String.format(
+                        "%s\nindirect loading radius cap %d, visible portal range %d, " +
+                            "indirect visible portal range %d, shrink loading %s",
+                        ServerPerformanceMonitor.getDebugString(),
+                        ServerPerformanceMonitor.getIndirectLoadingRadiusCap(),
+                        ServerPerformanceMonitor.getVisiblePortalRangeChunks(),
+                        ServerPerformanceMonitor.getIndirectVisiblePortalRangeChunks(),
+                        ServerPerformanceMonitor.isShrinkLoading()
+                    )),
+                    false
+                );
+                return 0;
+            })
+        );
+        
         builder.then(Commands
             .literal("report_server_entities_nearby")
             .requires(serverCommandSource -> serverCommandSource.hasPermission(3))
@@ -396,6 +418,8 @@ public class PortalDebugCommands {
                     }
                 );
                 
+                str.append(ChunkPacketCache.getReport()).append("\n");
+                
                 McHelper.serverLog(context.getSource().getPlayerOrException(), str.toString());
                 
                 McRemoteProcedureCall.tellClientToInvoke(
@@ -491,6 +515,8 @@ public class PortalDebugCommands {
             entityManager.gatherStats()
         ));
         
+        subStr.append(ChunkPacketCache.getReport(world.dimension())).append("\n");
+        
         subStr.append("\n");
         
         String result = subStr.toString();
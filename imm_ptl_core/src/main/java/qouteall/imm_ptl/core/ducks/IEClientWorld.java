@@ -4,6 +4,7 @@ import net.minecraft.client.multiplayer.ClientPacketListener;
 import net.minecraft.world.level.entity.EntityTickList;
 import net.minecraft.world.level.saveddata.maps.MapItemSavedData;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 
 import javax.annotation.Nullable;
 import java.util.List;
@@ -19,6 +20,13 @@ public interface IEClientWorld {
     
     void setGlobalPortals(List<Portal> arg);
     
+    PortalSpatialIndex getGlobalPortalIndex();
+    
+    // the version of the last applied global portal sync of this dimension
+    int ip_getGlobalPortalSyncVersion();
+    
+    void ip_setGlobalPortalSyncVersion(int syncVersion);
+    
     void resetWorldRendererRef();
     
     EntityTickList ip_getEntityList();
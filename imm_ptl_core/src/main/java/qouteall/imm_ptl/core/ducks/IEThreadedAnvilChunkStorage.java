@@ -5,6 +5,9 @@ import net.minecraft.server.level.*;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.chunk.LevelChunk;
+import qouteall.imm_ptl.core.chunk_loading.EntityTrackerIndex;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface IEThreadedAnvilChunkStorage {
     int ip_getWatchDistance();
@@ -31,5 +34,9 @@ public interface IEThreadedAnvilChunkStorage {
     
     boolean portal_isChunkGenerated(ChunkPos chunkPos);
     
+    CompletableFuture<Boolean> portal_isChunkGeneratedAsync(ChunkPos chunkPos);
+    
     Int2ObjectMap<ChunkMap.TrackedEntity> ip_getEntityTrackerMap();
+    
+    EntityTrackerIndex<ChunkMap.TrackedEntity, ServerPlayer> ip_getEntityTrackerIndex();
 }
@@ -26,6 +26,8 @@ import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.ducks.IEClientWorld;
 import qouteall.imm_ptl.core.platform_specific.O_O;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
+import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
 import java.util.List;
@@ -66,6 +68,10 @@ public abstract class MixinClientLevel implements IEClientWorld {
     
     private List<Portal> portal_globalPortals;
     
+    private final PortalSpatialIndex portal_globalPortalIndex = new PortalSpatialIndex();
+    
+    private int portal_globalPortalSyncVersion = GlobalPortalStorage.CLIENT_NOT_SYNCED;
+    
     @Override
     public ClientPacketListener getNetHandler() {
         return connection;
@@ -84,6 +90,22 @@ public abstract class MixinClientLevel implements IEClientWorld {
     @Override
     public void setGlobalPortals(List<Portal> arg) {
         portal_globalPortals = arg;
+        portal_globalPortalIndex.rebuild(arg);
+    }
+    
+    @Override
+    public PortalSpatialIndex getGlobalPortalIndex() {
+        return portal_globalPortalIndex;
+    }
+    
+    @Override
+    public int ip_getGlobalPortalSyncVersion() {
+        return portal_globalPortalSyncVersion;
+    }
+    
+    @Override
+    public void ip_setGlobalPortalSyncVersion(int syncVersion) {
+        portal_globalPortalSyncVersion = syncVersion;
     }
     
     //use my client chunk manager
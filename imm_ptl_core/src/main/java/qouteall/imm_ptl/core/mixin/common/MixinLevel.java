@@ -1,17 +1,24 @@
 package qouteall.imm_ptl.core.mixin.common;
 
+import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.entity.LevelEntityGetter;
 import net.minecraft.world.level.storage.WritableLevelData;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPacketCache;
 import qouteall.imm_ptl.core.ducks.IEWorld;
+import qouteall.imm_ptl.core.portal.PortalClusterIndex;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 
 @Mixin(Level.class)
 public abstract class MixinLevel implements IEWorld {
@@ -42,6 +49,20 @@ public abstract class MixinLevel implements IEWorld {
     @Final
     private Thread thread;
     
+    @Unique
+    private final PortalSpatialIndex portal_portalEntityIndex = new PortalSpatialIndex();
+    
+    @Unique
+    private final PortalClusterIndex portal_portalClusterIndex = new PortalClusterIndex();
+    
+    // BlockEntity.setChanged calls this, including the block entity data changes that are not synced
+    @Inject(method = "blockEntityChanged", at = @At("HEAD"))
+    private void onBlockEntityChanged(BlockPos pos, CallbackInfo ci) {
+        if (((Object) this) instanceof ServerLevel) {
+            ChunkPacketCache.invalidate(dimension(), ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+        }
+    }
+    
     // Fix overworld rain cause nether fog change
     @Inject(method = "prepareWeather()V", at = @At("TAIL"))
     private void onInitWeatherGradients(CallbackInfo ci) {
@@ -75,4 +96,14 @@ public abstract class MixinLevel implements IEWorld {
     public Thread portal_getThread() {
         return thread;
     }
+    
+    @Override
+    public PortalSpatialIndex portal_getPortalEntityIndex() {
+        return portal_portalEntityIndex;
+    }
+    
+    @Override
+    public PortalClusterIndex portal_getPortalClusterIndex() {
+        return portal_portalClusterIndex;
+    }
 }
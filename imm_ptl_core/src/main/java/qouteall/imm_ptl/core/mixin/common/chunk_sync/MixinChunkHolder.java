@@ -6,10 +6,15 @@ import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LightLayer;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPacketCache;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
 import qouteall.imm_ptl.core.ducks.IEChunkHolder;
 import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
@@ -43,16 +48,28 @@ public class MixinChunkHolder implements IEChunkHolder {
             );
 
         if (onlyOnRenderDistanceEdge) {
-            NewChunkTrackingGraph.getFarWatchers(
-                dimension, pos.x, pos.z
-            ).forEach(func);
+            NewChunkTrackingGraph.foreachFarWatcher(
+                dimension, pos.x, pos.z, func
+            );
         }
         else {
-            NewChunkTrackingGraph.getPlayersViewingChunk(
-                dimension, pos.x, pos.z
-            ).forEach(func);
+            NewChunkTrackingGraph.foreachPlayerViewingChunk(
+                dimension, pos.x, pos.z, func
+            );
         }
         
     }
     
+    // the block changes are handled in MixinLevelChunk_ChunkPacketCache, including the ones that are not synced
+    @Inject(method = "sectionLightChanged", at = @At("HEAD"))
+    private void onSectionLightChanged(LightLayer lightLayer, int sectionY, CallbackInfo ci) {
+        invalidateCachedChunkPacket();
+    }
+    
+    private void invalidateCachedChunkPacket() {
+        ResourceKey<Level> dimension =
+            ((IEThreadedAnvilChunkStorage) playerProvider).ip_getWorld().dimension();
+        ChunkPacketCache.invalidate(dimension, pos.toLong());
+    }
+    
 }
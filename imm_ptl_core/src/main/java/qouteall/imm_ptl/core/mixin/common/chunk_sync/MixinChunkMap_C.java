@@ -2,26 +2,28 @@ package qouteall.imm_ptl.core.mixin.common.chunk_sync;
 
 import com.mojang.datafixers.util.Either;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
 import net.minecraft.server.level.*;
 import net.minecraft.util.thread.ProcessorHandle;
 import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.apache.commons.lang3.mutable.MutableObject;
-import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.chunk_loading.ChunkGeneratedIndex;
+import qouteall.imm_ptl.core.chunk_loading.ChunkReadinessTracker;
 import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
+import qouteall.q_misc_util.MiscHelper;
 
-import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -55,10 +57,6 @@ public abstract class MixinChunkMap_C implements IEThreadedAnvilChunkStorage {
     @Final
     private ProcessorHandle<ChunkTaskPriorityQueueSorter.Message<Runnable>> mainThreadMailbox;
     
-    @Shadow
-    @Nullable
-    protected abstract CompoundTag readChunk(ChunkPos pos) throws IOException;
-    
     @Shadow
     @Final
     private ThreadedLevelLightEngine lightEngine;
@@ -83,19 +81,48 @@ public abstract class MixinChunkMap_C implements IEThreadedAnvilChunkStorage {
         return getVisibleChunkIfPresent(long_1);
     }
     
+    @Unique
+    private ChunkGeneratedIndex ip_chunkGeneratedIndex;
+    
+    @Unique
+    private ChunkGeneratedIndex ip_getChunkGeneratedIndex() {
+        if (ip_chunkGeneratedIndex == null) {
+            ip_chunkGeneratedIndex = new ChunkGeneratedIndex(
+                MiscHelper.getServer().storageSource
+                    .getDimensionPath(level.dimension()).resolve("region"),
+                ChunkGeneratedIndex.getIOExecutor()
+            );
+        }
+        return ip_chunkGeneratedIndex;
+    }
+    
     @Override
     public boolean portal_isChunkGenerated(ChunkPos chunkPos) {
         if (level.getChunkSource().hasChunk(chunkPos.x, chunkPos.z)) {
             return true;
         }
         
-        try {
-            CompoundTag tag = readChunk(chunkPos);
-            return tag != null;
+        // only reads the region header when the region is not indexed yet
+        return ip_getChunkGeneratedIndex().isChunkGenerated(chunkPos.x, chunkPos.z);
+    }
+    
+    @Override
+    public CompletableFuture<Boolean> portal_isChunkGeneratedAsync(ChunkPos chunkPos) {
+        if (level.getChunkSource().hasChunk(chunkPos.x, chunkPos.z)) {
+            return CompletableFuture.completedFuture(true);
         }
-        catch (IOException e) {
-            e.printStackTrace();
-            return false;
+        
+        return ip_getChunkGeneratedIndex().isChunkGeneratedAsync(chunkPos.x, chunkPos.z);
+    }
+    
+    @Inject(
+        method = "Lnet/minecraft/server/level/ChunkMap;save(Lnet/minecraft/world/level/chunk/ChunkAccess;)Z",
+        at = @At("RETURN")
+    )
+    private void onSave(ChunkAccess chunk, CallbackInfoReturnable<Boolean> cir) {
+        if (cir.getReturnValue()) {
+            ChunkPos chunkPos = chunk.getPos();
+            ip_getChunkGeneratedIndex().markGenerated(chunkPos.x, chunkPos.z);
         }
     }
     
@@ -136,6 +163,7 @@ public abstract class MixinChunkMap_C implements IEThreadedAnvilChunkStorage {
         future.thenAcceptAsync((either) -> {
             either.mapLeft((worldChunk) -> {
                 IPGlobal.chunkDataSyncManager.onChunkProvidedDeferred(worldChunk);
+                ChunkReadinessTracker.onChunkLoaded(worldChunk);
                 
                 return Either.left(worldChunk);
             });
@@ -0,0 +1,46 @@
+package qouteall.imm_ptl.core.mixin.common.chunk_sync;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPacketCache;
+
+/**
+ * Every block change goes through setBlockState, no matter whether the change is synced to the client.
+ */
+@Mixin(LevelChunk.class)
+public class MixinLevelChunk_ChunkPacketCache {
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void onSetBlockState(
+        BlockPos pos, BlockState state, boolean isMoving, CallbackInfoReturnable<BlockState> cir
+    ) {
+        // it returns null if the block does not change
+        if (cir.getReturnValue() != null) {
+            invalidateCachedChunkPacket();
+        }
+    }
+    
+    @Inject(method = "setBlockEntity", at = @At("HEAD"))
+    private void onSetBlockEntity(BlockEntity blockEntity, CallbackInfo ci) {
+        invalidateCachedChunkPacket();
+    }
+    
+    @Inject(method = "removeBlockEntity", at = @At("HEAD"))
+    private void onRemoveBlockEntity(BlockPos pos, CallbackInfo ci) {
+        invalidateCachedChunkPacket();
+    }
+    
+    private void invalidateCachedChunkPacket() {
+        LevelChunk this_ = (LevelChunk) (Object) this;
+        if (this_.getLevel() instanceof ServerLevel serverLevel) {
+            ChunkPacketCache.invalidate(serverLevel.dimension(), this_.getPos().toLong());
+        }
+    }
+}
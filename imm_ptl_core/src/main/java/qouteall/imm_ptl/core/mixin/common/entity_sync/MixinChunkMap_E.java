@@ -15,10 +15,12 @@ import org.apache.commons.lang3.Validate;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.chunk_loading.EntityTrackerIndex;
 import qouteall.imm_ptl.core.ducks.IEEntityTracker;
 import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
 import qouteall.imm_ptl.core.network.PacketRedirection;
@@ -39,12 +41,31 @@ public abstract class MixinChunkMap_E implements IEThreadedAnvilChunkStorage {
     @Final
     private ServerLevel level;
     
+    @Unique
+    private final EntityTrackerIndex<TrackedEntity, ServerPlayer> ip_entityTrackerIndex = new EntityTrackerIndex<>();
+    
+    @Inject(
+        method = "Lnet/minecraft/server/level/ChunkMap;addEntity(Lnet/minecraft/world/entity/Entity;)V",
+        at = @At("TAIL")
+    )
+    private void onLoadEntity(Entity entity, CallbackInfo ci) {
+        TrackedEntity tracker = entityMap.get(entity.getId());
+        if (tracker != null) {
+            ip_entityTrackerIndex.add(tracker, entity.chunkPosition().toLong());
+        }
+    }
+    
     @Inject(
         method = "Lnet/minecraft/server/level/ChunkMap;removeEntity(Lnet/minecraft/world/entity/Entity;)V",
         at = @At("HEAD"),
         cancellable = true
     )
     private void onUnloadEntity(Entity entity, CallbackInfo ci) {
+        TrackedEntity removedTracker = entityMap.get(entity.getId());
+        if (removedTracker != null) {
+            ip_entityTrackerIndex.remove(removedTracker);
+        }
+        
         //when the player leave this dimension, do not stop tracking entities
         if (entity instanceof ServerPlayer) {
             ServerPlayer player = (ServerPlayer) entity;
@@ -94,9 +115,9 @@ public abstract class MixinChunkMap_E implements IEThreadedAnvilChunkStorage {
         List<Entity> attachedEntityList = Lists.newArrayList();
         List<Entity> passengerList = Lists.newArrayList();
         
-        for (Object entityTracker : this.entityMap.values()) {
+        ip_entityTrackerIndex.foreachTrackerInChunk(chunk.getPos().toLong(), entityTracker -> {
             Entity entity = ((IEEntityTracker) entityTracker).getEntity_();
-            if (entity != player && entity.chunkPosition().equals(chunk.getPos())) {
+            if (entity != player) {
                 ((IEEntityTracker) entityTracker).updateEntityTrackingStatus(player);
                 if (entity instanceof Mob && ((Mob) entity).getLeashHolder() != null) {
                     attachedEntityList.add(entity);
@@ -106,7 +127,7 @@ public abstract class MixinChunkMap_E implements IEThreadedAnvilChunkStorage {
                     passengerList.add(entity);
                 }
             }
-        }
+        });
         
         PacketRedirection.withForceRedirect(
             level,
@@ -135,4 +156,9 @@ public abstract class MixinChunkMap_E implements IEThreadedAnvilChunkStorage {
     public Int2ObjectMap<TrackedEntity> ip_getEntityTrackerMap() {
         return entityMap;
     }
+    
+    @Override
+    public EntityTrackerIndex<TrackedEntity, ServerPlayer> ip_getEntityTrackerIndex() {
+        return ip_entityTrackerIndex;
+    }
 }
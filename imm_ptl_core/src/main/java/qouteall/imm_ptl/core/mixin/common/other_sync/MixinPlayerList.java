@@ -103,16 +103,18 @@ public class MixinPlayerList {
     ) {
         ChunkPos chunkPos = new ChunkPos(new BlockPos(new Vec3(x, y, z)));
         
-        NewChunkTrackingGraph.getPlayersViewingChunk(
-            dimension, chunkPos.x, chunkPos.z
-        ).filter(playerEntity -> NewChunkTrackingGraph.isPlayerWatchingChunkWithinRaidus(
-            playerEntity, dimension, chunkPos.x, chunkPos.z, (int) distance + 16
-        )).forEach(playerEntity -> {
-            if (playerEntity != excludingPlayer) {
-                PacketRedirection.sendRedirectedMessage(
-                    playerEntity, dimension, packet
-                );
+        NewChunkTrackingGraph.foreachPlayerViewingChunk(
+            dimension, chunkPos.x, chunkPos.z, playerEntity -> {
+                if (playerEntity != excludingPlayer &&
+                    NewChunkTrackingGraph.isPlayerWatchingChunkWithinRaidus(
+                        playerEntity, dimension, chunkPos.x, chunkPos.z, (int) distance + 16
+                    )
+                ) {
+                    PacketRedirection.sendRedirectedMessage(
+                        playerEntity, dimension, packet
+                    );
+                }
             }
-        });
+        );
     }
 }
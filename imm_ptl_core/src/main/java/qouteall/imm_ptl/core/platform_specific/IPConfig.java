@@ -46,6 +46,7 @@ public class IPConfig {
     public static ForgeConfigSpec.EnumValue<IPGlobal.EndPortalMode> endPortalMode;
     public static ForgeConfigSpec.BooleanValue enableModelDataFix;
     public static ForgeConfigSpec.BooleanValue editGlobalDimensionStack;
+    public static ForgeConfigSpec.IntValue builtChunkStorageMemoryBudgetMB;
 
     public static void register(ForgeConfigSpec.Builder builder) {
         builder.comment("Check the wiki at https://qouteall.fun/immptl/wiki/Config-Options for more information");
@@ -85,6 +86,9 @@ public class IPConfig {
         netherPortalMode = builder.defineEnum("netherPortalMode", IPGlobal.NetherPortalMode.normal, IPGlobal.NetherPortalMode.values());
         endPortalMode = builder.defineEnum("endPortalMode", IPGlobal.EndPortalMode.normal, IPGlobal.EndPortalMode.values());
         editGlobalDimensionStack = builder.define("enableGlobalDimensionStack", false);
+        builtChunkStorageMemoryBudgetMB = builder
+            .comment("The estimated memory budget of the cached render sections of each dimension, in megabytes")
+            .defineInRange("builtChunkStorageMemoryBudgetMB", 512, 16, Integer.MAX_VALUE);
 
         ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, builder.build());
     }
@@ -139,6 +143,7 @@ public class IPConfig {
         IPGlobal.enableServerPerformanceAdjustment = enableServerPerformanceAdjustment.get();
         IPGlobal.enableCrossPortalSound = enableCrossPortalSound.get();
         IPGlobal.enableModelDataFix = enableModelDataFix.get();
+        IPGlobal.builtChunkStorageMemoryBudgetMB = builtChunkStorageMemoryBudgetMB.get();
 
         if (Boolean.TRUE.equals(enableDepthClampForPortalRendering.get())) {
             IPGlobal.enableDepthClampForPortalRendering = true;
@@ -10,28 +10,61 @@ import qouteall.q_misc_util.dimension.DimId;
 
 import java.util.function.Supplier;
 
+/**
+ * Either a full snapshot of a dimension's global portals, or the changes since the previous sync.
+ * A delta can only be applied on the version that it is based on.
+ */
 public class GlobalPortalUpdate {
     private ResourceKey<Level> dimension;
+    private boolean isFullSnapshot;
+    private int baseVersion;
+    private int syncVersion;
     private CompoundTag compoundTag;
 
     public GlobalPortalUpdate(GlobalPortalStorage storage) {
         this.dimension = storage.world.get().dimension();
+        this.isFullSnapshot = true;
+        this.baseVersion = storage.getSyncVersion();
+        this.syncVersion = storage.getSyncVersion();
         this.compoundTag = storage.save(new CompoundTag());
     }
 
+    public GlobalPortalUpdate(
+        ResourceKey<Level> dimension, CompoundTag deltaTag, int baseVersion, int syncVersion
+    ) {
+        this.dimension = dimension;
+        this.isFullSnapshot = false;
+        this.baseVersion = baseVersion;
+        this.syncVersion = syncVersion;
+        this.compoundTag = deltaTag;
+    }
+
     public GlobalPortalUpdate(FriendlyByteBuf buf) {
         dimension = DimId.readWorldId(buf, true);
+        isFullSnapshot = buf.readBoolean();
+        baseVersion = buf.readVarInt();
+        syncVersion = buf.readVarInt();
         compoundTag = buf.readNbt();
     }
 
     public void toBytes(FriendlyByteBuf buf) {
         DimId.writeWorldId(buf, dimension, false);
+        buf.writeBoolean(isFullSnapshot);
+        buf.writeVarInt(baseVersion);
+        buf.writeVarInt(syncVersion);
         buf.writeNbt(compoundTag);
     }
 
     public boolean handle(Supplier<NetworkEvent.Context> supplier) {
         NetworkEvent.Context ctx = supplier.get();
-        ctx.enqueueWork(() -> GlobalPortalStorage.receiveGlobalPortalSync(dimension, compoundTag));
+        ctx.enqueueWork(() -> {
+            if (isFullSnapshot) {
+                GlobalPortalStorage.receiveGlobalPortalSync(dimension, compoundTag, syncVersion);
+            }
+            else {
+                GlobalPortalStorage.receiveGlobalPortalDelta(dimension, compoundTag, baseVersion, syncVersion);
+            }
+        });
         ctx.setPacketHandled(true);
         return true;
     }
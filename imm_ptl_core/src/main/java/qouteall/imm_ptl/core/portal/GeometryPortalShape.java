@@ -2,36 +2,48 @@ package qouteall.imm_ptl.core.portal;
 
 import net.minecraft.nbt.DoubleTag;
 import net.minecraft.nbt.ListTag;
+import net.minecraft.util.Mth;
 import qouteall.q_misc_util.Helper;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 public class GeometryPortalShape {
+    /**
+     * The triangles are immutable, so that a shape can cache them.
+     * To change a triangle, replace it in the list.
+     */
     public static class TriangleInPlane {
-        public double x1;
-        public double y1;
-        public double x2;
-        public double y2;
-        public double x3;
-        public double y3;
+        public final double x1;
+        public final double y1;
+        public final double x2;
+        public final double y2;
+        public final double x3;
+        public final double y3;
         
         //counter clock wise
         public TriangleInPlane(double x1, double y1, double x2, double y2, double x3, double y3) {
             this.x1 = x1;
             this.y1 = y1;
-            this.x2 = x2;
-            this.y2 = y2;
-            this.x3 = x3;
-            this.y3 = y3;
             
-            if (!isCounterClockWise()) {
+            if (isOnLeftSideOfTheLine(x3, y3, x1, y1, x2, y2)) {
+                this.x2 = x2;
+                this.y2 = y2;
+                this.x3 = x3;
+                this.y3 = y3;
+            }
+            else {
                 this.x2 = x3;
                 this.y2 = y3;
                 this.x3 = x2;
                 this.y3 = y2;
-                assert isCounterClockWise();
             }
+            
+            assert isCounterClockWise();
         }
         
         public boolean isCounterClockWise() {
@@ -47,9 +59,7 @@ public class GeometryPortalShape {
         ) {
             assert isCounterClockWise();
             
-            return isOnLeftSideOfTheLine(x, y, x1, y1, x2, y2) &&
-                isOnLeftSideOfTheLine(x, y, x2, y2, x3, y3) &&
-                isOnLeftSideOfTheLine(x, y, x3, y3, x1, y1);
+            return GeometryPortalShape.isPointInTriangle(x, y, x1, y1, x2, y2, x3, y3);
         }
         
         public double getArea() {
@@ -60,6 +70,17 @@ public class GeometryPortalShape {
         }
     }
     
+    private static boolean isPointInTriangle(
+        double x, double y,
+        double x1, double y1,
+        double x2, double y2,
+        double x3, double y3
+    ) {
+        return isOnLeftSideOfTheLine(x, y, x1, y1, x2, y2) &&
+            isOnLeftSideOfTheLine(x, y, x2, y2, x3, y3) &&
+            isOnLeftSideOfTheLine(x, y, x3, y3, x1, y1);
+    }
+    
     private static boolean isOnLeftSideOfTheLine(
         double x, double y,
         double x1, double y1,
@@ -79,14 +100,245 @@ public class GeometryPortalShape {
         return x1 * y2 - x2 * y1;
     }
     
+    /**
+     * Counts its modifications, including the replacements that don't change the modCount of ArrayList,
+     * so that the shape can tell whether its cache is outdated without comparing the triangles.
+     */
+    public static class TriangleList extends ArrayList<TriangleInPlane> {
+        private int replaceCount = 0;
+        
+        public TriangleList() {
+        }
+        
+        public TriangleList(Collection<? extends TriangleInPlane> triangles) {
+            super(triangles);
+        }
+        
+        @Override
+        public TriangleInPlane set(int index, TriangleInPlane element) {
+            replaceCount++;
+            return super.set(index, element);
+        }
+        
+        // a sub list replaces the elements without calling set()
+        @Override
+        public List<TriangleInPlane> subList(int fromIndex, int toIndex) {
+            replaceCount++;
+            return super.subList(fromIndex, toIndex);
+        }
+        
+        public int getVersion() {
+            return modCount + replaceCount;
+        }
+    }
+    
+    /**
+     * The triangles packed into an array, with a uniform grid over the bounds of the shape.
+     * Every cell of the grid lists the triangles whose bounding box touches the cell,
+     * so a point query only tests the triangles in one cell.
+     * It's immutable after building, so it's safe to be read by multiple threads.
+     */
+    private static class Accelerator {
+        // a shape with no more triangles than this is tested linearly
+        private static final int linearTestThreshold = 4;
+        private static final int maxGridSize = 64;
+        
+        private final List<TriangleInPlane> sourceTriangles;
+        private final int sourceVersion;
+        // only for the lists that are not TriangleList
+        @Nullable
+        private final TriangleInPlane[] sourceTriangleArray;
+        
+        public final int triangleNum;
+        
+        // 6 numbers for a triangle, in the same order as the tag
+        public final double[] packed;
+        public final double area;
+        public final double minX;
+        public final double minY;
+        public final double maxX;
+        public final double maxY;
+        
+        private final int gridSizeX;
+        private final int gridSizeY;
+        private final double cellsPerUnitX;
+        private final double cellsPerUnitY;
+        // the triangle indices of cell i are cellTriangles[cellStarts[i]] to cellTriangles[cellStarts[i + 1] - 1]
+        private final int[] cellStarts;
+        private final int[] cellTriangles;
+        
+        public Accelerator(List<TriangleInPlane> triangles) {
+            sourceTriangles = triangles;
+            if (triangles instanceof TriangleList triangleList) {
+                sourceVersion = triangleList.getVersion();
+                sourceTriangleArray = null;
+            }
+            else {
+                sourceVersion = 0;
+                sourceTriangleArray = triangles.toArray(new TriangleInPlane[0]);
+            }
+            triangleNum = triangles.size();
+            packed = new double[triangleNum * 6];
+            
+            double areaSum = 0;
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < triangleNum; i++) {
+                TriangleInPlane triangle = triangles.get(i);
+                packed[i * 6] = triangle.x1;
+                packed[i * 6 + 1] = triangle.y1;
+                packed[i * 6 + 2] = triangle.x2;
+                packed[i * 6 + 3] = triangle.y2;
+                packed[i * 6 + 4] = triangle.x3;
+                packed[i * 6 + 5] = triangle.y3;
+                
+                areaSum += triangle.getArea();
+                minX = Math.min(minX, Math.min(triangle.x1, Math.min(triangle.x2, triangle.x3)));
+                minY = Math.min(minY, Math.min(triangle.y1, Math.min(triangle.y2, triangle.y3)));
+                maxX = Math.max(maxX, Math.max(triangle.x1, Math.max(triangle.x2, triangle.x3)));
+                maxY = Math.max(maxY, Math.max(triangle.y1, Math.max(triangle.y2, triangle.y3)));
+            }
+            this.area = areaSum;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            
+            if (triangleNum <= linearTestThreshold) {
+                gridSizeX = 0;
+                gridSizeY = 0;
+                cellsPerUnitX = 0;
+                cellsPerUnitY = 0;
+                cellStarts = null;
+                cellTriangles = null;
+                return;
+            }
+            
+            int gridSize = Math.min(maxGridSize, (int) Math.ceil(Math.sqrt(triangleNum)));
+            gridSizeX = gridSize;
+            gridSizeY = gridSize;
+            cellsPerUnitX = maxX > minX ? gridSizeX / (maxX - minX) : 0;
+            cellsPerUnitY = maxY > minY ? gridSizeY / (maxY - minY) : 0;
+            
+            int cellNum = gridSizeX * gridSizeY;
+            
+            // count the triangles of every cell, then fill them in
+            cellStarts = new int[cellNum + 1];
+            for (int i = 0; i < triangleNum; i++) {
+                foreachCellOfTriangle(i, cell -> cellStarts[cell + 1]++);
+            }
+            for (int cell = 0; cell < cellNum; cell++) {
+                cellStarts[cell + 1] += cellStarts[cell];
+            }
+            
+            cellTriangles = new int[cellStarts[cellNum]];
+            int[] cursors = Arrays.copyOf(cellStarts, cellNum);
+            for (int i = 0; i < triangleNum; i++) {
+                int triangleIndex = i;
+                foreachCellOfTriangle(i, cell -> {
+                    cellTriangles[cursors[cell]] = triangleIndex;
+                    cursors[cell]++;
+                });
+            }
+        }
+        
+        /**
+         * The triangles are immutable, so only the list needs to be checked.
+         * A list that does not count its modifications is compared triangle by triangle.
+         */
+        public boolean isBuiltFrom(List<TriangleInPlane> triangles) {
+            if (triangles != sourceTriangles) {
+                return false;
+            }
+            
+            if (triangles instanceof TriangleList triangleList) {
+                return triangleList.getVersion() == sourceVersion;
+            }
+            
+            if (triangles.size() != triangleNum) {
+                return false;
+            }
+            for (int i = 0; i < triangleNum; i++) {
+                if (triangles.get(i) != sourceTriangleArray[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private void foreachCellOfTriangle(int i, IntConsumer func) {
+            int base = i * 6;
+            int cellMinX = getCellX(Math.min(packed[base], Math.min(packed[base + 2], packed[base + 4])));
+            int cellMaxX = getCellX(Math.max(packed[base], Math.max(packed[base + 2], packed[base + 4])));
+            int cellMinY = getCellY(Math.min(packed[base + 1], Math.min(packed[base + 3], packed[base + 5])));
+            int cellMaxY = getCellY(Math.max(packed[base + 1], Math.max(packed[base + 3], packed[base + 5])));
+            for (int cx = cellMinX; cx <= cellMaxX; cx++) {
+                for (int cy = cellMinY; cy <= cellMaxY; cy++) {
+                    func.accept(cx * gridSizeY + cy);
+                }
+            }
+        }
+        
+        public boolean isPointInShape(double x, double y) {
+            if (triangleNum == 0 || x < minX || x > maxX || y < minY || y > maxY) {
+                return false;
+            }
+            
+            if (cellStarts == null) {
+                for (int i = 0; i < triangleNum; i++) {
+                    if (testTriangle(i, x, y)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            
+            int cell = getCellX(x) * gridSizeY + getCellY(y);
+            for (int j = cellStarts[cell]; j < cellStarts[cell + 1]; j++) {
+                if (testTriangle(cellTriangles[j], x, y)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private boolean testTriangle(int i, double x, double y) {
+            int base = i * 6;
+            return isPointInTriangle(
+                x, y,
+                packed[base], packed[base + 1],
+                packed[base + 2], packed[base + 3],
+                packed[base + 4], packed[base + 5]
+            );
+        }
+        
+        private int getCellX(double x) {
+            return Mth.clamp((int) Math.floor((x - minX) * cellsPerUnitX), 0, gridSizeX - 1);
+        }
+        
+        private int getCellY(double y) {
+            return Mth.clamp((int) Math.floor((y - minY) * cellsPerUnitY), 0, gridSizeY - 1);
+        }
+    }
+    
+    /**
+     * The acceleration structure and the cached area and bounds are built lazily
+     * and rebuilt when this list is replaced or modified.
+     * It's checked quickly if it's a {@link TriangleList}.
+     */
     public List<TriangleInPlane> triangles;
     
+    @Nullable
+    private volatile Accelerator accelerator;
+    
     public GeometryPortalShape() {
-        triangles = new ArrayList<>();
+        triangles = new TriangleList();
     }
     
     public GeometryPortalShape(ListTag tag) {
-        triangles = new ArrayList<>();
+        triangles = new TriangleList();
         
         int size = tag.size();
         if (size % 6 != 0) {
@@ -136,6 +388,46 @@ public class GeometryPortalShape {
         ));
     }
     
+    /**
+     * The coordinates are in the portal's local plane coordinate.
+     */
+    public boolean isPointInShape(double x, double y) {
+        return getAccelerator().isPointInShape(x, y);
+    }
+    
+    public double getArea() {
+        return getAccelerator().area;
+    }
+    
+    /**
+     * The bounds are infinite if there is no triangle.
+     */
+    public double getBoundsMinX() {
+        return getAccelerator().minX;
+    }
+    
+    public double getBoundsMinY() {
+        return getAccelerator().minY;
+    }
+    
+    public double getBoundsMaxX() {
+        return getAccelerator().maxX;
+    }
+    
+    public double getBoundsMaxY() {
+        return getAccelerator().maxY;
+    }
+    
+    private Accelerator getAccelerator() {
+        Accelerator result = accelerator;
+        List<TriangleInPlane> currentTriangles = triangles;
+        if (result == null || !result.isBuiltFrom(currentTriangles)) {
+            result = new Accelerator(currentTriangles);
+            accelerator = result;
+        }
+        return result;
+    }
+    
     public boolean isValid() {
         if (triangles.isEmpty()) {
             return false;
@@ -2,7 +2,6 @@ package qouteall.imm_ptl.core.portal;
 
 import com.mojang.math.Matrix4f;
 import com.mojang.math.Quaternion;
-import com.mojang.math.Vector3f;
 import net.minecraft.Util;
 import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.core.BlockPos;
@@ -35,8 +34,8 @@ import qouteall.imm_ptl.core.compat.PehkuiInterface;
 import qouteall.imm_ptl.core.compat.iris_compatibility.IrisInterface;
 import qouteall.imm_ptl.core.mc_utils.IPEntityEventListenableEntity;
 import qouteall.imm_ptl.core.platform_specific.forge.networking.IPMessage;
+import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.platform_specific.forge.networking.Spawn_Entity;
-import qouteall.imm_ptl.core.render.FrustumCuller;
 import qouteall.imm_ptl.core.render.PortalGroup;
 import qouteall.imm_ptl.core.render.PortalRenderer;
 import qouteall.imm_ptl.core.render.ViewAreaRenderer;
@@ -119,6 +118,8 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
     private AABB boundingBoxCache;
     private Vec3 normal;
     private Vec3 contentDirection;
+    @Nullable
+    private PortalAffineTransform affineTransformCache;
     
     /**
      * For outer frustum culling
@@ -221,6 +222,18 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
         portalDisposeSignal.emit(this);
     }
     
+    @Override
+    public void onAddedToWorld() {
+        super.onAddedToWorld();
+        PortalEntityRegistry.onPortalAdded(this);
+    }
+    
+    @Override
+    public void onRemovedFromWorld() {
+        super.onRemovedFromWorld();
+        PortalEntityRegistry.onPortalRemoved(this);
+    }
+    
     /**
      * @return use the portal's transformation to transform a point
      */
@@ -239,6 +252,48 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
         return transformLocalVecNonScale(localVec).scale(scaling);
     }
     
+    /**
+     * The portal's transformation as a cached affine matrix.
+     * It's rebuilt when the portal's cache updates or the transformation changes.
+     */
+    public PortalAffineTransform getAffineTransform() {
+        PortalAffineTransform cache = affineTransformCache;
+        if (cache == null || !cache.isBuiltFrom(this)) {
+            cache = PortalAffineTransform.fromPortal(this);
+            affineTransformCache = cache;
+        }
+        return cache;
+    }
+    
+    /**
+     * The allocation-free form of {@link #transformPoint(Vec3)}.
+     * Writes the x, y, z of the result into the first 3 elements of the array.
+     */
+    public void transformPoint(double x, double y, double z, double[] result) {
+        getAffineTransform().transformPoint(x, y, z, result);
+    }
+    
+    /**
+     * The allocation-free form of {@link #transformLocalVec(Vec3)}.
+     */
+    public void transformLocalVec(double x, double y, double z, double[] result) {
+        getAffineTransform().transformLocalVec(x, y, z, result);
+    }
+    
+    /**
+     * The allocation-free form of {@link #inverseTransformPoint(Vec3)}.
+     */
+    public void inverseTransformPoint(double x, double y, double z, double[] result) {
+        getAffineTransform().inverseTransformPoint(x, y, z, result);
+    }
+    
+    /**
+     * The allocation-free form of {@link #inverseTransformLocalVec(Vec3)}.
+     */
+    public void inverseTransformLocalVec(double x, double y, double z, double[] result) {
+        getAffineTransform().inverseTransformLocalVec(x, y, z, result);
+    }
+    
     /**
      * @return The normal vector of the portal plane
      */
@@ -272,12 +327,17 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
     /**
      * Update the portal's cache and send the portal data to client
      * Call this when you changed the portal after spawning the portal
+     * A global portal is synced through its {@link GlobalPortalStorage}
      */
     public void reloadAndSyncToClient() {
-        Validate.isTrue(!isGlobalPortal);
         Validate.isTrue(!level.isClientSide(), "must be used on server side");
         updateCache();
         
+        if (isGlobalPortal) {
+            GlobalPortalStorage.get((ServerLevel) level).onPortalUpdated(this);
+            return;
+        }
+        
         CompoundTag customData = new CompoundTag();
         addAdditionalSaveData(customData);
         
@@ -309,6 +369,7 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
         exactBoundingBoxCache = null;
         normal = null;
         contentDirection = null;
+        affineTransformCache = null;
         
         if (updates) {
             portalCacheUpdateSignal.emit(this);
@@ -936,7 +997,7 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
      * @return the distance to the portal plane without regarding the shape
      */
     public double getDistanceToPlane(Vec3 pos) {
-        return pos.subtract(getOriginPos()).dot(getNormal());
+        return PortalGeometry.getDistanceToPlane(pos, getOriginPos(), getNormal());
     }
     
     /**
@@ -962,7 +1023,7 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
      * @return Convert the 2D coordinate in portal plane into the portal-centered coordinate
      */
     public Vec3 getPointInPlaneLocal(double xInPlane, double yInPlane) {
-        return axisW.scale(xInPlane).add(axisH.scale(yInPlane));
+        return PortalGeometry.getPointInPlaneLocal(axisW, axisH, xInPlane, yInPlane);
     }
     
     public Vec3 getPointInPlaneLocalClamped(double xInPlane, double yInPlane) {
@@ -975,25 +1036,7 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
     //3  2
     //1  0
     public Vec3[] getFourVerticesLocal(double shrinkFactor) {
-        Vec3[] vertices = new Vec3[4];
-        vertices[0] = getPointInPlaneLocal(
-            width / 2 - shrinkFactor,
-            -height / 2 + shrinkFactor
-        );
-        vertices[1] = getPointInPlaneLocal(
-            -width / 2 + shrinkFactor,
-            -height / 2 + shrinkFactor
-        );
-        vertices[2] = getPointInPlaneLocal(
-            width / 2 - shrinkFactor,
-            height / 2 - shrinkFactor
-        );
-        vertices[3] = getPointInPlaneLocal(
-            -width / 2 + shrinkFactor,
-            height / 2 - shrinkFactor
-        );
-        
-        return vertices;
+        return PortalGeometry.getRectVerticesLocal(axisW, axisH, width, height, shrinkFactor);
     }
     
     //3  2
@@ -1040,26 +1083,11 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
     }
     
     public Vec3 transformLocalVecNonScale(Vec3 localVec) {
-        if (rotation == null) {
-            return localVec;
-        }
-        
-        Vector3f temp = new Vector3f(localVec);
-        temp.transform(rotation);
-        
-        return new Vec3(temp);
+        return PortalGeometry.transformLocalVecNonScale(localVec, rotation);
     }
     
     public Vec3 inverseTransformLocalVecNonScale(Vec3 localVec) {
-        if (rotation == null) {
-            return localVec;
-        }
-        
-        Vector3f temp = new Vector3f(localVec);
-        Quaternion r = new Quaternion(rotation);//copy() is client only
-        r.conj();
-        temp.transform(r);
-        return new Vec3(temp);
+        return PortalGeometry.inverseTransformLocalVecNonScale(localVec, rotation);
     }
     
     @Override
@@ -1083,19 +1111,23 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
      * Project the point into the portal plane, is it in the portal area
      */
     public boolean isPointInPortalProjection(Vec3 pos) {
-        Vec3 offset = pos.subtract(getOriginPos());
-        
-        double yInPlane = offset.dot(axisH);
-        double xInPlane = offset.dot(axisW);
-        
-        boolean roughResult = Math.abs(xInPlane) < (width / 2 + 0.001) &&
-            Math.abs(yInPlane) < (height / 2 + 0.001);
+        return isPointInPortalProjection(pos.x, pos.y, pos.z);
+    }
+    
+    public boolean isPointInPortalProjection(double x, double y, double z) {
+        Vec3 originPos = getOriginPos();
+        boolean roughResult = PortalGeometry.isPointInRectProjection(
+            x, y, z, originPos, axisW, axisH, width, height
+        );
         
         if (roughResult && specialShape != null) {
-            return specialShape.triangles.stream()
-                .anyMatch(triangle ->
-                    triangle.isPointInTriangle(xInPlane, yInPlane)
-                );
+            double dx = x - originPos.x;
+            double dy = y - originPos.y;
+            double dz = z - originPos.z;
+            double yInPlane = dx * axisH.x + dy * axisH.y + dz * axisH.z;
+            double xInPlane = dx * axisW.x + dy * axisW.y + dz * axisW.z;
+            
+            return specialShape.isPointInShape(xInPlane, yInPlane);
         }
         
         return roughResult;
@@ -1113,20 +1145,9 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
         Vec3 from,
         Vec3 to
     ) {
-        double lastDistance = getDistanceToPlane(from);
-        double nowDistance = getDistanceToPlane(to);
-        
-        if (!(lastDistance > 0 && nowDistance < 0)) {
-            return null;
-        }
-        
-        Vec3 lineOrigin = from;
-        Vec3 lineDirection = to.subtract(from).normalize();
-        
-        double collidingT = Helper.getCollidingT(getOriginPos(), normal, lineOrigin, lineDirection);
-        Vec3 collidingPoint = lineOrigin.add(lineDirection.scale(collidingT));
+        Vec3 collidingPoint = PortalGeometry.rayTracePlane(from, to, getOriginPos(), getNormal());
         
-        if (isPointInPortalProjection(collidingPoint)) {
+        if (collidingPoint != null && isPointInPortalProjection(collidingPoint)) {
             return collidingPoint;
         }
         else {
@@ -1134,20 +1155,27 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
         }
     }
     
+    /**
+     * The allocation-free form of {@link #rayTrace(Vec3, Vec3)}.
+     * If it goes through the portal, writes the colliding point into the first 3 elements of the array.
+     */
+    public boolean rayTrace(
+        double fromX, double fromY, double fromZ,
+        double toX, double toY, double toZ,
+        double[] result
+    ) {
+        return PortalGeometry.rayTracePlane(
+            fromX, fromY, fromZ, toX, toY, toZ, getOriginPos(), getNormal(), result
+        ) && isPointInPortalProjection(result[0], result[1], result[2]);
+    }
+    
     @Override
     public double getDistanceToNearestPointInPortal(
         Vec3 point
     ) {
-        double distanceToPlane = getDistanceToPlane(point);
-        Vec3 localPos = point.subtract(getOriginPos());
-        double localX = localPos.dot(axisW);
-        double localY = localPos.dot(axisH);
-        double distanceToRect = Helper.getDistanceToRectangle(
-            localX, localY,
-            -(width / 2), -(height / 2),
-            (width / 2), (height / 2)
+        return PortalGeometry.getDistanceToNearestPointInRect(
+            point, getOriginPos(), getNormal(), axisW, axisH, width, height
         );
-        return Math.sqrt(distanceToPlane * distanceToPlane + distanceToRect * distanceToRect);
     }
     
     public Vec3 getPointProjectedToPlane(Vec3 pos) {
@@ -1267,30 +1295,10 @@ public class Portal extends Entity implements PortalLike, IPEntityEventListenabl
     public BoxPredicate getInnerFrustumCullingFunc(
         double cameraX, double cameraY, double cameraZ
     ) {
-        
-        Vec3 portalOriginInLocalCoordinate = getDestPos().add(
-            -cameraX, -cameraY, -cameraZ
-        );
-        Vec3[] innerFrustumCullingVertices = getFourVerticesLocalRotated(0);
-        if (innerFrustumCullingVertices == null) {
-            return BoxPredicate.nonePredicate;
-        }
-        Vec3[] downLeftUpRightPlaneNormals = FrustumCuller.getDownLeftUpRightPlaneNormals(
-            portalOriginInLocalCoordinate,
-            innerFrustumCullingVertices
+        return PortalGeometry.getInnerFrustumCullingFunc(
+            cameraX, cameraY, cameraZ,
+            getDestPos(), getFourVerticesLocalRotated(0)
         );
-        
-        Vec3 downPlane = downLeftUpRightPlaneNormals[0];
-        Vec3 leftPlane = downLeftUpRightPlaneNormals[1];
-        Vec3 upPlane = downLeftUpRightPlaneNormals[2];
-        Vec3 rightPlane = downLeftUpRightPlaneNormals[3];
-        
-        return
-            (double minX, double minY, double minZ, double maxX, double maxY, double maxZ) ->
-                FrustumCuller.isFullyOutsideFrustum(
-                    minX, minY, minZ, maxX, maxY, maxZ,
-                    leftPlane, rightPlane, upPlane, downPlane
-                );
     }
     
     public static class TransformationDesc {
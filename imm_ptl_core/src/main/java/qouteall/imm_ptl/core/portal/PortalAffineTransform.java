@@ -0,0 +1,202 @@
+package qouteall.imm_ptl.core.portal;
+
+import com.mojang.math.Quaternion;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.util.function.UnaryOperator;
+
+/**
+ * A portal's transformation in the form of a 3x3 matrix (rotation, mirroring and scaling) and the translation,
+ * with its inverse. Transforming with it only does arithmetic on doubles and does not allocate.
+ * <p>
+ * The matrix is sampled from {@link Portal#transformLocalVec(Vec3)} and {@link Portal#inverseTransformLocalVec(Vec3)}
+ * so the overridden transformations (like the mirror's) are kept as long as they are linear.
+ * The results are equal to the portal's transformation up to the float precision
+ * that the quaternion transformation uses.
+ * <p>
+ * A point is transformed as M * (p - origin) + destination,
+ * so that the error does not grow with the magnitude of the coordinates.
+ */
+public class PortalAffineTransform {
+    
+    // the linear part, row major
+    private final double m00, m01, m02;
+    private final double m10, m11, m12;
+    private final double m20, m21, m22;
+    
+    // the inverse of the linear part, row major
+    private final double i00, i01, i02;
+    private final double i10, i11, i12;
+    private final double i20, i21, i22;
+    
+    // the state that it's built from, used for checking whether it's outdated
+    private final Vec3 originPos;
+    private final Vec3 destPos;
+    // the mirror's transformation depends on the orientation
+    private final Vec3 axisW;
+    private final Vec3 axisH;
+    // the quaternion is mutable, so its value is kept
+    private final boolean hasRotation;
+    private final float rotationI;
+    private final float rotationJ;
+    private final float rotationK;
+    private final float rotationR;
+    private final double scaling;
+    
+    private PortalAffineTransform(
+        Vec3 forwardX, Vec3 forwardY, Vec3 forwardZ,
+        Vec3 inverseX, Vec3 inverseY, Vec3 inverseZ,
+        Vec3 originPos, Vec3 destPos, Vec3 axisW, Vec3 axisH,
+        @Nullable Quaternion rotation, double scaling
+    ) {
+        // the sampled vectors are the columns
+        m00 = forwardX.x;
+        m10 = forwardX.y;
+        m20 = forwardX.z;
+        m01 = forwardY.x;
+        m11 = forwardY.y;
+        m21 = forwardY.z;
+        m02 = forwardZ.x;
+        m12 = forwardZ.y;
+        m22 = forwardZ.z;
+        
+        i00 = inverseX.x;
+        i10 = inverseX.y;
+        i20 = inverseX.z;
+        i01 = inverseY.x;
+        i11 = inverseY.y;
+        i21 = inverseY.z;
+        i02 = inverseZ.x;
+        i12 = inverseZ.y;
+        i22 = inverseZ.z;
+        
+        this.originPos = originPos;
+        this.destPos = destPos;
+        this.axisW = axisW;
+        this.axisH = axisH;
+        this.hasRotation = rotation != null;
+        this.rotationI = rotation == null ? 0 : rotation.i();
+        this.rotationJ = rotation == null ? 0 : rotation.j();
+        this.rotationK = rotation == null ? 0 : rotation.k();
+        this.rotationR = rotation == null ? 0 : rotation.r();
+        this.scaling = scaling;
+    }
+    
+    public static PortalAffineTransform fromPortal(Portal portal) {
+        return fromFunctions(
+            portal::transformLocalVec, portal::inverseTransformLocalVec,
+            portal.getOriginPos(), portal.getDestPos(), portal.axisW, portal.axisH,
+            portal.rotation, portal.scaling
+        );
+    }
+    
+    /**
+     * Samples the linear transformation and its inverse.
+     * The other arguments are the state that the transformation is computed from.
+     */
+    public static PortalAffineTransform fromFunctions(
+        UnaryOperator<Vec3> transformLocalVec, UnaryOperator<Vec3> inverseTransformLocalVec,
+        Vec3 originPos, Vec3 destPos, Vec3 axisW, Vec3 axisH,
+        @Nullable Quaternion rotation, double scaling
+    ) {
+        Vec3 unitX = new Vec3(1, 0, 0);
+        Vec3 unitY = new Vec3(0, 1, 0);
+        Vec3 unitZ = new Vec3(0, 0, 1);
+        
+        return new PortalAffineTransform(
+            transformLocalVec.apply(unitX),
+            transformLocalVec.apply(unitY),
+            transformLocalVec.apply(unitZ),
+            inverseTransformLocalVec.apply(unitX),
+            inverseTransformLocalVec.apply(unitY),
+            inverseTransformLocalVec.apply(unitZ),
+            originPos, destPos, axisW, axisH, rotation, scaling
+        );
+    }
+    
+    /**
+     * The position, destination, orientation, rotation and scaling are public fields that may be changed
+     * without updating the portal's cache, so they are checked.
+     * The rotation quaternion may also be changed in place, so it's compared by value.
+     */
+    public boolean isBuiltFrom(Portal portal) {
+        return isBuiltFrom(
+            portal.getOriginPos(), portal.getDestPos(), portal.axisW, portal.axisH,
+            portal.rotation, portal.scaling
+        );
+    }
+    
+    public boolean isBuiltFrom(
+        Vec3 originPos, Vec3 destPos, Vec3 axisW, Vec3 axisH,
+        @Nullable Quaternion rotation, double scaling
+    ) {
+        if (originPos != this.originPos || destPos != this.destPos ||
+            axisW != this.axisW || axisH != this.axisH || scaling != this.scaling
+        ) {
+            return false;
+        }
+        
+        if (rotation == null) {
+            return !hasRotation;
+        }
+        return hasRotation &&
+            rotation.i() == rotationI && rotation.j() == rotationJ &&
+            rotation.k() == rotationK && rotation.r() == rotationR;
+    }
+    
+    /**
+     * Writes the x, y, z of the result into the first 3 elements of the array.
+     */
+    public void transformPoint(double x, double y, double z, double[] result) {
+        transformLocalVec(x - originPos.x, y - originPos.y, z - originPos.z, result);
+        result[0] += destPos.x;
+        result[1] += destPos.y;
+        result[2] += destPos.z;
+    }
+    
+    public void transformLocalVec(double x, double y, double z, double[] result) {
+        result[0] = m00 * x + m01 * y + m02 * z;
+        result[1] = m10 * x + m11 * y + m12 * z;
+        result[2] = m20 * x + m21 * y + m22 * z;
+    }
+    
+    public void inverseTransformPoint(double x, double y, double z, double[] result) {
+        inverseTransformLocalVec(x - destPos.x, y - destPos.y, z - destPos.z, result);
+        result[0] += originPos.x;
+        result[1] += originPos.y;
+        result[2] += originPos.z;
+    }
+    
+    public void inverseTransformLocalVec(double x, double y, double z, double[] result) {
+        result[0] = i00 * x + i01 * y + i02 * z;
+        result[1] = i10 * x + i11 * y + i12 * z;
+        result[2] = i20 * x + i21 * y + i22 * z;
+    }
+    
+    /**
+     * The bounding box of the transformed box.
+     * It's the same as the bounding box of the eight transformed vertices, without transforming them one by one.
+     */
+    public AABB transformBox(AABB box) {
+        double centerX = (box.minX + box.maxX) / 2 - originPos.x;
+        double centerY = (box.minY + box.maxY) / 2 - originPos.y;
+        double centerZ = (box.minZ + box.maxZ) / 2 - originPos.z;
+        double extentX = (box.maxX - box.minX) / 2;
+        double extentY = (box.maxY - box.minY) / 2;
+        double extentZ = (box.maxZ - box.minZ) / 2;
+        
+        double newCenterX = m00 * centerX + m01 * centerY + m02 * centerZ + destPos.x;
+        double newCenterY = m10 * centerX + m11 * centerY + m12 * centerZ + destPos.y;
+        double newCenterZ = m20 * centerX + m21 * centerY + m22 * centerZ + destPos.z;
+        double newExtentX = Math.abs(m00) * extentX + Math.abs(m01) * extentY + Math.abs(m02) * extentZ;
+        double newExtentY = Math.abs(m10) * extentX + Math.abs(m11) * extentY + Math.abs(m12) * extentZ;
+        double newExtentZ = Math.abs(m20) * extentX + Math.abs(m21) * extentY + Math.abs(m22) * extentZ;
+        
+        return new AABB(
+            newCenterX - newExtentX, newCenterY - newExtentY, newCenterZ - newExtentZ,
+            newCenterX + newExtentX, newCenterY + newExtentY, newCenterZ + newExtentZ
+        );
+    }
+}
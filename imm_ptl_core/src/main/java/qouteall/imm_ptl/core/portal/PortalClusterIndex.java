@@ -0,0 +1,43 @@
+package qouteall.imm_ptl.core.portal;
+
+import net.minecraft.world.phys.Vec3;
+import qouteall.q_misc_util.my_util.PointCellIndex;
+
+import javax.annotation.Nullable;
+import java.util.function.Predicate;
+
+/**
+ * Indexes the portals of a level by the quantized origin position.
+ * It's used for finding the flipped, reverse and parallel portals of a portal cluster,
+ * which are at the same position (within a small tolerance) as the portal or its destination.
+ * The origin is quantized into cubic cells. A lookup visits the cells that the tolerance range touches
+ * (usually one, at most eight) and tests the current state of the portals in them.
+ * The destination and the normal are not in the key because they are compared with tolerances.
+ * <p>
+ * The stored cell of a portal is updated by {@link #update(Object)}.
+ * It's not thread-safe.
+ */
+public class PortalClusterIndex extends PointCellIndex<Portal> {
+    
+    // the tolerance used by the cluster portal finding
+    public static final double positionTolerance = 0.1;
+    
+    private static final double cellSize = 0.5;
+    
+    public PortalClusterIndex() {
+        super(Portal::getOriginPos, cellSize);
+    }
+    
+    /**
+     * @return the first portal whose origin is within {@link #positionTolerance} of the position
+     * and that matches the predicate
+     */
+    @Nullable
+    public Portal findFirstAt(Vec3 pos, Predicate<Portal> predicate) {
+        return findFirstWithin(pos, positionTolerance, predicate);
+    }
+    
+    public int getPortalNum() {
+        return size();
+    }
+}
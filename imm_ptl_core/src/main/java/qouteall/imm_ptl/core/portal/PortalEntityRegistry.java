@@ -0,0 +1,84 @@
+package qouteall.imm_ptl.core.portal;
+
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import qouteall.imm_ptl.core.ducks.IEWorld;
+
+import java.util.function.Consumer;
+
+/**
+ * Every level keeps a {@link PortalSpatialIndex} of the portal entities in it.
+ * A portal is added when it's added into the level, moved when its cache updates,
+ * and removed when it's removed from the level.
+ * Finding nearby portals through it does not iterate the entity sections.
+ * Global portals are not in it. They are indexed by the global portal storage.
+ * Every level also keeps a {@link PortalClusterIndex} of the same portals for finding the cluster portals.
+ * The cache update signal is not emitted if the portal's cache was not computed,
+ * and the bounding box cache may be cleared without it (like in refreshDimensions),
+ * so both indices are also updated when the portal ticks, which is cheap if the portal does not move.
+ */
+public class PortalEntityRegistry {
+    
+    public static void init() {
+        Portal.portalCacheUpdateSignal.connect(portal -> {
+            if (!portal.isGlobalPortal) {
+                getIndex(portal.level).update(portal);
+                getClusterIndex(portal.level).update(portal);
+            }
+        });
+        
+        Portal.serverPortalTickSignal.connect(PortalEntityRegistry::updateIndices);
+        Portal.clientPortalTickSignal.connect(PortalEntityRegistry::updateIndices);
+        
+        Portal.portalDisposeSignal.connect(PortalEntityRegistry::onPortalRemoved);
+    }
+    
+    public static PortalSpatialIndex getIndex(Level world) {
+        return ((IEWorld) world).portal_getPortalEntityIndex();
+    }
+    
+    public static PortalClusterIndex getClusterIndex(Level world) {
+        return ((IEWorld) world).portal_getPortalClusterIndex();
+    }
+    
+    public static void onPortalAdded(Portal portal) {
+        if (portal.isGlobalPortal) {
+            return;
+        }
+        getIndex(portal.level).add(portal);
+        getClusterIndex(portal.level).add(portal);
+    }
+    
+    public static void onPortalRemoved(Portal portal) {
+        getIndex(portal.level).remove(portal);
+        getClusterIndex(portal.level).remove(portal);
+    }
+    
+    private static void updateIndices(Portal portal) {
+        if (!portal.isGlobalPortal) {
+            getIndex(portal.level).update(portal);
+            getClusterIndex(portal.level).update(portal);
+        }
+    }
+    
+    /**
+     * The portal entities whose bounding box is within the range of the point in each axis.
+     * Does not include global portals.
+     */
+    public static void foreachPortalNear(
+        Level world, Vec3 pos, double range, Consumer<Portal> func
+    ) {
+        getIndex(world).foreachNear(pos, range, func);
+    }
+    
+    /**
+     * The portal entities whose bounding box intersects with the box.
+     * Does not include global portals.
+     */
+    public static void foreachPortalIntersecting(
+        Level world, AABB box, Consumer<Portal> func
+    ) {
+        getIndex(world).foreachIntersecting(box, func);
+    }
+}
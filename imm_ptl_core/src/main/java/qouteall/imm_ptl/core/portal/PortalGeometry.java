@@ -0,0 +1,217 @@
+package qouteall.imm_ptl.core.portal;
+
+import com.mojang.math.Quaternion;
+import com.mojang.math.Vector3f;
+import net.minecraft.world.phys.Vec3;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import qouteall.imm_ptl.core.render.FrustumCuller;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.my_util.BoxPredicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * The geometric computations of a rectangular portal, on the portal's geometric state passed in.
+ * {@link Portal} delegates to them. They don't touch the entity or the world,
+ * so they can run without booting MC, for example in a micro benchmark with synthetic portals.
+ * The special shape of a portal is not considered here.
+ * The transformation here doesn't consider the overriding in subclasses, such as the mirror's,
+ * so {@link Portal} only uses it in {@link Portal#transformLocalVecNonScale(Vec3)}
+ * and {@link Portal#inverseTransformLocalVecNonScale(Vec3)}
+ * and keeps the other transformations going through these virtual methods.
+ */
+public class PortalGeometry {
+    
+    public static Vec3 transformLocalVecNonScale(Vec3 localVec, @Nullable Quaternion rotation) {
+        if (rotation == null) {
+            return localVec;
+        }
+        
+        Vector3f temp = new Vector3f(localVec);
+        temp.transform(rotation);
+        
+        return new Vec3(temp);
+    }
+    
+    public static Vec3 inverseTransformLocalVecNonScale(Vec3 localVec, @Nullable Quaternion rotation) {
+        if (rotation == null) {
+            return localVec;
+        }
+        
+        Vector3f temp = new Vector3f(localVec);
+        Quaternion r = new Quaternion(rotation);//copy() is client only
+        r.conj();
+        temp.transform(r);
+        return new Vec3(temp);
+    }
+    
+    public static double getDistanceToPlane(Vec3 pos, Vec3 originPos, Vec3 normal) {
+        return (pos.x - originPos.x) * normal.x +
+            (pos.y - originPos.y) * normal.y +
+            (pos.z - originPos.z) * normal.z;
+    }
+    
+    /**
+     * @return the point where the line segment goes through the plane from the front side to the back side,
+     * null if it does not go through
+     */
+    @Nullable
+    public static Vec3 rayTracePlane(Vec3 from, Vec3 to, Vec3 originPos, Vec3 normal) {
+        double[] result = new double[3];
+        if (!rayTracePlane(from.x, from.y, from.z, to.x, to.y, to.z, originPos, normal, result)) {
+            return null;
+        }
+        return new Vec3(result[0], result[1], result[2]);
+    }
+    
+    /**
+     * The allocation-free form of {@link #rayTracePlane(Vec3, Vec3, Vec3, Vec3)}.
+     * If it goes through, writes the colliding point into the first 3 elements of the array.
+     */
+    public static boolean rayTracePlane(
+        double fromX, double fromY, double fromZ,
+        double toX, double toY, double toZ,
+        Vec3 originPos, Vec3 normal, double[] result
+    ) {
+        double lastDistance = (fromX - originPos.x) * normal.x +
+            (fromY - originPos.y) * normal.y +
+            (fromZ - originPos.z) * normal.z;
+        double nowDistance = (toX - originPos.x) * normal.x +
+            (toY - originPos.y) * normal.y +
+            (toZ - originPos.z) * normal.z;
+        
+        if (!(lastDistance > 0 && nowDistance < 0)) {
+            return false;
+        }
+        
+        // the same as Vec3.normalize()
+        double dx = toX - fromX;
+        double dy = toY - fromY;
+        double dz = toZ - fromZ;
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (length < 1.0E-4) {
+            dx = 0;
+            dy = 0;
+            dz = 0;
+        }
+        else {
+            dx = dx / length;
+            dy = dy / length;
+            dz = dz / length;
+        }
+        
+        double collidingT =
+            ((originPos.x - fromX) * normal.x + (originPos.y - fromY) * normal.y + (originPos.z - fromZ) * normal.z)
+                / (dx * normal.x + dy * normal.y + dz * normal.z);
+        result[0] = fromX + dx * collidingT;
+        result[1] = fromY + dy * collidingT;
+        result[2] = fromZ + dz * collidingT;
+        return true;
+    }
+    
+    public static boolean isPointInRectProjection(
+        Vec3 pos, Vec3 originPos, Vec3 axisW, Vec3 axisH, double width, double height
+    ) {
+        return isPointInRectProjection(pos.x, pos.y, pos.z, originPos, axisW, axisH, width, height);
+    }
+    
+    public static boolean isPointInRectProjection(
+        double x, double y, double z, Vec3 originPos, Vec3 axisW, Vec3 axisH, double width, double height
+    ) {
+        double dx = x - originPos.x;
+        double dy = y - originPos.y;
+        double dz = z - originPos.z;
+        
+        double yInPlane = dx * axisH.x + dy * axisH.y + dz * axisH.z;
+        double xInPlane = dx * axisW.x + dy * axisW.y + dz * axisW.z;
+        
+        return Math.abs(xInPlane) < (width / 2 + 0.001) &&
+            Math.abs(yInPlane) < (height / 2 + 0.001);
+    }
+    
+    public static double getDistanceToNearestPointInRect(
+        Vec3 point, Vec3 originPos, Vec3 normal,
+        Vec3 axisW, Vec3 axisH, double width, double height
+    ) {
+        double distanceToPlane = getDistanceToPlane(point, originPos, normal);
+        
+        double dx = point.x - originPos.x;
+        double dy = point.y - originPos.y;
+        double dz = point.z - originPos.z;
+        double localX = dx * axisW.x + dy * axisW.y + dz * axisW.z;
+        double localY = dx * axisH.x + dy * axisH.y + dz * axisH.z;
+        
+        double distanceToRect = Helper.getDistanceToRectangle(
+            localX, localY,
+            -(width / 2), -(height / 2),
+            (width / 2), (height / 2)
+        );
+        return Math.sqrt(distanceToPlane * distanceToPlane + distanceToRect * distanceToRect);
+    }
+    
+    //3  2
+    //1  0
+    public static Vec3[] getRectVerticesLocal(
+        Vec3 axisW, Vec3 axisH, double width, double height, double shrinkFactor
+    ) {
+        Vec3[] vertices = new Vec3[4];
+        vertices[0] = getPointInPlaneLocal(
+            axisW, axisH,
+            width / 2 - shrinkFactor,
+            -height / 2 + shrinkFactor
+        );
+        vertices[1] = getPointInPlaneLocal(
+            axisW, axisH,
+            -width / 2 + shrinkFactor,
+            -height / 2 + shrinkFactor
+        );
+        vertices[2] = getPointInPlaneLocal(
+            axisW, axisH,
+            width / 2 - shrinkFactor,
+            height / 2 - shrinkFactor
+        );
+        vertices[3] = getPointInPlaneLocal(
+            axisW, axisH,
+            -width / 2 + shrinkFactor,
+            height / 2 - shrinkFactor
+        );
+        
+        return vertices;
+    }
+    
+    public static Vec3 getPointInPlaneLocal(
+        Vec3 axisW, Vec3 axisH, double xInPlane, double yInPlane
+    ) {
+        return axisW.scale(xInPlane).add(axisH.scale(yInPlane));
+    }
+    
+    // function return true for culled
+    // the vertices are the portal's four vertices transformed by the portal's local transformation
+    @OnlyIn(Dist.CLIENT)
+    public static BoxPredicate getInnerFrustumCullingFunc(
+        double cameraX, double cameraY, double cameraZ,
+        Vec3 destPos, Vec3[] innerFrustumCullingVertices
+    ) {
+        Vec3 portalOriginInLocalCoordinate = destPos.add(
+            -cameraX, -cameraY, -cameraZ
+        );
+        
+        Vec3[] downLeftUpRightPlaneNormals = FrustumCuller.getDownLeftUpRightPlaneNormals(
+            portalOriginInLocalCoordinate,
+            innerFrustumCullingVertices
+        );
+        
+        Vec3 downPlane = downLeftUpRightPlaneNormals[0];
+        Vec3 leftPlane = downLeftUpRightPlaneNormals[1];
+        Vec3 upPlane = downLeftUpRightPlaneNormals[2];
+        Vec3 rightPlane = downLeftUpRightPlaneNormals[3];
+        
+        return
+            (double minX, double minY, double minZ, double maxX, double maxY, double maxZ) ->
+                FrustumCuller.isFullyOutsideFrustum(
+                    minX, minY, minZ, maxX, maxY, maxZ,
+                    leftPlane, rightPlane, upPlane, downPlane
+                );
+    }
+}
@@ -206,7 +206,7 @@ public class PortalManipulation {
                 -triangle.y2 * scale,
                 triangle.x3 * scale,
                 -triangle.y3 * scale
-            )).collect(Collectors.toList());
+            )).collect(Collectors.toCollection(GeometryPortalShape.TriangleList::new));
     }
     
     public static void completeBiWayBiFacedPortal(
@@ -462,41 +462,30 @@ public class PortalManipulation {
         return intersects;
     }
     
+    // the cluster portals are looked up in the cluster index instead of scanning the entity sections
     @Nullable
     public static Portal findParallelPortal(Portal portal) {
-        return Helper.getFirstNullable(McHelper.findEntitiesRough(
-            Portal.class,
-            portal.getDestinationWorld(),
+        return PortalEntityRegistry.getClusterIndex(portal.getDestinationWorld()).findFirstAt(
             portal.getDestPos(),
-            0,
-            p1 -> p1.getOriginPos().subtract(portal.getDestPos()).lengthSqr() < 0.01 &&
-                p1.getDestPos().subtract(portal.getOriginPos()).lengthSqr() < 0.01 &&
+            p1 -> p1.getDestPos().subtract(portal.getOriginPos()).lengthSqr() < 0.01 &&
                 p1.getNormal().dot(portal.getContentDirection()) < -0.9
-        ));
+        );
     }
     
     @Nullable
     public static Portal findReversePortal(Portal portal) {
-        return Helper.getFirstNullable(McHelper.findEntitiesRough(
-            Portal.class,
-            portal.getDestinationWorld(),
+        return PortalEntityRegistry.getClusterIndex(portal.getDestinationWorld()).findFirstAt(
             portal.getDestPos(),
-            0,
-            p1 -> p1.getOriginPos().subtract(portal.getDestPos()).lengthSqr() < 0.01 &&
-                p1.getDestPos().subtract(portal.getOriginPos()).lengthSqr() < 0.01 &&
+            p1 -> p1.getDestPos().subtract(portal.getOriginPos()).lengthSqr() < 0.01 &&
                 p1.getNormal().dot(portal.getContentDirection()) > 0.9
-        ));
+        );
     }
     
     @Nullable
     public static Portal findFlippedPortal(Portal portal) {
-        return Helper.getFirstNullable(McHelper.findEntitiesRough(
-            Portal.class,
-            portal.getOriginWorld(),
+        return PortalEntityRegistry.getClusterIndex(portal.getOriginWorld()).findFirstAt(
             portal.getOriginPos(),
-            0,
-            p1 -> p1.getOriginPos().subtract(portal.getOriginPos()).lengthSqr() < 0.01 &&
-                p1.getNormal().dot(portal.getNormal()) < -0.9
-        ));
+            p1 -> p1.getNormal().dot(portal.getNormal()) < -0.9
+        );
     }
 }
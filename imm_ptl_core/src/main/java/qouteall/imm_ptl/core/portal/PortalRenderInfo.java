@@ -7,7 +7,7 @@ import net.minecraftforge.api.distmarker.OnlyIn;
 import org.apache.commons.lang3.Validate;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
-import qouteall.imm_ptl.core.render.GlQueryObject;
+import qouteall.imm_ptl.core.render.OcclusionQueryRing;
 import qouteall.imm_ptl.core.render.PortalGroup;
 import qouteall.imm_ptl.core.render.QueryManager;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
@@ -23,42 +23,26 @@ import java.util.*;
 @OnlyIn(Dist.CLIENT)
 public class PortalRenderInfo {
     
+    // a result older than this number of frames is not used for predicting
+    private static final int maxQueryResultAge = 3;
+    
     public static class Visibility {
-        public GlQueryObject lastFrameQuery;
-        public GlQueryObject thisFrameQuery;
+        public final OcclusionQueryRing queryRing;
         public Boolean lastFrameRendered;
         public Boolean thisFrameRendered;
         
         public Visibility() {
-            lastFrameQuery = null;
-            thisFrameQuery = null;
+            queryRing = new OcclusionQueryRing(QueryManager.getQueryPool());
             lastFrameRendered = null;
         }
         
-        void update() {
-            if (lastFrameQuery != null) {
-                GlQueryObject.returnQueryObject(lastFrameQuery);
-            }
-            lastFrameQuery = thisFrameQuery;
-            thisFrameQuery = null;
-            lastFrameRendered = thisFrameRendered;
+        void update(boolean isConsecutiveFrame) {
+            lastFrameRendered = isConsecutiveFrame ? thisFrameRendered : null;
             thisFrameRendered = null;
         }
         
         void dispose() {
-            if (lastFrameQuery != null) {
-                GlQueryObject.returnQueryObject(lastFrameQuery);
-            }
-            if (thisFrameQuery != null) {
-                GlQueryObject.returnQueryObject(thisFrameQuery);
-            }
-        }
-        
-        GlQueryObject acquireThisFrameQuery() {
-            if (thisFrameQuery == null) {
-                thisFrameQuery = GlQueryObject.acquireQueryObject();
-            }
-            return thisFrameQuery;
+            queryRing.dispose();
         }
     }
     
@@ -153,22 +137,24 @@ public class PortalRenderInfo {
     
     private void updateQuerySet() {
         if (RenderStates.frameIndex != thisFrameQueryFrameIndex) {
+            int frameIndex = RenderStates.frameIndex;
             
-            if (RenderStates.frameIndex == thisFrameQueryFrameIndex + 1) {
-                infoMap.entrySet().removeIf(entry -> {
-                    Visibility visibility = entry.getValue();
-                    
-                    return visibility.lastFrameQuery == null &&
-                        visibility.thisFrameQuery == null;
-                });
+            infoMap.entrySet().removeIf(entry -> {
+                Visibility visibility = entry.getValue();
                 
-                infoMap.values().forEach(Visibility::update);
-            }
-            else {
-                disposeInfoMap(infoMap);
+                if (visibility.queryRing.isIdle(frameIndex, maxQueryResultAge)) {
+                    visibility.dispose();
+                    return true;
+                }
+                return false;
+            });
+            
+            boolean isConsecutiveFrame = frameIndex == thisFrameQueryFrameIndex + 1;
+            for (Visibility visibility : infoMap.values()) {
+                visibility.update(isConsecutiveFrame);
             }
             
-            thisFrameQueryFrameIndex = RenderStates.frameIndex;
+            thisFrameQueryFrameIndex = frameIndex;
         }
     }
     
@@ -220,32 +206,35 @@ public class PortalRenderInfo {
             
             Visibility visibility = presentation.getVisibility(renderingDescription);
             
-            GlQueryObject lastFrameQuery = visibility.lastFrameQuery;
-            GlQueryObject thisFrameQuery = visibility.acquireThisFrameQuery();
+            OcclusionQueryRing queryRing = visibility.queryRing;
             
-            thisFrameQuery.performQueryAnySamplePassed(queryRendering);
+            // collect before issuing, so that the result is from the previous frames
+            queryRing.collect();
+            queryRing.issue(RenderStates.frameIndex, queryRendering);
             
             boolean noPredict =
                 presentation.isFrequentlyMispredicted() ||
                     QueryManager.queryStallCounter <= 3;
             
-            if (lastFrameQuery != null) {
-                boolean lastFrameVisible = lastFrameQuery.fetchQueryResult();
+            if (queryRing.hasResult() &&
+                queryRing.getResultAge(RenderStates.frameIndex) <= maxQueryResultAge
+            ) {
+                boolean predictedVisible = queryRing.getResult();
                 
-                if (!lastFrameVisible && noPredict) {
+                if (!predictedVisible && noPredict) {
                     profiler.push("fetch_this_frame");
-                    decision = thisFrameQuery.fetchQueryResult();
+                    decision = queryRing.fetchNewest();
                     profiler.pop();
                     QueryManager.queryStallCounter++;
                 }
                 else {
-                    decision = lastFrameVisible;
+                    decision = predictedVisible;
                     presentation.updatePredictionStatus(visibility, decision);
                 }
             }
             else {
                 profiler.push("fetch_this_frame");
-                decision = thisFrameQuery.fetchQueryResult();
+                decision = queryRing.fetchNewest();
                 profiler.pop();
                 QueryManager.queryStallCounter++;
             }
@@ -0,0 +1,57 @@
+package qouteall.imm_ptl.core.portal;
+
+import qouteall.q_misc_util.my_util.BoxGridIndex;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * A {@link BoxGridIndex} over portal bounding boxes, which also finds the portals by UUID.
+ * Very large portals (like world wrapping portals) are not put into cells and are always returned as candidates.
+ * The stored boxes are updated by {@link #update(Object)}. The queries test the current bounding box.
+ * It's not thread-safe.
+ */
+public class PortalSpatialIndex extends BoxGridIndex<Portal> {
+    
+    private final HashMap<UUID, Portal> uuidToPortal = new HashMap<>();
+    
+    public PortalSpatialIndex() {
+        super(Portal::getBoundingBox);
+    }
+    
+    @Override
+    public void add(Portal portal) {
+        if (!contains(portal)) {
+            uuidToPortal.put(portal.getUUID(), portal);
+        }
+        super.add(portal);
+    }
+    
+    @Override
+    public void remove(Portal portal) {
+        if (contains(portal)) {
+            uuidToPortal.remove(portal.getUUID(), portal);
+        }
+        super.remove(portal);
+    }
+    
+    @Override
+    public void clear() {
+        super.clear();
+        uuidToPortal.clear();
+    }
+    
+    @Nullable
+    public Portal getByUuid(UUID uuid) {
+        return uuidToPortal.get(uuid);
+    }
+    
+    /**
+     * All portals in the index, in no particular order.
+     */
+    public void foreachPortal(Consumer<Portal> func) {
+        foreachObject(func);
+    }
+}
@@ -6,6 +6,7 @@ import net.minecraft.server.level.WorldGenRegion;
 import net.minecraft.world.level.block.state.BlockState;
 import qouteall.imm_ptl.core.portal.custom_portal_gen.PortalGenInfo;
 import qouteall.imm_ptl.core.portal.nether_portal.BlockPortalShape;
+import qouteall.imm_ptl.core.portal.nether_portal.ParallelFrameSearch;
 
 import java.util.List;
 import java.util.function.Function;
@@ -17,7 +18,7 @@ public abstract class AbstractDiligentForm extends NetherPortalLikeForm {
     }
     
     @Override
-    public Function<WorldGenRegion, Function<BlockPos.MutableBlockPos, PortalGenInfo>> getFrameMatchingFunc(
+    public Function<WorldGenRegion, ParallelFrameSearch.FrameMatcher<PortalGenInfo>> getFrameMatchingFunc(
         ServerLevel fromWorld, ServerLevel toWorld, BlockPortalShape fromShape
     ) {
         List<DiligentMatcher.TransformedShape> matchableShapeVariants =
@@ -25,8 +26,7 @@ public abstract class AbstractDiligentForm extends NetherPortalLikeForm {
         
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
-        BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
-        return (region) -> (blockPos) -> {
+        return (region) -> (blockPos, temp2) -> {
             for (DiligentMatcher.TransformedShape matchableShapeVariant : matchableShapeVariants) {
                 BlockPortalShape template = matchableShapeVariant.transformedShape;
                 BlockPortalShape matched = template.matchShapeWithMovedFirstFramePos(
@@ -19,7 +19,6 @@ import qouteall.q_misc_util.my_util.IntBox;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class DiligentMatcher {
     public static class IntMatrix3 {
@@ -49,6 +48,18 @@ public class DiligentMatcher {
                 .offset(Helper.scale(z, p.getZ()));
         }
         
+        // the same as transform, on the coordinates packed by BlockPos.asLong
+        public long transformPacked(long p) {
+            int px = BlockPos.getX(p);
+            int py = BlockPos.getY(p);
+            int pz = BlockPos.getZ(p);
+            return BlockPos.asLong(
+                x.getX() * px + y.getX() * py + z.getX() * pz,
+                x.getY() * px + y.getY() * py + z.getY() * pz,
+                x.getZ() * px + y.getZ() * py + z.getZ() * pz
+            );
+        }
+        
         public IntMatrix3 multiply(IntMatrix3 m) {
             return new IntMatrix3(
                 m.transform(x),
@@ -242,14 +253,19 @@ public class DiligentMatcher {
         return rotatedShape.getShapeWithMovedAnchor(BlockPos.ZERO);
     }
     
+    // the offsets are small, so they are transformed in the packed form
+    // the transformation is linear, so the anchor is transformed separately
     public static BlockPortalShape rotateShape(BlockPortalShape shape, IntMatrix3 t) {
-        Set<BlockPos> newArea = shape.area.stream().map(
-            b -> t.transform(b)
-        ).collect(Collectors.toSet());
+        long[] offsets = shape.getAreaOffsets();
+        long[] newOffsets = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            newOffsets[i] = t.transformPacked(offsets[i]);
+        }
         Direction.Axis newAxis = t.transformDirection(
             Direction.fromAxisAndDirection(shape.axis, Direction.AxisDirection.POSITIVE)
         ).getAxis();
-        return new BlockPortalShape(newArea, newAxis);
+        BlockPortalShape rotated = BlockPortalShape.fromPackedPositions(newOffsets, newAxis);
+        return rotated.getShapeWithMovedAnchor(t.transform(shape.anchor).offset(rotated.anchor));
     }
     
     public static int getShapeShrinkFactor(BlockPortalShape shape) {
@@ -279,15 +295,18 @@ public class DiligentMatcher {
             return regularized;
         }
         
-        Set<BlockPos> newArea = regularized.area.stream().map(
-            b -> new BlockPos(
-                Math.floorDiv(b.getX(), div),
-                Math.floorDiv(b.getY(), div),
-                Math.floorDiv(b.getZ(), div)
-            )
-        ).collect(Collectors.toSet());
+        // the anchor of the regularized shape is the origin, so the offsets are the positions
+        long[] offsets = regularized.getAreaOffsets();
+        long[] newArea = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            newArea[i] = BlockPos.asLong(
+                Math.floorDiv(BlockPos.getX(offsets[i]), div),
+                Math.floorDiv(BlockPos.getY(offsets[i]), div),
+                Math.floorDiv(BlockPos.getZ(offsets[i]), div)
+            );
+        }
         
-        return new BlockPortalShape(newArea, regularized.axis);
+        return BlockPortalShape.fromPackedPositions(newArea, regularized.axis);
     }
     
     public static ArrayList<IntBox> decomposeShape(BlockPortalShape shape, HashSet<BlockPos> area) {
@@ -310,16 +329,29 @@ public class DiligentMatcher {
         Vec3i v1 = Direction.fromAxisAndDirection(axs.getA(), Direction.AxisDirection.POSITIVE).getNormal();
         Vec3i v2 = Direction.fromAxisAndDirection(axs.getB(), Direction.AxisDirection.POSITIVE).getNormal();
         
-        return new BlockPortalShape(
-            shape.area.stream().flatMap(
-                basePos -> IntStream.range(0, multiplyFactor).boxed().flatMap(dx ->
-                    IntStream.range(0, multiplyFactor).mapToObj(dy ->
-                        Helper.scale(basePos, multiplyFactor)
-                            .offset(Helper.scale(v1, dx).offset(Helper.scale(v2, dy)))
-                    )
-                )
-            ).collect(Collectors.toSet()),
-            shape.axis
+        // scale the offsets, then move to the scaled anchor
+        long[] offsets = shape.getAreaOffsets();
+        long[] newOffsets = new long[offsets.length * multiplyFactor * multiplyFactor];
+        int index = 0;
+        for (long offset : offsets) {
+            int baseX = BlockPos.getX(offset) * multiplyFactor;
+            int baseY = BlockPos.getY(offset) * multiplyFactor;
+            int baseZ = BlockPos.getZ(offset) * multiplyFactor;
+            for (int dx = 0; dx < multiplyFactor; dx++) {
+                for (int dy = 0; dy < multiplyFactor; dy++) {
+                    newOffsets[index] = BlockPos.asLong(
+                        baseX + v1.getX() * dx + v2.getX() * dy,
+                        baseY + v1.getY() * dx + v2.getY() * dy,
+                        baseZ + v1.getZ() * dx + v2.getZ() * dy
+                    );
+                    index++;
+                }
+            }
+        }
+        
+        BlockPortalShape upscaled = BlockPortalShape.fromPackedPositions(newOffsets, shape.axis);
+        return upscaled.getShapeWithMovedAnchor(
+            Helper.scale(shape.anchor, multiplyFactor).offset(upscaled.anchor)
         );
     }
     
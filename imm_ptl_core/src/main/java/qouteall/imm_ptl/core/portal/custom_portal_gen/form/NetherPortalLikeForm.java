@@ -13,6 +13,7 @@ import qouteall.imm_ptl.core.portal.custom_portal_gen.PortalGenInfo;
 import qouteall.imm_ptl.core.portal.nether_portal.BlockPortalShape;
 import qouteall.imm_ptl.core.portal.nether_portal.GeneralBreakablePortal;
 import qouteall.imm_ptl.core.portal.nether_portal.NetherPortalGeneration;
+import qouteall.imm_ptl.core.portal.nether_portal.ParallelFrameSearch;
 import qouteall.q_misc_util.my_util.IntBox;
 
 import javax.annotation.Nullable;
@@ -67,7 +68,7 @@ public abstract class NetherPortalLikeForm extends PortalGenForm {
         
         BlockPos toPos = cpg.mapPosition(fromShape.innerAreaBox.getCenter(), fromWorld, toWorld);
         
-        Function<WorldGenRegion, Function<BlockPos.MutableBlockPos, PortalGenInfo>> frameMatchingFunc =
+        Function<WorldGenRegion, ParallelFrameSearch.FrameMatcher<PortalGenInfo>> frameMatchingFunc =
             getFrameMatchingFunc(fromWorld, toWorld, fromShape);
         NetherPortalGeneration.startGeneratingPortal(
             fromWorld,
@@ -105,14 +106,13 @@ public abstract class NetherPortalLikeForm extends PortalGenForm {
         return true;
     }
     
-    public Function<WorldGenRegion, Function<BlockPos.MutableBlockPos, PortalGenInfo>> getFrameMatchingFunc(
+    public Function<WorldGenRegion, ParallelFrameSearch.FrameMatcher<PortalGenInfo>> getFrameMatchingFunc(
         ServerLevel fromWorld, ServerLevel toWorld,
         BlockPortalShape fromShape
     ) {
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
-        BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
-        return (region) -> (blockPos) -> {
+        return (region) -> (blockPos, temp2) -> {
             BlockPortalShape result = fromShape.matchShapeWithMovedFirstFramePos(
                 pos -> areaPredicate.test(region.getBlockState(pos)),
                 pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
@@ -11,6 +11,7 @@ import net.minecraft.world.level.block.state.BlockState;
 import qouteall.imm_ptl.core.portal.custom_portal_gen.PortalGenInfo;
 import qouteall.imm_ptl.core.portal.nether_portal.BlockPortalShape;
 import qouteall.imm_ptl.core.portal.nether_portal.NetherPortalGeneration;
+import qouteall.imm_ptl.core.portal.nether_portal.ParallelFrameSearch;
 import qouteall.q_misc_util.my_util.IntBox;
 
 import java.util.function.Function;
@@ -66,15 +67,14 @@ public class ScalingSquareForm extends NetherPortalLikeForm {
     }
     
     @Override
-    public Function<WorldGenRegion, Function<BlockPos.MutableBlockPos, PortalGenInfo>> getFrameMatchingFunc(
+    public Function<WorldGenRegion, ParallelFrameSearch.FrameMatcher<PortalGenInfo>> getFrameMatchingFunc(
         ServerLevel fromWorld, ServerLevel toWorld, BlockPortalShape fromShape
     ) {
         BlockPortalShape template = getTemplateToShape(fromShape);
         
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
-        BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
-        return (region) -> (blockPos) -> {
+        return (region) -> (blockPos, temp2) -> {
             BlockPortalShape result = template.matchShapeWithMovedFirstFramePos(
                 pos -> areaPredicate.test(region.getBlockState(pos)),
                 pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
@@ -0,0 +1,118 @@
+package qouteall.imm_ptl.core.portal.global_portals;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * The changes of a dimension's global portals that are not synced yet, and applying them on the client.
+ * The portals are identified by UUID, and the tag of an updated portal contains its UUID like an entity tag.
+ * It does not depend on the portal class, so it can be tested with synthetic objects.
+ */
+public class GlobalPortalDelta<T> {
+    
+    public static interface Target<T> {
+        @Nullable
+        T getByUuid(UUID uuid);
+        
+        /**
+         * @return false if the existing object cannot be patched by the tag, then it's replaced
+         */
+        boolean tryPatch(T existing, CompoundTag tag);
+        
+        T create(CompoundTag tag);
+        
+        void add(T object);
+        
+        void remove(T object);
+    }
+    
+    private final Map<UUID, T> pendingUpdates = new LinkedHashMap<>();
+    private final Set<UUID> pendingRemovals = new LinkedHashSet<>();
+    
+    public void markUpdated(UUID uuid, T object) {
+        pendingRemovals.remove(uuid);
+        pendingUpdates.put(uuid, object);
+    }
+    
+    public void markRemoved(UUID uuid) {
+        pendingUpdates.remove(uuid);
+        pendingRemovals.add(uuid);
+    }
+    
+    public boolean isEmpty() {
+        return pendingUpdates.isEmpty() && pendingRemovals.isEmpty();
+    }
+    
+    public int getChangeNum() {
+        return pendingUpdates.size() + pendingRemovals.size();
+    }
+    
+    public void clear() {
+        pendingUpdates.clear();
+        pendingRemovals.clear();
+    }
+    
+    public CompoundTag toTag(Function<T, CompoundTag> writer) {
+        ListTag updatedTag = new ListTag();
+        for (T object : pendingUpdates.values()) {
+            updatedTag.add(writer.apply(object));
+        }
+        
+        ListTag removedTag = new ListTag();
+        for (UUID uuid : pendingRemovals) {
+            removedTag.add(NbtUtils.createUUID(uuid));
+        }
+        
+        CompoundTag deltaTag = new CompoundTag();
+        deltaTag.put("updated", updatedTag);
+        deltaTag.put("removed", removedTag);
+        return deltaTag;
+    }
+    
+    /**
+     * The removals are applied before the updates.
+     * @return false if the client is not on the base version, then nothing is applied
+     */
+    public static <T> boolean apply(
+        int clientVersion, int baseVersion, CompoundTag deltaTag, Target<T> target
+    ) {
+        if (clientVersion != baseVersion) {
+            return false;
+        }
+        
+        ListTag removedTag = deltaTag.getList("removed", Tag.TAG_INT_ARRAY);
+        for (Tag uuidTag : removedTag) {
+            T object = target.getByUuid(NbtUtils.loadUUID(uuidTag));
+            if (object != null) {
+                target.remove(object);
+            }
+        }
+        
+        ListTag updatedTag = deltaTag.getList("updated", Tag.TAG_COMPOUND);
+        for (int i = 0; i < updatedTag.size(); i++) {
+            CompoundTag objectTag = updatedTag.getCompound(i);
+            T existing = target.getByUuid(objectTag.getUUID("UUID"));
+            
+            if (existing != null) {
+                if (target.tryPatch(existing, objectTag)) {
+                    continue;
+                }
+                target.remove(existing);
+            }
+            
+            target.add(target.create(objectTag));
+        }
+        
+        return true;
+    }
+}
@@ -28,8 +28,10 @@ import qouteall.imm_ptl.core.platform_specific.O_O;
 import qouteall.imm_ptl.core.platform_specific.forge.networking.GlobalPortalUpdate;
 import qouteall.imm_ptl.core.platform_specific.forge.networking.IPMessage;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.api.McRemoteProcedureCall;
 import qouteall.q_misc_util.forge.events.ServerDimensionDynamicUpdateEvent;
 
 import javax.annotation.Nonnull;
@@ -38,6 +40,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.function.Predicate;
 
 /**
@@ -48,7 +51,15 @@ public class GlobalPortalStorage extends SavedData {
     public List<Portal> data;
     public final WeakReference<ServerLevel> world;
     private int version = 1;
-    private boolean shouldReSync = false;
+    
+    // the changes that are not synced yet
+    private final GlobalPortalDelta<Portal> pendingDelta = new GlobalPortalDelta<>();
+    private boolean shouldFullSync = false;
+    // increments in every sync. not saved
+    private int syncVersion = 0;
+    
+    private final PortalSpatialIndex index = new PortalSpatialIndex();
+    private boolean isIndexDirty = true;
     
     @Nullable
     public BlockState bedrockReplacement;
@@ -69,6 +80,15 @@ public class GlobalPortalStorage extends SavedData {
 
         MinecraftForge.EVENT_BUS.register(GlobalPortalStorage.class);
         
+        Portal.portalCacheUpdateSignal.connect(portal -> {
+            if (portal.getIsGlobal()) {
+                PortalSpatialIndex index = getGlobalPortalIndex(portal.level);
+                if (index != null) {
+                    index.update(portal);
+                }
+            }
+        });
+        
 //        DimensionAPI.serverDimensionDynamicUpdateEvent.register(dims -> { //TODO Reimplement this !DONE
 //            for (ServerLevel world : MiscHelper.getServer().getAllLevels()) {
 //                GlobalPortalStorage gps = get(world);
@@ -113,6 +133,11 @@ public class GlobalPortalStorage extends SavedData {
         IPGlobal.clientCleanupSignal.connect(GlobalPortalStorage::onClientCleanup);
     }
 
+    // the client sync version of a dimension that has not received a full sync
+    public static final int CLIENT_NOT_SYNCED = -1;
+    // the client sync version of a dimension that has requested a full sync and is waiting for it
+    public static final int CLIENT_AWAITING_FULL_SYNC = -2;
+    
     @OnlyIn(Dist.CLIENT)
     private static void onClientCleanup() {
         if (ClientWorldLoader.getIsInitialized()) {
@@ -130,29 +155,52 @@ public class GlobalPortalStorage extends SavedData {
     }
     
     public static void onPlayerLoggedIn(ServerPlayer player) {
+        // also send the empty ones, so that the client is on the current sync version
+        // and can apply the next delta
         MiscHelper.getServer().getAllLevels().forEach(
             world -> {
                 GlobalPortalStorage storage = get(world);
-                if (!storage.data.isEmpty()) {
-                    IPMessage.sendToPlayer(new GlobalPortalUpdate(storage), player);
-                }
+                IPMessage.sendToPlayer(new GlobalPortalUpdate(storage), player);
             }
         );
         
     }
     
+    /**
+     * Call this after changing {@link #data} directly.
+     * It syncs all global portals of this dimension.
+     */
     public void onDataChanged() {
         setDirty(true);
         
-        shouldReSync = true;
+        shouldFullSync = true;
+        isIndexDirty = true;
+    }
+    
+    /**
+     * Call this after changing the data of a global portal in this storage.
+     * Only that portal will be synced.
+     */
+    public void onPortalUpdated(Portal portal) {
+        Validate.isTrue(data.contains(portal));
         
+        setDirty(true);
         
+        index.update(portal);
+        pendingDelta.markUpdated(portal.getUUID(), portal);
+    }
+    
+    private void markRemoved(Portal portal) {
+        setDirty(true);
+        
+        pendingDelta.markRemoved(portal.getUUID());
     }
     
     public void removePortal(Portal portal) {
         data.remove(portal);
+        index.remove(portal);
         portal.remove(Entity.RemovalReason.KILLED);
-        onDataChanged();
+        markRemoved(portal);
     }
     
     public void addPortal(Portal portal) {
@@ -163,27 +211,62 @@ public class GlobalPortalStorage extends SavedData {
         portal.isGlobalPortal = true;
         portal.myUnsetRemoved();
         data.add(portal);
-        onDataChanged();
+        index.add(portal);
+        
+        setDirty(true);
+        pendingDelta.markUpdated(portal.getUUID(), portal);
     }
     
     public void removePortals(Predicate<Portal> predicate) {
         data.removeIf(portal -> {
             final boolean shouldRemove = predicate.test(portal);
             if (shouldRemove) {
+                index.remove(portal);
                 portal.remove(Entity.RemovalReason.KILLED);
+                markRemoved(portal);
             }
             return shouldRemove;
         });
-        onDataChanged();
+    }
+    
+    public PortalSpatialIndex getIndex() {
+        if (isIndexDirty) {
+            index.rebuild(data);
+            isIndexDirty = false;
+        }
+        return index;
+    }
+    
+    public int getSyncVersion() {
+        return syncVersion;
     }
     
     private void syncToAllPlayers() {
+        syncVersion++;
+        pendingDelta.clear();
+        shouldFullSync = false;
+        
         GlobalPortalUpdate gpu = new GlobalPortalUpdate(this);
         McHelper.getCopiedPlayerList().forEach(
                 player -> IPMessage.sendToPlayer(gpu, player)
         );
     }
     
+    private void syncDeltaToAllPlayers() {
+        CompoundTag deltaTag = pendingDelta.toTag(GlobalPortalStorage::writePortalToTag);
+        
+        int baseVersion = syncVersion;
+        syncVersion++;
+        pendingDelta.clear();
+        
+        GlobalPortalUpdate gpu = new GlobalPortalUpdate(
+            world.get().dimension(), deltaTag, baseVersion, syncVersion
+        );
+        McHelper.getCopiedPlayerList().forEach(
+            player -> IPMessage.sendToPlayer(gpu, player)
+        );
+    }
+    
     public void fromNbt(CompoundTag tag) {
         
         ServerLevel currWorld = world.get();
@@ -191,6 +274,7 @@ public class GlobalPortalStorage extends SavedData {
         List<Portal> newData = getPortalsFromTag(tag, currWorld);
         
         data = newData;
+        isIndexDirty = true;
         
         if (tag.contains("version")) {
             version = tag.getInt("version");
@@ -256,13 +340,7 @@ public class GlobalPortalStorage extends SavedData {
         
         for (Portal portal : data) {
             Validate.isTrue(portal.level == currWorld);
-            CompoundTag portalTag = new CompoundTag();
-            portal.saveWithoutId(portalTag);
-            portalTag.putString(
-                "entity_type",
-                EntityType.getKey(portal.getType()).toString()
-            );
-            listTag.add(portalTag);
+            listTag.add(writePortalToTag(portal));
         }
         
         tag.put("data", listTag);
@@ -276,10 +354,28 @@ public class GlobalPortalStorage extends SavedData {
         return tag;
     }
     
+    private static CompoundTag writePortalToTag(Portal portal) {
+        CompoundTag portalTag = new CompoundTag();
+        portal.saveWithoutId(portalTag);
+        portalTag.putString(
+            "entity_type",
+            EntityType.getKey(portal.getType()).toString()
+        );
+        return portalTag;
+    }
+    
     public void tick() {
-        if (shouldReSync) {
+        if (shouldFullSync) {
             syncToAllPlayers();
-            shouldReSync = false;
+        }
+        else if (!pendingDelta.isEmpty()) {
+            if (pendingDelta.getChangeNum() >= data.size()) {
+                // the delta is not smaller than the snapshot
+                syncToAllPlayers();
+            }
+            else {
+                syncDeltaToAllPlayers();
+            }
         }
         
         if (version <= 1) {
@@ -298,6 +394,7 @@ public class GlobalPortalStorage extends SavedData {
             }
             return false;
         });
+        isIndexDirty = true;
     }
     
     private static void upgradeData(ServerLevel world) {
@@ -305,7 +402,9 @@ public class GlobalPortalStorage extends SavedData {
     }
 
     @OnlyIn(Dist.CLIENT)
-    public static void receiveGlobalPortalSync(ResourceKey<Level> dimension, CompoundTag compoundTag) {
+    public static void receiveGlobalPortalSync(
+        ResourceKey<Level> dimension, CompoundTag compoundTag, int syncVersion
+    ) {
         ClientLevel world = ClientWorldLoader.getWorld(dimension);
         
         List<Portal> oldGlobalPortals = ((IEClientWorld) world).getGlobalPortals();
@@ -327,9 +426,102 @@ public class GlobalPortalStorage extends SavedData {
         
         ((IEClientWorld) world).setGlobalPortals(newPortals);
         
+        ((IEClientWorld) world).ip_setGlobalPortalSyncVersion(syncVersion);
+        
         Helper.log("Global Portals Updated " + dimension.location());
     }
     
+    /**
+     * Patches the existing global portal instances. If the client is not on the base version,
+     * the delta is dropped and a full sync is requested.
+     */
+    @OnlyIn(Dist.CLIENT)
+    public static void receiveGlobalPortalDelta(
+        ResourceKey<Level> dimension, CompoundTag deltaTag, int baseVersion, int syncVersion
+    ) {
+        ClientLevel world = ClientWorldLoader.getWorld(dimension);
+        IEClientWorld ieWorld = (IEClientWorld) world;
+        
+        boolean applied = GlobalPortalDelta.apply(
+            ieWorld.ip_getGlobalPortalSyncVersion(), baseVersion, deltaTag,
+            new ClientDeltaTarget(world)
+        );
+        
+        if (!applied) {
+            if (ieWorld.ip_getGlobalPortalSyncVersion() != CLIENT_AWAITING_FULL_SYNC) {
+                Helper.log("Global portal sync version mismatch " + dimension.location());
+                ieWorld.ip_setGlobalPortalSyncVersion(CLIENT_AWAITING_FULL_SYNC);
+                McRemoteProcedureCall.tellServerToInvoke(
+                    "qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage.RemoteCallables.requestFullSync",
+                    dimension
+                );
+            }
+            return;
+        }
+        
+        ieWorld.ip_setGlobalPortalSyncVersion(syncVersion);
+    }
+    
+    @OnlyIn(Dist.CLIENT)
+    private static class ClientDeltaTarget implements GlobalPortalDelta.Target<Portal> {
+        private final ClientLevel world;
+        private final List<Portal> portals;
+        private final PortalSpatialIndex index;
+        
+        public ClientDeltaTarget(ClientLevel world) {
+            this.world = world;
+            IEClientWorld ieWorld = (IEClientWorld) world;
+            
+            List<Portal> portals = ieWorld.getGlobalPortals();
+            if (portals == null) {
+                portals = new ArrayList<>();
+                ieWorld.setGlobalPortals(portals);
+            }
+            this.portals = portals;
+            this.index = ieWorld.getGlobalPortalIndex();
+        }
+        
+        @Nullable
+        @Override
+        public Portal getByUuid(UUID uuid) {
+            return index.getByUuid(uuid);
+        }
+        
+        @Override
+        public boolean tryPatch(Portal existing, CompoundTag tag) {
+            if (!EntityType.getKey(existing.getType()).toString().equals(tag.getString("entity_type"))) {
+                return false;
+            }
+            existing.load(tag);
+            existing.isGlobalPortal = true;
+            existing.updateCache();
+            index.update(existing);
+            return true;
+        }
+        
+        @Override
+        public Portal create(CompoundTag tag) {
+            Portal portal = readPortalFromTag(world, tag);
+            portal.myUnsetRemoved();
+            Validate.isTrue(portal.isPortalValid());
+            ClientWorldLoader.getWorld(portal.getDestDim());
+            return portal;
+        }
+        
+        @Override
+        public void add(Portal portal) {
+            portals.add(portal);
+            index.add(portal);
+        }
+        
+        @Override
+        public void remove(Portal portal) {
+            portals.remove(portal);
+            index.remove(portal);
+            portal.remove(Entity.RemovalReason.KILLED);
+        }
+    }
+    
     public static void convertNormalPortalIntoGlobalPortal(Portal portal) {
         Validate.isTrue(!portal.getIsGlobal());
         Validate.isTrue(!portal.level.isClientSide());
@@ -375,4 +567,32 @@ public class GlobalPortalStorage extends SavedData {
         }
         return result != null ? result : Collections.emptyList();
     }
+    
+    /**
+     * The spatial index of {@link #getGlobalPortals(Level)}. Use it for box or point queries.
+     */
+    @Nullable
+    public static PortalSpatialIndex getGlobalPortalIndex(Level world) {
+        if (world.isClientSide()) {
+            return CHelper.getClientGlobalPortalIndex(world);
+        }
+        else if (world instanceof ServerLevel) {
+            return get(((ServerLevel) world)).getIndex();
+        }
+        else {
+            return null;
+        }
+    }
+    
+    public static class RemoteCallables {
+        public static void requestFullSync(ServerPlayer player, ResourceKey<Level> dimension) {
+            ServerLevel world = MiscHelper.getServer().getLevel(dimension);
+            if (world == null) {
+                Helper.err("Requesting global portals of missing dimension " + dimension.location());
+                return;
+            }
+            
+            IPMessage.sendToPlayer(new GlobalPortalUpdate(get(world)), player);
+        }
+    }
 }
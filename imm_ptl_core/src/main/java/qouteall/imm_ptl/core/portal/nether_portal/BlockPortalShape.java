@@ -1,5 +1,6 @@
 package qouteall.imm_ptl.core.portal.nether_portal;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.core.Vec3i;
@@ -15,11 +16,19 @@ import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.IntBox;
 
 import java.util.*;
-import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Besides the block pos sets, the shape is also stored in a compact form:
+ * the positions relative to the anchor packed by {@link BlockPos#asLong(int, int, int)}
+ * and a bitset of the area within the inner area box.
+ * Moving the shape does not change the compact form, so the moved shape shares it
+ * and does not need to recalculate the frame.
+ * The frame sets, and the area set of a moved shape, are read-only views over the packed positions,
+ * so they are not copied into hash sets.
+ * Shape matching and frame checking iterate the packed positions and do not allocate.
+ */
 public class BlockPortalShape {
     public BlockPos anchor;
     public Set<BlockPos> area;
@@ -31,6 +40,112 @@ public class BlockPortalShape {
     
     public BlockPos firstFramePos;
     
+    // relative to the anchor, sorted
+    private long[] areaOffsets;
+    private long[] frameOffsetsWithoutCorner;
+    private long[] frameOffsetsWithCorner;
+    private long firstFrameOffset;
+    private AreaMask areaMask;
+    
+    /**
+     * The bitset of the area over the inner area box. The coordinates are relative to the anchor.
+     * Immutable after creation.
+     */
+    private static class AreaMask {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int sizeX;
+        private final int sizeY;
+        private final int sizeZ;
+        private final BitSet bits;
+        
+        AreaMask(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.sizeX = maxX - minX + 1;
+            this.sizeY = maxY - minY + 1;
+            this.sizeZ = maxZ - minZ + 1;
+            this.bits = new BitSet(sizeX * sizeY * sizeZ);
+        }
+        
+        // -1 if out of the box
+        private int getIndex(int x, int y, int z) {
+            int lx = x - minX;
+            int ly = y - minY;
+            int lz = z - minZ;
+            if (lx < 0 || lx >= sizeX || ly < 0 || ly >= sizeY || lz < 0 || lz >= sizeZ) {
+                return -1;
+            }
+            return (lx * sizeY + ly) * sizeZ + lz;
+        }
+        
+        void set(int x, int y, int z) {
+            bits.set(getIndex(x, y, z));
+        }
+        
+        boolean contains(int x, int y, int z) {
+            int index = getIndex(x, y, z);
+            return index != -1 && bits.get(index);
+        }
+    }
+    
+    /**
+     * A read-only set view of the sorted packed offsets relative to the anchor.
+     */
+    private static class OffsetPosSet extends AbstractSet<BlockPos> {
+        private final BlockPos anchor;
+        private final long[] offsets;
+        
+        OffsetPosSet(BlockPos anchor, long[] offsets) {
+            this.anchor = anchor;
+            this.offsets = offsets;
+        }
+        
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof BlockPos blockPos)) {
+                return false;
+            }
+            int dx = blockPos.getX() - anchor.getX();
+            int dy = blockPos.getY() - anchor.getY();
+            int dz = blockPos.getZ() - anchor.getZ();
+            // the packed y only has 12 bits. the x and z are far beyond the world border before they wrap
+            if (dy < -2048 || dy >= 2048) {
+                return false;
+            }
+            return Arrays.binarySearch(offsets, BlockPos.asLong(dx, dy, dz)) >= 0;
+        }
+        
+        @Override
+        public Iterator<BlockPos> iterator() {
+            return new Iterator<>() {
+                private int index = 0;
+                
+                @Override
+                public boolean hasNext() {
+                    return index < offsets.length;
+                }
+                
+                @Override
+                public BlockPos next() {
+                    if (index >= offsets.length) {
+                        throw new NoSuchElementException();
+                    }
+                    long offset = offsets[index];
+                    index++;
+                    return anchor.offset(BlockPos.getX(offset), BlockPos.getY(offset), BlockPos.getZ(offset));
+                }
+            };
+        }
+        
+        @Override
+        public int size() {
+            return offsets.length;
+        }
+    }
+    
     public BlockPortalShape(
         Set<BlockPos> area, Direction.Axis axis
     ) {
@@ -44,6 +159,66 @@ public class BlockPortalShape {
         calcAreaBox();
     }
     
+    // the moved shape shares the compact form
+    private BlockPortalShape(BlockPortalShape shape, BlockPos newAnchor) {
+        this.anchor = newAnchor;
+        this.axis = shape.axis;
+        
+        this.areaOffsets = shape.areaOffsets;
+        this.frameOffsetsWithoutCorner = shape.frameOffsetsWithoutCorner;
+        this.frameOffsetsWithCorner = shape.frameOffsetsWithCorner;
+        this.firstFrameOffset = shape.firstFrameOffset;
+        this.areaMask = shape.areaMask;
+        
+        this.area = new OffsetPosSet(newAnchor, areaOffsets);
+        this.frameAreaWithoutCorner = new OffsetPosSet(newAnchor, frameOffsetsWithoutCorner);
+        this.frameAreaWithCorner = new OffsetPosSet(newAnchor, frameOffsetsWithCorner);
+        this.firstFramePos = toPos(firstFrameOffset);
+        
+        BlockPos offset = newAnchor.subtract(shape.anchor);
+        this.innerAreaBox = shape.innerAreaBox.getMoved(offset);
+        this.totalAreaBox = shape.totalAreaBox.getMoved(offset);
+    }
+    
+    private BlockPortalShape(long[] positions, Direction.Axis axis) {
+        Validate.isTrue(positions.length != 0);
+        
+        this.axis = axis;
+        
+        long min = positions[0];
+        for (long position : positions) {
+            if (compareXYZ(position, min) < 0) {
+                min = position;
+            }
+        }
+        anchor = BlockPos.of(min);
+        
+        long[] offsets = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            offsets[i] = BlockPos.asLong(
+                BlockPos.getX(positions[i]) - anchor.getX(),
+                BlockPos.getY(positions[i]) - anchor.getY(),
+                BlockPos.getZ(positions[i]) - anchor.getZ()
+            );
+        }
+        Arrays.sort(offsets);
+        setCompactArea(removeDuplicates(offsets));
+        area = new OffsetPosSet(anchor, areaOffsets);
+        
+        calcFrameArea();
+        
+        calcAreaBox();
+    }
+    
+    /**
+     * Creates the shape from the positions packed by {@link BlockPos#asLong(int, int, int)}
+     * without putting the area into a hash set.
+     * The positions can be in any order and can have duplicates.
+     */
+    public static BlockPortalShape fromPackedPositions(long[] positions, Direction.Axis axis) {
+        return new BlockPortalShape(positions, axis);
+    }
+    
     public BlockPortalShape(
         CompoundTag tag
     ) {
@@ -87,67 +262,203 @@ public class BlockPortalShape {
         return data;
     }
     
+    /**
+     * Also builds the compact form from the area, as it's relative to the anchor.
+     * {@link #calcFrameArea()} is computed from the compact form and {@link #calcAreaBox()} from both,
+     * so after changing the area, call the three in this order, like the constructor.
+     */
     public void calcAnchor() {
-        anchor = area.stream()
-            .min(
-                Comparator.<BlockPos>comparingInt(
-                    Vec3i::getX
-                ).<BlockPos>thenComparingInt(
-                    Vec3i::getY
-                ).<BlockPos>thenComparingInt(
-                    Vec3i::getZ
-                )
-            ).get();
+        Validate.isTrue(!area.isEmpty());
         
-        Validate.notNull(anchor);
+        BlockPos min = null;
+        for (BlockPos blockPos : area) {
+            if (min == null || compareXYZ(blockPos, min) < 0) {
+                min = blockPos;
+            }
+        }
+        
+        anchor = min.immutable();
+        
+        calcCompactArea();
+    }
+    
+    private static int compareXYZ(BlockPos a, BlockPos b) {
+        if (a.getX() != b.getX()) {
+            return Integer.compare(a.getX(), b.getX());
+        }
+        if (a.getY() != b.getY()) {
+            return Integer.compare(a.getY(), b.getY());
+        }
+        return Integer.compare(a.getZ(), b.getZ());
     }
     
+    private static int compareXYZ(long a, long b) {
+        if (BlockPos.getX(a) != BlockPos.getX(b)) {
+            return Integer.compare(BlockPos.getX(a), BlockPos.getX(b));
+        }
+        if (BlockPos.getY(a) != BlockPos.getY(b)) {
+            return Integer.compare(BlockPos.getY(a), BlockPos.getY(b));
+        }
+        return Integer.compare(BlockPos.getZ(a), BlockPos.getZ(b));
+    }
+    
+    // the array should be sorted
+    private static long[] removeDuplicates(long[] sorted) {
+        int num = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[num] = sorted[i];
+                num++;
+            }
+        }
+        return num == sorted.length ? sorted : Arrays.copyOf(sorted, num);
+    }
+    
+    private void calcCompactArea() {
+        long[] offsets = new long[area.size()];
+        int i = 0;
+        for (BlockPos blockPos : area) {
+            offsets[i] = BlockPos.asLong(
+                blockPos.getX() - anchor.getX(),
+                blockPos.getY() - anchor.getY(),
+                blockPos.getZ() - anchor.getZ()
+            );
+            i++;
+        }
+        Arrays.sort(offsets);
+        
+        setCompactArea(offsets);
+    }
+    
+    // the offsets should be sorted and have no duplicates
+    private void setCompactArea(long[] offsets) {
+        areaOffsets = offsets;
+        int minX = 0, minY = 0, minZ = 0;
+        int maxX = 0, maxY = 0, maxZ = 0;
+        for (long offset : areaOffsets) {
+            int x = BlockPos.getX(offset);
+            int y = BlockPos.getY(offset);
+            int z = BlockPos.getZ(offset);
+            
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        
+        areaMask = new AreaMask(minX, minY, minZ, maxX, maxY, maxZ);
+        for (long offset : areaOffsets) {
+            areaMask.set(BlockPos.getX(offset), BlockPos.getY(offset), BlockPos.getZ(offset));
+        }
+    }
+    
+    /**
+     * Requires the compact form and the frame, see {@link #calcAnchor()}.
+     */
     public void calcAreaBox() {
-        innerAreaBox = Helper.reduce(
-            new IntBox(anchor, anchor),
-            area.stream(),
-            IntBox::getExpanded
+        innerAreaBox = new IntBox(
+            anchor.offset(areaMask.minX, areaMask.minY, areaMask.minZ),
+            anchor.offset(
+                areaMask.minX + areaMask.sizeX - 1,
+                areaMask.minY + areaMask.sizeY - 1,
+                areaMask.minZ + areaMask.sizeZ - 1
+            )
         );
-        totalAreaBox = Helper.reduce(
-            new IntBox(anchor, anchor),
-            frameAreaWithoutCorner.stream(),
-            IntBox::getExpanded
+        
+        // the frame surrounds the area and the anchor
+        int minX = 0, minY = 0, minZ = 0;
+        int maxX = 0, maxY = 0, maxZ = 0;
+        for (long offset : frameOffsetsWithoutCorner) {
+            int x = BlockPos.getX(offset);
+            int y = BlockPos.getY(offset);
+            int z = BlockPos.getZ(offset);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        totalAreaBox = new IntBox(
+            anchor.offset(minX, minY, minZ),
+            anchor.offset(maxX, maxY, maxZ)
         );
     }
     
+    /**
+     * Requires the compact form, see {@link #calcAnchor()}.
+     */
     public void calcFrameArea() {
         Direction[] directions = Helper.getAnotherFourDirections(axis);
-        frameAreaWithoutCorner = area.stream().flatMap(
-            blockPos -> Stream.of(
-                blockPos.offset(directions[0].getNormal()),
-                blockPos.offset(directions[1].getNormal()),
-                blockPos.offset(directions[2].getNormal()),
-                blockPos.offset(directions[3].getNormal())
-            )
-        ).filter(
-            blockPos -> !area.contains(blockPos)
-        ).collect(Collectors.toSet());
-        
-        BlockPos[] cornerOffsets = {
-            new BlockPos(directions[0].getNormal()).offset(directions[1].getNormal()),
-            new BlockPos(directions[1].getNormal()).offset(directions[2].getNormal()),
-            new BlockPos(directions[2].getNormal()).offset(directions[3].getNormal()),
-            new BlockPos(directions[3].getNormal()).offset(directions[0].getNormal())
-        };
-        
-        frameAreaWithCorner = area.stream().flatMap(
-            blockPos -> Stream.of(
-                blockPos.offset(cornerOffsets[0]),
-                blockPos.offset(cornerOffsets[1]),
-                blockPos.offset(cornerOffsets[2]),
-                blockPos.offset(cornerOffsets[3])
-            )
-        ).filter(
-            blockPos -> !area.contains(blockPos)
-        ).collect(Collectors.toSet());
-        frameAreaWithCorner.addAll(frameAreaWithoutCorner);
+        Vec3i[] sideOffsets = new Vec3i[4];
+        Vec3i[] cornerOffsets = new Vec3i[4];
+        for (int i = 0; i < 4; i++) {
+            sideOffsets[i] = directions[i].getNormal();
+            cornerOffsets[i] = directions[i].getNormal().offset(directions[(i + 1) % 4].getNormal());
+        }
+        
+        LongOpenHashSet withoutCorner = new LongOpenHashSet();
+        LongOpenHashSet withCorner = new LongOpenHashSet();
+        for (long offset : areaOffsets) {
+            int x = BlockPos.getX(offset);
+            int y = BlockPos.getY(offset);
+            int z = BlockPos.getZ(offset);
+            
+            for (Vec3i side : sideOffsets) {
+                int nx = x + side.getX();
+                int ny = y + side.getY();
+                int nz = z + side.getZ();
+                if (!areaMask.contains(nx, ny, nz)) {
+                    withoutCorner.add(BlockPos.asLong(nx, ny, nz));
+                }
+            }
+            
+            for (Vec3i corner : cornerOffsets) {
+                int nx = x + corner.getX();
+                int ny = y + corner.getY();
+                int nz = z + corner.getZ();
+                if (!areaMask.contains(nx, ny, nz)) {
+                    withCorner.add(BlockPos.asLong(nx, ny, nz));
+                }
+            }
+        }
+        withCorner.addAll(withoutCorner);
+        
+        frameOffsetsWithoutCorner = withoutCorner.toLongArray();
+        Arrays.sort(frameOffsetsWithoutCorner);
+        frameOffsetsWithCorner = withCorner.toLongArray();
+        Arrays.sort(frameOffsetsWithCorner);
+        
+        frameAreaWithoutCorner = new OffsetPosSet(anchor, frameOffsetsWithoutCorner);
+        frameAreaWithCorner = new OffsetPosSet(anchor, frameOffsetsWithCorner);
         
-        firstFramePos = frameAreaWithoutCorner.iterator().next();
+        firstFrameOffset = frameOffsetsWithoutCorner[0];
+        firstFramePos = toPos(firstFrameOffset);
+    }
+    
+    /**
+     * The area positions relative to the anchor, packed by {@link BlockPos#asLong(int, int, int)} and sorted.
+     * The array is shared by the moved shapes, don't modify it.
+     */
+    public long[] getAreaOffsets() {
+        return areaOffsets;
+    }
+    
+    private BlockPos toPos(long offset) {
+        return anchor.offset(BlockPos.getX(offset), BlockPos.getY(offset), BlockPos.getZ(offset));
+    }
+    
+    /**
+     * Is the position in the area.
+     */
+    public boolean isInArea(BlockPos blockPos) {
+        return areaMask.contains(
+            blockPos.getX() - anchor.getX(),
+            blockPos.getY() - anchor.getY(),
+            blockPos.getZ() - anchor.getZ()
+        );
     }
     
     //null for not found
@@ -287,65 +598,62 @@ public class BlockPortalShape {
             return null;
         }
         
-        boolean testFrame = testFrameWithoutCorner(isObsidian, newAnchor, temp);
+        int anchorX = newAnchor.getX();
+        int anchorY = newAnchor.getY();
+        int anchorZ = newAnchor.getZ();
         
-        if (!testFrame) {
+        //does this have optimization effect?
+        if (!isObsidian.test(temp.set(
+            anchorX + BlockPos.getX(firstFrameOffset),
+            anchorY + BlockPos.getY(firstFrameOffset),
+            anchorZ + BlockPos.getZ(firstFrameOffset)
+        ))) {
             return null;
         }
         
-        boolean testAir = area.stream().map(
-            blockPos -> temp.set(
-                blockPos.getX() - anchor.getX() + newAnchor.getX(),
-                blockPos.getY() - anchor.getY() + newAnchor.getY(),
-                blockPos.getZ() - anchor.getZ() + newAnchor.getZ()
-            )
-            //blockPos.subtract(anchor).add(newAnchor)
-        ).allMatch(
-            isAir
-        );
+        if (!testOffsets(frameOffsetsWithoutCorner, isObsidian, anchorX, anchorY, anchorZ, temp)) {
+            return null;
+        }
         
-        if (!testAir) {
+        if (!testOffsets(areaOffsets, isAir, anchorX, anchorY, anchorZ, temp)) {
             return null;
         }
         
         return getShapeWithMovedAnchor(newAnchor);
     }
     
-    private boolean testFrameWithoutCorner(
-        Predicate<BlockPos> isObsidian,
-        BlockPos newAnchor,
+    private static boolean testOffsets(
+        long[] offsets, Predicate<BlockPos> predicate,
+        int baseX, int baseY, int baseZ,
         BlockPos.MutableBlockPos temp
     ) {
-        Function<BlockPos, BlockPos.MutableBlockPos> mapper = blockPos -> temp.set(
-            blockPos.getX() - anchor.getX() + newAnchor.getX(),
-            blockPos.getY() - anchor.getY() + newAnchor.getY(),
-            blockPos.getZ() - anchor.getZ() + newAnchor.getZ()
-        );
-        
-        //does this have optimization effect?
-        if (!isObsidian.test(mapper.apply(firstFramePos))) {
-            return false;
+        for (long offset : offsets) {
+            temp.set(
+                baseX + BlockPos.getX(offset),
+                baseY + BlockPos.getY(offset),
+                baseZ + BlockPos.getZ(offset)
+            );
+            if (!predicate.test(temp)) {
+                return false;
+            }
         }
-        
-        return frameAreaWithoutCorner.stream().map(mapper).allMatch(isObsidian);
+        return true;
     }
     
     public BlockPortalShape getShapeWithMovedAnchor(
         BlockPos newAnchor
     ) {
-        BlockPos offset = newAnchor.subtract(anchor);
-        return new BlockPortalShape(
-            area.stream().map(
-                blockPos -> blockPos.offset(offset)
-            ).collect(Collectors.toSet()),
-            axis
-        );
+        return new BlockPortalShape(this, newAnchor.immutable());
     }
     
     public boolean isFrameIntact(
         Predicate<BlockPos> isObsidian
     ) {
-        return frameAreaWithoutCorner.stream().allMatch(isObsidian::test);
+        return testOffsets(
+            frameOffsetsWithoutCorner, isObsidian,
+            anchor.getX(), anchor.getY(), anchor.getZ(),
+            new BlockPos.MutableBlockPos()
+        );
     }
     
     public boolean isPortalIntact(
@@ -353,7 +661,11 @@ public class BlockPortalShape {
         Predicate<BlockPos> isObsidian
     ) {
         return isFrameIntact(isObsidian) &&
-            area.stream().allMatch(isPortalBlock);
+            testOffsets(
+                areaOffsets, isPortalBlock,
+                anchor.getX(), anchor.getY(), anchor.getZ(),
+                new BlockPos.MutableBlockPos()
+            );
     }
     
     public void initPortalPosAxisShape(Portal portal, boolean doInvert) {
@@ -389,7 +701,7 @@ public class BlockPortalShape {
             
             IntBox rectanglePart = Helper.expandRectangle(
                 anchor,
-                blockPos -> area.contains(blockPos),
+                this::isInArea,
                 axis
             );
             
@@ -432,33 +744,19 @@ public class BlockPortalShape {
         BlockPos newFirstObsidianPos,
         BlockPos.MutableBlockPos temp
     ) {
-        boolean testFrame = frameAreaWithoutCorner.stream().map(blockPos1 -> temp.set(
-            blockPos1.getX() - firstFramePos.getX() + newFirstObsidianPos.getX(),
-            blockPos1.getY() - firstFramePos.getY() + newFirstObsidianPos.getY(),
-            blockPos1.getZ() - firstFramePos.getZ() + newFirstObsidianPos.getZ()
-        )).allMatch(isObsidian);
+        int anchorX = newFirstObsidianPos.getX() - BlockPos.getX(firstFrameOffset);
+        int anchorY = newFirstObsidianPos.getY() - BlockPos.getY(firstFrameOffset);
+        int anchorZ = newFirstObsidianPos.getZ() - BlockPos.getZ(firstFrameOffset);
         
-        if (!testFrame) {
+        if (!testOffsets(frameOffsetsWithoutCorner, isObsidian, anchorX, anchorY, anchorZ, temp)) {
             return null;
         }
         
-        boolean testAir = area.stream().map(blockPos -> temp.set(
-            blockPos.getX() - firstFramePos.getX() + newFirstObsidianPos.getX(),
-            blockPos.getY() - firstFramePos.getY() + newFirstObsidianPos.getY(),
-            blockPos.getZ() - firstFramePos.getZ() + newFirstObsidianPos.getZ()
-        )).allMatch(isAir);
-        
-        if (!testAir) {
+        if (!testOffsets(areaOffsets, isAir, anchorX, anchorY, anchorZ, temp)) {
             return null;
         }
         
-        BlockPos offset = newFirstObsidianPos.subtract(firstFramePos);
-        return new BlockPortalShape(
-            area.stream().map(
-                blockPos -> blockPos.offset(offset)
-            ).collect(Collectors.toSet()),
-            axis
-        );
+        return new BlockPortalShape(this, new BlockPos(anchorX, anchorY, anchorZ));
     }
     
     public static boolean isSquareShape(BlockPortalShape shape, int length) {
@@ -504,20 +802,22 @@ public class BlockPortalShape {
     
     public boolean isRectangle() {
         BlockPos size = innerAreaBox.getSize();
-        return size.getX() * size.getY() * size.getZ() == area.size();
+        return size.getX() * size.getY() * size.getZ() == areaOffsets.length;
     }
     
+    // the anchor is the minimum position, so the same area has the same anchor and the same sorted offsets
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         BlockPortalShape that = (BlockPortalShape) o;
-        return area.equals(that.area) &&
-            axis == that.axis;
+        return axis == that.axis &&
+            anchor.equals(that.anchor) &&
+            Arrays.equals(areaOffsets, that.areaOffsets);
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(area, axis);
+        return Objects.hash(anchor, axis, Arrays.hashCode(areaOffsets));
     }
 }
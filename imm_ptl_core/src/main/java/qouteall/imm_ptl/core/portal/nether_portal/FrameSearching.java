@@ -1,8 +1,9 @@
 package qouteall.imm_ptl.core.portal.nether_portal;
 
-import net.minecraft.Util;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.WorldGenRegion;
+import net.minecraft.util.Mth;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
 import net.minecraft.world.level.chunk.LevelChunkSection;
@@ -13,47 +14,114 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.function.Predicate;
 
+/**
+ * Searches the portal frame in the chunks of a region, from near to far, see {@link ParallelFrameSearch}.
+ * The sections whose palette does not contain the frame block are skipped.
+ * The shape matching function is invoked concurrently so it should be thread-safe.
+ */
 public class FrameSearching {
     // T is PortalGenInfo
     
+    private static Executor executor;
+    
+    /**
+     * A small dedicated pool for the searching.
+     * The shared background executor also runs world generation and chunk IO,
+     * so the searching tasks would compete with them and could be queued behind them.
+     */
+    public static synchronized Executor getExecutor() {
+        if (executor == null) {
+            int threadNum = Mth.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 4);
+            executor = Executors.newFixedThreadPool(
+                threadNum,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("ImmPtl Frame Searching %d")
+                    .setDaemon(true)
+                    .build()
+            );
+        }
+        return executor;
+    }
+    
+    private static class RegionChunkBlocks implements ParallelFrameSearch.ChunkBlocks<ChunkAccess> {
+        private final Predicate<BlockState> framePredicate;
+        
+        public RegionChunkBlocks(Predicate<BlockState> framePredicate) {
+            this.framePredicate = framePredicate;
+        }
+        
+        @Override
+        public int getMinBlockX(ChunkAccess chunk) {
+            return chunk.getPos().getMinBlockX();
+        }
+        
+        @Override
+        public int getMinBlockZ(ChunkAccess chunk) {
+            return chunk.getPos().getMinBlockZ();
+        }
+        
+        @Override
+        public int getSectionNum(ChunkAccess chunk) {
+            return chunk.getSections().length;
+        }
+        
+        @Override
+        public boolean mayContainFrame(ChunkAccess chunk, int sectionIndex) {
+            LevelChunkSection chunkSection = chunk.getSections()[sectionIndex];
+            // the palette may contain states that no longer exist in the section, but not vice versa
+            return chunkSection != null && !chunkSection.hasOnlyAir() &&
+                chunkSection.maybeHas(framePredicate);
+        }
+        
+        @Override
+        public boolean isFrame(ChunkAccess chunk, int sectionIndex, int localX, int localY, int localZ) {
+            return framePredicate.test(
+                chunk.getSections()[sectionIndex].getBlockState(localX, localY, localZ)
+            );
+        }
+    }
+    
     public static <T> void startSearchingPortalFrameAsync(
         WorldGenRegion region,
         int regionRadius,
         BlockPos centerPoint,
         Predicate<BlockState> framePredicate,
-        Function<BlockPos.MutableBlockPos, T> matchShape,
+        ParallelFrameSearch.FrameMatcher<T> matchShape,
         Consumer<T> onFound,
         Runnable onNotFound
     ) {
-        CompletableFuture<Void> future = CompletableFuture.runAsync(
-            () -> {
-                try {
-                    T result = searchPortalFrame(
-                        region, regionRadius,
-                        centerPoint, framePredicate,
-                        matchShape
-                    );
-                    MiscHelper.getServer().execute(() -> {
-                        if (result != null) {
-                            onFound.accept(result);
-                        }
-                        else {
-                            onNotFound.run();
-                        }
-                    });
+        Executor executor = getExecutor();
+        
+        CompletableFuture.supplyAsync(
+            () -> getChunksFromNearToFar(region, centerPoint, regionRadius),
+            executor
+        ).thenCompose(chunks -> {
+            ParallelFrameSearch<ChunkAccess, T> search = new ParallelFrameSearch<>(
+                chunks, new RegionChunkBlocks(framePredicate),
+                McHelper.getMinSectionY(region),
+                McHelper.getMinY(region), McHelper.getMaxYExclusive(region),
+                matchShape
+            );
+            search.start(executor);
+            return search.resultFuture;
+        }).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+            MiscHelper.getServer().execute(() -> {
+                if (result != null) {
+                    onFound.accept(result);
                 }
-                catch (Throwable oops) {
-                    oops.printStackTrace();
+                else {
                     onNotFound.run();
                 }
-            },
-            Util.backgroundExecutor()
-        );
-        
+            });
+        });
     }
     
     // Return null for not found
@@ -63,73 +131,21 @@ public class FrameSearching {
         int regionRadius,
         BlockPos centerPoint,
         Predicate<BlockState> framePredicate,
-        Function<BlockPos.MutableBlockPos, T> matchShape
+        ParallelFrameSearch.FrameMatcher<T> matchShape
     ) {
         ArrayList<ChunkAccess> chunks = getChunksFromNearToFar(
             region, centerPoint, regionRadius
         );
         
-        int minSectionY = McHelper.getMinSectionY(region);
-        int maxSectionYExclusive = McHelper.getMaxSectionYExclusive(region);
-        
-        return searchPortalFrameWithYRange(
-            framePredicate, matchShape,
-            chunks, minSectionY,
-            McHelper.getMinY(region), McHelper.getMaxYExclusive(region)
+        return ParallelFrameSearch.searchSequentially(
+            chunks, new RegionChunkBlocks(framePredicate),
+            McHelper.getMinSectionY(region),
+            McHelper.getMinY(region), McHelper.getMaxYExclusive(region),
+            matchShape,
+            () -> false
         );
     }
     
-    // After removing the usage of stream API, it becomes 100 times faster!!!
-    @Nullable
-    private static <T> T searchPortalFrameWithYRange(
-        Predicate<BlockState> framePredicate,
-        Function<BlockPos.MutableBlockPos, T> matchShape,
-        ArrayList<ChunkAccess> chunks,
-        int minSectionY,
-        int yRangeStart, int yRangeEnd
-    ) {
-        BlockPos.MutableBlockPos temp = new BlockPos.MutableBlockPos();
-        
-        // avoid using stream api and maintain cache locality
-        for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
-            ChunkAccess chunk = chunks.get(chunkIndex);
-            LevelChunkSection[] sectionArray = chunk.getSections();
-            
-            for (int ySectionIndex = 0; ySectionIndex < sectionArray.length; ySectionIndex++) {
-                int sectionY = ySectionIndex + minSectionY;
-                
-                LevelChunkSection chunkSection = sectionArray[ySectionIndex];
-                if (chunkSection != null && !chunkSection.hasOnlyAir()) {
-                    int localYStart = Math.max(0, yRangeStart - sectionY * 16);
-                    int localYEnd = Math.min(16, yRangeEnd - sectionY * 16);
-                    
-                    for (int localY = localYStart; localY < localYEnd; localY++) {
-                        for (int localZ = 0; localZ < 16; localZ++) {
-                            for (int localX = 0; localX < 16; localX++) {
-                                BlockState blockState = chunkSection.getBlockState(
-                                    localX, localY, localZ
-                                );
-                                if (framePredicate.test(blockState)) {
-                                    int worldX = localX + chunk.getPos().getMinBlockX();
-                                    int worldY = localY + (sectionY) * 16;
-                                    int worldZ = localZ + chunk.getPos().getMinBlockZ();
-                                    temp.set(worldX, worldY, worldZ);
-                                    
-                                    T result = matchShape.apply(temp);
-                                    if (result != null) {
-                                        return result;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        
-        return null;
-    }
-    
     private static ArrayList<ChunkAccess> getChunksFromNearToFar(
         WorldGenRegion region,
         BlockPos centerPoint,
@@ -14,6 +14,7 @@ import net.minecraft.world.phys.Vec3;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.chunk_loading.ChunkLoader;
+import qouteall.imm_ptl.core.chunk_loading.ChunkReadinessTracker;
 import qouteall.imm_ptl.core.chunk_loading.DimensionalChunkPos;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
 import qouteall.imm_ptl.core.platform_specific.IPRegistry;
@@ -22,8 +23,10 @@ import qouteall.imm_ptl.core.portal.LoadingIndicatorEntity;
 import qouteall.imm_ptl.core.portal.PortalPlaceholderBlock;
 import qouteall.imm_ptl.core.portal.custom_portal_gen.PortalGenInfo;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.my_util.IntBox;
 import qouteall.q_misc_util.my_util.LimitedLogger;
+import qouteall.q_misc_util.my_util.MyTaskList;
 
 import java.util.Arrays;
 import java.util.Objects;
@@ -109,7 +112,7 @@ public class NetherPortalGeneration {
         BooleanSupplier portalIntegrityChecker,
         
         //currying
-        Function<WorldGenRegion, Function<BlockPos.MutableBlockPos, PortalGenInfo>> matchShapeByFramePos
+        Function<WorldGenRegion, ParallelFrameSearch.FrameMatcher<PortalGenInfo>> matchShapeByFramePos
     ) {
         ResourceKey<Level> fromDimension = fromWorld.dimension();
         ResourceKey<Level> toDimension = toWorld.dimension();
@@ -140,8 +143,44 @@ public class NetherPortalGeneration {
             }
         };
         
-        boolean otherSideChunkAlreadyGenerated = McHelper.getIsServerChunkGenerated(toDimension, toPos);
-        
+        // reading the region file may be slow, don't block the server thread
+        McHelper.getIsServerChunkGeneratedAsync(toDimension, toPos).whenCompleteAsync(
+            (otherSideChunkAlreadyGenerated, throwable) -> {
+                try {
+                    if (throwable != null) {
+                        throw throwable;
+                    }
+                    
+                    startLoadingAndSearchingFrame(
+                        toDimension, toPos, existingFrameSearchingRadius,
+                        otherSideFramePredicate, portalEntityGeneratingFunc,
+                        portalIntegrityChecker, matchShapeByFramePos,
+                        indicatorEntity, onGenerateNewFrame, otherSideChunkAlreadyGenerated
+                    );
+                }
+                catch (Throwable e) {
+                    // otherwise the indicator stays and blocks the generations nearby
+                    Helper.err("Failed to start portal generation " + e);
+                    e.printStackTrace();
+                    indicatorEntity.remove(Entity.RemovalReason.KILLED);
+                }
+            },
+            MiscHelper.getServer()
+        );
+    }
+    
+    private static void startLoadingAndSearchingFrame(
+        ResourceKey<Level> toDimension,
+        BlockPos toPos,
+        int existingFrameSearchingRadius,
+        Predicate<BlockState> otherSideFramePredicate,
+        Consumer<PortalGenInfo> portalEntityGeneratingFunc,
+        BooleanSupplier portalIntegrityChecker,
+        Function<WorldGenRegion, ParallelFrameSearch.FrameMatcher<PortalGenInfo>> matchShapeByFramePos,
+        LoadingIndicatorEntity indicatorEntity,
+        Runnable onGenerateNewFrame,
+        boolean otherSideChunkAlreadyGenerated
+    ) {
         int frameSearchingRadius = Math.floorDiv(existingFrameSearchingRadius, 16) + 1;
         
         /**
@@ -161,8 +200,11 @@ public class NetherPortalGeneration {
         
         NewChunkTrackingGraph.addGlobalAdditionalChunkLoader(chunkLoader);
         
+        ChunkReadinessTracker readinessTracker = ChunkReadinessTracker.track(chunkLoader);
+        
         Runnable finalizer = () -> {
             indicatorEntity.remove(Entity.RemovalReason.KILLED);
+            readinessTracker.cancel();
             NewChunkTrackingGraph.removeGlobalAdditionalChunkLoader(chunkLoader);
         };
         
@@ -175,11 +217,9 @@ public class NetherPortalGeneration {
                 return true;
             }
             
-            int loadedChunks = chunkLoader.getLoadedChunkNum();
-            
-            int allChunksNeedsLoading = chunkLoader.getChunkNum();
-            
-            if (loadedChunks < allChunksNeedsLoading) {
+            if (!readinessTracker.isReady()) {
+                int loadedChunks = readinessTracker.getLoadedChunkNum();
+                int allChunksNeedsLoading = readinessTracker.getChunkNum();
                 indicatorEntity.inform(new TranslatableComponent(
                     "imm_ptl.loading_chunks", loadedChunks, allChunksNeedsLoading
                 ));
@@ -216,7 +256,7 @@ public class NetherPortalGeneration {
                 });
             
             return true;
-        });
+        }, MyTaskList.PRIORITY_BACKGROUND);
     }
     
     public static boolean isOtherGenerationRunning(ServerLevel fromWorld, Vec3 indicatorPos) {
@@ -0,0 +1,49 @@
+package qouteall.imm_ptl.core.render;
+
+import net.minecraft.client.Minecraft;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+import qouteall.imm_ptl.core.CHelper;
+
+@OnlyIn(Dist.CLIENT)
+public class GlOcclusionQueryBackend implements OcclusionQueryBackend {
+    
+    // mac does not support any samples passed query
+    private static int getQueryType() {
+        return Minecraft.ON_OSX ? GL15.GL_SAMPLES_PASSED : GL33.GL_ANY_SAMPLES_PASSED;
+    }
+    
+    @Override
+    public int createQuery() {
+        int query = GL15.glGenQueries();
+        CHelper.checkGlError();
+        return query;
+    }
+    
+    @Override
+    public void deleteQuery(int query) {
+        GL15.glDeleteQueries(query);
+    }
+    
+    @Override
+    public void beginQuery(int query) {
+        GL15.glBeginQuery(getQueryType(), query);
+    }
+    
+    @Override
+    public void endQuery(int query) {
+        GL15.glEndQuery(getQueryType());
+    }
+    
+    @Override
+    public boolean isResultAvailable(int query) {
+        return GL15.glGetQueryObjecti(query, GL15.GL_QUERY_RESULT_AVAILABLE) != 0;
+    }
+    
+    @Override
+    public boolean getResult(int query) {
+        return GL15.glGetQueryObjecti(query, GL15.GL_QUERY_RESULT) != 0;
+    }
+}
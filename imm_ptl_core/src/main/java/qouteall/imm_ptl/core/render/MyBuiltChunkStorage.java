@@ -1,10 +1,13 @@
 package qouteall.imm_ptl.core.render;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import net.minecraft.client.Camera;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.RenderType;
 import net.minecraft.client.renderer.ViewArea;
 import net.minecraft.client.renderer.chunk.ChunkRenderDispatcher;
 import net.minecraft.client.renderer.chunk.ChunkRenderDispatcher.RenderChunk;
@@ -29,11 +32,37 @@ import qouteall.q_misc_util.Helper;
 import java.util.*;
 import java.util.function.LongConsumer;
 
+/**
+ * The presets and the columns are kept in LRU order within a memory budget
+ * {@link IPGlobal#builtChunkStorageMemoryBudgetMB}.
+ * The least recently used ones are evicted a few at a time every tick and when new ones are created.
+ * A column that is covered by a preset is only evicted after the preset is evicted.
+ * Such columns met during eviction are moved to the most recently used end,
+ * so that they don't use up the visit limit of every eviction.
+ * The memory of a column is estimated by sampling the compiled sections,
+ * as the size of the uploaded vertex data is not tracked.
+ */
 @OnlyIn(Dist.CLIENT)
 public class MyBuiltChunkStorage extends ViewArea {
     
+    // the RenderChunk object, its vertex buffer objects and other objects it owns, excluding the vertex data
+    private static final long sectionBaseBytes = 1024;
+    // the estimated average vertex data size of a non-empty layer of a section
+    private static final long layerVertexBytes = 32 * 1024;
+    
+    private static final int sampleColumnNum = 64;
+    private static final int sampleIntervalTicks = 20;
+    
+    // limits the work of each eviction to avoid frame spikes
+    // only the visits of the evictable ones are counted
+    private static final int maxEvictionVisitNum = 256;
+    
+    // the recently used ones are not evicted even if the budget is exceeded
+    private static final long evictionProtectNanos = Helper.secondToNano(1);
+    
     public static class Column {
         public long mark = 0;
+        public int presetRefCount = 0;
         public ChunkRenderDispatcher.RenderChunk[] chunks;
         
         public Column(ChunkRenderDispatcher.RenderChunk[] chunks) {
@@ -53,14 +82,25 @@ public class MyBuiltChunkStorage extends ViewArea {
     }
     
     private final ChunkRenderDispatcher factory;
-    private final Long2ObjectOpenHashMap<Column> columnMap = new Long2ObjectOpenHashMap<>();
-    private final Long2ObjectOpenHashMap<Preset> presets = new Long2ObjectOpenHashMap<>();
+    // in LRU order, the least recently used one is the first
+    private final Long2ObjectLinkedOpenHashMap<Column> columnMap = new Long2ObjectLinkedOpenHashMap<>();
+    private final Long2ObjectLinkedOpenHashMap<Preset> presets = new Long2ObjectLinkedOpenHashMap<>();
     private Preset currentPreset = null;
     
+    private final long presetBytes;
+    private long averageColumnBytes;
+    
+    private final ArrayDeque<RenderChunk> toRelease = new ArrayDeque<>();
+    private int tickCounter = 0;
+    
+    // used during eviction
+    private final LongArrayList referencedColumnKeys = new LongArrayList();
+    
     public final int minSectionY;
     public final int endSectionY;
     
     private boolean isAlive = true;
+    private boolean isReleaseTaskRunning = false;
     
     public static void init() {
         MyClientChunkManager.clientChunkUnloadSignal.connect(chunk -> {
@@ -90,13 +130,12 @@ public class MyBuiltChunkStorage extends ViewArea {
             this, MyBuiltChunkStorage::tick
         );
         
-        int cacheSize = chunkGridSizeX * chunkGridSizeY * chunkGridSizeZ;
-        if (IPGlobal.cacheGlBuffer) {
-            cacheSize = cacheSize / 10;
-        }
-        
         minSectionY = McHelper.getMinSectionY(world);
         endSectionY = McHelper.getMaxSectionYExclusive(world);
+        
+        // the reference array, assuming compressed references
+        presetBytes = 16 + 4L * chunkGridSizeX * chunkGridSizeY * chunkGridSizeZ;
+        averageColumnBytes = sectionBaseBytes * chunkGridSizeY;
     }
     
     @Override
@@ -113,6 +152,7 @@ public class MyBuiltChunkStorage extends ViewArea {
         );
         columnMap.clear();
         presets.clear();
+        toRelease.clear();
         
         isAlive = false;
     }
@@ -135,17 +175,22 @@ public class MyBuiltChunkStorage extends ViewArea {
             cameraChunkX, cameraChunkZ
         );
         
-        Preset preset = presets.computeIfAbsent(
-            cameraChunkPos.toLong(),
-            whatever -> {
-                return createPresetByChunkPos(cameraChunkX, cameraChunkZ);
-            }
-        );
+        long presetKey = cameraChunkPos.toLong();
+        Preset preset = presets.getAndMoveToLast(presetKey);
+        boolean isNewPreset = preset == null;
+        if (isNewPreset) {
+            preset = createPresetByChunkPos(cameraChunkX, cameraChunkZ);
+            presets.putAndMoveToLast(presetKey, preset);
+        }
         preset.lastActiveTime = System.nanoTime();
         
         this.chunks = preset.data;
         this.currentPreset = preset;
         
+        if (isNewPreset) {
+            evictIfOverBudget();
+        }
+        
         Minecraft.getInstance().getProfiler().pop();
     }
     
@@ -184,6 +229,7 @@ public class MyBuiltChunkStorage extends ViewArea {
                 Validate.isTrue(pz % 16 == 0);
                 
                 Column column = provideColumn(ChunkPos.asLong(px >> 4, pz >> 4));
+                column.presetRefCount++;
                 
                 for (int offsetCy = 0; offsetCy < this.chunkGridSizeY; ++offsetCy) {
                     int index = this.getChunkIndex(cx, offsetCy, cz);
@@ -202,9 +248,6 @@ public class MyBuiltChunkStorage extends ViewArea {
         int centerChunkX, int centerChunkZ,
         LongConsumer func
     ) {
-        ChunkRenderDispatcher.RenderChunk[] chunks1 =
-            new ChunkRenderDispatcher.RenderChunk[this.chunkGridSizeX * this.chunkGridSizeY * this.chunkGridSizeZ];
-        
         for (int cx = 0; cx < this.chunkGridSizeX; ++cx) {
             int xBlockSize = this.chunkGridSizeX * 16;
             int xStart = (centerChunkX << 4) - xBlockSize / 2;
@@ -231,7 +274,13 @@ public class MyBuiltChunkStorage extends ViewArea {
     }
     
     public Column provideColumn(long chunkPos) {
-        return columnMap.computeIfAbsent(chunkPos, this::createColumn);
+        Column column = columnMap.getAndMoveToLast(chunkPos);
+        if (column == null) {
+            column = createColumn(chunkPos);
+            column.mark = System.nanoTime();
+            columnMap.putAndMoveToLast(chunkPos, column);
+        }
+        return column;
     }
     
     private Column createColumn(long chunkPos) {
@@ -259,89 +308,156 @@ public class MyBuiltChunkStorage extends ViewArea {
             return;
         }
         
-        ClientLevel worldClient = Minecraft.getInstance().level;
-        if (worldClient != null) {
-            if (GcMonitor.isMemoryNotEnough()) {
-                if (worldClient.getGameTime() % 3 == 0) {
-                    purge();
-                }
-            }
-            else {
-                if (worldClient.getGameTime() % 213 == 66) {
-                    purge();
-                }
-            }
+        tickCounter++;
+        if (tickCounter % sampleIntervalTicks == 0) {
+            sampleColumnBytes();
         }
+        
+        evictIfOverBudget();
+    }
+    
+    public long getEstimatedBytes() {
+        return presets.size() * presetBytes + columnMap.size() * averageColumnBytes;
     }
     
-    private void purge() {
-        Minecraft.getInstance().getProfiler().push("my_built_chunk_storage_purge");
+    private long getBudgetBytes() {
+        long budget = IPGlobal.builtChunkStorageMemoryBudgetMB * 1024L * 1024L;
+        if (GcMonitor.isMemoryNotEnough()) {
+            budget = budget / 2;
+        }
+        return budget;
+    }
+    
+    private void evictIfOverBudget() {
+        long budget = getBudgetBytes();
+        if (getEstimatedBytes() <= budget) {
+            return;
+        }
         
-        long dropTime = Helper.secondToNano(GcMonitor.isMemoryNotEnough() ? 3 : 20);
+        Minecraft.getInstance().getProfiler().push("my_built_chunk_storage_evict");
         
         long currentTime = System.nanoTime();
         
-        presets.long2ObjectEntrySet().removeIf(entry -> {
+        // evicting presets first, so that the columns covered by them can be evicted
+        int visitNum = 0;
+        ObjectIterator<Long2ObjectMap.Entry<Preset>> presetIter =
+            presets.long2ObjectEntrySet().fastIterator();
+        while (presetIter.hasNext() && visitNum < maxEvictionVisitNum && getEstimatedBytes() > budget) {
+            Long2ObjectMap.Entry<Preset> entry = presetIter.next();
             Preset preset = entry.getValue();
-            
-            long centerChunkPos = entry.getLongKey();
-            
-            boolean shouldDropPreset = shouldDropPreset(dropTime, currentTime, preset);
-            
-            if (!shouldDropPreset) {
-                foreachPresetCoveredChunkPoses(
-                    ChunkPos.getX(centerChunkPos),
-                    ChunkPos.getZ(centerChunkPos),
-                    columnChunkPos -> {
-                        Column column = columnMap.get(columnChunkPos);
-                        column.mark = currentTime;
-                    }
-                );
+            visitNum++;
+            if (preset.data == this.chunks) {
+                continue;
             }
-            
-            return shouldDropPreset;
-        });
-        
-        long timeThreshold = Helper.secondToNano(5);
-        
-        ArrayDeque<RenderChunk> toDelete = new ArrayDeque<>();
+            if (currentTime - preset.lastActiveTime < evictionProtectNanos) {
+                // the later ones are more recently used
+                break;
+            }
+            long centerChunkPos = entry.getLongKey();
+            presetIter.remove();
+            onPresetEvicted(centerChunkPos);
+        }
         
-        columnMap.long2ObjectEntrySet().removeIf(entry -> {
+        visitNum = 0;
+        referencedColumnKeys.clear();
+        ObjectIterator<Long2ObjectMap.Entry<Column>> columnIter =
+            columnMap.long2ObjectEntrySet().fastIterator();
+        while (columnIter.hasNext() && visitNum < maxEvictionVisitNum && getEstimatedBytes() > budget) {
+            Long2ObjectMap.Entry<Column> entry = columnIter.next();
             Column column = entry.getValue();
-            
-            boolean shouldRemove = currentTime - column.mark > timeThreshold;
-            if (shouldRemove) {
-                toDelete.addAll(Arrays.asList(column.chunks));
+            if (column.presetRefCount > 0) {
+                referencedColumnKeys.add(entry.getLongKey());
+                continue;
             }
-            
-            return shouldRemove;
-        });
+            visitNum++;
+            if (currentTime - column.mark < evictionProtectNanos) {
+                break;
+            }
+            columnIter.remove();
+            toRelease.addAll(Arrays.asList(column.chunks));
+        }
         
-        if (!toDelete.isEmpty()) {
-            IPGlobal.preGameRenderTaskList.addTask(() -> {
-                if (toDelete.isEmpty()) {
-                    return true;
-                }
-                
-                int num = 0;
-                while (!toDelete.isEmpty() && num < 100) {
-                    RenderChunk builtChunk = toDelete.poll();
-                    builtChunk.releaseBuffers();
-                    num++;
-                }
-                
-                return false;
-            });
+        // the moving does not change their marks
+        // after their presets are evicted, they will be evicted when they are met again
+        for (int i = 0; i < referencedColumnKeys.size(); i++) {
+            columnMap.getAndMoveToLast(referencedColumnKeys.getLong(i));
+        }
+        referencedColumnKeys.clear();
+        
+        if (!toRelease.isEmpty()) {
+            releaseGradually();
         }
         
         Minecraft.getInstance().getProfiler().pop();
     }
     
-    private boolean shouldDropPreset(long dropTime, long currentTime, Preset preset) {
-        if (preset.data == this.chunks) {
+    private void onPresetEvicted(long centerChunkPos) {
+        foreachPresetCoveredChunkPoses(
+            ChunkPos.getX(centerChunkPos),
+            ChunkPos.getZ(centerChunkPos),
+            columnChunkPos -> {
+                Column column = columnMap.get(columnChunkPos);
+                if (column != null) {
+                    column.presetRefCount--;
+                }
+            }
+        );
+    }
+    
+    // release the buffers of at most 100 sections per frame
+    private void releaseGradually() {
+        if (isReleaseTaskRunning) {
+            return;
+        }
+        isReleaseTaskRunning = true;
+        
+        IPGlobal.preGameRenderTaskList.addTask(() -> {
+            int num = 0;
+            while (!toRelease.isEmpty() && num < 100) {
+                RenderChunk builtChunk = toRelease.poll();
+                builtChunk.releaseBuffers();
+                num++;
+            }
+            
+            if (toRelease.isEmpty()) {
+                isReleaseTaskRunning = false;
+                return true;
+            }
             return false;
+        });
+    }
+    
+    // the vertex data size changes when the sections are rebuilt, so sample it periodically
+    private void sampleColumnBytes() {
+        int columnNum = columnMap.size();
+        if (columnNum == 0) {
+            return;
         }
-        return currentTime - preset.lastActiveTime > dropTime;
+        
+        int stride = Math.max(1, columnNum / sampleColumnNum);
+        List<RenderType> layers = RenderType.chunkBufferLayers();
+        
+        long sampledBytes = 0;
+        int sampledNum = 0;
+        int index = 0;
+        for (Column column : columnMap.values()) {
+            if (index % stride == 0) {
+                long bytes = sectionBaseBytes * column.chunks.length;
+                for (ChunkRenderDispatcher.RenderChunk builtChunk : column.chunks) {
+                    ChunkRenderDispatcher.CompiledChunk compiledChunk = builtChunk.compiled.get();
+                    for (RenderType layer : layers) {
+                        if (!compiledChunk.isEmpty(layer)) {
+                            bytes += layerVertexBytes;
+                        }
+                    }
+                }
+                sampledBytes += bytes;
+                sampledNum++;
+            }
+            index++;
+        }
+        
+        averageColumnBytes = sampledBytes / sampledNum;
     }
     
     private Set<ChunkRenderDispatcher.RenderChunk> getAllActiveBuiltChunks() {
@@ -367,8 +483,8 @@ public class MyBuiltChunkStorage extends ViewArea {
     
     public String getDebugString() {
         return String.format(
-            "Built Section Storage Columns:%s",
-            columnMap.size()
+            "Built Section Storage Columns:%s Presets:%s Estimated:%dMB",
+            columnMap.size(), presets.size(), getEstimatedBytes() / 1024 / 1024
         );
     }
     
@@ -0,0 +1,28 @@
+package qouteall.imm_ptl.core.render;
+
+/**
+ * The operations on occlusion query objects that {@link OcclusionQueryRing} needs.
+ * A query object is identified by an int handle.
+ * The query tests whether any sample passes.
+ * {@link GlOcclusionQueryBackend} implements it with OpenGL.
+ */
+public interface OcclusionQueryBackend {
+    
+    int createQuery();
+    
+    void deleteQuery(int query);
+    
+    void beginQuery(int query);
+    
+    void endQuery(int query);
+    
+    /**
+     * Does not block.
+     */
+    boolean isResultAvailable(int query);
+    
+    /**
+     * Blocks until the result is available.
+     */
+    boolean getResult(int query);
+}
@@ -0,0 +1,40 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Reuses the query objects of a backend.
+ * A released query object may still have a pending result. Beginning a new query on it discards that.
+ */
+public class OcclusionQueryPool {
+    
+    private static final int maxFreeNum = 1500;
+    
+    public final OcclusionQueryBackend backend;
+    
+    private final IntArrayList freeQueries = new IntArrayList();
+    
+    public OcclusionQueryPool(OcclusionQueryBackend backend) {
+        this.backend = backend;
+    }
+    
+    public int acquire() {
+        if (freeQueries.isEmpty()) {
+            return backend.createQuery();
+        }
+        return freeQueries.removeInt(freeQueries.size() - 1);
+    }
+    
+    public void release(int query) {
+        if (freeQueries.size() >= maxFreeNum) {
+            backend.deleteQuery(query);
+        }
+        else {
+            freeQueries.add(query);
+        }
+    }
+    
+    public int getFreeNum() {
+        return freeQueries.size();
+    }
+}
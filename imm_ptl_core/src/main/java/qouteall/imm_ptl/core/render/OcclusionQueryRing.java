@@ -0,0 +1,147 @@
+package qouteall.imm_ptl.core.render;
+
+/**
+ * The occlusion queries of one thing (like a portal in one rendering context) in recent frames.
+ * Every frame issues a query. The results of the previous frames are collected without blocking
+ * when they become available, so the GPU does not need to catch up with the CPU.
+ * The newest available result is kept with the frame that it's from,
+ * so the user can decide whether it's too old to be used.
+ * <p>
+ * If the ring is full, the oldest pending query is discarded.
+ * It does not depend on OpenGL so it can be driven by a fake backend.
+ */
+public class OcclusionQueryRing {
+    
+    public static final int capacity = 4;
+    
+    private final OcclusionQueryPool pool;
+    
+    // the pending queries, from old to new
+    private final int[] queries = new int[capacity];
+    private final int[] queryFrames = new int[capacity];
+    private int head = 0;
+    private int size = 0;
+    
+    private boolean hasResult = false;
+    private boolean result = false;
+    private int resultFrame = 0;
+    
+    private boolean hasIssued = false;
+    private int lastIssueFrame = 0;
+    
+    public OcclusionQueryRing(OcclusionQueryPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Runs the rendering inside a query of this frame.
+     * If this frame already issued a query, the query object is reused and the new query replaces the old one.
+     */
+    public void issue(int frameIndex, Runnable renderingFunc) {
+        int query;
+        if (size != 0 && queryFrames[getIndex(size - 1)] == frameIndex) {
+            query = queries[getIndex(size - 1)];
+        }
+        else {
+            if (size == capacity) {
+                pool.release(queries[head]);
+                head = getIndex(1);
+                size--;
+            }
+            query = pool.acquire();
+            queries[getIndex(size)] = query;
+            queryFrames[getIndex(size)] = frameIndex;
+            size++;
+        }
+        
+        pool.backend.beginQuery(query);
+        renderingFunc.run();
+        pool.backend.endQuery(query);
+        
+        hasIssued = true;
+        lastIssueFrame = frameIndex;
+    }
+    
+    /**
+     * Takes the newest available result without blocking.
+     * The queries older than it are discarded.
+     * As the queries finish in order, it only needs to check from the newest to the oldest
+     * until an available one is found.
+     */
+    public void collect() {
+        for (int i = size - 1; i >= 0; i--) {
+            int index = getIndex(i);
+            if (pool.backend.isResultAvailable(queries[index])) {
+                setResult(pool.backend.getResult(queries[index]), queryFrames[index]);
+                releaseOldest(i + 1);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Blocks until the result of the newest query is available.
+     * All pending queries are consumed.
+     * Should only be called when there is a pending query.
+     */
+    public boolean fetchNewest() {
+        int index = getIndex(size - 1);
+        setResult(pool.backend.getResult(queries[index]), queryFrames[index]);
+        releaseOldest(size);
+        return result;
+    }
+    
+    public boolean hasPendingQuery() {
+        return size != 0;
+    }
+    
+    public int getPendingNum() {
+        return size;
+    }
+    
+    public boolean hasResult() {
+        return hasResult;
+    }
+    
+    public boolean getResult() {
+        return result;
+    }
+    
+    /**
+     * @return the number of frames between the frame of the result and the current frame
+     */
+    public int getResultAge(int frameIndex) {
+        return frameIndex - resultFrame;
+    }
+    
+    /**
+     * @return whether no query is issued in the recent frames
+     */
+    public boolean isIdle(int frameIndex, int maxAge) {
+        return !hasIssued || frameIndex - lastIssueFrame > maxAge;
+    }
+    
+    public void dispose() {
+        releaseOldest(size);
+        hasResult = false;
+        hasIssued = false;
+    }
+    
+    private void setResult(boolean result, int frame) {
+        this.hasResult = true;
+        this.result = result;
+        this.resultFrame = frame;
+    }
+    
+    private void releaseOldest(int num) {
+        for (int i = 0; i < num; i++) {
+            pool.release(queries[head]);
+            head = getIndex(1);
+        }
+        size -= num;
+    }
+    
+    private int getIndex(int offset) {
+        return (head + offset) % capacity;
+    }
+}
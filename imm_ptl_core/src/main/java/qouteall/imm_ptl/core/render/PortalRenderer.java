@@ -19,6 +19,7 @@ import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.portal.Mirror;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalLike;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.context_management.PortalRendering;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
@@ -78,11 +79,17 @@ public abstract class PortalRenderer {
         });
         
         List<PortalLike> portalsToRender = new ArrayList<>();
-        List<Portal> globalPortals = GlobalPortalStorage.getGlobalPortals(client.level);
-        for (Portal globalPortal : globalPortals) {
-            if (!shouldSkipRenderingPortal(globalPortal, frustumSupplier)) {
-                portalsToRender.add(globalPortal);
-            }
+        PortalSpatialIndex globalPortalIndex = GlobalPortalStorage.getGlobalPortalIndex(client.level);
+        if (globalPortalIndex != null) {
+            // the portals out of render range are skipped anyway
+            globalPortalIndex.foreachNear(
+                TransformationManager.getIsometricAdjustedCameraPos(), getRenderRange(),
+                globalPortal -> {
+                    if (!shouldSkipRenderingPortal(globalPortal, frustumSupplier)) {
+                        portalsToRender.add(globalPortal);
+                    }
+                }
+            );
         }
         
         client.level.entitiesForRendering().forEach(e -> {
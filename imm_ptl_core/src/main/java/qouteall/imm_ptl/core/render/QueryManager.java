@@ -5,12 +5,26 @@ import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL33;
 import qouteall.imm_ptl.core.CHelper;
 
+/**
+ * The functions here wait for the query result right after the query, which stalls the CPU.
+ * The portal visibility prediction uses {@link OcclusionQueryRing}s from {@link #getQueryPool()} instead,
+ * which use the results of the previous frames.
+ */
 public class QueryManager {
     public static int queryStallCounter = 0;
     
     public static boolean isQuerying = false;
     private static int idQueryObject = -1;
     
+    private static OcclusionQueryPool queryPool;
+    
+    public static OcclusionQueryPool getQueryPool() {
+        if (queryPool == null) {
+            queryPool = new OcclusionQueryPool(new GlOcclusionQueryBackend());
+        }
+        return queryPool;
+    }
+    
     public static boolean renderAndGetDoesAnySamplePass(Runnable renderingFunc) {
         if (idQueryObject == -1) {
             idQueryObject = GL15.glGenQueries();
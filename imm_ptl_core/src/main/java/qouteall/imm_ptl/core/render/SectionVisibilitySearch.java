@@ -0,0 +1,235 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * The breadth-first search core of {@link VisibleSectionDiscovery}.
+ * It only deals with section coordinates and a section source, so it can work on a synthetic section grid.
+ * The state of every section within the range is stored in a dense grid around the center section.
+ * The visible sections are in nondecreasing manhattan distance to the center.
+ * Every section is fetched and tested at most once per search, and checking whether a neighbor is visited
+ * is an array access instead of a lookup in the built chunk storage.
+ * The fetched objects of the visible sections are kept, so the user doesn't need to fetch them again.
+ */
+public class SectionVisibilitySearch<T> {
+    
+    public static interface SectionSource<T> {
+        /**
+         * @return null if the section does not exist, then it's not visible
+         */
+        @Nullable
+        T fetch(int cx, int cy, int cz);
+        
+        boolean isVisible(T section, int cx, int cy, int cz);
+    }
+    
+    private static final byte UNKNOWN = 0;
+    private static final byte VISIBLE = 1;
+    private static final byte REJECTED = 2;
+    
+    private int centerX;
+    private int centerY;
+    private int centerZ;
+    private int radius;
+    
+    // the grid covers x and z in [center - radius, center + radius]
+    // and y in [yLow, yHigh] which is clamped into the world height.
+    // the strides are powers of two, so the cell coordinates are decoded by shifting
+    private int sideLength;
+    private int yLow;
+    private int ySize;
+    private int zShift;
+    private int xShift;
+    private int zMask;
+    private int yMask;
+    private byte[] states = new byte[0];
+    
+    private final IntArrayList visibleCells = new IntArrayList();
+    private final ObjectArrayList<T> visibleSections = new ObjectArrayList<>();
+    private final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+    
+    private SectionSource<T> source;
+    
+    public SectionVisibilitySearch() {
+    }
+    
+    /**
+     * Starts from the center section which is always visible.
+     * The sections are in range if each axis's distance to the center is not larger than the radius
+     * and y is in [minSectionY, endSectionY).
+     */
+    public void searchFromCenter(
+        int centerX, int centerY, int centerZ, int radius,
+        int minSectionY, int endSectionY,
+        SectionSource<T> source
+    ) {
+        begin(centerX, centerY, centerZ, radius, minSectionY, endSectionY, source);
+        
+        checkSection(centerX, centerY, centerZ, true);
+        expand();
+        
+        this.source = null;
+    }
+    
+    /**
+     * Used when the camera is above or below the world.
+     * The sections in the layer are tested in the order of the calling of {@link #seed(int, int, int)}.
+     * Call {@link #finishSeeding()} after seeding.
+     */
+    public void beginSeeding(
+        int centerX, int centerY, int centerZ, int radius,
+        int minSectionY, int endSectionY,
+        SectionSource<T> source
+    ) {
+        begin(centerX, centerY, centerZ, radius, minSectionY, endSectionY, source);
+    }
+    
+    public void seed(int cx, int cy, int cz) {
+        checkSection(cx, cy, cz, false);
+    }
+    
+    public void finishSeeding() {
+        expand();
+        this.source = null;
+    }
+    
+    public int getVisibleNum() {
+        return visibleCells.size();
+    }
+    
+    public int getVisibleX(int index) {
+        return getCellX(visibleCells.getInt(index));
+    }
+    
+    public int getVisibleY(int index) {
+        return getCellY(visibleCells.getInt(index));
+    }
+    
+    public int getVisibleZ(int index) {
+        return getCellZ(visibleCells.getInt(index));
+    }
+    
+    /**
+     * The fetched objects of the visible sections, in the same order as the visible sections.
+     * It does not contain the center section if the center section does not exist.
+     */
+    public ObjectArrayList<T> getVisibleSections() {
+        return visibleSections;
+    }
+    
+    public void clear() {
+        source = null;
+        states = new byte[0];
+        visibleCells.clear();
+        visibleSections.clear();
+        queue.clear();
+    }
+    
+    private void begin(
+        int centerX, int centerY, int centerZ, int radius,
+        int minSectionY, int endSectionY,
+        SectionSource<T> source
+    ) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.source = source;
+        
+        sideLength = radius * 2 + 1;
+        yLow = Math.max(minSectionY, centerY - radius);
+        int yHigh = Math.min(endSectionY - 1, centerY + radius);
+        ySize = Math.max(0, yHigh - yLow + 1);
+        
+        int yBits = getBitNum(ySize);
+        int sideBits = getBitNum(sideLength);
+        zShift = yBits;
+        xShift = yBits + sideBits;
+        yMask = (1 << yBits) - 1;
+        zMask = (1 << sideBits) - 1;
+        
+        int cellNum = 1 << (xShift + sideBits);
+        if (states.length < cellNum) {
+            states = new byte[cellNum];
+        }
+        else {
+            Arrays.fill(states, 0, cellNum, UNKNOWN);
+        }
+        
+        visibleCells.clear();
+        visibleSections.clear();
+        queue.clear();
+    }
+    
+    private void expand() {
+        while (!queue.isEmpty()) {
+            int cell = queue.dequeueInt();
+            int cx = getCellX(cell);
+            int cy = getCellY(cell);
+            int cz = getCellZ(cell);
+            
+            checkSection(cx + 1, cy, cz, false);
+            checkSection(cx - 1, cy, cz, false);
+            checkSection(cx, cy + 1, cz, false);
+            checkSection(cx, cy - 1, cz, false);
+            checkSection(cx, cy, cz + 1, false);
+            checkSection(cx, cy, cz - 1, false);
+        }
+    }
+    
+    private void checkSection(int cx, int cy, int cz, boolean skipTest) {
+        int cell = getCell(cx, cy, cz);
+        if (cell == -1) {
+            return;
+        }
+        if (states[cell] != UNKNOWN) {
+            return;
+        }
+        
+        T section = source.fetch(cx, cy, cz);
+        if (skipTest || (section != null && source.isVisible(section, cx, cy, cz))) {
+            states[cell] = VISIBLE;
+            visibleCells.add(cell);
+            if (section != null) {
+                visibleSections.add(section);
+            }
+            queue.enqueue(cell);
+        }
+        else {
+            states[cell] = REJECTED;
+        }
+    }
+    
+    // -1 if out of range
+    private int getCell(int cx, int cy, int cz) {
+        int dx = cx - centerX + radius;
+        int dz = cz - centerZ + radius;
+        int dy = cy - yLow;
+        if (dx < 0 || dx >= sideLength || dz < 0 || dz >= sideLength || dy < 0 || dy >= ySize) {
+            return -1;
+        }
+        return (dx << xShift) | (dz << zShift) | dy;
+    }
+    
+    private int getCellX(int cell) {
+        return (cell >>> xShift) - radius + centerX;
+    }
+    
+    private int getCellY(int cell) {
+        return (cell & yMask) + yLow;
+    }
+    
+    private int getCellZ(int cell) {
+        return ((cell >>> zShift) & zMask) - radius + centerZ;
+    }
+    
+    // the number of bits to hold [0, size)
+    private static int getBitNum(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -20,7 +20,6 @@ import qouteall.imm_ptl.core.miscellaneous.ClientPerformanceMonitor;
 import qouteall.imm_ptl.core.portal.nether_portal.BlockTraverse;
 import qouteall.imm_ptl.core.render.context_management.WorldRenderInfo;
 
-import java.util.ArrayDeque;
 import java.util.Stack;
 
 // discover visible sections by breadth-first traverse, for portal rendering
@@ -29,27 +28,41 @@ import java.util.Stack;
 @OnlyIn(Dist.CLIENT)
 public class VisibleSectionDiscovery {
     
+    // the result is copied out before the next discovery, so one search is reused for all portal layers
+    private static final SectionVisibilitySearch<ChunkRenderDispatcher.RenderChunk> search =
+        new SectionVisibilitySearch<>();
+    
     private static MyBuiltChunkStorage builtChunks;
     private static Frustum vanillaFrustum;
-    private static ObjectArrayList<LevelRenderer.RenderChunkInfo> resultHolder;
-    private static final ArrayDeque<ChunkRenderDispatcher.RenderChunk> tempQueue = new ArrayDeque<>();
-    private static SectionPos cameraSectionPos;
     private static long timeMark;
+    private static SectionPos cameraSectionPos;
     private static int viewDistance;
     
+    private static final SectionVisibilitySearch.SectionSource<ChunkRenderDispatcher.RenderChunk> sectionSource =
+        new SectionVisibilitySearch.SectionSource<>() {
+            // fetching also keeps the column from being purged
+            @Override
+            public ChunkRenderDispatcher.RenderChunk fetch(int cx, int cy, int cz) {
+                return builtChunks.rawFetch(cx, cy, cz, timeMark);
+            }
+            
+            @Override
+            public boolean isVisible(ChunkRenderDispatcher.RenderChunk builtChunk, int cx, int cy, int cz) {
+                return VisibleSectionDiscovery.isVisible(builtChunk);
+            }
+        };
+    
     public static void discoverVisibleSections(
         ClientLevel world,
         MyBuiltChunkStorage builtChunks_,
         Camera camera,
         Frustum vanillaFrustum_,
-        ObjectArrayList<LevelRenderer.RenderChunkInfo> resultHolder_
+        ObjectArrayList<LevelRenderer.RenderChunkInfo> resultHolder
     ) {
         builtChunks = builtChunks_;
         vanillaFrustum = vanillaFrustum_;
-        resultHolder = resultHolder_;
         
         resultHolder.clear();
-        tempQueue.clear();
         
         updateViewDistance();
         
@@ -60,37 +73,27 @@ public class VisibleSectionDiscovery {
         cameraSectionPos = SectionPos.of(new BlockPos(cameraPos));
         
         if (cameraPos.y < world.getMinBuildHeight()) {
-            discoverBottomOrTopLayerVisibleChunks(builtChunks.minSectionY);
+            discoverBottomOrTopLayerVisibleChunks(builtChunks, builtChunks.minSectionY);
         }
         else if (cameraPos.y > world.getMaxBuildHeight()) {
-            discoverBottomOrTopLayerVisibleChunks(builtChunks.endSectionY - 1);
+            discoverBottomOrTopLayerVisibleChunks(builtChunks, builtChunks.endSectionY - 1);
         }
         else {
-            checkSection(
-                cameraSectionPos.x(),
-                cameraSectionPos.y(),
-                cameraSectionPos.z(),
-                true
+            search.searchFromCenter(
+                cameraSectionPos.x(), cameraSectionPos.y(), cameraSectionPos.z(),
+                viewDistance, builtChunks.minSectionY, builtChunks.endSectionY,
+                sectionSource
             );
         }
         
-        // breadth-first searching
-        while (!tempQueue.isEmpty()) {
-            ChunkRenderDispatcher.RenderChunk curr = tempQueue.poll();
-            int cx = SectionPos.blockToSectionCoord(curr.getOrigin().getX());
-            int cy = SectionPos.blockToSectionCoord(curr.getOrigin().getY());
-            int cz = SectionPos.blockToSectionCoord(curr.getOrigin().getZ());
-            
-            checkSection(cx + 1, cy, cz, false);
-            checkSection(cx - 1, cy, cz, false);
-            checkSection(cx, cy + 1, cz, false);
-            checkSection(cx, cy - 1, cz, false);
-            checkSection(cx, cy, cz + 1, false);
-            checkSection(cx, cy, cz - 1, false);
+        // the visible built chunks are fetched during the search
+        ObjectArrayList<ChunkRenderDispatcher.RenderChunk> visibleSections = search.getVisibleSections();
+        resultHolder.ensureCapacity(visibleSections.size());
+        for (int i = 0; i < visibleSections.size(); i++) {
+            resultHolder.add(((IEBuiltChunk) visibleSections.get(i)).portal_getDummyChunkInfo());
         }
         
         // avoid memory leak
-        resultHolder = null;
         builtChunks = null;
         vanillaFrustum = null;
     }
@@ -108,41 +111,24 @@ public class VisibleSectionDiscovery {
         return vanillaFrustum.isVisible(box);
     }
     
-    private static void discoverBottomOrTopLayerVisibleChunks(int cy) {
+    private static void discoverBottomOrTopLayerVisibleChunks(
+        MyBuiltChunkStorage builtChunks, int cy
+    ) {
+        search.beginSeeding(
+            cameraSectionPos.x(), cameraSectionPos.y(), cameraSectionPos.z(),
+            viewDistance, builtChunks.minSectionY, builtChunks.endSectionY,
+            sectionSource
+        );
         BlockTraverse.<Object>searchOnPlane(
             cameraSectionPos.x(),
             cameraSectionPos.z(),
             viewDistance - 1,
             (cx, cz) -> {
-                checkSection(cx, cy, cz, false);
+                search.seed(cx, cy, cz);
                 return null;
             }
         );
-    }
-    
-    private static void checkSection(int cx, int cy, int cz, boolean skipFrustumTest) {
-        if (Math.abs(cx - cameraSectionPos.x()) > viewDistance) {
-            return;
-        }
-        if (Math.abs(cy - cameraSectionPos.y()) > viewDistance) {
-            return;
-        }
-        if (Math.abs(cz - cameraSectionPos.z()) > viewDistance) {
-            return;
-        }
-        
-        ChunkRenderDispatcher.RenderChunk builtChunk =
-            builtChunks.rawFetch(cx, cy, cz, timeMark);
-        if (builtChunk != null) {
-            IEBuiltChunk ieBuiltChunk = (IEBuiltChunk) builtChunk;
-            if (ieBuiltChunk.portal_getMark() != timeMark) {
-                ieBuiltChunk.portal_setMark(timeMark);// mark it checked
-                if (skipFrustumTest || isVisible(builtChunk)) {
-                    tempQueue.add(builtChunk);
-                    resultHolder.add(ieBuiltChunk.portal_getDummyChunkInfo());
-                }
-            }
-        }
+        search.finishSeeding();
     }
     
     private static final Stack<ObjectArrayList<LevelRenderer.RenderChunkInfo>> listCaches = new Stack<>();
@@ -171,7 +157,7 @@ public class VisibleSectionDiscovery {
     
     private static void cleanUp() {
         listCaches.clear();
-        resultHolder = null;
+        search.clear();
         builtChunks = null;
         vanillaFrustum = null;
     }
@@ -5,7 +5,6 @@ import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.player.LocalPlayer;
 import net.minecraft.core.Direction;
 import net.minecraft.resources.ResourceKey;
-import net.minecraft.util.Tuple;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.AABB;
@@ -14,9 +13,9 @@ import net.minecraft.world.phys.shapes.VoxelShape;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
 import org.apache.commons.lang3.Validate;
-import qouteall.imm_ptl.core.CHelper;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.IPMcHelper;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.compat.GravityChangerInterface;
 import qouteall.imm_ptl.core.compat.PehkuiInterface;
@@ -35,8 +34,6 @@ import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.imm_ptl.core.render.context_management.WorldRenderInfo;
 import qouteall.q_misc_util.Helper;
 
-import java.util.Comparator;
-import java.util.stream.Stream;
 
 @OnlyIn(Dist.CLIENT)
 public class ClientTeleportationManager {
@@ -45,6 +42,7 @@ public class ClientTeleportationManager {
     private long lastTeleportGameTime = 0;
     private Vec3 moveStartPoint = null;
     private long teleportTickTimeLimit = 0;
+    private final double[] tempPoint = new double[3];
     
     // for debug
     public static boolean isTeleportingTick = false;
@@ -136,27 +134,35 @@ public class ClientTeleportationManager {
             return false;
         }
         
-        Tuple<Portal, Vec3> pair = CHelper.getClientNearbyPortals(32)
-            .flatMap(portal -> {
-                if (portal.canTeleportEntity(player)) {
-                    Vec3 collidingPoint = portal.rayTrace(
-                        moveStartPoint,
-                        newHeadPos
-                    );
-                    if (collidingPoint != null) {
-                        return Stream.of(new Tuple<>(portal, collidingPoint));
-                    }
+        // it runs every frame, so the ray tracing and the transformation don't allocate
+        Portal collidingPortal = null;
+        double collidingX = 0;
+        double collidingY = 0;
+        double collidingZ = 0;
+        double collidingDistanceSq = Double.MAX_VALUE;
+        for (Portal portal : IPMcHelper.getNearbyPortalList(player, 32, p -> p.canTeleportEntity(player))) {
+            boolean collides = portal.rayTrace(
+                moveStartPoint.x, moveStartPoint.y, moveStartPoint.z,
+                newHeadPos.x, newHeadPos.y, newHeadPos.z,
+                tempPoint
+            );
+            if (collides) {
+                double dx = tempPoint[0] - moveStartPoint.x;
+                double dy = tempPoint[1] - moveStartPoint.y;
+                double dz = tempPoint[2] - moveStartPoint.z;
+                double distanceSq = dx * dx + dy * dy + dz * dz;
+                if (distanceSq < collidingDistanceSq) {
+                    collidingPortal = portal;
+                    collidingX = tempPoint[0];
+                    collidingY = tempPoint[1];
+                    collidingZ = tempPoint[2];
+                    collidingDistanceSq = distanceSq;
                 }
-                return Stream.empty();
-            })
-            .min(Comparator.comparingDouble(
-                p -> p.getB().distanceToSqr(moveStartPoint)
-            ))
-            .orElse(null);
-        
-        if (pair != null) {
-            Portal portal = pair.getA();
-            Vec3 collidingPos = pair.getB();
+            }
+        }
+        
+        if (collidingPortal != null) {
+            Portal portal = collidingPortal;
             
             client.getProfiler().push("portal_teleport");
             teleportPlayer(portal);
@@ -165,8 +171,13 @@ public class ClientTeleportationManager {
             boolean allowOverlappedTeleport = portal.allowOverlappedTeleport();
             double adjustment = allowOverlappedTeleport ? -0.001 : 0.001;
             
-            moveStartPoint = portal.transformPoint(collidingPos)
-                .add(portal.getContentDirection().scale(adjustment));
+            portal.transformPoint(collidingX, collidingY, collidingZ, tempPoint);
+            Vec3 contentDirection = portal.getContentDirection();
+            moveStartPoint = new Vec3(
+                tempPoint[0] + contentDirection.x * adjustment,
+                tempPoint[1] + contentDirection.y * adjustment,
+                tempPoint[2] + contentDirection.z * adjustment
+            );
             //avoid teleporting through parallel portal due to floating point inaccuracy
             
             return true;
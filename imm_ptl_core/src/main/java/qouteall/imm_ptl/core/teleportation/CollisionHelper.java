@@ -24,7 +24,9 @@ import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.ducks.IEEntity;
 import qouteall.imm_ptl.core.mixin.common.collision.IEEntity_Collision;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalEntityRegistry;
 import qouteall.imm_ptl.core.portal.PortalLike;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.PortalGroup;
 import qouteall.q_misc_util.Helper;
@@ -423,6 +425,9 @@ public class CollisionHelper {
         if (portal.getRotation() == null && portal.getScale() == 1) {
             return originalBox.move(portal.getDestPos().subtract(portal.getOriginPos()));
         }
+        else if (portal instanceof Portal) {
+            return ((Portal) portal).getAffineTransform().transformBox(originalBox);
+        }
         else {
             return Helper.transformBox(originalBox, portal::transformPoint);
         }
@@ -464,20 +469,18 @@ public class CollisionHelper {
     private static void updateGlobalPortalCollidingPortalForWorld(Level world) {
         world.getProfiler().push("global_portal_colliding_portal");
         
-        List<Portal> globalPortals = GlobalPortalStorage.getGlobalPortals(world);
-        Iterable<Entity> worldEntityList = McHelper.getWorldEntityList(world);
+        PortalSpatialIndex globalPortalIndex = GlobalPortalStorage.getGlobalPortalIndex(world);
         
-        if (!globalPortals.isEmpty()) {
+        if (globalPortalIndex != null && globalPortalIndex.size() != 0) {
+            Iterable<Entity> worldEntityList = McHelper.getWorldEntityList(world);
             for (Entity entity : worldEntityList) {
                 AABB entityBoundingBoxStretched = getStretchedBoundingBox(entity);
-                for (Portal globalPortal : globalPortals) {
-                    AABB globalPortalBoundingBox = globalPortal.getBoundingBox();
-                    if (entityBoundingBoxStretched.intersects(globalPortalBoundingBox)) {
-                        if (canCollideWithPortal(entity, globalPortal, 0)) {
-                            ((IEEntity) entity).notifyCollidingWithPortal(globalPortal);
-                        }
+                // the index only returns the portals whose bounding box intersects
+                globalPortalIndex.foreachIntersecting(entityBoundingBoxStretched, globalPortal -> {
+                    if (canCollideWithPortal(entity, globalPortal, 0)) {
+                        ((IEEntity) entity).notifyCollidingWithPortal(globalPortal);
                     }
-                }
+                });
             }
         }
         
@@ -551,16 +554,12 @@ public class CollisionHelper {
         entity.level.getProfiler().push("update_colliding_portal_now");
         
         AABB boundingBox = getStretchedBoundingBox(entity);
-        McHelper.foreachEntitiesByBoxApproximateRegions(
-            Portal.class,
+        PortalEntityRegistry.foreachPortalIntersecting(
             entity.level,
             boundingBox,
-            10,
             portal -> {
-                if (boundingBox.intersects(portal.getBoundingBox())) {
-                    if (canCollideWithPortal(entity, portal, 0)) {
-                        ((IEEntity) entity).notifyCollidingWithPortal(portal);
-                    }
+                if (canCollideWithPortal(entity, portal, 0)) {
+                    ((IEEntity) entity).notifyCollidingWithPortal(portal);
                 }
             }
         );
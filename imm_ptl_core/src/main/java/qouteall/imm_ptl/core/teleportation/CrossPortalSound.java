@@ -1,26 +1,45 @@
 package qouteall.imm_ptl.core.teleportation;
 
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.resources.sounds.SimpleSoundInstance;
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.sounds.SoundEvent;
 import net.minecraft.sounds.SoundSource;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec3;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
-import qouteall.imm_ptl.core.IPMcHelper;
+import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalEntityRegistry;
+import qouteall.imm_ptl.core.portal.PortalSpatialIndex;
+import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
 
 import javax.annotation.Nullable;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 
 @OnlyIn(Dist.CLIENT)
 public class CrossPortalSound {
     public static final float VOLUME_RADIUS_MULT = 16f;
     public static final float MIN_SOUND_RADIUS = 16f;
     
+    // dimension -> the routing of the sounds in that dimension
+    private static final Map<ResourceKey<Level>, CrossPortalSoundRouting<Portal>> routings = new HashMap<>();
+    private static final Object2IntOpenHashMap<ResourceKey<Level>> routingFrames = new Object2IntOpenHashMap<>();
+    
+    static {
+        routingFrames.defaultReturnValue(-1);
+    }
+    
+    public static void init() {
+        IPGlobal.clientCleanupSignal.connect(CrossPortalSound::cleanup);
+    }
+    
     public static boolean isPlayerWorld(ClientLevel world) {
         return world.dimension() == RenderStates.originalPlayerDimension;
     }
@@ -47,55 +66,127 @@ public class CrossPortalSound {
             McHelper.getEyeOffset(client.player)
         );
         
-        // find portals in range of the sound
-        SimpleSoundInstance result = IPMcHelper.getNearbyPortalList(
-            soundWorld, soundPos, soundRadius,
-            portal -> portal.getDestDim() == RenderStates.originalPlayerDimension &&
-                isPlayerInRange(portal, soundPos, soundRadius, playerCameraPos)
-        ).stream().min(
-            // use portal that is closest to the sound
-            Comparator.comparingDouble(portal -> getPortalDistance(portal, soundPos))
-        ).map(
-            portal -> {
-                // set sound position to the point the sound would exit the portal
-                Vec3 soundEnterPortalPoint = portal.getNearestPointInPortal(soundPos);
-                Vec3 soundExitPortalPoint = portal.transformPoint(soundEnterPortalPoint);
-                
-                // reduce volume based on distance from the sound source to the portal entry point
-                float volumeToEnterPortal =
-                    (float) soundEnterPortalPoint.distanceTo(soundPos) / VOLUME_RADIUS_MULT;
-                
-                float volumeMultiplier =
-                    Math.max(0, 1 - (float) (playerCameraPos.distanceTo(soundExitPortalPoint) / VOLUME_RADIUS_MULT));
-                
-                float volumeAtPortal = Math.max(0, soundVol - volumeToEnterPortal) * volumeMultiplier;
-                
-                return new SimpleSoundInstance(
-                    sound,
-                    category,
-                    volumeAtPortal,
-                    soundPitch,
-                    soundExitPortalPoint.x(),
-                    soundExitPortalPoint.y(),
-                    soundExitPortalPoint.z()
-                );
-            }
-        ).orElse(null);
+        // find the portal in range of the sound that is closest to the sound
+        CrossPortalSoundRouting<Portal> routing = getRouting(soundWorld, playerCameraPos);
+        addCandidates(routing, soundWorld, soundPos, soundRadius);
+        
+        SimpleSoundInstance result = null;
+        if (routing.route(soundPos.x, soundPos.y, soundPos.z, soundRadius)) {
+            // set sound position to the point the sound would exit the portal
+            Vec3 soundExitPortalPoint = new Vec3(
+                routing.getExitX(), routing.getExitY(), routing.getExitZ()
+            );
+            
+            // reduce volume based on distance from the sound source to the portal entry point
+            float volumeToEnterPortal =
+                (float) routing.getEntryDistance() / VOLUME_RADIUS_MULT;
+            
+            float volumeMultiplier =
+                Math.max(0, 1 - (float) (playerCameraPos.distanceTo(soundExitPortalPoint) / VOLUME_RADIUS_MULT));
+            
+            float volumeAtPortal = Math.max(0, soundVol - volumeToEnterPortal) * volumeMultiplier;
+            
+            result = new SimpleSoundInstance(
+                sound,
+                category,
+                volumeAtPortal,
+                soundPitch,
+                soundExitPortalPoint.x(),
+                soundExitPortalPoint.y(),
+                soundExitPortalPoint.z()
+            );
+        }
         
         soundWorld.getProfiler().pop();
         
         return result;
     }
     
-    private static boolean isPlayerInRange(
-        Portal portal, Vec3 soundPos, double soundRadius, Vec3 playerCameraPos
+    // the routing forgets the portals when it's used in a new frame
+    private static CrossPortalSoundRouting<Portal> getRouting(ClientLevel soundWorld, Vec3 playerCameraPos) {
+        CrossPortalSoundRouting<Portal> routing = routings.computeIfAbsent(
+            soundWorld.dimension(), k -> new CrossPortalSoundRouting<>(PortalEntityShape.instance)
+        );
+        
+        if (routingFrames.getInt(soundWorld.dimension()) != RenderStates.frameIndex) {
+            routingFrames.put(soundWorld.dimension(), RenderStates.frameIndex);
+            
+            routing.clear();
+            routing.setCameraPos(playerCameraPos);
+        }
+        
+        return routing;
+    }
+    
+    /**
+     * Only the portals near the sound are queried from the indexes, the same as
+     * {@link qouteall.imm_ptl.core.IPMcHelper#foreachNearbyPortals}.
+     */
+    private static void addCandidates(
+        CrossPortalSoundRouting<Portal> routing, ClientLevel soundWorld, Vec3 soundPos, double soundRadius
     ) {
-        Vec3 soundExitPoint = portal.transformPoint(portal.getNearestPointInPortal(soundPos));
-        return soundExitPoint.closerThan(playerCameraPos, soundRadius);
+        routing.clearCandidates();
+        
+        int range = (int) soundRadius;
+        
+        PortalSpatialIndex globalPortalIndex = GlobalPortalStorage.getGlobalPortalIndex(soundWorld);
+        if (globalPortalIndex != null) {
+            globalPortalIndex.foreachNear(soundPos, range * 2, portal -> {
+                if (portal.getDestDim() == RenderStates.originalPlayerDimension) {
+                    routing.addCandidate(portal, true);
+                }
+            });
+        }
+        
+        PortalEntityRegistry.foreachPortalNear(soundWorld, soundPos, Math.max(range, 16), portal -> {
+            if (portal.getDestDim() == RenderStates.originalPlayerDimension) {
+                routing.addCandidate(portal, false);
+            }
+        });
+    }
+    
+    private static class PortalEntityShape implements CrossPortalSoundRouting.PortalShape<Portal> {
+        public static final PortalEntityShape instance = new PortalEntityShape();
+        
+        @Override
+        public Vec3 getOriginPos(Portal portal) {
+            return portal.getOriginPos();
+        }
+        
+        @Override
+        public Vec3 getDestPos(Portal portal) {
+            return portal.getDestPos();
+        }
+        
+        @Override
+        public Vec3 getAxisW(Portal portal) {
+            return portal.axisW;
+        }
+        
+        @Override
+        public Vec3 getAxisH(Portal portal) {
+            return portal.axisH;
+        }
+        
+        @Override
+        public double getWidth(Portal portal) {
+            return portal.width;
+        }
+        
+        @Override
+        public double getHeight(Portal portal) {
+            return portal.height;
+        }
+        
+        // the overridden transformations (like the mirror's) are kept as long as they are affine
+        @Override
+        public void transformLocalVec(Portal portal, double x, double y, double z, double[] result) {
+            portal.transformLocalVec(x, y, z, result);
+        }
     }
     
-    private static double getPortalDistance(Portal portal, Vec3 soundPos) {
-        Vec3 soundEnterPortalPoint = portal.getNearestPointInPortal(soundPos);
-        return soundEnterPortalPoint.distanceToSqr(soundPos);
+    private static void cleanup() {
+        routings.clear();
+        routingFrames.clear();
     }
 }
@@ -0,0 +1,281 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Arrays;
+
+/**
+ * Routes the sounds in one world to the camera through the portals near the sounds.
+ * The portals near a sound are given as candidates by querying the portal index around the sound.
+ * The geometry of a candidate portal is copied into a flat array when it's first met in a frame,
+ * and the portal's transformation is precomputed as the transformed axes,
+ * so that the sounds near the same portals do not recompute them.
+ * It follows {@link CrossPortalSound}: a portal is chosen if the point where the sound exits the portal
+ * is within the sound radius of the camera, and it's the nearest one to the sound.
+ * The special portal shapes are not considered, the same as before.
+ * <p>
+ * It's generic over the portal, so it can route sounds through synthetic portals without a world.
+ * {@link CrossPortalSound} provides the portal entities.
+ */
+public class CrossPortalSoundRouting<P> {
+    
+    // the max sound radius in CrossPortalSound
+    public static final double maxSoundRadius = 64;
+    
+    public static interface PortalShape<P> {
+        Vec3 getOriginPos(P portal);
+        
+        Vec3 getDestPos(P portal);
+        
+        Vec3 getAxisW(P portal);
+        
+        Vec3 getAxisH(P portal);
+        
+        double getWidth(P portal);
+        
+        double getHeight(P portal);
+        
+        /**
+         * Writes the x, y, z of the transformed vector into the first 3 elements of the array.
+         */
+        void transformLocalVec(P portal, double x, double y, double z, double[] result);
+    }
+    
+    // the layout of one portal in the data array
+    private static final int ORIGIN = 0;
+    private static final int AXIS_W = 3;
+    private static final int AXIS_H = 6;
+    private static final int HALF_WIDTH = 9;
+    private static final int HALF_HEIGHT = 10;
+    private static final int DEST = 11;
+    private static final int TRANSFORMED_AXIS_W = 14;
+    private static final int TRANSFORMED_AXIS_H = 17;
+    private static final int STRIDE = 20;
+    
+    // the slot of a portal that cannot reach the camera
+    private static final int UNREACHABLE = -1;
+    private static final int ABSENT = -2;
+    
+    private final PortalShape<P> shape;
+    
+    private double[] data = new double[STRIDE * 8];
+    private boolean[] isGlobal = new boolean[8];
+    private int portalNum = 0;
+    // the portals met in this frame
+    private final Reference2IntOpenHashMap<P> portalToSlot = new Reference2IntOpenHashMap<>();
+    
+    // the slots of the portals near the current sound
+    private final IntArrayList candidates = new IntArrayList();
+    
+    private final double[] temp = new double[3];
+    
+    private double cameraX;
+    private double cameraY;
+    private double cameraZ;
+    
+    // the result of the last successful routing
+    private double exitX;
+    private double exitY;
+    private double exitZ;
+    private double entryDistance;
+    
+    public CrossPortalSoundRouting(PortalShape<P> shape) {
+        this.shape = shape;
+        portalToSlot.defaultReturnValue(ABSENT);
+    }
+    
+    /**
+     * Forgets the portals, should be called when the portals may have changed (in a new frame).
+     */
+    public void clear() {
+        portalNum = 0;
+        portalToSlot.clear();
+        candidates.clear();
+    }
+    
+    public void setCameraPos(Vec3 cameraPos) {
+        cameraX = cameraPos.x;
+        cameraY = cameraPos.y;
+        cameraZ = cameraPos.z;
+    }
+    
+    public void clearCandidates() {
+        candidates.clear();
+    }
+    
+    /**
+     * Should be called after {@link #setCameraPos(Vec3)}.
+     * The portals whose other side is too far from the camera are ignored.
+     * The global portals should be added before the other portals,
+     * as the first one is chosen when multiple portals are at the same distance.
+     */
+    public void addCandidate(P portal, boolean isGlobalPortal) {
+        int slot = portalToSlot.getInt(portal);
+        if (slot == ABSENT) {
+            slot = addPortal(portal, isGlobalPortal);
+            portalToSlot.put(portal, slot);
+        }
+        if (slot != UNREACHABLE) {
+            candidates.add(slot);
+        }
+    }
+    
+    private int addPortal(P portal, boolean isGlobalPortal) {
+        Vec3 origin = shape.getOriginPos(portal);
+        Vec3 dest = shape.getDestPos(portal);
+        Vec3 axisW = shape.getAxisW(portal);
+        Vec3 axisH = shape.getAxisH(portal);
+        double halfWidth = shape.getWidth(portal) / 2;
+        double halfHeight = shape.getHeight(portal) / 2;
+        
+        if (portalNum == isGlobal.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+            isGlobal = Arrays.copyOf(isGlobal, isGlobal.length * 2);
+        }
+        
+        int base = portalNum * STRIDE;
+        shape.transformLocalVec(portal, axisW.x, axisW.y, axisW.z, temp);
+        double transformedAxisWLength = Math.sqrt(temp[0] * temp[0] + temp[1] * temp[1] + temp[2] * temp[2]);
+        putVec(base + TRANSFORMED_AXIS_W, temp);
+        shape.transformLocalVec(portal, axisH.x, axisH.y, axisH.z, temp);
+        double transformedAxisHLength = Math.sqrt(temp[0] * temp[0] + temp[1] * temp[1] + temp[2] * temp[2]);
+        putVec(base + TRANSFORMED_AXIS_H, temp);
+        
+        // the exit point is within this distance to the transformed origin
+        double exitReach = transformedAxisWLength * halfWidth + transformedAxisHLength * halfHeight;
+        double dx = dest.x - cameraX;
+        double dy = dest.y - cameraY;
+        double dz = dest.z - cameraZ;
+        double maxDistance = maxSoundRadius + exitReach;
+        if (dx * dx + dy * dy + dz * dz > maxDistance * maxDistance) {
+            return UNREACHABLE;
+        }
+        
+        putVec(base + ORIGIN, origin);
+        putVec(base + AXIS_W, axisW);
+        putVec(base + AXIS_H, axisH);
+        data[base + HALF_WIDTH] = halfWidth;
+        data[base + HALF_HEIGHT] = halfHeight;
+        putVec(base + DEST, dest);
+        isGlobal[portalNum] = isGlobalPortal;
+        
+        return portalNum++;
+    }
+    
+    /**
+     * Routes the sound through the candidates.
+     * The candidate non-global portals should be the ones near the sound,
+     * like in {@link qouteall.imm_ptl.core.IPMcHelper#foreachNearbyPortals}.
+     * A global portal is near the sound if the distance is less than range * 2, which is tested here.
+     *
+     * @return whether a portal is found. If found, the result can be got from the getters.
+     */
+    public boolean route(double soundX, double soundY, double soundZ, double soundRadius) {
+        int range = (int) soundRadius;
+        double globalRangeSq = (range * 2.0) * (range * 2.0);
+        double soundRadiusSq = soundRadius * soundRadius;
+        
+        boolean found = false;
+        double bestEntryDistanceSq = Double.POSITIVE_INFINITY;
+        
+        for (int c = 0; c < candidates.size(); c++) {
+            int i = candidates.getInt(c);
+            int base = i * STRIDE;
+            
+            // the nearest point in the portal rectangle
+            double ox = soundX - data[base + ORIGIN];
+            double oy = soundY - data[base + ORIGIN + 1];
+            double oz = soundZ - data[base + ORIGIN + 2];
+            double xInPlane = clamp(
+                ox * data[base + AXIS_W] + oy * data[base + AXIS_W + 1] + oz * data[base + AXIS_W + 2],
+                data[base + HALF_WIDTH]
+            );
+            double yInPlane = clamp(
+                ox * data[base + AXIS_H] + oy * data[base + AXIS_H + 1] + oz * data[base + AXIS_H + 2],
+                data[base + HALF_HEIGHT]
+            );
+            double ex = ox - data[base + AXIS_W] * xInPlane - data[base + AXIS_H] * yInPlane;
+            double ey = oy - data[base + AXIS_W + 1] * xInPlane - data[base + AXIS_H + 1] * yInPlane;
+            double ez = oz - data[base + AXIS_W + 2] * xInPlane - data[base + AXIS_H + 2] * yInPlane;
+            double entryDistanceSq = ex * ex + ey * ey + ez * ez;
+            
+            if (isGlobal[i] && !(entryDistanceSq < globalRangeSq)) {
+                continue;
+            }
+            
+            // use the portal that is closest to the sound
+            if (!(entryDistanceSq < bestEntryDistanceSq)) {
+                continue;
+            }
+            
+            double px = data[base + DEST] +
+                data[base + TRANSFORMED_AXIS_W] * xInPlane + data[base + TRANSFORMED_AXIS_H] * yInPlane;
+            double py = data[base + DEST + 1] +
+                data[base + TRANSFORMED_AXIS_W + 1] * xInPlane + data[base + TRANSFORMED_AXIS_H + 1] * yInPlane;
+            double pz = data[base + DEST + 2] +
+                data[base + TRANSFORMED_AXIS_W + 2] * xInPlane + data[base + TRANSFORMED_AXIS_H + 2] * yInPlane;
+            double cx = px - cameraX;
+            double cy = py - cameraY;
+            double cz = pz - cameraZ;
+            if (!(cx * cx + cy * cy + cz * cz < soundRadiusSq)) {
+                continue;
+            }
+            
+            found = true;
+            bestEntryDistanceSq = entryDistanceSq;
+            exitX = px;
+            exitY = py;
+            exitZ = pz;
+        }
+        
+        if (found) {
+            entryDistance = Math.sqrt(bestEntryDistanceSq);
+        }
+        
+        return found;
+    }
+    
+    public double getExitX() {
+        return exitX;
+    }
+    
+    public double getExitY() {
+        return exitY;
+    }
+    
+    public double getExitZ() {
+        return exitZ;
+    }
+    
+    /**
+     * The distance from the sound to the point that the sound enters the portal.
+     */
+    public double getEntryDistance() {
+        return entryDistance;
+    }
+    
+    /**
+     * The number of portals met in this frame that can reach the camera.
+     */
+    public int getPortalNum() {
+        return portalNum;
+    }
+    
+    private void putVec(int index, Vec3 vec) {
+        data[index] = vec.x;
+        data[index + 1] = vec.y;
+        data[index + 2] = vec.z;
+    }
+    
+    private void putVec(int index, double[] vec) {
+        data[index] = vec[0];
+        data[index + 1] = vec[1];
+        data[index + 2] = vec[2];
+    }
+    
+    private static double clamp(double value, double halfRange) {
+        return value < -halfRange ? -halfRange : (value > halfRange ? halfRange : value);
+    }
+}
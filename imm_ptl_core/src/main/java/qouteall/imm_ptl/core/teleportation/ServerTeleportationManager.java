@@ -47,7 +47,6 @@ import qouteall.q_misc_util.my_util.MyTaskList;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class ServerTeleportationManager {
     private Set<ServerPlayer> teleportingEntities = new HashSet<>();
@@ -122,15 +121,11 @@ public class ServerTeleportationManager {
         });
     }
     
-    private static Stream<Entity> getEntitiesToTeleport(Portal portal) {
+    private static List<Entity> getEntitiesToTeleport(Portal portal) {
         return portal.level.getEntitiesOfClass(
             Entity.class,
             portal.getBoundingBox().inflate(2),
-            e -> true
-        ).stream().filter(
-            e -> !(e instanceof Portal)
-        ).filter(
-            entity -> shouldEntityTeleport(portal, entity)
+            e -> !(e instanceof Portal) && shouldEntityTeleport(portal, e)
         );
     }
     
@@ -187,10 +182,7 @@ public class ServerTeleportationManager {
         ServerLevel originalWorld = MiscHelper.getServer().getLevel(dimensionBefore);
         Entity portalEntity = originalWorld.getEntity(portalId);
         if (portalEntity == null) {
-            portalEntity = GlobalPortalStorage.get(originalWorld).data
-                .stream().filter(
-                    p -> p.getUUID().equals(portalId)
-                ).findFirst().orElse(null);
+            portalEntity = GlobalPortalStorage.get(originalWorld).getIndex().getByUuid(portalId);
         }
         if (portalEntity == null) {
             return null;
@@ -238,11 +230,14 @@ public class ServerTeleportationManager {
                 return true;
             }
         }
-        return IPMcHelper.getNearbyPortals(player, 20)
-            .filter(portal -> portal.dimensionTo == dimension)
-            .filter(portal -> portal.canTeleportEntity(player))
-            .map(portal -> portal.transformPoint(playerPos))
-            .anyMatch(mappedPos -> mappedPos.distanceToSqr(pos) < 256);
+        for (Portal portal : IPMcHelper.getNearbyPortalList(player, 20, p -> p.dimensionTo == dimension)) {
+            if (portal.canTeleportEntity(player) &&
+                portal.transformPoint(playerPos).distanceToSqr(pos) < 256
+            ) {
+                return true;
+            }
+        }
+        return false;
     }
     
     public static boolean canPlayerReachBlockEntity(
@@ -0,0 +1,164 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkGeneratedIndexTest {
+    
+    @TempDir
+    Path regionFolder;
+    
+    /**
+     * Writes a region file whose header marks the given chunks (relative to the region) as present.
+     * The chunk data sectors are not written as the index only reads the header.
+     */
+    private void writeRegionFile(int regionX, int regionZ, int[][] chunksInRegion, int headerBytes)
+        throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4096 * 2);
+        int sector = 2;
+        for (int[] chunk : chunksInRegion) {
+            int index = chunk[0] + chunk[1] * 32;
+            // offset in sectors (3 bytes) and sector count (1 byte)
+            header.putInt(index * 4, (sector << 8) | 1);
+            sector++;
+        }
+        byte[] bytes = new byte[headerBytes];
+        header.get(0, bytes, 0, headerBytes);
+        Files.write(ChunkGeneratedIndex.getRegionFilePath(regionFolder, regionX, regionZ), bytes);
+    }
+    
+    private static final Executor directExecutor = Runnable::run;
+    
+    @Test
+    public void testReadHeader() throws IOException {
+        writeRegionFile(0, 0, new int[][]{{0, 0}, {31, 0}, {5, 7}, {31, 31}}, 8192);
+        
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, directExecutor);
+        assertTrue(index.isChunkGenerated(0, 0));
+        assertTrue(index.isChunkGenerated(31, 0));
+        assertTrue(index.isChunkGenerated(5, 7));
+        assertTrue(index.isChunkGenerated(31, 31));
+        assertFalse(index.isChunkGenerated(1, 0));
+        assertFalse(index.isChunkGenerated(7, 5));
+        assertEquals(1, index.getIndexedRegionNum());
+    }
+    
+    @Test
+    public void testNegativeCoordinates() throws IOException {
+        // chunk (-1, -33) is in region (-1, -2) at (31, 31)
+        writeRegionFile(-1, -2, new int[][]{{31, 31}}, 8192);
+        
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, directExecutor);
+        assertTrue(index.isChunkGenerated(-1, -33));
+        assertFalse(index.isChunkGenerated(-1, -32));
+        assertFalse(index.isChunkGenerated(-2, -33));
+        assertFalse(index.isChunkGenerated(31, 31));
+    }
+    
+    @Test
+    public void testMissingFile() {
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, directExecutor);
+        assertFalse(index.isChunkGenerated(100, 100));
+        assertFalse(index.isChunkGenerated(-100, 3));
+    }
+    
+    @Test
+    public void testTruncatedHeader() throws IOException {
+        // only the first 10 entries are complete
+        writeRegionFile(0, 0, new int[][]{{3, 0}, {20, 0}}, 42);
+        
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, directExecutor);
+        assertTrue(index.isChunkGenerated(3, 0));
+        assertFalse(index.isChunkGenerated(20, 0));
+    }
+    
+    @Test
+    public void testMarkGenerated() throws IOException {
+        writeRegionFile(0, 0, new int[][]{{1, 1}}, 8192);
+        
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, directExecutor);
+        index.markGenerated(2, 2);
+        index.markGenerated(40, 40);
+        
+        assertTrue(index.isChunkGenerated(1, 1));
+        assertTrue(index.isChunkGenerated(2, 2));
+        assertTrue(index.isChunkGenerated(40, 40));
+        assertFalse(index.isChunkGenerated(41, 40));
+    }
+    
+    @Test
+    public void testMarkDuringLoading() throws Exception {
+        writeRegionFile(0, 0, new int[][]{{1, 1}}, 8192);
+        
+        // the region loading is held until the chunk is marked
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Executor gatedExecutor = task -> executor.execute(() -> {
+                gate.join();
+                task.run();
+            });
+            ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, gatedExecutor);
+            
+            CompletableFuture<Boolean> future = index.isChunkGeneratedAsync(1, 1);
+            assertFalse(future.isDone());
+            
+            index.markGenerated(2, 2);
+            gate.complete(null);
+            
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+            assertTrue(index.isChunkGenerated(2, 2));
+            assertTrue(index.isChunkGenerated(1, 1));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testRegionIsReadOnce() throws IOException {
+        writeRegionFile(0, 0, new int[][]{{1, 1}}, 8192);
+        
+        int[] executedTasks = {0};
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, task -> {
+            executedTasks[0]++;
+            task.run();
+        });
+        
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                assertEquals(x == 1 && z == 1, index.isChunkGenerated(x, z));
+            }
+        }
+        assertEquals(1, executedTasks[0]);
+        
+        // the header is not read again, the index relies on markGenerated for the new chunks
+        writeRegionFile(0, 0, new int[][]{{1, 1}, {2, 2}}, 8192);
+        assertFalse(index.isChunkGenerated(2, 2));
+        
+        index.clear();
+        assertTrue(index.isChunkGenerated(2, 2));
+        assertEquals(2, executedTasks[0]);
+    }
+    
+    @Test
+    public void testIOExecutor() throws Exception {
+        writeRegionFile(3, -4, new int[][]{{0, 0}}, 8192);
+        
+        ChunkGeneratedIndex index = new ChunkGeneratedIndex(regionFolder, ChunkGeneratedIndex.getIOExecutor());
+        assertTrue(index.isChunkGeneratedAsync(96, -128).get(10, TimeUnit.SECONDS));
+        assertFalse(index.isChunkGeneratedAsync(97, -128).get(10, TimeUnit.SECONDS));
+    }
+}
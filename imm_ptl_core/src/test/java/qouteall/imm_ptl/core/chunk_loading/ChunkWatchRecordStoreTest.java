@@ -0,0 +1,176 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.world.level.ChunkPos;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkWatchRecordStoreTest {
+    
+    private static ChunkWatchRecordStore createStore() {
+        // the dimension is only used for the debug string
+        return new ChunkWatchRecordStore(null, 3);
+    }
+    
+    @Test
+    public void testAddAndFind() {
+        ChunkWatchRecordStore store = createStore();
+        long chunkA = ChunkPos.asLong(1, 2);
+        long chunkB = ChunkPos.asLong(-5, 7);
+        
+        int a0 = store.add(chunkA, 0, 100, 3, true, false);
+        int a1 = store.add(chunkA, 1, 101, 4, false, true);
+        int b0 = store.add(chunkB, 0, 102, 5, false, false);
+        
+        assertEquals(3, store.getRecordNum());
+        assertEquals(2, store.getChunkNum());
+        assertTrue(store.containsChunk(chunkA));
+        assertFalse(store.containsChunk(ChunkPos.asLong(0, 0)));
+        
+        assertEquals(a0, store.find(chunkA, 0));
+        assertEquals(a1, store.find(chunkA, 1));
+        assertEquals(b0, store.find(chunkB, 0));
+        assertEquals(-1, store.find(chunkB, 1));
+        
+        assertEquals(chunkA, store.getChunkPos(a1));
+        assertEquals(1, store.getPlayerSlot(a1));
+        assertEquals(101, store.getLastWatchTime(a1));
+        assertEquals(4, store.getDistanceToSource(a1));
+        assertFalse(store.isDirectLoading(a1));
+        assertTrue(store.isLoadedToPlayer(a1));
+        assertTrue(store.isDirectLoading(a0));
+        assertFalse(store.isLoadedToPlayer(a0));
+        
+        IntArrayList recordsOfA = new IntArrayList();
+        for (int i = store.getFirstRecord(chunkA); i != -1; i = store.getNextRecord(i)) {
+            recordsOfA.add(i);
+        }
+        assertEquals(2, recordsOfA.size());
+        assertTrue(recordsOfA.contains(a0));
+        assertTrue(recordsOfA.contains(a1));
+    }
+    
+    @Test
+    public void testFlagsAreIndependent() {
+        ChunkWatchRecordStore store = createStore();
+        int record = store.add(ChunkPos.asLong(0, 0), 0, 0, 0, false, false);
+        
+        store.setDirectLoading(record, true);
+        assertTrue(store.isDirectLoading(record));
+        assertFalse(store.isLoadedToPlayer(record));
+        
+        store.setLoadedToPlayer(record, true);
+        store.setDirectLoading(record, false);
+        assertFalse(store.isDirectLoading(record));
+        assertTrue(store.isLoadedToPlayer(record));
+        
+        store.setLastWatchTime(record, 42);
+        store.setDistanceToSource(record, 9);
+        assertEquals(42, store.getLastWatchTime(record));
+        assertEquals(9, store.getDistanceToSource(record));
+    }
+    
+    @Test
+    public void testRemoveIf() {
+        ChunkWatchRecordStore store = createStore();
+        long chunkA = ChunkPos.asLong(0, 0);
+        long chunkB = ChunkPos.asLong(0, 1);
+        
+        store.add(chunkA, 0, 10, 0, false, true);
+        store.add(chunkA, 1, 20, 0, false, true);
+        store.add(chunkA, 2, 10, 0, false, true);
+        store.add(chunkB, 0, 10, 0, false, true);
+        
+        IntArrayList informedSlots = new IntArrayList();
+        store.removeIf(
+            record -> store.getLastWatchTime(record) == 10,
+            // the record can still be read in the informer
+            record -> informedSlots.add(store.getPlayerSlot(record))
+        );
+        
+        assertEquals(3, informedSlots.size());
+        assertEquals(1, store.getRecordNum());
+        assertEquals(1, store.getChunkNum());
+        assertFalse(store.containsChunk(chunkB));
+        assertEquals(-1, store.find(chunkA, 0));
+        assertEquals(-1, store.find(chunkA, 2));
+        assertNotEquals(-1, store.find(chunkA, 1));
+        
+        int remaining = store.getFirstRecord(chunkA);
+        assertEquals(1, store.getPlayerSlot(remaining));
+        assertEquals(-1, store.getNextRecord(remaining));
+    }
+    
+    @Test
+    public void testRemovedIndicesAreRecycled() {
+        ChunkWatchRecordStore store = createStore();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 100; i++) {
+                store.add(ChunkPos.asLong(i, round), 0, round, 0, false, false);
+            }
+            store.removeIf(record -> true, record -> {});
+            assertEquals(0, store.getRecordNum());
+            assertTrue(store.isEmpty());
+        }
+        
+        // all the indices are below the number of records that existed at the same time
+        for (int i = 0; i < 100; i++) {
+            int record = store.add(ChunkPos.asLong(i, 0), 0, 0, 0, false, false);
+            assertTrue(record < 100);
+        }
+    }
+    
+    @Test
+    public void testHandle() {
+        ChunkWatchRecordStore store = createStore();
+        long chunkPos = ChunkPos.asLong(4, 4);
+        int record = store.add(chunkPos, 0, 0, 0, false, false);
+        long handle = store.getHandle(record);
+        
+        assertEquals(3, ChunkWatchRecordStore.getStoreIdFromHandle(handle));
+        assertEquals(record, store.resolveHandle(handle));
+        
+        store.removeIf(r -> true, r -> {});
+        assertEquals(-1, store.resolveHandle(handle));
+        
+        // the index is reused but the old handle stays stale
+        int newRecord = store.add(chunkPos, 1, 0, 0, false, false);
+        assertEquals(record, newRecord);
+        assertEquals(-1, store.resolveHandle(handle));
+        assertEquals(newRecord, store.resolveHandle(store.getHandle(newRecord)));
+    }
+    
+    @Test
+    public void testHandleIsStaleAfterClear() {
+        ChunkWatchRecordStore store = createStore();
+        int record = store.add(ChunkPos.asLong(0, 0), 0, 0, 0, false, false);
+        long handle = store.getHandle(record);
+        
+        store.clear();
+        assertTrue(store.isEmpty());
+        assertEquals(0, store.getRecordNum());
+        assertEquals(-1, store.resolveHandle(handle));
+        
+        store.add(ChunkPos.asLong(0, 0), 0, 0, 0, false, false);
+        assertEquals(-1, store.resolveHandle(handle));
+    }
+    
+    @Test
+    public void testHandleDoesNotMatchAfterGenerationWrap() {
+        ChunkWatchRecordStore store = createStore();
+        long chunkPos = ChunkPos.asLong(0, 0);
+        int firstRecord = store.add(chunkPos, 0, 0, 0, false, false);
+        long firstHandle = store.getHandle(firstRecord);
+        
+        // reuse the index more times than the generation bits in the handle can tell apart
+        for (int i = 0; i < 0x10000 + 10; i++) {
+            store.removeIf(r -> true, r -> {});
+            int record = store.add(chunkPos, 0, 0, 0, false, false);
+            assertEquals(-1, store.resolveHandle(firstHandle));
+            assertEquals(record, store.resolveHandle(store.getHandle(record)));
+        }
+        
+        assertEquals(1, store.getRecordNum());
+    }
+}
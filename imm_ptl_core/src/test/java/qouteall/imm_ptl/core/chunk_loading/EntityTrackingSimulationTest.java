@@ -0,0 +1,320 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.world.level.ChunkPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Simulates the entity tracking of {@link EntitySync} on synthetic players, entities and chunk watching.
+ * The tracking status of an entity for a player is the same as in MixinTrackedEntity:
+ * the player watches the entity's chunk and the watch distance is within the entity's range.
+ * <p>
+ * The incremental algorithm updates a tracker for all players when its entity changes section,
+ * and updates the trackers in a chunk for a player when the player's watching of that chunk changes.
+ * The old algorithm updated the trackers for all players when the entity changes section,
+ * and updated all trackers for a player when the player changes section.
+ */
+public class EntityTrackingSimulationTest {
+    
+    private static final int watchRadius = 5;
+    
+    private static class SimEntity {
+        public final int id;
+        public final int range;
+        public int chunkX;
+        public int chunkZ;
+        public int sectionY;
+        // the last section that the tracking was updated at
+        public int lastChunkX;
+        public int lastChunkZ;
+        public int lastSectionY;
+        
+        public SimEntity(int id, int range, int chunkX, int chunkZ, int sectionY) {
+            this.id = id;
+            this.range = range;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.sectionY = sectionY;
+            markUnDirty();
+        }
+        
+        public boolean isDirty() {
+            return chunkX != lastChunkX || chunkZ != lastChunkZ || sectionY != lastSectionY;
+        }
+        
+        public void markUnDirty() {
+            lastChunkX = chunkX;
+            lastChunkZ = chunkZ;
+            lastSectionY = sectionY;
+        }
+        
+        public long getChunkPos() {
+            return ChunkPos.asLong(chunkX, chunkZ);
+        }
+    }
+    
+    private static class SimPlayer {
+        public final int id;
+        public final SimEntity body;
+        // the chunks loaded to the player and their distance to source
+        public final Long2IntOpenHashMap watched = new Long2IntOpenHashMap();
+        
+        public SimPlayer(int id, SimEntity body) {
+            this.id = id;
+            this.body = body;
+            watched.defaultReturnValue(-1);
+        }
+    }
+    
+    private static boolean shouldTrack(SimPlayer player, SimEntity entity) {
+        int distance = player.watched.get(entity.getChunkPos());
+        return distance != -1 && distance * 16 <= entity.range;
+    }
+    
+    /**
+     * The tracking result of one algorithm. The tracking statuses are only changed by {@link #update}.
+     */
+    private static class Tracking {
+        public final Set<Long> seen = new HashSet<>();
+        
+        public void update(SimEntity entity, SimPlayer player) {
+            long pair = (((long) player.id) << 32) | entity.id;
+            if (shouldTrack(player, entity)) {
+                seen.add(pair);
+            }
+            else {
+                seen.remove(pair);
+            }
+        }
+        
+        public void remove(SimEntity entity, List<SimPlayer> players) {
+            for (SimPlayer player : players) {
+                seen.remove((((long) player.id) << 32) | entity.id);
+            }
+        }
+    }
+    
+    private static class Simulation {
+        public final Random random;
+        public final int graphUpdateInterval;
+        public final List<SimPlayer> players = new ArrayList<>();
+        public final List<SimEntity> entities = new ArrayList<>();
+        public final EntityTrackerIndex<SimEntity, SimPlayer> index = new EntityTrackerIndex<>();
+        public final Tracking incremental = new Tracking();
+        public final Tracking old = new Tracking();
+        private int nextEntityId = 0;
+        public int tick = 0;
+        
+        public Simulation(long seed, int graphUpdateInterval, int playerNum, int entityNum) {
+            random = new Random(seed);
+            this.graphUpdateInterval = graphUpdateInterval;
+            for (int i = 0; i < playerNum; i++) {
+                players.add(new SimPlayer(i, new SimEntity(-1, 0, random.nextInt(20), random.nextInt(20), 4)));
+            }
+            for (int i = 0; i < entityNum; i++) {
+                addEntity();
+            }
+        }
+        
+        private void addEntity() {
+            SimEntity entity = new SimEntity(
+                nextEntityId++, 16 * (1 + random.nextInt(6)),
+                random.nextInt(20), random.nextInt(20), random.nextInt(8)
+            );
+            entities.add(entity);
+            // ChunkMap.addEntity updates the new tracker for all players, then it's indexed
+            for (SimPlayer player : players) {
+                incremental.update(entity, player);
+                old.update(entity, player);
+            }
+            index.add(entity, entity.getChunkPos());
+        }
+        
+        private void removeEntity(SimEntity entity) {
+            entities.remove(entity);
+            index.remove(entity);
+            incremental.remove(entity, players);
+            old.remove(entity, players);
+        }
+        
+        public void step() {
+            tick++;
+            
+            // entities and players move, some only move vertically
+            for (SimEntity entity : entities) {
+                moveRandomly(entity, 0.3);
+            }
+            for (SimPlayer player : players) {
+                moveRandomly(player.body, 0.2);
+            }
+            if (random.nextInt(5) == 0 && !entities.isEmpty()) {
+                removeEntity(entities.get(random.nextInt(entities.size())));
+            }
+            if (random.nextInt(5) == 0) {
+                addEntity();
+            }
+            
+            // the chunk tracking graph updates the players in turn, like NewChunkTrackingGraph
+            for (SimPlayer player : players) {
+                if (player.id % graphUpdateInterval == tick % graphUpdateInterval) {
+                    updateWatching(player);
+                }
+            }
+            
+            tickEntitySyncIncremental();
+            tickEntitySyncOld();
+        }
+        
+        private void moveRandomly(SimEntity entity, double probability) {
+            if (random.nextDouble() < probability) {
+                switch (random.nextInt(3)) {
+                    case 0 -> entity.chunkX += random.nextBoolean() ? 1 : -1;
+                    case 1 -> entity.chunkZ += random.nextBoolean() ? 1 : -1;
+                    default -> entity.sectionY += random.nextBoolean() ? 1 : -1;
+                }
+            }
+        }
+        
+        private void updateWatching(SimPlayer player) {
+            Long2IntOpenHashMap newWatched = new Long2IntOpenHashMap();
+            for (int dx = -watchRadius; dx <= watchRadius; dx++) {
+                for (int dz = -watchRadius; dz <= watchRadius; dz++) {
+                    newWatched.put(
+                        ChunkPos.asLong(player.body.chunkX + dx, player.body.chunkZ + dz),
+                        Math.max(Math.abs(dx), Math.abs(dz))
+                    );
+                }
+            }
+            
+            // end watching. the signal emits before the record is removed
+            LongArrayList removed = new LongArrayList();
+            for (Long2IntMap.Entry entry : player.watched.long2IntEntrySet()) {
+                if (!newWatched.containsKey(entry.getLongKey())) {
+                    removed.add(entry.getLongKey());
+                }
+            }
+            for (int i = 0; i < removed.size(); i++) {
+                long chunkPos = removed.getLong(i);
+                index.onWatchChanged(player, chunkPos);
+                player.watched.remove(chunkPos);
+            }
+            
+            for (Long2IntMap.Entry entry : newWatched.long2IntEntrySet()) {
+                long chunkPos = entry.getLongKey();
+                int oldDistance = player.watched.get(chunkPos);
+                player.watched.put(chunkPos, entry.getIntValue());
+                if (oldDistance == -1) {
+                    onChunkSent(player, chunkPos);
+                }
+                else if (oldDistance != entry.getIntValue()) {
+                    index.onWatchChanged(player, chunkPos);
+                }
+            }
+        }
+        
+        private void onChunkSent(SimPlayer player, long chunkPos) {
+            // the incremental algorithm updates the trackers indexed in the chunk
+            index.foreachTrackerInChunk(chunkPos, entity -> incremental.update(entity, player));
+            
+            // the old algorithm checked every tracker's real chunk
+            for (SimEntity entity : entities) {
+                if (entity.getChunkPos() == chunkPos) {
+                    old.update(entity, player);
+                }
+            }
+        }
+        
+        private void tickEntitySyncIncremental() {
+            for (SimEntity entity : entities) {
+                if (entity.isDirty()) {
+                    for (SimPlayer player : players) {
+                        incremental.update(entity, player);
+                    }
+                    // the old algorithm also uses the dirty flag, so it's marked undirty there
+                    index.update(entity, entity.getChunkPos());
+                }
+            }
+            index.flushWatchChanges(incremental::update);
+        }
+        
+        private void tickEntitySyncOld() {
+            List<SimPlayer> dirtyPlayers = new ArrayList<>();
+            for (SimPlayer player : players) {
+                if (player.body.isDirty()) {
+                    dirtyPlayers.add(player);
+                    player.body.markUnDirty();
+                }
+            }
+            
+            for (SimEntity entity : entities) {
+                boolean dirty = entity.isDirty();
+                for (SimPlayer player : dirty ? players : dirtyPlayers) {
+                    old.update(entity, player);
+                }
+                if (dirty) {
+                    entity.markUnDirty();
+                }
+            }
+        }
+        
+        public Set<Long> computeExpected() {
+            Set<Long> result = new HashSet<>();
+            for (SimPlayer player : players) {
+                for (SimEntity entity : entities) {
+                    if (shouldTrack(player, entity)) {
+                        result.add((((long) player.id) << 32) | entity.id);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * When the chunk watching is updated every tick, the watching only changes when the player
+     * changes section, so the old algorithm is exact and the incremental one should match it.
+     */
+    @Test
+    public void testSameAsOldAlgorithm() {
+        for (long seed = 0; seed < 5; seed++) {
+            Simulation simulation = new Simulation(seed, 1, 4, 300);
+            for (int i = 0; i < 300; i++) {
+                simulation.step();
+                assertEquals(simulation.old.seen, simulation.incremental.seen, "tick " + simulation.tick);
+                assertEquals(simulation.computeExpected(), simulation.incremental.seen);
+            }
+            assertEquals(simulation.entities.size(), simulation.index.getTrackerNum());
+        }
+    }
+    
+    /**
+     * When the chunk watching of a player is updated in a later tick than the player's move,
+     * the old algorithm misses the change, but the incremental one follows the watching.
+     */
+    @Test
+    public void testFollowsDelayedWatching() {
+        int oldMismatchNum = 0;
+        for (long seed = 0; seed < 5; seed++) {
+            Simulation simulation = new Simulation(seed, 5, 4, 300);
+            for (int i = 0; i < 300; i++) {
+                simulation.step();
+                Set<Long> expected = simulation.computeExpected();
+                assertEquals(expected, simulation.incremental.seen, "tick " + simulation.tick);
+                if (!expected.equals(simulation.old.seen)) {
+                    oldMismatchNum++;
+                }
+            }
+        }
+        assertTrue(oldMismatchNum > 0, "the simulation should cover delayed watching changes");
+    }
+}
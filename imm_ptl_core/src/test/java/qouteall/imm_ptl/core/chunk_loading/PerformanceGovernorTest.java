@@ -0,0 +1,167 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the governor of the server with synthetic tick duration traces.
+ */
+public class PerformanceGovernorTest {
+    
+    private static void feed(PerformanceGovernor governor, double tickDurationMs, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            governor.onTick(tickDurationMs);
+        }
+    }
+    
+    @Test
+    public void testLightLoadKeepsFullCapacity() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            governor.onTick(10 + random.nextDouble() * 20);
+        }
+        assertTrue(governor.isAtFullCapacity());
+        assertEquals(0, governor.getDecreaseNum());
+    }
+    
+    @Test
+    public void testSingleSpikeDoesNotDecrease() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        feed(governor, 20, 100);
+        // like a garbage collection pause
+        governor.onTick(500);
+        feed(governor, 20, 100);
+        assertTrue(governor.isAtFullCapacity());
+        assertEquals(0, governor.getDecreaseNum());
+    }
+    
+    /**
+     * The decreases are separated by the cooldown, so the window can reflect the effect of a decrease.
+     */
+    @Test
+    public void testOverloadDecreasesWithCooldown() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        int lastDecreaseTick = -1;
+        long lastDecreaseNum = 0;
+        double lastFactor = governor.getFactor();
+        for (int tick = 0; tick < 1000; tick++) {
+            governor.onTick(80);
+            if (governor.getDecreaseNum() != lastDecreaseNum) {
+                assertEquals(Math.max(0.1, lastFactor * 0.7), governor.getFactor(), 1e-9);
+                if (lastDecreaseTick != -1) {
+                    assertTrue(tick - lastDecreaseTick >= 40, "decreased at " + lastDecreaseTick + " and " + tick);
+                }
+                lastDecreaseTick = tick;
+                lastDecreaseNum = governor.getDecreaseNum();
+            }
+            lastFactor = governor.getFactor();
+            assertTrue(governor.getFactor() >= 0.1);
+        }
+        assertEquals(0.1, governor.getFactor(), 1e-9);
+        assertEquals(0, governor.interpolate(0, 10));
+    }
+    
+    /**
+     * From the minimum factor, it recovers at 0.02 per 10 ticks after the window drops below the low threshold.
+     */
+    @Test
+    public void testRecovery() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        feed(governor, 80, 1000);
+        assertEquals(0.1, governor.getFactor(), 1e-9);
+        
+        int ticks = 0;
+        while (!governor.isAtFullCapacity()) {
+            governor.onTick(10);
+            ticks++;
+            assertTrue(ticks < 1000, "not recovered");
+        }
+        // the window average drops below 35ms in 26 ticks, then 45 increases, one per 10 ticks
+        assertTrue(ticks >= 460 && ticks <= 480, "recovered in " + ticks + " ticks");
+        assertEquals(10, governor.interpolate(0, 10));
+    }
+    
+    /**
+     * Between the thresholds the factor holds.
+     */
+    @Test
+    public void testHysteresis() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        feed(governor, 80, 100);
+        // let the overloaded ticks leave the window
+        feed(governor, 40, 100);
+        double reducedFactor = governor.getFactor();
+        assertTrue(reducedFactor < 1);
+        
+        long decreaseNum = governor.getDecreaseNum();
+        long increaseNum = governor.getIncreaseNum();
+        Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            governor.onTick(36 + random.nextDouble() * 8);
+        }
+        assertEquals(reducedFactor, governor.getFactor());
+        assertEquals(decreaseNum, governor.getDecreaseNum());
+        assertEquals(increaseNum, governor.getIncreaseNum());
+    }
+    
+    /**
+     * In a closed loop where the tick duration grows with the factor,
+     * the governor settles the tick duration near the thresholds instead of oscillating between the extremes.
+     */
+    @Test
+    public void testClosedLoop() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        Random random = new Random(3);
+        
+        double sum = 0;
+        int counted = 0;
+        double minFactor = 1;
+        double maxFactor = 0;
+        for (int tick = 0; tick < 6000; tick++) {
+            // 60ms at full capacity, 24ms at the minimum factor
+            double tickDuration = 20 + 40 * governor.getFactor() + random.nextGaussian() * 3;
+            governor.onTick(tickDuration);
+            
+            if (tick >= 3000) {
+                sum += tickDuration;
+                counted++;
+                minFactor = Math.min(minFactor, governor.getFactor());
+                maxFactor = Math.max(maxFactor, governor.getFactor());
+            }
+        }
+        
+        double average = sum / counted;
+        assertTrue(average > 30 && average < 46, "average tick duration " + average);
+        // 35ms to 45ms needs the factor in [0.375, 0.625], a few steps of margin
+        assertTrue(minFactor > 0.25, "min factor " + minFactor);
+        assertTrue(maxFactor < 0.75, "max factor " + maxFactor);
+    }
+    
+    @Test
+    public void testReset() {
+        PerformanceGovernor governor = PerformanceGovernor.createForServer();
+        feed(governor, 80, 200);
+        assertFalse(governor.isAtFullCapacity());
+        
+        governor.reset();
+        assertTrue(governor.isAtFullCapacity());
+        assertEquals(0, governor.getWindowAverageMs());
+        
+        // the old overloaded ticks are forgotten
+        feed(governor, 20, 50);
+        assertTrue(governor.isAtFullCapacity());
+        assertEquals(20, governor.getWindowAverageMs(), 1e-9);
+    }
+    
+    @Test
+    public void testInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new PerformanceGovernor(0, 35, 45, 0.1, 0.02, 0.7, 10));
+        assertThrows(IllegalArgumentException.class, () -> new PerformanceGovernor(40, 45, 35, 0.1, 0.02, 0.7, 10));
+        assertThrows(IllegalArgumentException.class, () -> new PerformanceGovernor(40, 35, 45, 0, 0.02, 0.7, 10));
+        assertThrows(IllegalArgumentException.class, () -> new PerformanceGovernor(40, 35, 45, 0.1, 0.02, 1, 10));
+    }
+}
@@ -0,0 +1,132 @@
+package qouteall.imm_ptl.core.portal;
+
+import net.minecraft.nbt.ListTag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The accelerated point query should be the same as testing every triangle,
+ * including after the triangle list is modified in place.
+ */
+public class GeometryPortalShapeTest {
+    
+    private static GeometryPortalShape.TriangleInPlane randomTriangle(Random random) {
+        double x = random.nextDouble() * 20 - 10;
+        double y = random.nextDouble() * 20 - 10;
+        return new GeometryPortalShape.TriangleInPlane(
+            x, y,
+            x + random.nextDouble() * 4 - 2, y + random.nextDouble() * 4 - 2,
+            x + random.nextDouble() * 4 - 2, y + random.nextDouble() * 4 - 2
+        );
+    }
+    
+    private static boolean isPointInShapeLinear(List<GeometryPortalShape.TriangleInPlane> triangles, double x, double y) {
+        return triangles.stream().anyMatch(triangle -> triangle.isPointInTriangle(x, y));
+    }
+    
+    private static void assertSameAsLinear(GeometryPortalShape shape, Random random) {
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 24 - 12;
+            double y = random.nextDouble() * 24 - 12;
+            assertEquals(
+                isPointInShapeLinear(shape.triangles, x, y), shape.isPointInShape(x, y),
+                "at " + x + " " + y
+            );
+        }
+        double area = shape.triangles.stream().mapToDouble(GeometryPortalShape.TriangleInPlane::getArea).sum();
+        assertEquals(area, shape.getArea(), 1e-9);
+    }
+    
+    private static GeometryPortalShape randomShape(Random random, int triangleNum) {
+        GeometryPortalShape shape = new GeometryPortalShape();
+        for (int i = 0; i < triangleNum; i++) {
+            shape.triangles.add(randomTriangle(random));
+        }
+        return shape;
+    }
+    
+    @Test
+    public void testSameAsLinear() {
+        Random random = new Random(1);
+        for (int triangleNum : new int[]{0, 1, 4, 5, 30, 500}) {
+            assertSameAsLinear(randomShape(random, triangleNum), random);
+        }
+    }
+    
+    @Test
+    public void testModifiedInPlace() {
+        Random random = new Random(2);
+        GeometryPortalShape shape = randomShape(random, 50);
+        assertSameAsLinear(shape, random);
+        
+        // replacing keeps the size
+        for (int i = 0; i < 10; i++) {
+            shape.triangles.set(random.nextInt(50), randomTriangle(random));
+            assertSameAsLinear(shape, random);
+        }
+        
+        shape.triangles.subList(10, 20).replaceAll(triangle -> randomTriangle(random));
+        assertSameAsLinear(shape, random);
+        
+        shape.triangles.subList(0, 5).set(0, randomTriangle(random));
+        assertSameAsLinear(shape, random);
+        
+        shape.triangles.replaceAll(triangle -> randomTriangle(random));
+        assertSameAsLinear(shape, random);
+        
+        shape.triangles.sort(Comparator.comparingDouble(triangle -> triangle.x1));
+        assertSameAsLinear(shape, random);
+        
+        shape.triangles.remove(0);
+        shape.triangles.add(randomTriangle(random));
+        assertSameAsLinear(shape, random);
+        
+        shape.triangles.clear();
+        assertSameAsLinear(shape, random);
+    }
+    
+    @Test
+    public void testOtherList() {
+        Random random = new Random(3);
+        GeometryPortalShape shape = new GeometryPortalShape();
+        List<GeometryPortalShape.TriangleInPlane> triangles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            triangles.add(randomTriangle(random));
+        }
+        shape.triangles = triangles;
+        assertSameAsLinear(shape, random);
+        
+        triangles.set(3, randomTriangle(random));
+        assertSameAsLinear(shape, random);
+        
+        Collections.swap(triangles, 0, 1);
+        triangles.set(0, randomTriangle(random));
+        assertSameAsLinear(shape, random);
+        
+        shape.triangles = Collections.unmodifiableList(new ArrayList<>(triangles.subList(0, 20)));
+        assertSameAsLinear(shape, random);
+    }
+    
+    @Test
+    public void testTagRoundTrip() {
+        Random random = new Random(4);
+        GeometryPortalShape shape = randomShape(random, 20);
+        ListTag tag = shape.writeToTag();
+        GeometryPortalShape read = new GeometryPortalShape(tag);
+        assertEquals(shape.triangles.size(), read.triangles.size());
+        for (int i = 0; i < shape.triangles.size(); i++) {
+            GeometryPortalShape.TriangleInPlane a = shape.triangles.get(i);
+            GeometryPortalShape.TriangleInPlane b = read.triangles.get(i);
+            assertEquals(a.x1, b.x1);
+            assertEquals(a.y2, b.y2);
+            assertEquals(a.x3, b.x3);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package qouteall.imm_ptl.core.portal;
+
+import com.mojang.math.Quaternion;
+import com.mojang.math.Vector3f;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The affine transform should be equivalent to the portal's transformation,
+ * which is {@link Portal#transformPoint(Vec3)}: transformLocalVec(p - origin) + destination.
+ * The portal's transformation is reproduced with {@link PortalGeometry}, the same as {@link Portal} and {@link Mirror}.
+ */
+public class PortalAffineTransformTest {
+    
+    private static class TransformState {
+        public final Vec3 originPos;
+        public final Vec3 destPos;
+        public final Vec3 axisW;
+        public final Vec3 axisH;
+        @Nullable
+        public final Quaternion rotation;
+        public final double scaling;
+        public final boolean isMirror;
+        
+        public TransformState(Random random) {
+            // far from the world origin sometimes
+            double magnitude = random.nextBoolean() ? 1000 : 3.0e7;
+            originPos = randomVec(random).scale(magnitude);
+            destPos = randomVec(random).scale(magnitude);
+            axisW = randomVec(random).normalize();
+            axisH = axisW.cross(randomVec(random)).normalize();
+            if (random.nextInt(4) == 0) {
+                rotation = null;
+            }
+            else {
+                Vec3 axis = randomVec(random).normalize();
+                rotation = new Vector3f((float) axis.x, (float) axis.y, (float) axis.z)
+                    .rotationDegrees(random.nextFloat() * 360);
+            }
+            scaling = random.nextBoolean() ? 1 : 0.1 + random.nextDouble() * 10;
+            isMirror = random.nextInt(4) == 0;
+        }
+        
+        private Vec3 getMirrored(Vec3 vec) {
+            Vec3 normal = axisW.cross(axisH).normalize();
+            return vec.add(normal.scale(vec.dot(normal) * -2));
+        }
+        
+        public Vec3 transformLocalVec(Vec3 localVec) {
+            Vec3 rotated = PortalGeometry.transformLocalVecNonScale(localVec, rotation);
+            return (isMirror ? getMirrored(rotated) : rotated).scale(scaling);
+        }
+        
+        public Vec3 inverseTransformLocalVec(Vec3 localVec) {
+            Vec3 unmirrored = isMirror ? getMirrored(localVec) : localVec;
+            return PortalGeometry.inverseTransformLocalVecNonScale(unmirrored, rotation).scale(1.0 / scaling);
+        }
+        
+        public Vec3 transformPoint(Vec3 pos) {
+            return transformLocalVec(pos.subtract(originPos)).add(destPos);
+        }
+        
+        public PortalAffineTransform build() {
+            return PortalAffineTransform.fromFunctions(
+                this::transformLocalVec, this::inverseTransformLocalVec,
+                originPos, destPos, axisW, axisH, rotation, scaling
+            );
+        }
+    }
+    
+    private static Vec3 randomVec(Random random) {
+        return new Vec3(random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1);
+    }
+    
+    private static Vec3 toVec(double[] array) {
+        return new Vec3(array[0], array[1], array[2]);
+    }
+    
+    // the quaternion transformation is in float
+    private static void assertClose(Vec3 expected, Vec3 actual, double localLength) {
+        double tolerance = 1.0e-5 * (localLength + 1);
+        assertTrue(
+            expected.distanceTo(actual) < tolerance,
+            "expected " + expected + " actual " + actual
+        );
+    }
+    
+    @Test
+    public void testSameAsPortalTransformation() {
+        Random random = new Random(1);
+        double[] result = new double[3];
+        for (int i = 0; i < 500; i++) {
+            TransformState state = new TransformState(random);
+            PortalAffineTransform transform = state.build();
+            
+            for (int j = 0; j < 20; j++) {
+                Vec3 localVec = randomVec(random).scale(random.nextDouble() * 200);
+                double localLength = localVec.length() * Math.max(state.scaling, 1 / state.scaling);
+                
+                transform.transformLocalVec(localVec.x, localVec.y, localVec.z, result);
+                assertClose(state.transformLocalVec(localVec), toVec(result), localLength);
+                
+                transform.inverseTransformLocalVec(localVec.x, localVec.y, localVec.z, result);
+                assertClose(state.inverseTransformLocalVec(localVec), toVec(result), localLength);
+                
+                Vec3 point = state.originPos.add(localVec);
+                transform.transformPoint(point.x, point.y, point.z, result);
+                Vec3 transformed = toVec(result);
+                assertClose(state.transformPoint(point), transformed, localLength);
+                
+                transform.inverseTransformPoint(transformed.x, transformed.y, transformed.z, result);
+                assertClose(point, toVec(result), localLength);
+            }
+        }
+    }
+    
+    @Test
+    public void testTransformBox() {
+        Random random = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            TransformState state = new TransformState(random);
+            PortalAffineTransform transform = state.build();
+            
+            Vec3 min = state.originPos.add(randomVec(random).scale(50));
+            AABB box = new AABB(min, min.add(
+                random.nextDouble() * 20, random.nextDouble() * 20, random.nextDouble() * 20
+            ));
+            AABB transformedBox = transform.transformBox(box);
+            
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+            for (int v = 0; v < 8; v++) {
+                Vec3 vertex = state.transformPoint(new Vec3(
+                    (v & 1) == 0 ? box.minX : box.maxX,
+                    (v & 2) == 0 ? box.minY : box.maxY,
+                    (v & 4) == 0 ? box.minZ : box.maxZ
+                ));
+                minX = Math.min(minX, vertex.x);
+                minY = Math.min(minY, vertex.y);
+                minZ = Math.min(minZ, vertex.z);
+                maxX = Math.max(maxX, vertex.x);
+                maxY = Math.max(maxY, vertex.y);
+                maxZ = Math.max(maxZ, vertex.z);
+            }
+            
+            double length = 100 * Math.max(state.scaling, 1);
+            assertClose(new Vec3(minX, minY, minZ), new Vec3(transformedBox.minX, transformedBox.minY, transformedBox.minZ), length);
+            assertClose(new Vec3(maxX, maxY, maxZ), new Vec3(transformedBox.maxX, transformedBox.maxY, transformedBox.maxZ), length);
+        }
+    }
+    
+    @Test
+    public void testIsBuiltFrom() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            TransformState state = new TransformState(random);
+            Quaternion rotation = state.rotation == null ? null : new Quaternion(state.rotation);
+            PortalAffineTransform transform = PortalAffineTransform.fromFunctions(
+                state::transformLocalVec, state::inverseTransformLocalVec,
+                state.originPos, state.destPos, state.axisW, state.axisH, rotation, state.scaling
+            );
+            
+            assertTrue(transform.isBuiltFrom(
+                state.originPos, state.destPos, state.axisW, state.axisH, rotation, state.scaling
+            ));
+            
+            // the position and the orientation are replaced when they change
+            assertFalse(transform.isBuiltFrom(
+                state.originPos.add(0, 1, 0), state.destPos, state.axisW, state.axisH, rotation, state.scaling
+            ));
+            assertFalse(transform.isBuiltFrom(
+                state.originPos, state.destPos.add(0, 1, 0), state.axisW, state.axisH, rotation, state.scaling
+            ));
+            assertFalse(transform.isBuiltFrom(
+                state.originPos, state.destPos, state.axisW.scale(-1), state.axisH, rotation, state.scaling
+            ));
+            assertFalse(transform.isBuiltFrom(
+                state.originPos, state.destPos, state.axisW, state.axisH.scale(-1), rotation, state.scaling
+            ));
+            assertFalse(transform.isBuiltFrom(
+                state.originPos, state.destPos, state.axisW, state.axisH, rotation, state.scaling * 2
+            ));
+            
+            if (rotation == null) {
+                assertFalse(transform.isBuiltFrom(
+                    state.originPos, state.destPos, state.axisW, state.axisH,
+                    Vector3f.YP.rotationDegrees(90), state.scaling
+                ));
+            }
+            else {
+                assertFalse(transform.isBuiltFrom(
+                    state.originPos, state.destPos, state.axisW, state.axisH, null, state.scaling
+                ));
+                
+                // an equal copy is fine
+                assertTrue(transform.isBuiltFrom(
+                    state.originPos, state.destPos, state.axisW, state.axisH,
+                    new Quaternion(rotation), state.scaling
+                ));
+                
+                // changed in place
+                rotation.mul(Vector3f.YP.rotationDegrees(90));
+                assertFalse(transform.isBuiltFrom(
+                    state.originPos, state.destPos, state.axisW, state.axisH, rotation, state.scaling
+                ));
+            }
+        }
+    }
+    
+    /**
+     * Rebuilding after the in-place change gives the new transformation.
+     */
+    @Test
+    public void testRebuildAfterInPlaceRotationChange() {
+        Quaternion rotation = Vector3f.YP.rotationDegrees(30);
+        Vec3 origin = new Vec3(10, 64, 10);
+        Vec3 dest = new Vec3(-100, 70, 300);
+        Vec3 axisW = new Vec3(1, 0, 0);
+        Vec3 axisH = new Vec3(0, 1, 0);
+        UnaryOperator<Vec3> forward = vec -> PortalGeometry.transformLocalVecNonScale(vec, rotation);
+        UnaryOperator<Vec3> inverse = vec -> PortalGeometry.inverseTransformLocalVecNonScale(vec, rotation);
+        
+        PortalAffineTransform transform = PortalAffineTransform.fromFunctions(
+            forward, inverse, origin, dest, axisW, axisH, rotation, 1
+        );
+        
+        rotation.mul(Vector3f.YP.rotationDegrees(60));
+        assertFalse(transform.isBuiltFrom(origin, dest, axisW, axisH, rotation, 1));
+        
+        PortalAffineTransform rebuilt = PortalAffineTransform.fromFunctions(
+            forward, inverse, origin, dest, axisW, axisH, rotation, 1
+        );
+        assertTrue(rebuilt.isBuiltFrom(origin, dest, axisW, axisH, rotation, 1));
+        
+        double[] result = new double[3];
+        rebuilt.transformLocalVec(1, 0, 0, result);
+        // rotated by 90 degrees around y
+        assertClose(new Vec3(0, 0, -1), toVec(result), 1);
+    }
+}
@@ -0,0 +1,70 @@
+package qouteall.imm_ptl.core.portal;
+
+import net.minecraft.world.phys.Vec3;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PortalGeometryTest {
+    
+    // the previous implementation on Vec3
+    @Nullable
+    private static Vec3 referenceRayTracePlane(Vec3 from, Vec3 to, Vec3 originPos, Vec3 normal) {
+        double lastDistance = PortalGeometry.getDistanceToPlane(from, originPos, normal);
+        double nowDistance = PortalGeometry.getDistanceToPlane(to, originPos, normal);
+        
+        if (!(lastDistance > 0 && nowDistance < 0)) {
+            return null;
+        }
+        
+        Vec3 lineDirection = to.subtract(from).normalize();
+        
+        double collidingT = (originPos.subtract(from).dot(normal)) / (lineDirection.dot(normal));
+        return new Vec3(
+            from.x + lineDirection.x * collidingT,
+            from.y + lineDirection.y * collidingT,
+            from.z + lineDirection.z * collidingT
+        );
+    }
+    
+    private static Vec3 randomVec(Random random) {
+        return new Vec3(random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1);
+    }
+    
+    @Test
+    public void testRayTracePlaneSameAsOldImplementation() {
+        Random random = new Random(1);
+        double[] result = new double[3];
+        int collidingNum = 0;
+        for (int i = 0; i < 10000; i++) {
+            Vec3 originPos = randomVec(random).scale(random.nextBoolean() ? 10 : 3.0e7);
+            Vec3 normal = randomVec(random).normalize();
+            // short moves like a player's head in a frame, sometimes too short to be normalized
+            double moveLength = random.nextBoolean() ? 2 : 1.0e-5;
+            Vec3 from = originPos.add(randomVec(random).scale(moveLength));
+            Vec3 to = from.add(randomVec(random).scale(moveLength));
+            
+            Vec3 expected = referenceRayTracePlane(from, to, originPos, normal);
+            boolean collides = PortalGeometry.rayTracePlane(
+                from.x, from.y, from.z, to.x, to.y, to.z, originPos, normal, result
+            );
+            
+            assertEquals(expected != null, collides);
+            if (expected != null) {
+                collidingNum++;
+                assertEquals(expected.x, result[0]);
+                assertEquals(expected.y, result[1]);
+                assertEquals(expected.z, result[2]);
+                
+                Vec3 wrapped = PortalGeometry.rayTracePlane(from, to, originPos, normal);
+                assertEquals(expected.x, wrapped.x);
+                assertEquals(expected.y, wrapped.y);
+                assertEquals(expected.z, wrapped.z);
+            }
+        }
+        assertTrue(collidingNum > 1000);
+    }
+}
@@ -0,0 +1,139 @@
+package qouteall.imm_ptl.core.portal.custom_portal_gen.form;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.core.Vec3i;
+import net.minecraft.util.Tuple;
+import org.junit.jupiter.api.Test;
+import qouteall.imm_ptl.core.portal.nether_portal.BlockPortalShape;
+import qouteall.q_misc_util.Helper;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the shape transformations with the previous implementations that transformed block pos sets.
+ */
+public class DiligentMatcherTest {
+    
+    private static BlockPortalShape referenceRotate(BlockPortalShape shape, DiligentMatcher.IntMatrix3 t) {
+        Set<BlockPos> newArea = shape.area.stream().map(
+            b -> t.transform(b)
+        ).collect(Collectors.toSet());
+        Direction.Axis newAxis = t.transformDirection(
+            Direction.fromAxisAndDirection(shape.axis, Direction.AxisDirection.POSITIVE)
+        ).getAxis();
+        return new BlockPortalShape(newArea, newAxis);
+    }
+    
+    private static BlockPortalShape referenceShrink(BlockPortalShape shape, int div) {
+        BlockPortalShape regularized = DiligentMatcher.regularizeShape(shape);
+        
+        if (div == 1) {
+            return regularized;
+        }
+        
+        Set<BlockPos> newArea = regularized.area.stream().map(
+            b -> new BlockPos(
+                Math.floorDiv(b.getX(), div),
+                Math.floorDiv(b.getY(), div),
+                Math.floorDiv(b.getZ(), div)
+            )
+        ).collect(Collectors.toSet());
+        
+        return new BlockPortalShape(newArea, regularized.axis);
+    }
+    
+    private static BlockPortalShape referenceUpscale(BlockPortalShape shape, int multiplyFactor) {
+        Tuple<Direction.Axis, Direction.Axis> axs = Helper.getAnotherTwoAxis(shape.axis);
+        Vec3i v1 = Direction.fromAxisAndDirection(axs.getA(), Direction.AxisDirection.POSITIVE).getNormal();
+        Vec3i v2 = Direction.fromAxisAndDirection(axs.getB(), Direction.AxisDirection.POSITIVE).getNormal();
+        
+        return new BlockPortalShape(
+            shape.area.stream().flatMap(
+                basePos -> IntStream.range(0, multiplyFactor).boxed().flatMap(dx ->
+                    IntStream.range(0, multiplyFactor).mapToObj(dy ->
+                        Helper.scale(basePos, multiplyFactor)
+                            .offset(Helper.scale(v1, dx).offset(Helper.scale(v2, dy)))
+                    )
+                )
+            ).collect(Collectors.toSet()),
+            shape.axis
+        );
+    }
+    
+    // a union of rectangles in the plane, far from the origin
+    private static BlockPortalShape randomShape(Random random) {
+        Direction.Axis axis = Direction.Axis.values()[random.nextInt(3)];
+        Tuple<Direction.Axis, Direction.Axis> axs = Helper.getAnotherTwoAxis(axis);
+        Vec3i v1 = Direction.fromAxisAndDirection(axs.getA(), Direction.AxisDirection.POSITIVE).getNormal();
+        Vec3i v2 = Direction.fromAxisAndDirection(axs.getB(), Direction.AxisDirection.POSITIVE).getNormal();
+        BlockPos base = new BlockPos(
+            random.nextInt(2000000) - 1000000, random.nextInt(400) - 64, random.nextInt(2000000) - 1000000
+        );
+        
+        Set<BlockPos> area = new HashSet<>();
+        int rectangleNum = 1 + random.nextInt(3);
+        for (int i = 0; i < rectangleNum; i++) {
+            int a0 = random.nextInt(6);
+            int b0 = random.nextInt(6);
+            int aLen = 1 + random.nextInt(6);
+            int bLen = 1 + random.nextInt(6);
+            for (int a = a0; a < a0 + aLen; a++) {
+                for (int b = b0; b < b0 + bLen; b++) {
+                    area.add(base.offset(Helper.scale(v1, a)).offset(Helper.scale(v2, b)));
+                }
+            }
+        }
+        return new BlockPortalShape(area, axis);
+    }
+    
+    private static void assertSameShape(BlockPortalShape expected, BlockPortalShape actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.area, actual.area);
+        assertEquals(expected.frameAreaWithCorner, actual.frameAreaWithCorner);
+        assertEquals(expected.innerAreaBox.l, actual.innerAreaBox.l);
+        assertEquals(expected.totalAreaBox.h, actual.totalAreaBox.h);
+        assertEquals(expected.firstFramePos, actual.firstFramePos);
+    }
+    
+    @Test
+    public void testRotateSameAsOldImplementation() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            BlockPortalShape shape = randomShape(random);
+            for (DiligentMatcher.IntMatrix3 rotation : DiligentMatcher.rotationTransformations) {
+                assertSameShape(referenceRotate(shape, rotation), DiligentMatcher.rotateShape(shape, rotation));
+            }
+        }
+    }
+    
+    @Test
+    public void testShrinkSameAsOldImplementation() {
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            BlockPortalShape shape = randomShape(random);
+            int div = 1 + random.nextInt(4);
+            assertSameShape(referenceShrink(shape, div), DiligentMatcher.shrinkShapeBy(shape, div));
+        }
+    }
+    
+    @Test
+    public void testUpscaleSameAsOldImplementation() {
+        Random random = new Random(3);
+        for (int i = 0; i < 300; i++) {
+            BlockPortalShape shape = randomShape(random);
+            // the regularized shapes are upscaled in matching, the others should also work
+            if (random.nextBoolean()) {
+                shape = DiligentMatcher.regularizeShape(shape);
+            }
+            int mul = 1 + random.nextInt(4);
+            assertSameShape(referenceUpscale(shape, mul), DiligentMatcher.upscaleShape(shape, mul));
+        }
+    }
+}
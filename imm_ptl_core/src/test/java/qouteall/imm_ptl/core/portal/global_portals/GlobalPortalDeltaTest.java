@@ -0,0 +1,236 @@
+package qouteall.imm_ptl.core.portal.global_portals;
+
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Syncs synthetic portals, which have a type and a value, from a fake server to a fake client.
+ */
+public class GlobalPortalDeltaTest {
+    
+    private static class FakePortal {
+        public final UUID uuid;
+        public final String type;
+        public int value;
+        
+        public FakePortal(UUID uuid, String type, int value) {
+            this.uuid = uuid;
+            this.type = type;
+            this.value = value;
+        }
+        
+        public CompoundTag toTag() {
+            CompoundTag tag = new CompoundTag();
+            tag.putUUID("UUID", uuid);
+            tag.putString("type", type);
+            tag.putInt("value", value);
+            return tag;
+        }
+        
+        public String describe() {
+            return type + " " + value;
+        }
+    }
+    
+    private static class FakeClient implements GlobalPortalDelta.Target<FakePortal> {
+        public final Map<UUID, FakePortal> portals = new LinkedHashMap<>();
+        public int patchedNum = 0;
+        public int createdNum = 0;
+        public int removedNum = 0;
+        
+        @Nullable
+        @Override
+        public FakePortal getByUuid(UUID uuid) {
+            return portals.get(uuid);
+        }
+        
+        @Override
+        public boolean tryPatch(FakePortal existing, CompoundTag tag) {
+            if (!existing.type.equals(tag.getString("type"))) {
+                return false;
+            }
+            existing.value = tag.getInt("value");
+            patchedNum++;
+            return true;
+        }
+        
+        @Override
+        public FakePortal create(CompoundTag tag) {
+            createdNum++;
+            return new FakePortal(tag.getUUID("UUID"), tag.getString("type"), tag.getInt("value"));
+        }
+        
+        @Override
+        public void add(FakePortal portal) {
+            assertNull(portals.put(portal.uuid, portal), "adding an existing portal");
+        }
+        
+        @Override
+        public void remove(FakePortal portal) {
+            assertSame(portal, portals.remove(portal.uuid), "removing a missing portal");
+            removedNum++;
+        }
+    }
+    
+    private static Map<UUID, String> describe(Map<UUID, FakePortal> portals) {
+        Map<UUID, String> result = new LinkedHashMap<>();
+        portals.forEach((uuid, portal) -> result.put(uuid, portal.describe()));
+        return result;
+    }
+    
+    private static UUID randomUuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+    
+    @Test
+    public void testClientFollowsServerEdits() {
+        Random random = new Random(1);
+        
+        Map<UUID, FakePortal> serverPortals = new LinkedHashMap<>();
+        GlobalPortalDelta<FakePortal> pending = new GlobalPortalDelta<>();
+        FakeClient client = new FakeClient();
+        int serverVersion = 0;
+        int clientVersion = 0;
+        
+        for (int round = 0; round < 300; round++) {
+            int editNum = random.nextInt(6);
+            for (int i = 0; i < editNum; i++) {
+                List<FakePortal> existing = new ArrayList<>(serverPortals.values());
+                int kind = existing.isEmpty() ? 0 : random.nextInt(4);
+                FakePortal portal = existing.isEmpty() ? null : existing.get(random.nextInt(existing.size()));
+                switch (kind) {
+                    case 0 -> {
+                        FakePortal newPortal = new FakePortal(randomUuid(random), "a", random.nextInt(100));
+                        serverPortals.put(newPortal.uuid, newPortal);
+                        pending.markUpdated(newPortal.uuid, newPortal);
+                    }
+                    case 1 -> {
+                        portal.value = random.nextInt(100);
+                        pending.markUpdated(portal.uuid, portal);
+                    }
+                    case 2 -> {
+                        // replaced by a portal of another type with the same UUID
+                        FakePortal replacement = new FakePortal(
+                            portal.uuid, portal.type.equals("a") ? "b" : "a", random.nextInt(100)
+                        );
+                        serverPortals.put(replacement.uuid, replacement);
+                        pending.markUpdated(replacement.uuid, replacement);
+                    }
+                    default -> {
+                        serverPortals.remove(portal.uuid);
+                        pending.markRemoved(portal.uuid);
+                    }
+                }
+            }
+            
+            if (pending.isEmpty()) {
+                continue;
+            }
+            
+            CompoundTag deltaTag = pending.toTag(FakePortal::toTag);
+            int baseVersion = serverVersion;
+            serverVersion++;
+            pending.clear();
+            
+            assertTrue(GlobalPortalDelta.apply(clientVersion, baseVersion, deltaTag, client));
+            clientVersion = serverVersion;
+            
+            assertEquals(describe(serverPortals), describe(client.portals));
+        }
+        
+        assertTrue(client.patchedNum > 0);
+        assertTrue(client.removedNum > 0);
+    }
+    
+    @Test
+    public void testVersionMismatchIsNotApplied() {
+        FakePortal portal = new FakePortal(UUID.randomUUID(), "a", 1);
+        GlobalPortalDelta<FakePortal> pending = new GlobalPortalDelta<>();
+        pending.markUpdated(portal.uuid, portal);
+        CompoundTag deltaTag = pending.toTag(FakePortal::toTag);
+        
+        FakeClient client = new FakeClient();
+        // the client missed the previous sync, or is waiting for a full sync
+        assertFalse(GlobalPortalDelta.apply(3, 4, deltaTag, client));
+        assertFalse(GlobalPortalDelta.apply(GlobalPortalStorage.CLIENT_AWAITING_FULL_SYNC, 4, deltaTag, client));
+        assertTrue(client.portals.isEmpty());
+        assertEquals(0, client.createdNum);
+        
+        assertTrue(GlobalPortalDelta.apply(4, 4, deltaTag, client));
+        assertEquals(1, client.portals.size());
+    }
+    
+    @Test
+    public void testPendingChangesAreMerged() {
+        FakePortal a = new FakePortal(UUID.randomUUID(), "a", 1);
+        FakePortal b = new FakePortal(UUID.randomUUID(), "a", 2);
+        FakePortal c = new FakePortal(UUID.randomUUID(), "a", 3);
+        
+        GlobalPortalDelta<FakePortal> pending = new GlobalPortalDelta<>();
+        pending.markUpdated(a.uuid, a);
+        pending.markRemoved(a.uuid);
+        pending.markRemoved(b.uuid);
+        pending.markUpdated(b.uuid, b);
+        pending.markUpdated(c.uuid, c);
+        c.value = 4;
+        pending.markUpdated(c.uuid, c);
+        assertEquals(3, pending.getChangeNum());
+        
+        CompoundTag deltaTag = pending.toTag(FakePortal::toTag);
+        
+        List<UUID> removed = new ArrayList<>();
+        for (Tag uuidTag : deltaTag.getList("removed", Tag.TAG_INT_ARRAY)) {
+            removed.add(NbtUtils.loadUUID(uuidTag));
+        }
+        assertEquals(List.of(a.uuid), removed);
+        
+        List<String> updated = new ArrayList<>();
+        for (int i = 0; i < deltaTag.getList("updated", Tag.TAG_COMPOUND).size(); i++) {
+            CompoundTag tag = deltaTag.getList("updated", Tag.TAG_COMPOUND).getCompound(i);
+            updated.add(tag.getUUID("UUID") + " " + tag.getInt("value"));
+        }
+        assertEquals(List.of(b.uuid + " 2", c.uuid + " 4"), updated);
+        
+        pending.clear();
+        assertTrue(pending.isEmpty());
+    }
+    
+    @Test
+    public void testPatchKeepsInstance() {
+        FakeClient client = new FakeClient();
+        FakePortal portal = new FakePortal(UUID.randomUUID(), "a", 1);
+        FakePortal clientPortal = new FakePortal(portal.uuid, "a", 1);
+        client.add(clientPortal);
+        
+        GlobalPortalDelta<FakePortal> pending = new GlobalPortalDelta<>();
+        portal.value = 2;
+        pending.markUpdated(portal.uuid, portal);
+        assertTrue(GlobalPortalDelta.apply(0, 0, pending.toTag(FakePortal::toTag), client));
+        
+        assertSame(clientPortal, client.getByUuid(portal.uuid));
+        assertEquals(2, clientPortal.value);
+        
+        // the type changed, so the instance is replaced
+        pending.clear();
+        FakePortal replacement = new FakePortal(portal.uuid, "b", 3);
+        pending.markUpdated(replacement.uuid, replacement);
+        assertTrue(GlobalPortalDelta.apply(1, 1, pending.toTag(FakePortal::toTag), client));
+        
+        assertNotSame(clientPortal, client.getByUuid(portal.uuid));
+        assertEquals("b 3", client.getByUuid(portal.uuid).describe());
+        assertEquals(1, client.removedNum);
+        assertEquals(1, client.createdNum);
+    }
+}
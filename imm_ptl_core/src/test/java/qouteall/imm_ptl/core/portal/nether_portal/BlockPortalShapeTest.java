@@ -0,0 +1,340 @@
+package qouteall.imm_ptl.core.portal.nether_portal;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import org.junit.jupiter.api.Test;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.my_util.IntBox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares {@link BlockPortalShape} with the previous implementation that computed everything on block pos sets.
+ */
+public class BlockPortalShapeTest {
+    
+    /**
+     * The previous implementation on hash sets, with the same frame, box and matching rules.
+     */
+    private static class ReferenceShape {
+        public final Set<BlockPos> area;
+        public final Direction.Axis axis;
+        public final BlockPos anchor;
+        public final Set<BlockPos> frameAreaWithoutCorner;
+        public final Set<BlockPos> frameAreaWithCorner;
+        public final IntBox innerAreaBox;
+        public final IntBox totalAreaBox;
+        
+        public ReferenceShape(Set<BlockPos> area, Direction.Axis axis) {
+            this.area = area;
+            this.axis = axis;
+            
+            anchor = area.stream().min(
+                Comparator.<BlockPos>comparingInt(BlockPos::getX)
+                    .thenComparingInt(BlockPos::getY)
+                    .thenComparingInt(BlockPos::getZ)
+            ).get();
+            
+            Direction[] directions = Helper.getAnotherFourDirections(axis);
+            frameAreaWithoutCorner = area.stream().flatMap(
+                blockPos -> Stream.of(
+                    blockPos.offset(directions[0].getNormal()),
+                    blockPos.offset(directions[1].getNormal()),
+                    blockPos.offset(directions[2].getNormal()),
+                    blockPos.offset(directions[3].getNormal())
+                )
+            ).filter(blockPos -> !area.contains(blockPos)).collect(Collectors.toSet());
+            
+            BlockPos[] cornerOffsets = {
+                new BlockPos(directions[0].getNormal()).offset(directions[1].getNormal()),
+                new BlockPos(directions[1].getNormal()).offset(directions[2].getNormal()),
+                new BlockPos(directions[2].getNormal()).offset(directions[3].getNormal()),
+                new BlockPos(directions[3].getNormal()).offset(directions[0].getNormal())
+            };
+            frameAreaWithCorner = area.stream().flatMap(
+                blockPos -> Stream.of(cornerOffsets).map(blockPos::offset)
+            ).filter(blockPos -> !area.contains(blockPos)).collect(Collectors.toSet());
+            frameAreaWithCorner.addAll(frameAreaWithoutCorner);
+            
+            innerAreaBox = Helper.reduce(new IntBox(anchor, anchor), area.stream(), IntBox::getExpanded);
+            totalAreaBox = Helper.reduce(
+                new IntBox(anchor, anchor), frameAreaWithoutCorner.stream(), IntBox::getExpanded
+            );
+        }
+        
+        public ReferenceShape getMoved(BlockPos offset) {
+            return new ReferenceShape(
+                area.stream().map(blockPos -> blockPos.offset(offset)).collect(Collectors.toSet()),
+                axis
+            );
+        }
+        
+        // the matching of the previous implementation, without the temporary mutable pos
+        public boolean matches(Predicate<BlockPos> isAir, Predicate<BlockPos> isObsidian, BlockPos newAnchor) {
+            BlockPos offset = newAnchor.subtract(anchor);
+            return isAir.test(newAnchor) &&
+                frameAreaWithoutCorner.stream().map(blockPos -> blockPos.offset(offset)).allMatch(isObsidian) &&
+                area.stream().map(blockPos -> blockPos.offset(offset)).allMatch(isAir);
+        }
+        
+        public boolean isRectangle() {
+            BlockPos size = innerAreaBox.getSize();
+            return size.getX() * size.getY() * size.getZ() == area.size();
+        }
+    }
+    
+    private static Set<BlockPos> randomArea(Random random, Direction.Axis axis) {
+        Direction[] directions = Helper.getAnotherFourDirections(axis);
+        BlockPos base = new BlockPos(
+            random.nextInt(2000) - 1000, random.nextInt(300) - 64, random.nextInt(2000) - 1000
+        );
+        Set<BlockPos> area = new HashSet<>();
+        
+        // a rectangle, sometimes with random blocks added or removed
+        int width = 1 + random.nextInt(8);
+        int height = 1 + random.nextInt(8);
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                area.add(base.relative(directions[0], i).relative(directions[1], j));
+            }
+        }
+        if (random.nextBoolean()) {
+            BlockPos curr = base;
+            int steps = random.nextInt(30);
+            for (int i = 0; i < steps; i++) {
+                curr = curr.relative(directions[random.nextInt(4)]);
+                if (random.nextInt(4) == 0) {
+                    area.remove(curr);
+                }
+                else {
+                    area.add(curr);
+                }
+            }
+        }
+        if (area.isEmpty()) {
+            area.add(base);
+        }
+        return area;
+    }
+    
+    private static Direction.Axis randomAxis(Random random) {
+        return Direction.Axis.values()[random.nextInt(3)];
+    }
+    
+    private static void assertBoxEquals(IntBox expected, IntBox actual) {
+        assertEquals(expected.l, actual.l);
+        assertEquals(expected.h, actual.h);
+    }
+    
+    private static void assertSameShape(ReferenceShape expected, BlockPortalShape actual) {
+        assertEquals(expected.axis, actual.axis);
+        assertEquals(expected.anchor, actual.anchor);
+        assertEquals(expected.area, actual.area);
+        assertEquals(expected.frameAreaWithoutCorner, actual.frameAreaWithoutCorner);
+        assertEquals(expected.frameAreaWithCorner, actual.frameAreaWithCorner);
+        // the views compare with hash sets in both directions
+        assertEquals(actual.frameAreaWithoutCorner, expected.frameAreaWithoutCorner);
+        assertEquals(expected.frameAreaWithCorner.hashCode(), actual.frameAreaWithCorner.hashCode());
+        assertBoxEquals(expected.innerAreaBox, actual.innerAreaBox);
+        assertBoxEquals(expected.totalAreaBox, actual.totalAreaBox);
+        assertEquals(expected.isRectangle(), actual.isRectangle());
+        assertTrue(expected.frameAreaWithoutCorner.contains(actual.firstFramePos));
+    }
+    
+    private static void assertSameContains(
+        Random random, Set<BlockPos> expected, Set<BlockPos> actual, IntBox range
+    ) {
+        for (BlockPos blockPos : expected) {
+            assertTrue(actual.contains(blockPos));
+            assertTrue(actual.contains(new BlockPos.MutableBlockPos().set(
+                blockPos.getX(), blockPos.getY(), blockPos.getZ()
+            )));
+        }
+        for (int i = 0; i < 50; i++) {
+            BlockPos probe = range.l.offset(
+                random.nextInt(range.getSize().getX() + 2) - 1,
+                random.nextInt(range.getSize().getY() + 2) - 1,
+                random.nextInt(range.getSize().getZ() + 2) - 1
+            );
+            assertEquals(expected.contains(probe), actual.contains(probe));
+        }
+        // far positions whose packed offsets could wrap
+        BlockPos anyPos = expected.iterator().next();
+        assertFalse(actual.contains(anyPos.offset(0, 4096, 0)));
+        assertFalse(actual.contains(anyPos.offset(0, -4096, 0)));
+    }
+    
+    @Test
+    public void testSameAsOldImplementation() {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            Direction.Axis axis = randomAxis(random);
+            Set<BlockPos> area = randomArea(random, axis);
+            
+            ReferenceShape expected = new ReferenceShape(area, axis);
+            BlockPortalShape actual = new BlockPortalShape(new HashSet<>(area), axis);
+            
+            assertSameShape(expected, actual);
+            assertSameContains(random, expected.frameAreaWithCorner, actual.frameAreaWithCorner, actual.totalAreaBox);
+            for (BlockPos blockPos : area) {
+                assertTrue(actual.isInArea(blockPos));
+            }
+            for (BlockPos blockPos : expected.frameAreaWithCorner) {
+                assertFalse(actual.isInArea(blockPos));
+            }
+        }
+    }
+    
+    @Test
+    public void testMovedShape() {
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            Direction.Axis axis = randomAxis(random);
+            Set<BlockPos> area = randomArea(random, axis);
+            BlockPortalShape shape = new BlockPortalShape(area, axis);
+            
+            BlockPos offset = new BlockPos(
+                random.nextInt(20000) - 10000, random.nextInt(200) - 100, random.nextInt(20000) - 10000
+            );
+            BlockPortalShape moved = shape.getShapeWithMovedAnchor(shape.anchor.offset(offset));
+            ReferenceShape expected = new ReferenceShape(area, axis).getMoved(offset);
+            
+            assertSameShape(expected, moved);
+            assertSameContains(random, expected.area, moved.area, moved.innerAreaBox);
+            assertSameContains(random, expected.frameAreaWithCorner, moved.frameAreaWithCorner, moved.totalAreaBox);
+            
+            BlockPortalShape rebuilt = new BlockPortalShape(new HashSet<>(expected.area), axis);
+            assertEquals(rebuilt, moved);
+            assertEquals(rebuilt.hashCode(), moved.hashCode());
+            assertEquals(rebuilt.firstFramePos, moved.firstFramePos);
+            
+            // a moved shape can be moved again and rebuilt from its area view
+            BlockPortalShape movedBack = moved.getShapeWithMovedAnchor(shape.anchor);
+            assertEquals(shape, movedBack);
+            assertEquals(shape, new BlockPortalShape(new HashSet<>(movedBack.area), axis));
+        }
+    }
+    
+    @Test
+    public void testFromPackedPositions() {
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            Direction.Axis axis = randomAxis(random);
+            Set<BlockPos> area = randomArea(random, axis);
+            
+            // in any order and with duplicates
+            List<BlockPos> positions = new ArrayList<>(area);
+            positions.addAll(area.stream().filter(b -> random.nextBoolean()).toList());
+            Collections.shuffle(positions, random);
+            long[] packed = positions.stream().mapToLong(BlockPos::asLong).toArray();
+            
+            BlockPortalShape shape = BlockPortalShape.fromPackedPositions(packed, axis);
+            assertSameShape(new ReferenceShape(area, axis), shape);
+            assertEquals(new BlockPortalShape(new HashSet<>(area), axis), shape);
+        }
+    }
+    
+    @Test
+    public void testRecalculateAfterChangingArea() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            Direction.Axis axis = randomAxis(random);
+            BlockPortalShape shape = new BlockPortalShape(randomArea(random, axis), axis);
+            
+            Set<BlockPos> newArea = randomArea(random, axis);
+            shape.area = newArea;
+            shape.calcAnchor();
+            shape.calcFrameArea();
+            shape.calcAreaBox();
+            
+            assertSameShape(new ReferenceShape(newArea, axis), shape);
+            assertEquals(new BlockPortalShape(new HashSet<>(newArea), axis), shape);
+        }
+    }
+    
+    /**
+     * The frame and the area of the shape are placed in a synthetic world, sometimes with a broken block,
+     * and the matching is tried at the positions around.
+     */
+    @Test
+    public void testMatchingSameAsOldImplementation() {
+        Random random = new Random(4);
+        BlockPos.MutableBlockPos temp = new BlockPos.MutableBlockPos();
+        int matchNum = 0;
+        for (int i = 0; i < 200; i++) {
+            Direction.Axis axis = randomAxis(random);
+            Set<BlockPos> area = randomArea(random, axis);
+            BlockPortalShape shape = new BlockPortalShape(area, axis);
+            ReferenceShape reference = new ReferenceShape(area, axis);
+            
+            Set<BlockPos> air = new HashSet<>(area);
+            Set<BlockPos> obsidian = new HashSet<>(reference.frameAreaWithoutCorner);
+            if (random.nextBoolean()) {
+                BlockPos broken = random.nextBoolean() ?
+                    reference.frameAreaWithoutCorner.stream().skip(
+                        random.nextInt(reference.frameAreaWithoutCorner.size())
+                    ).findFirst().get() :
+                    area.stream().skip(random.nextInt(area.size())).findFirst().get();
+                air.remove(broken);
+                obsidian.remove(broken);
+            }
+            Predicate<BlockPos> isAir = blockPos -> air.contains(blockPos.immutable());
+            Predicate<BlockPos> isObsidian = blockPos -> obsidian.contains(blockPos.immutable());
+            
+            BlockPortalShape template = shape.getShapeWithMovedAnchor(new BlockPos(0, 0, 0));
+            
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dz = -1; dz <= 1; dz++) {
+                        BlockPos candidate = reference.anchor.offset(dx, dy, dz);
+                        boolean expected = reference.matches(isAir, isObsidian, candidate);
+                        
+                        BlockPortalShape matched = template.matchShape(isAir, isObsidian, candidate, temp);
+                        assertEquals(expected, matched != null);
+                        if (matched != null) {
+                            matchNum++;
+                            assertSameShape(reference.getMoved(candidate.subtract(reference.anchor)), matched);
+                        }
+                        
+                        // the first frame pos of the template is moved onto the candidate
+                        BlockPos framePos = template.firstFramePos.subtract(template.anchor).offset(candidate);
+                        BlockPortalShape matchedByFrame = template.matchShapeWithMovedFirstFramePos(
+                            isAir, isObsidian, framePos, temp
+                        );
+                        boolean expectedByFrame = reference.frameAreaWithoutCorner.stream().allMatch(
+                            blockPos -> isObsidian.test(blockPos.offset(candidate.subtract(reference.anchor)))
+                        ) && reference.area.stream().allMatch(
+                            blockPos -> isAir.test(blockPos.offset(candidate.subtract(reference.anchor)))
+                        );
+                        assertEquals(expectedByFrame, matchedByFrame != null);
+                        if (matchedByFrame != null) {
+                            assertEquals(candidate, matchedByFrame.anchor);
+                        }
+                    }
+                }
+            }
+            
+            assertEquals(
+                reference.frameAreaWithoutCorner.stream().allMatch(isObsidian),
+                shape.isFrameIntact(isObsidian)
+            );
+            assertEquals(
+                reference.frameAreaWithoutCorner.stream().allMatch(isObsidian) &&
+                    reference.area.stream().allMatch(isAir),
+                shape.isPortalIntact(isAir, isObsidian)
+            );
+        }
+        assertTrue(matchNum > 0);
+    }
+}
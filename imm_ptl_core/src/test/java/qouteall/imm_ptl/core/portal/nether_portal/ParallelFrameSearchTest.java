@@ -0,0 +1,255 @@
+package qouteall.imm_ptl.core.portal.nether_portal;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.ChunkPos;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the frame searching on synthetic chunks and compares it with scanning all the blocks from near to far.
+ */
+public class ParallelFrameSearchTest {
+    
+    private static final int minSectionY = -4;
+    private static final int sectionNum = 24;
+    
+    private static ExecutorService executor;
+    
+    @BeforeAll
+    public static void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+    
+    @AfterAll
+    public static void shutdownExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    
+    private static class SyntheticChunk {
+        public final int chunkX;
+        public final int chunkZ;
+        // null for the sections without frame blocks, indexed by (y * 16 + z) * 16 + x
+        public final boolean[][] sections = new boolean[sectionNum][];
+        
+        public SyntheticChunk(int chunkX, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+        
+        public boolean isFrame(int sectionIndex, int x, int y, int z) {
+            boolean[] section = sections[sectionIndex];
+            return section != null && section[(y * 16 + z) * 16 + x];
+        }
+    }
+    
+    private static class SyntheticChunkBlocks implements ParallelFrameSearch.ChunkBlocks<SyntheticChunk> {
+        @Override
+        public int getMinBlockX(SyntheticChunk chunk) {
+            return chunk.chunkX * 16;
+        }
+        
+        @Override
+        public int getMinBlockZ(SyntheticChunk chunk) {
+            return chunk.chunkZ * 16;
+        }
+        
+        @Override
+        public int getSectionNum(SyntheticChunk chunk) {
+            return sectionNum;
+        }
+        
+        @Override
+        public boolean mayContainFrame(SyntheticChunk chunk, int sectionIndex) {
+            return chunk.sections[sectionIndex] != null;
+        }
+        
+        @Override
+        public boolean isFrame(SyntheticChunk chunk, int sectionIndex, int localX, int localY, int localZ) {
+            return chunk.isFrame(sectionIndex, localX, localY, localZ);
+        }
+    }
+    
+    private static class World {
+        public final List<SyntheticChunk> chunks = new ArrayList<>();
+        private final Long2ObjectOpenHashMap<SyntheticChunk> chunkMap = new Long2ObjectOpenHashMap<>();
+        public final int yRangeStart;
+        public final int yRangeEnd;
+        
+        public World(Random random, int radius, double frameSectionRate, double frameRate) {
+            for (int x = -radius; x <= radius; x++) {
+                for (int z = -radius; z <= radius; z++) {
+                    SyntheticChunk chunk = new SyntheticChunk(x, z);
+                    for (int s = 0; s < sectionNum; s++) {
+                        if (random.nextDouble() < frameSectionRate) {
+                            boolean[] section = new boolean[16 * 16 * 16];
+                            for (int i = 0; i < section.length; i++) {
+                                section[i] = random.nextDouble() < frameRate;
+                            }
+                            chunk.sections[s] = section;
+                        }
+                    }
+                    chunks.add(chunk);
+                    chunkMap.put(ChunkPos.asLong(x, z), chunk);
+                }
+            }
+            chunks.sort(Comparator.comparingInt(c -> c.chunkX * c.chunkX + c.chunkZ * c.chunkZ));
+            
+            // the y range does not align with the sections
+            yRangeStart = minSectionY * 16 + random.nextInt(40);
+            yRangeEnd = (minSectionY + sectionNum) * 16 - random.nextInt(40);
+        }
+        
+        public boolean isFrame(int x, int y, int z) {
+            int chunkX = Math.floorDiv(x, 16);
+            int chunkZ = Math.floorDiv(z, 16);
+            SyntheticChunk chunk = chunkMap.get(ChunkPos.asLong(chunkX, chunkZ));
+            if (chunk == null) {
+                return false;
+            }
+            int sectionIndex = Math.floorDiv(y, 16) - minSectionY;
+            if (sectionIndex < 0 || sectionIndex >= sectionNum) {
+                return false;
+            }
+            return chunk.isFrame(sectionIndex, x & 15, y & 15, z & 15);
+        }
+        
+        /**
+         * A frame block matches if the blocks above and at the east are also frame blocks.
+         */
+        public BlockPos bruteForce() {
+            for (SyntheticChunk chunk : chunks) {
+                for (int y = yRangeStart; y < yRangeEnd; y++) {
+                    for (int z = chunk.chunkZ * 16; z < chunk.chunkZ * 16 + 16; z++) {
+                        for (int x = chunk.chunkX * 16; x < chunk.chunkX * 16 + 16; x++) {
+                            if (isFrame(x, y, z) && isFrame(x, y + 1, z) && isFrame(x + 1, y, z)) {
+                                return new BlockPos(x, y, z);
+                            }
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+        
+        public ParallelFrameSearch.FrameMatcher<BlockPos> createMatcher(Set<BlockPos.MutableBlockPos> tempsInUse) {
+            return (framePos, temp) -> {
+                assertNotSame(framePos, temp);
+                synchronized (tempsInUse) {
+                    assertTrue(tempsInUse.add(temp), "the temporary pos is shared between tasks");
+                }
+                try {
+                    temp.set(framePos.getX(), framePos.getY() + 1, framePos.getZ());
+                    if (!isFrame(temp.getX(), temp.getY(), temp.getZ())) {
+                        return null;
+                    }
+                    temp.set(framePos.getX() + 1, framePos.getY(), framePos.getZ());
+                    if (!isFrame(temp.getX(), temp.getY(), temp.getZ())) {
+                        return null;
+                    }
+                    return framePos.immutable();
+                }
+                finally {
+                    synchronized (tempsInUse) {
+                        tempsInUse.remove(temp);
+                    }
+                }
+            };
+        }
+    }
+    
+    private static Set<BlockPos.MutableBlockPos> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+    
+    @Test
+    public void testSequentialSameAsBruteForce() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            World world = new World(random, 2, 0.1, 0.01);
+            BlockPos result = ParallelFrameSearch.searchSequentially(
+                world.chunks, new SyntheticChunkBlocks(), minSectionY,
+                world.yRangeStart, world.yRangeEnd,
+                world.createMatcher(newIdentitySet()), () -> false
+            );
+            assertEquals(world.bruteForce(), result);
+        }
+    }
+    
+    /**
+     * The parallel search should find the same position as the sequential search,
+     * including when a farther group finds a match earlier and when nothing matches.
+     */
+    @Test
+    public void testParallelSameAsBruteForce() throws ExecutionException, InterruptedException {
+        Random random = new Random(2);
+        int foundNum = 0;
+        int notFoundNum = 0;
+        for (int i = 0; i < 60; i++) {
+            // sparse worlds have their first match in far groups or none
+            double frameRate = i % 3 == 0 ? 0.0005 : 0.01;
+            World world = new World(random, 3, 0.1, frameRate);
+            
+            ParallelFrameSearch<SyntheticChunk, BlockPos> search = new ParallelFrameSearch<>(
+                world.chunks, new SyntheticChunkBlocks(), minSectionY,
+                world.yRangeStart, world.yRangeEnd,
+                world.createMatcher(newIdentitySet())
+            );
+            search.start(executor);
+            
+            BlockPos expected = world.bruteForce();
+            assertEquals(expected, search.resultFuture.get());
+            if (expected != null) {
+                foundNum++;
+            }
+            else {
+                notFoundNum++;
+            }
+        }
+        assertTrue(foundNum > 0);
+        assertTrue(notFoundNum > 0);
+    }
+    
+    @Test
+    public void testNoChunk() throws ExecutionException, InterruptedException {
+        ParallelFrameSearch<SyntheticChunk, BlockPos> search = new ParallelFrameSearch<>(
+            new ArrayList<>(), new SyntheticChunkBlocks(), minSectionY, 0, 256,
+            (framePos, temp) -> framePos.immutable()
+        );
+        search.start(executor);
+        assertNull(search.resultFuture.get());
+    }
+    
+    @Test
+    public void testMatcherException() throws InterruptedException {
+        World world = new World(new Random(3), 2, 0.2, 0.01);
+        RuntimeException thrown = new RuntimeException("test");
+        ParallelFrameSearch<SyntheticChunk, BlockPos> search = new ParallelFrameSearch<>(
+            world.chunks, new SyntheticChunkBlocks(), minSectionY,
+            world.yRangeStart, world.yRangeEnd,
+            (framePos, temp) -> {
+                throw thrown;
+            }
+        );
+        search.start(executor);
+        
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> search.resultFuture.get());
+        assertSame(thrown, exception.getCause());
+    }
+}
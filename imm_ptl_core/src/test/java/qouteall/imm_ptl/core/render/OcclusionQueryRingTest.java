@@ -0,0 +1,263 @@
+package qouteall.imm_ptl.core.render;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the ring with a fake backend that simulates a GPU running behind the CPU.
+ * The queries finish in the order that they end, some frames after they end.
+ */
+public class OcclusionQueryRingTest {
+    
+    private static class FakeQuery {
+        public boolean hasEnded = false;
+        public boolean samplesPassed = false;
+        public int finishTime = 0;
+    }
+    
+    private static class FakeBackend implements OcclusionQueryBackend {
+        public final Int2ObjectOpenHashMap<FakeQuery> queries = new Int2ObjectOpenHashMap<>();
+        public int nextQuery = 1;
+        public int createdNum = 0;
+        
+        // the simulated time, in frames
+        public int time = 0;
+        public int latency = 2;
+        private int lastFinishTime = 0;
+        
+        public int blockingGetNum = 0;
+        
+        public int lastEndedQuery = 0;
+        
+        // set by the rendering inside a query
+        public boolean isRenderingVisible = false;
+        
+        @Nullable
+        private FakeQuery activeQuery = null;
+        
+        @Override
+        public int createQuery() {
+            createdNum++;
+            int query = nextQuery++;
+            queries.put(query, new FakeQuery());
+            return query;
+        }
+        
+        @Override
+        public void deleteQuery(int query) {
+            assertNotNull(queries.remove(query), "deleting an unknown query");
+        }
+        
+        @Override
+        public void beginQuery(int query) {
+            assertNull(activeQuery, "nested queries");
+            FakeQuery q = getQuery(query);
+            q.hasEnded = false;
+            q.samplesPassed = false;
+            activeQuery = q;
+        }
+        
+        @Override
+        public void endQuery(int query) {
+            FakeQuery q = getQuery(query);
+            assertSame(activeQuery, q, "ending a query that is not active");
+            q.hasEnded = true;
+            // the GPU finishes the commands in order
+            q.finishTime = Math.max(lastFinishTime, time + latency);
+            lastFinishTime = q.finishTime;
+            lastEndedQuery = query;
+            activeQuery = null;
+        }
+        
+        public void onRendering() {
+            if (activeQuery != null && isRenderingVisible) {
+                activeQuery.samplesPassed = true;
+            }
+        }
+        
+        @Override
+        public boolean isResultAvailable(int query) {
+            FakeQuery q = getQuery(query);
+            assertTrue(q.hasEnded, "polling a query that has not ended");
+            return q.finishTime <= time;
+        }
+        
+        @Override
+        public boolean getResult(int query) {
+            FakeQuery q = getQuery(query);
+            assertTrue(q.hasEnded, "getting the result of a query that has not ended");
+            if (q.finishTime > time) {
+                // waits for the GPU
+                blockingGetNum++;
+            }
+            return q.samplesPassed;
+        }
+        
+        private FakeQuery getQuery(int query) {
+            FakeQuery q = queries.get(query);
+            assertNotNull(q, "unknown query " + query);
+            return q;
+        }
+    }
+    
+    private static void issue(OcclusionQueryRing ring, FakeBackend backend, int frame, boolean visible) {
+        backend.isRenderingVisible = visible;
+        ring.issue(frame, backend::onRendering);
+    }
+    
+    /**
+     * With a random GPU latency and random visibility, the collected result is the visibility
+     * of the newest frame whose query has finished, and collecting never blocks.
+     */
+    @Test
+    public void testCollectNewestFinishedResult() {
+        Random random = new Random(1);
+        FakeBackend backend = new FakeBackend();
+        OcclusionQueryPool pool = new OcclusionQueryPool(backend);
+        OcclusionQueryRing ring = new OcclusionQueryRing(pool);
+        
+        List<Boolean> visibilities = new ArrayList<>();
+        // the finish time of the query issued in each frame
+        List<Integer> finishTimes = new ArrayList<>();
+        int resultNum = 0;
+        
+        for (int frame = 0; frame < 5000; frame++) {
+            backend.time = frame;
+            backend.latency = random.nextInt(8) == 0 ? 1 + random.nextInt(10) : 1 + random.nextInt(3);
+            
+            ring.collect();
+            
+            // the newest frame that is still in the ring and whose query has finished
+            int expectedFrame = -1;
+            for (int f = frame - 1; f >= Math.max(0, frame - OcclusionQueryRing.capacity); f--) {
+                if (finishTimes.get(f) <= frame) {
+                    expectedFrame = f;
+                    break;
+                }
+            }
+            if (expectedFrame != -1) {
+                assertTrue(ring.hasResult());
+                assertEquals(frame - expectedFrame, ring.getResultAge(frame), "at frame " + frame);
+                assertEquals(visibilities.get(expectedFrame), ring.getResult());
+                resultNum++;
+            }
+            
+            boolean visible = random.nextBoolean();
+            issue(ring, backend, frame, visible);
+            visibilities.add(visible);
+            finishTimes.add(backend.queries.get(backend.lastEndedQuery).finishTime);
+            
+            assertTrue(ring.getPendingNum() <= OcclusionQueryRing.capacity);
+        }
+        
+        assertEquals(0, backend.blockingGetNum);
+        // most frames have a recent result
+        assertTrue(resultNum > 3000, "got " + resultNum + " results");
+        // the query objects are reused
+        assertTrue(backend.createdNum <= OcclusionQueryRing.capacity, "created " + backend.createdNum);
+    }
+    
+    @Test
+    public void testFullRingDiscardsOldest() {
+        FakeBackend backend = new FakeBackend();
+        OcclusionQueryPool pool = new OcclusionQueryPool(backend);
+        OcclusionQueryRing ring = new OcclusionQueryRing(pool);
+        // the GPU does not finish anything
+        backend.latency = 1000000;
+        
+        for (int frame = 0; frame < 100; frame++) {
+            backend.time = frame;
+            ring.collect();
+            issue(ring, backend, frame, true);
+        }
+        
+        assertFalse(ring.hasResult());
+        assertEquals(OcclusionQueryRing.capacity, ring.getPendingNum());
+        // the discarded query object is reused by the new query
+        assertEquals(OcclusionQueryRing.capacity, backend.createdNum);
+        assertEquals(0, backend.blockingGetNum);
+    }
+    
+    /**
+     * Issuing again in the same frame reuses the query and replaces the old result.
+     */
+    @Test
+    public void testReissueInSameFrame() {
+        FakeBackend backend = new FakeBackend();
+        OcclusionQueryPool pool = new OcclusionQueryPool(backend);
+        OcclusionQueryRing ring = new OcclusionQueryRing(pool);
+        backend.latency = 1;
+        
+        backend.time = 0;
+        issue(ring, backend, 0, true);
+        issue(ring, backend, 0, false);
+        assertEquals(1, ring.getPendingNum());
+        assertEquals(1, backend.createdNum);
+        
+        backend.time = 1;
+        ring.collect();
+        assertTrue(ring.hasResult());
+        assertFalse(ring.getResult());
+        assertEquals(1, ring.getResultAge(1));
+        assertEquals(0, ring.getPendingNum());
+    }
+    
+    @Test
+    public void testFetchNewest() {
+        FakeBackend backend = new FakeBackend();
+        OcclusionQueryPool pool = new OcclusionQueryPool(backend);
+        OcclusionQueryRing ring = new OcclusionQueryRing(pool);
+        backend.latency = 5;
+        
+        for (int frame = 0; frame < 3; frame++) {
+            backend.time = frame;
+            ring.collect();
+            issue(ring, backend, frame, frame != 2);
+        }
+        assertFalse(ring.hasResult());
+        assertEquals(3, ring.getPendingNum());
+        
+        // blocks for the query of this frame
+        assertFalse(ring.fetchNewest());
+        assertEquals(1, backend.blockingGetNum);
+        assertEquals(0, ring.getResultAge(2));
+        assertFalse(ring.hasPendingQuery());
+        assertEquals(3, pool.getFreeNum());
+    }
+    
+    @Test
+    public void testIdleAndDispose() {
+        FakeBackend backend = new FakeBackend();
+        OcclusionQueryPool pool = new OcclusionQueryPool(backend);
+        OcclusionQueryRing ring = new OcclusionQueryRing(pool);
+        assertTrue(ring.isIdle(0, 10));
+        
+        for (int frame = 0; frame < 3; frame++) {
+            backend.time = frame;
+            ring.collect();
+            issue(ring, backend, frame, true);
+        }
+        assertFalse(ring.isIdle(12, 10));
+        assertTrue(ring.isIdle(13, 10));
+        
+        ring.dispose();
+        assertFalse(ring.hasPendingQuery());
+        assertFalse(ring.hasResult());
+        assertTrue(ring.isIdle(3, 10));
+        // every query object is back to the pool
+        assertEquals(backend.createdNum, pool.getFreeNum());
+        
+        // the released query objects are reused by another ring
+        OcclusionQueryRing other = new OcclusionQueryRing(pool);
+        int createdNum = backend.createdNum;
+        issue(other, backend, 3, true);
+        assertEquals(createdNum, backend.createdNum);
+    }
+}
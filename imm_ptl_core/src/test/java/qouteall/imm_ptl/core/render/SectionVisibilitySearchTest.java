@@ -0,0 +1,184 @@
+package qouteall.imm_ptl.core.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SectionVisibilitySearchTest {
+    
+    private static final int radius = 8;
+    private static final int minSectionY = -4;
+    private static final int endSectionY = 20;
+    
+    /**
+     * A cone frustum from the center of the camera section,
+     * and a random set of sections that are not built yet.
+     */
+    private static class SyntheticView implements SectionVisibilitySearch.SectionSource<Long> {
+        public final int centerX;
+        public final int centerY;
+        public final int centerZ;
+        public final boolean[] missing;
+        public double lookX;
+        public double lookY;
+        public double lookZ;
+        public double cosHalfAngle = Math.cos(Math.toRadians(40));
+        
+        public SyntheticView(int centerX, int centerY, int centerZ, Random random, double missingRate) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            int side = radius * 2 + 1;
+            missing = new boolean[side * side * (endSectionY - minSectionY)];
+            for (int i = 0; i < missing.length; i++) {
+                missing[i] = random.nextDouble() < missingRate;
+            }
+        }
+        
+        public void setLook(double yaw, double pitch) {
+            lookX = Math.cos(pitch) * Math.sin(yaw);
+            lookY = Math.sin(pitch);
+            lookZ = Math.cos(pitch) * Math.cos(yaw);
+        }
+        
+        // the section object is the key of the position
+        @Override
+        public Long fetch(int cx, int cy, int cz) {
+            int side = radius * 2 + 1;
+            int index = ((cx - centerX + radius) * side + (cz - centerZ + radius)) *
+                (endSectionY - minSectionY) + (cy - minSectionY);
+            return missing[index] ? null : key(cx, cy, cz);
+        }
+        
+        public boolean test(int cx, int cy, int cz) {
+            Long section = fetch(cx, cy, cz);
+            return section != null && isVisible(section, cx, cy, cz);
+        }
+        
+        @Override
+        public boolean isVisible(Long section, int cx, int cy, int cz) {
+            // visible if any corner of the section is in the cone
+            for (int corner = 0; corner < 8; corner++) {
+                double dx = (cx - centerX) * 16 + ((corner & 1) != 0 ? 16 : 0) - 8;
+                double dy = (cy - centerY) * 16 + ((corner & 2) != 0 ? 16 : 0) - 8;
+                double dz = (cz - centerZ) * 16 + ((corner & 4) != 0 ? 16 : 0) - 8;
+                double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                if ((dx * lookX + dy * lookY + dz * lookZ) >= cosHalfAngle * length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    private static Set<Long> getVisibleSet(SectionVisibilitySearch<Long> search) {
+        Set<Long> result = new HashSet<>();
+        for (int i = 0; i < search.getVisibleNum(); i++) {
+            long key = (((long) search.getVisibleX(i)) << 40) ^
+                (((long) search.getVisibleY(i)) << 20) ^ (search.getVisibleZ(i) & 0xFFFFF);
+            assertTrue(result.add(key), "duplicated section");
+        }
+        return result;
+    }
+    
+    /**
+     * The reference search, breadth-first from the center with a hash set.
+     */
+    private static Set<Long> bruteForce(SyntheticView view) {
+        Set<Long> visited = new HashSet<>();
+        Set<Long> result = new HashSet<>();
+        java.util.ArrayDeque<int[]> queue = new java.util.ArrayDeque<>();
+        queue.add(new int[]{view.centerX, view.centerY, view.centerZ});
+        visited.add(key(view.centerX, view.centerY, view.centerZ));
+        boolean isCenter = true;
+        while (!queue.isEmpty()) {
+            int[] pos = queue.poll();
+            if (!isCenter && !view.test(pos[0], pos[1], pos[2])) {
+                continue;
+            }
+            isCenter = false;
+            result.add(key(pos[0], pos[1], pos[2]));
+            int[][] neighbors = {
+                {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}
+            };
+            for (int[] d : neighbors) {
+                int x = pos[0] + d[0];
+                int y = pos[1] + d[1];
+                int z = pos[2] + d[2];
+                if (Math.abs(x - view.centerX) > radius || Math.abs(z - view.centerZ) > radius ||
+                    Math.abs(y - view.centerY) > radius || y < minSectionY || y >= endSectionY
+                ) {
+                    continue;
+                }
+                if (visited.add(key(x, y, z))) {
+                    queue.add(new int[]{x, y, z});
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static long key(int x, int y, int z) {
+        return (((long) x) << 40) ^ (((long) y) << 20) ^ (z & 0xFFFFF);
+    }
+    
+    private static void search(SectionVisibilitySearch<Long> search, SyntheticView view) {
+        search.searchFromCenter(
+            view.centerX, view.centerY, view.centerZ, radius, minSectionY, endSectionY, view
+        );
+    }
+    
+    @Test
+    public void testSearchMatchesBruteForce() {
+        Random random = new Random(1);
+        SectionVisibilitySearch<Long> search = new SectionVisibilitySearch<>();
+        for (int i = 0; i < 50; i++) {
+            SyntheticView view = new SyntheticView(
+                random.nextInt(100) - 50, random.nextInt(endSectionY - minSectionY) + minSectionY,
+                random.nextInt(100) - 50, random, random.nextDouble() * 0.4
+            );
+            view.setLook(random.nextDouble() * Math.PI * 2, random.nextDouble() * Math.PI - Math.PI / 2);
+            
+            search(search, view);
+            assertEquals(bruteForce(view), getVisibleSet(search));
+            
+            // the fetched sections are kept in the same order, except the center if it's missing
+            List<Long> expectedSections = new ArrayList<>();
+            for (int j = 0; j < search.getVisibleNum(); j++) {
+                Long section = view.fetch(search.getVisibleX(j), search.getVisibleY(j), search.getVisibleZ(j));
+                if (section != null) {
+                    expectedSections.add(section);
+                }
+            }
+            assertEquals(expectedSections, search.getVisibleSections());
+        }
+    }
+    
+    @Test
+    public void testKeepsDistanceOrder() {
+        Random random = new Random(3);
+        SyntheticView view = new SyntheticView(0, 4, 0, random, 0);
+        SectionVisibilitySearch<Long> search = new SectionVisibilitySearch<>();
+        double yaw = 0;
+        
+        for (int frame = 0; frame < 30; frame++) {
+            yaw += 0.1;
+            view.setLook(yaw, 0);
+            search(search, view);
+            
+            int lastDistance = -1;
+            for (int i = 0; i < search.getVisibleNum(); i++) {
+                int distance = Math.abs(search.getVisibleX(i)) +
+                    Math.abs(search.getVisibleY(i) - 4) + Math.abs(search.getVisibleZ(i));
+                assertTrue(distance >= lastDistance);
+                lastDistance = distance;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package qouteall.q_misc_util.my_util;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thousands of entities look for the portals near them, like in one server tick.
+ * The portals are scattered in a square area, a few of them are large.
+ * The grid is compared with testing every portal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoxGridIndexBenchmark {
+    
+    public static final double areaSize = 4096;
+    
+    @Param({"1000", "5000"})
+    public int portalNum;
+    
+    @Param({"5000"})
+    public int entityNum;
+    
+    private static class FakePortal {
+        public final AABB box;
+        
+        public FakePortal(AABB box) {
+            this.box = box;
+        }
+    }
+    
+    private FakePortal[] portals;
+    private Vec3[] entityPositions;
+    private BoxGridIndex<FakePortal> index;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        
+        portals = new FakePortal[portalNum];
+        for (int i = 0; i < portalNum; i++) {
+            double x = random.nextDouble() * areaSize;
+            double y = random.nextDouble() * 256;
+            double z = random.nextDouble() * areaSize;
+            double width = i % 500 == 0 ? 2000 : 1 + random.nextDouble() * 8;
+            double height = 1 + random.nextDouble() * 8;
+            AABB box = random.nextBoolean() ?
+                new AABB(x, y, z, x + width, y + height, z + 0.1) :
+                new AABB(x, y, z, x + 0.1, y + height, z + width);
+            portals[i] = new FakePortal(box);
+        }
+        
+        entityPositions = new Vec3[entityNum];
+        for (int i = 0; i < entityNum; i++) {
+            entityPositions[i] = new Vec3(
+                random.nextDouble() * areaSize, random.nextDouble() * 256, random.nextDouble() * areaSize
+            );
+        }
+        
+        index = new BoxGridIndex<>(p -> p.box);
+        for (FakePortal portal : portals) {
+            index.add(portal);
+        }
+    }
+    
+    @Benchmark
+    public int gridQuery() {
+        int[] found = {0};
+        for (Vec3 pos : entityPositions) {
+            index.foreachNear(pos, 16, portal -> found[0]++);
+        }
+        return found[0];
+    }
+    
+    @Benchmark
+    public int linearScan() {
+        int found = 0;
+        for (Vec3 pos : entityPositions) {
+            AABB range = new AABB(pos, pos).inflate(16);
+            for (FakePortal portal : portals) {
+                if (portal.box.intersects(range)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+    
+    // the per tick refresh of the portals that don't move
+    @Benchmark
+    public int updateUnmoved() {
+        for (FakePortal portal : portals) {
+            index.update(portal);
+        }
+        return index.size();
+    }
+}
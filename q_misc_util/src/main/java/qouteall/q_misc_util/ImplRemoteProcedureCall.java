@@ -3,11 +3,7 @@ package qouteall.q_misc_util;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
-import com.mojang.serialization.Codec;
-import com.mojang.serialization.JsonOps;
 import io.netty.buffer.Unpooled;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
@@ -35,11 +31,16 @@ import qouteall.q_misc_util.forge.networking.Message;
 import qouteall.q_misc_util.forge.networking.Remote_CtS;
 import qouteall.q_misc_util.forge.networking.Remote_StC;
 
-import java.lang.reflect.InvocationTargetException;
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
@@ -48,12 +49,25 @@ import java.util.function.Function;
 public class ImplRemoteProcedureCall {
     public static final Gson gson;
     
-    private static final ConcurrentHashMap<String, Method> methodCache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, MethodInfo> methodCache = new ConcurrentHashMap<>();
+    
+    // the methods that cannot be resolved on the sending side, like the client-only ones on a dedicated server
+    private static final Set<String> unresolvableMethods = ConcurrentHashMap.newKeySet();
     
     private static final ImmutableMap<Class, BiConsumer<FriendlyByteBuf, Object>> serializerMap;
     private static final ImmutableMap<Type, Function<FriendlyByteBuf, Object>> deserializerMap;
     
-    private static final JsonParser jsonParser = new JsonParser();
+    // the resolved serializer of each argument class, including the json fallback.
+    // only used when the method cannot be resolved on the sending side
+    private static final ConcurrentHashMap<Class<?>, BiConsumer<FriendlyByteBuf, Object>> serializerCache =
+        new ConcurrentHashMap<>();
+    
+    // numbers are tagged with their type so that the receiver can convert them to the parameter type
+    // even if the sender can only see the argument's class
+    private static final byte NUMBER_INT = 0;
+    private static final byte NUMBER_LONG = 1;
+    private static final byte NUMBER_FLOAT = 2;
+    private static final byte NUMBER_DOUBLE = 3;
     
     static {
         GsonBuilder gsonBuilder = new GsonBuilder();
@@ -70,12 +84,38 @@ public class ImplRemoteProcedureCall {
                 buf.writeDouble(vec.z);
             })
             .put(UUID.class, (buf, o) -> buf.writeUUID(((UUID) o)))
-            .put(Block.class, (buf, o) -> serializeByCodec(buf, Registry.BLOCK.byNameCodec(), o))
-            .put(Item.class, (buf, o) -> serializeByCodec(buf, Registry.ITEM.byNameCodec(), o))
-            .put(BlockState.class, (buf, o) -> serializeByCodec(buf, BlockState.CODEC, o))
-            .put(ItemStack.class, (buf, o) -> serializeByCodec(buf, ItemStack.CODEC, o))
+            .put(Block.class, (buf, o) -> buf.writeVarInt(Registry.BLOCK.getId(((Block) o))))
+            .put(Item.class, (buf, o) -> buf.writeVarInt(Registry.ITEM.getId(((Item) o))))
+            .put(BlockState.class, (buf, o) -> buf.writeVarInt(Block.getId(((BlockState) o))))
+            .put(ItemStack.class, (buf, o) -> buf.writeItem(((ItemStack) o)))
             .put(CompoundTag.class, (buf, o) -> buf.writeNbt(((CompoundTag) o)))
             .put(Component.class, (buf, o) -> buf.writeComponent(((Component) o)))
+            .put(String.class, (buf, o) -> buf.writeUtf(((String) o)))
+            .put(Boolean.class, (buf, o) -> buf.writeBoolean(((Boolean) o)))
+            .put(Byte.class, (buf, o) -> {
+                buf.writeByte(NUMBER_INT);
+                buf.writeVarInt(((Number) o).intValue());
+            })
+            .put(Short.class, (buf, o) -> {
+                buf.writeByte(NUMBER_INT);
+                buf.writeVarInt(((Number) o).intValue());
+            })
+            .put(Integer.class, (buf, o) -> {
+                buf.writeByte(NUMBER_INT);
+                buf.writeVarInt(((Number) o).intValue());
+            })
+            .put(Long.class, (buf, o) -> {
+                buf.writeByte(NUMBER_LONG);
+                buf.writeVarLong(((Number) o).longValue());
+            })
+            .put(Float.class, (buf, o) -> {
+                buf.writeByte(NUMBER_FLOAT);
+                buf.writeFloat(((Number) o).floatValue());
+            })
+            .put(Double.class, (buf, o) -> {
+                buf.writeByte(NUMBER_DOUBLE);
+                buf.writeDouble(((Number) o).doubleValue());
+            })
             .build();
         
         deserializerMap = ImmutableMap.<Type, Function<FriendlyByteBuf, Object>>builder()
@@ -97,22 +137,104 @@ public class ImplRemoteProcedureCall {
                 new Vec3(buf.readDouble(), buf.readDouble(), buf.readDouble())
             )
             .put(UUID.class, buf -> buf.readUUID())
-            .put(Block.class, buf -> deserializeByCodec(buf, Registry.BLOCK.byNameCodec()))
-            .put(Item.class, buf -> deserializeByCodec(buf, Registry.ITEM.byNameCodec()))
-            .put(BlockState.class, buf -> deserializeByCodec(buf, BlockState.CODEC))
-            .put(ItemStack.class, buf -> deserializeByCodec(buf, ItemStack.CODEC))
+            .put(Block.class, buf -> Registry.BLOCK.byId(buf.readVarInt()))
+            .put(Item.class, buf -> Registry.ITEM.byId(buf.readVarInt()))
+            .put(BlockState.class, buf -> Block.stateById(buf.readVarInt()))
+            .put(ItemStack.class, buf -> buf.readItem())
             .put(CompoundTag.class, buf -> buf.readNbt())
             .put(Component.class, buf -> buf.readComponent())
+            .put(String.class, buf -> readStringNonClientOnly(buf))
+            .put(boolean.class, buf -> buf.readBoolean())
+            .put(Boolean.class, buf -> buf.readBoolean())
+            .put(byte.class, buf -> readNumber(buf).byteValue())
+            .put(Byte.class, buf -> readNumber(buf).byteValue())
+            .put(short.class, buf -> readNumber(buf).shortValue())
+            .put(Short.class, buf -> readNumber(buf).shortValue())
+            .put(int.class, buf -> readNumber(buf).intValue())
+            .put(Integer.class, buf -> readNumber(buf).intValue())
+            .put(long.class, buf -> readNumber(buf).longValue())
+            .put(Long.class, buf -> readNumber(buf).longValue())
+            .put(float.class, buf -> readNumber(buf).floatValue())
+            .put(Float.class, buf -> readNumber(buf).floatValue())
+            .put(double.class, buf -> readNumber(buf).doubleValue())
+            .put(Double.class, buf -> readNumber(buf).doubleValue())
             .build();
     }
     
-    private static Object deserializeByCodec(FriendlyByteBuf buf, Codec codec) {
-        String jsonString = readStringNonClientOnly(buf);
-        JsonElement jsonElement = jsonParser.parse(jsonString);
+    /**
+     * The information of a remote callable method that is resolved once.
+     * Both the sender and the receiver choose the codecs from the declared parameter types,
+     * so they always agree on the format.
+     */
+    private static class MethodInfo {
+        public final MethodHandle invoker;
+        // the codecs of each parameter, null for the player parameter
+        public final BiConsumer<FriendlyByteBuf, Object>[] serializers;
+        public final Function<FriendlyByteBuf, Object>[] deserializers;
+        // on server side the first parameter is the player, which is not sent
+        public final int firstSentParameter;
+        
+        public MethodInfo(Method method, boolean isServerSide) {
+            Type[] genericParameterTypes = method.getGenericParameterTypes();
+            
+            firstSentParameter = isServerSide ? 1 : 0;
+            serializers = new BiConsumer[genericParameterTypes.length];
+            deserializers = new Function[genericParameterTypes.length];
+            for (int i = firstSentParameter; i < genericParameterTypes.length; i++) {
+                serializers[i] = getSerializer(genericParameterTypes[i]);
+                deserializers[i] = getDeserializer(genericParameterTypes[i]);
+            }
+            
+            invoker = unreflect(method)
+                .asSpreader(Object[].class, genericParameterTypes.length)
+                .asType(MethodType.methodType(void.class, Object[].class));
+        }
         
-        return codec.parse(JsonOps.INSTANCE, jsonElement).getOrThrow(
-            false, e -> {throw new RuntimeException(e.toString());}
-        );
+        public void writeArguments(FriendlyByteBuf buf, Object[] arguments) {
+            int sentParameterNum = serializers.length - firstSentParameter;
+            if (arguments.length != sentParameterNum) {
+                throw new IllegalArgumentException(
+                    "Expected " + sentParameterNum + " arguments but got " + arguments.length
+                );
+            }
+            
+            for (int i = 0; i < arguments.length; i++) {
+                serializers[firstSentParameter + i].accept(buf, arguments[i]);
+            }
+        }
+        
+        public Runnable readArgumentsAndGetHandler(FriendlyByteBuf buf, Object[] arguments) {
+            for (int i = 0; i < deserializers.length; i++) {
+                if (deserializers[i] != null) {
+                    arguments[i] = deserializers[i].apply(buf);
+                }
+            }
+            
+            return () -> {
+                try {
+                    invoker.invokeExact(arguments);
+                }
+                catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            };
+        }
+    }
+    
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        }
+        catch (IllegalAccessException e) {
+            // the declaring class is not public
+            try {
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method);
+            }
+            catch (IllegalAccessException | RuntimeException e1) {
+                throw new RuntimeException("Cannot access remote callable " + method, e1);
+            }
+        }
     }
     
     // readString() is client only
@@ -120,45 +242,112 @@ public class ImplRemoteProcedureCall {
         return buf.readUtf(32767);
     }
     
-    private static Object deserialize(FriendlyByteBuf buf, Type type) {
+    private static Number readNumber(FriendlyByteBuf buf) {
+        byte tag = buf.readByte();
+        switch (tag) {
+            case NUMBER_INT:
+                return buf.readVarInt();
+            case NUMBER_LONG:
+                return buf.readVarLong();
+            case NUMBER_FLOAT:
+                return buf.readFloat();
+            case NUMBER_DOUBLE:
+                return buf.readDouble();
+            default:
+                throw new RuntimeException("Invalid number tag " + tag);
+        }
+    }
+    
+    private static Function<FriendlyByteBuf, Object> getDeserializer(Type type) {
         Function<FriendlyByteBuf, Object> deserializer = deserializerMap.get(type);
-        if (deserializer == null) {
+        if (deserializer != null) {
+            return deserializer;
+        }
+        
+        if (type instanceof Class && ((Class<?>) type).isEnum()) {
+            Class enumClass = (Class) type;
+            return buf -> buf.readEnum(enumClass);
+        }
+        
+        return buf -> {
             String json = readStringNonClientOnly(buf);
             return gson.fromJson(json, type);
+        };
+    }
+    
+    /**
+     * The serializer that matches {@link #getDeserializer(Type)} of the same parameter type.
+     */
+    private static BiConsumer<FriendlyByteBuf, Object> getSerializer(Type parameterType) {
+        Class<?> rawClass = getRawClass(parameterType);
+        
+        if (deserializerMap.containsKey(parameterType)) {
+            BiConsumer<FriendlyByteBuf, Object> serializer = serializerMap.get(boxPrimitive(rawClass));
+            Validate.notNull(serializer, "Missing serializer of " + parameterType);
+            return serializer;
         }
         
-        return deserializer.apply(buf);
+        if (rawClass != null && rawClass.isEnum()) {
+            return (buf, o) -> buf.writeEnum(((Enum<?>) o));
+        }
+        
+        return (buf, o) -> buf.writeUtf(gson.toJson(o, parameterType));
     }
     
-    private static void serialize(FriendlyByteBuf buf, Object object) {
-        BiConsumer<FriendlyByteBuf, Object> serializer = serializerMap.get(object.getClass());
+    @Nullable
+    private static Class<?> getRawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return null;
+    }
+    
+    @Nullable
+    private static Class<?> boxPrimitive(@Nullable Class<?> c) {
+        if (c == null || !c.isPrimitive()) {
+            return c;
+        }
+        return MethodType.methodType(c).wrap().returnType();
+    }
+    
+    /**
+     * Chooses the serializer by the argument's class.
+     * It's only used when the method cannot be resolved on the sending side.
+     * It agrees with the receiver for the types in the serializer map and the enums.
+     */
+    private static BiConsumer<FriendlyByteBuf, Object> getSerializerByArgumentClass(Class<?> argumentClass) {
+        BiConsumer<FriendlyByteBuf, Object> serializer = serializerCache.get(argumentClass);
+        if (serializer != null) {
+            return serializer;
+        }
+        
+        serializer = serializerMap.get(argumentClass);
         
         if (serializer == null) {
-            serializer = serializerMap.entrySet().stream().filter(
-                e -> e.getKey().isAssignableFrom(object.getClass())
-            ).findFirst().map(Map.Entry::getValue).orElse(null);
+            for (Map.Entry<Class, BiConsumer<FriendlyByteBuf, Object>> e : serializerMap.entrySet()) {
+                if (e.getKey().isAssignableFrom(argumentClass)) {
+                    serializer = e.getValue();
+                    break;
+                }
+            }
+        }
+        
+        // an enum constant with a body is a subclass of the enum class
+        if (serializer == null && Enum.class.isAssignableFrom(argumentClass)) {
+            serializer = (buf, o) -> buf.writeEnum(((Enum<?>) o));
         }
         
         if (serializer == null) {
-            String json = gson.toJson(object);
-            buf.writeUtf(json);
-            return;
+            serializer = (buf, o) -> buf.writeUtf(gson.toJson(o));
         }
         
-        serializer.accept(buf, object);
+        serializerCache.put(argumentClass, serializer);
+        return serializer;
     }
     
-    private static void serializeByCodec(FriendlyByteBuf buf, Codec codec, Object object) {
-        JsonElement result = (JsonElement) codec.encodeStart(JsonOps.INSTANCE, object).getOrThrow(
-            false, e -> {
-                throw new RuntimeException(e.toString());
-            }
-        );
-        
-        String jsonString = gson.toJson(result);
-        buf.writeUtf(jsonString);
-    }
-
     @OnlyIn(Dist.CLIENT)
     public static Packet createC2SPacket(
         String methodPath,
@@ -183,67 +372,70 @@ public class ImplRemoteProcedureCall {
     public static Runnable clientReadPacketAndGetHandler(FriendlyByteBuf buf) {
         String methodPath = readStringNonClientOnly(buf);
         
-        Method method = getMethodByPath(methodPath);
+        MethodInfo methodInfo = getMethodInfoByPath(methodPath, false);
         
-        Type[] genericParameterTypes = method.getGenericParameterTypes();
-        
-        Object[] arguments = new Object[genericParameterTypes.length];
-        
-        for (int i = 0; i < genericParameterTypes.length; i++) {
-            Type parameterType = genericParameterTypes[i];
-            Object obj = deserialize(buf, parameterType);
-            arguments[i] = obj;
-        }
+        Object[] arguments = new Object[methodInfo.deserializers.length];
         
-        return () -> {
-            try {
-                method.invoke(null, arguments);
-            }
-            catch (IllegalAccessException | InvocationTargetException e) {
-                throw new RuntimeException(e);
-            }
-        };
+        return methodInfo.readArgumentsAndGetHandler(buf, arguments);
     }
     
     public static Runnable serverReadPacketAndGetHandler(ServerPlayer player, FriendlyByteBuf buf) {
         String methodPath = readStringNonClientOnly(buf);
         
-        Method method = getMethodByPath(methodPath);
-        
-        Type[] genericParameterTypes = method.getGenericParameterTypes();
-        
-        Object[] arguments = new Object[genericParameterTypes.length];
-        arguments[0] = player;
+        MethodInfo methodInfo = getMethodInfoByPath(methodPath, true);
         
+        Object[] arguments = new Object[methodInfo.deserializers.length];
         //the first argument is the player
-        for (int i = 1; i < genericParameterTypes.length; i++) {
-            Type parameterType = genericParameterTypes[i];
-            Object obj = deserialize(buf, parameterType);
-            arguments[i] = obj;
-        }
+        arguments[0] = player;
         
-        return () -> {
-            try {
-                method.invoke(null, arguments);
-            }
-            catch (IllegalAccessException | InvocationTargetException e) {
-                throw new RuntimeException(e);
-            }
-        };
+        return methodInfo.readArgumentsAndGetHandler(buf, arguments);
     }
     
+    /**
+     * @param isServerSide whether the method is invoked on the server side
+     */
     public static void serializeStringWithArguments(
-            String methodPath, Object[] arguments, FriendlyByteBuf buf
+            String methodPath, boolean isServerSide, Object[] arguments, FriendlyByteBuf buf
     ) {
         buf.writeUtf(methodPath);
         
-        for (Object argument : arguments) {
-            serialize(buf, argument);
+        MethodInfo methodInfo = getMethodInfoForSending(methodPath, isServerSide);
+        if (methodInfo != null) {
+            methodInfo.writeArguments(buf, arguments);
+        }
+        else {
+            for (Object argument : arguments) {
+                getSerializerByArgumentClass(argument.getClass()).accept(buf, argument);
+            }
+        }
+    }
+    
+    @Nullable
+    private static MethodInfo getMethodInfoForSending(String methodPath, boolean isServerSide) {
+        MethodInfo result = methodCache.get(methodPath);
+        if (result != null) {
+            return result;
+        }
+        
+        if (unresolvableMethods.contains(methodPath)) {
+            return null;
+        }
+        
+        try {
+            return getMethodInfoByPath(methodPath, isServerSide);
+        }
+        catch (RuntimeException | LinkageError e) {
+            Helper.log(
+                "Cannot resolve remote callable " + methodPath +
+                    " on the sending side. Its arguments are serialized by their classes. " + e
+            );
+            unresolvableMethods.add(methodPath);
+            return null;
         }
     }
     
-    private static Method getMethodByPath(String methodPath) {
-        Method result = methodCache.get(methodPath);
+    private static MethodInfo getMethodInfoByPath(String methodPath, boolean isServerSide) {
+        MethodInfo result = methodCache.get(methodPath);
         if (result != null) {
             return result;
         }
@@ -252,8 +444,9 @@ public class ImplRemoteProcedureCall {
         Method method = findMethodByPath(methodPath);
         Validate.notNull(method);
         
-        methodCache.put(methodPath, method);
-        return method;
+        MethodInfo methodInfo = new MethodInfo(method, isServerSide);
+        methodCache.put(methodPath, methodInfo);
+        return methodInfo;
     }
     
     private static Method findMethodByPath(String methodPath) {
@@ -267,9 +460,11 @@ public class ImplRemoteProcedureCall {
             throw new RuntimeException("The class path must contain \"RemoteCallable\"");
         }
         
+        // the class is not initialized when it's resolved for sending
+        ClassLoader classLoader = ImplRemoteProcedureCall.class.getClassLoader();
         Class<?> aClass;
         try {
-            aClass = Class.forName(classPath);
+            aClass = Class.forName(classPath, false, classLoader);
         }
         catch (ClassNotFoundException e) {
             int dotIndex = classPath.lastIndexOf('.');
@@ -277,7 +472,7 @@ public class ImplRemoteProcedureCall {
                 String newClassPath =
                     classPath.substring(0, dotIndex) + "$" + classPath.substring(dotIndex + 1);
                 try {
-                    aClass = Class.forName(newClassPath);
+                    aClass = Class.forName(newClassPath, false, classLoader);
                 }
                 catch (ClassNotFoundException e1) {
                     throw new RuntimeException("Cannot find class " + classPath, e);
@@ -10,6 +10,9 @@ import net.minecraftforge.network.simple.SimpleChannel;
 public class Message {
     public static SimpleChannel INSTANCE;
 
+    // bump it when the format of the messages changes
+    public static final String PROTOCOL_VERSION = "1.1";
+
     // Every packet needs a unique ID (unique for this channel)
     private static int packetId = 0;
     private static int id() {
@@ -20,9 +23,9 @@ public class Message {
         // Make the channel. If needed you can do version checking here
         INSTANCE = NetworkRegistry.ChannelBuilder
                 .named(new ResourceLocation("iputil", "messages"))
-                .networkProtocolVersion(() -> "1.0")
-                .clientAcceptedVersions(s -> true)
-                .serverAcceptedVersions(s -> true)
+                .networkProtocolVersion(() -> PROTOCOL_VERSION)
+                .clientAcceptedVersions(Message::isAcceptedVersion)
+                .serverAcceptedVersions(Message::isAcceptedVersion)
                 .simpleChannel();
 
 
@@ -48,6 +51,13 @@ public class Message {
                 .add();
     }
 
+    // the other side should have the same version, or not have this mod
+    private static boolean isAcceptedVersion(String version) {
+        return PROTOCOL_VERSION.equals(version) ||
+                NetworkRegistry.ABSENT.equals(version) ||
+                NetworkRegistry.ACCEPTVANILLA.equals(version);
+    }
+
     public static <MSG> void sendToServer(MSG message) {
         INSTANCE.sendToServer(message);
     }
@@ -23,7 +23,7 @@ public class Remote_CtS {
     }
 
     public void toBytes(FriendlyByteBuf buf) {
-        ImplRemoteProcedureCall.serializeStringWithArguments(methodPath, arguments, buf);
+        ImplRemoteProcedureCall.serializeStringWithArguments(methodPath, true, arguments, buf);
     }
 
     public boolean handle(Supplier<NetworkEvent.Context> supplier) {
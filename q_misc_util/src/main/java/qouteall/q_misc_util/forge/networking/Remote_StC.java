@@ -24,7 +24,7 @@ public class Remote_StC { //TODO Actually register on the right logical side
     }
 
     public void toBytes(FriendlyByteBuf buf) {
-        ImplRemoteProcedureCall.serializeStringWithArguments(methodPath, arguments, buf);
+        ImplRemoteProcedureCall.serializeStringWithArguments(methodPath, false, arguments, buf);
     }
 
     public boolean handle(Supplier<NetworkEvent.Context> supplier) {
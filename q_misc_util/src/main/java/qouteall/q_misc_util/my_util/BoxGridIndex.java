@@ -0,0 +1,238 @@
+package qouteall.q_misc_util.my_util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A uniform grid on the horizontal plane over the bounding boxes of some objects.
+ * An object is put into every cell that its bounding box touches.
+ * Very large objects are not put into cells and are always tested by the queries.
+ * The stored cells are updated by {@link #update(Object)}. The queries test the current bounding box.
+ * The objects are hash map keys, so their equals and hashCode should not change while they are in the index,
+ * like entities which are compared by identity. It's not thread-safe.
+ */
+public class BoxGridIndex<T> {
+    
+    public static final int cellSizeLog2 = 6;
+    
+    // an object that covers more cells is treated as large object
+    public static final int maxCellsPerObject = 256;
+    
+    private static class Entry<T> {
+        public final T object;
+        public int minCellX;
+        public int minCellZ;
+        public int maxCellX;
+        public int maxCellZ;
+        public boolean isLarge;
+        public int lastQueryStamp;
+        
+        public Entry(T object) {
+            this.object = object;
+        }
+    }
+    
+    private final Function<T, AABB> boxGetter;
+    
+    private final Long2ObjectOpenHashMap<ArrayList<Entry<T>>> cells = new Long2ObjectOpenHashMap<>();
+    private final ArrayList<Entry<T>> largeEntries = new ArrayList<>();
+    private final HashMap<T, Entry<T>> entries = new HashMap<>();
+    
+    // avoids returning an object that is in multiple cells multiple times
+    private int queryStamp = 0;
+    
+    public BoxGridIndex(Function<T, AABB> boxGetter) {
+        this.boxGetter = boxGetter;
+    }
+    
+    public void add(T object) {
+        if (entries.containsKey(object)) {
+            update(object);
+            return;
+        }
+        
+        Entry<T> entry = new Entry<>(object);
+        entries.put(object, entry);
+        insert(entry);
+    }
+    
+    public void remove(T object) {
+        Entry<T> entry = entries.remove(object);
+        if (entry == null) {
+            return;
+        }
+        erase(entry);
+    }
+    
+    // should be called when the bounding box changes
+    // it's cheap if the bounding box stays in the same cells, as the queries test the current bounding box
+    public void update(T object) {
+        Entry<T> entry = entries.get(object);
+        if (entry == null) {
+            return;
+        }
+        AABB box = boxGetter.apply(object);
+        if (toCell(box.minX) == entry.minCellX && toCell(box.minZ) == entry.minCellZ &&
+            toCell(box.maxX) == entry.maxCellX && toCell(box.maxZ) == entry.maxCellZ
+        ) {
+            return;
+        }
+        erase(entry);
+        insert(entry);
+    }
+    
+    public boolean contains(T object) {
+        return entries.containsKey(object);
+    }
+    
+    public void rebuild(Collection<T> objects) {
+        clear();
+        for (T object : objects) {
+            add(object);
+        }
+    }
+    
+    public void clear() {
+        cells.clear();
+        largeEntries.clear();
+        entries.clear();
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * All objects in the index, in no particular order.
+     */
+    public void foreachObject(Consumer<T> func) {
+        for (T object : entries.keySet()) {
+            func.accept(object);
+        }
+    }
+    
+    /**
+     * The objects whose bounding box intersects with the box.
+     */
+    public void foreachIntersecting(AABB box, Consumer<T> func) {
+        int stamp = ++queryStamp;
+        
+        for (Entry<T> entry : largeEntries) {
+            testAndAccept(entry, box, stamp, func);
+        }
+        
+        if (cells.isEmpty()) {
+            return;
+        }
+        
+        int minCellX = toCell(box.minX);
+        int minCellZ = toCell(box.minZ);
+        int maxCellX = toCell(box.maxX);
+        int maxCellZ = toCell(box.maxZ);
+        
+        if ((long) (maxCellX - minCellX + 1) * (maxCellZ - minCellZ + 1) > cells.size()) {
+            // the query box is large, iterating the cells is faster
+            for (ArrayList<Entry<T>> cell : cells.values()) {
+                for (Entry<T> entry : cell) {
+                    testAndAccept(entry, box, stamp, func);
+                }
+            }
+            return;
+        }
+        
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cz = minCellZ; cz <= maxCellZ; cz++) {
+                ArrayList<Entry<T>> cell = cells.get(getCellKey(cx, cz));
+                if (cell != null) {
+                    for (Entry<T> entry : cell) {
+                        testAndAccept(entry, box, stamp, func);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * The objects whose bounding box is within the range of the point in each axis.
+     */
+    public void foreachNear(Vec3 pos, double range, Consumer<T> func) {
+        foreachIntersecting(new AABB(pos, pos).inflate(range), func);
+    }
+    
+    public List<T> getIntersecting(AABB box) {
+        ArrayList<T> result = new ArrayList<>();
+        foreachIntersecting(box, result::add);
+        return result;
+    }
+    
+    private void testAndAccept(Entry<T> entry, AABB box, int stamp, Consumer<T> func) {
+        if (entry.lastQueryStamp == stamp) {
+            return;
+        }
+        entry.lastQueryStamp = stamp;
+        if (boxGetter.apply(entry.object).intersects(box)) {
+            func.accept(entry.object);
+        }
+    }
+    
+    private void insert(Entry<T> entry) {
+        AABB box = boxGetter.apply(entry.object);
+        entry.minCellX = toCell(box.minX);
+        entry.minCellZ = toCell(box.minZ);
+        entry.maxCellX = toCell(box.maxX);
+        entry.maxCellZ = toCell(box.maxZ);
+        
+        long cellNum = (long) (entry.maxCellX - entry.minCellX + 1) *
+            (entry.maxCellZ - entry.minCellZ + 1);
+        entry.isLarge = cellNum > maxCellsPerObject;
+        
+        if (entry.isLarge) {
+            largeEntries.add(entry);
+            return;
+        }
+        
+        for (int cx = entry.minCellX; cx <= entry.maxCellX; cx++) {
+            for (int cz = entry.minCellZ; cz <= entry.maxCellZ; cz++) {
+                cells.computeIfAbsent(getCellKey(cx, cz), k -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+    
+    private void erase(Entry<T> entry) {
+        if (entry.isLarge) {
+            largeEntries.remove(entry);
+            return;
+        }
+        
+        for (int cx = entry.minCellX; cx <= entry.maxCellX; cx++) {
+            for (int cz = entry.minCellZ; cz <= entry.maxCellZ; cz++) {
+                long key = getCellKey(cx, cz);
+                ArrayList<Entry<T>> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(entry);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static int toCell(double coordinate) {
+        // clamping avoids overflow for huge coordinates
+        double clamped = Math.max(-1.0E9, Math.min(1.0E9, coordinate));
+        return ((int) Math.floor(clamped)) >> cellSizeLog2;
+    }
+    
+    private static long getCellKey(int cellX, int cellZ) {
+        return (((long) cellX) << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+}
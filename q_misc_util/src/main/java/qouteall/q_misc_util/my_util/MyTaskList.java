@@ -6,45 +6,189 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import qouteall.q_misc_util.Helper;
 
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.PriorityQueue;
 import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 //NOTE if the task returns true, it will be deleted
 //if the task returns false, it will be invoked again at next time
+/**
+ * Each {@link #processTasks()} is a tick.
+ * The tasks with higher priority run first.
+ * The background tasks (priority lower than {@link #PRIORITY_NORMAL}) only run while the time of the tick
+ * has not exceeded the background time budget. At least one background task runs each tick.
+ * The background tasks that don't run are kept in the front, so they run first in the next tick.
+ * A task that will idle for some ticks (see {@link MyTask#getIdleTicks()}) is put into a heap
+ * and is not invoked until it wakes up, so the idle delayed tasks cost nothing.
+ * The time source can be replaced, so it can be driven by a fake clock.
+ */
 public class MyTaskList {
     public interface MyTask {
         public boolean runAndGetIsFinished();
+        
+        /**
+         * @return the number of the following invocations that will surely return false without doing anything.
+         * The task list skips these invocations and calls {@link #skipIdleTicks(int)} instead.
+         */
+        public default int getIdleTicks() {
+            return 0;
+        }
+        
+        public default void skipIdleTicks(int ticks) {
+        }
+    }
+    
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_BACKGROUND = -1;
+    
+    private static class Entry {
+        public final MyTask task;
+        public final int priority;
+        public final long serialNumber;
+        public long wakeTick;
+        public int skippedTicks;
+        
+        public Entry(MyTask task, int priority, long serialNumber) {
+            this.task = task;
+            this.priority = priority;
+            this.serialNumber = serialNumber;
+        }
     }
     
-    private final ObjectList<MyTask> tasks = new ObjectArrayList<>();
-    private final ObjectList<MyTask> tasksToAdd = new ObjectArrayList<>();
+    // stable sorting keeps the order of the same priority
+    private static final Comparator<Entry> priorityComparator =
+        (a, b) -> Integer.compare(b.priority, a.priority);
+    
+    private static final Comparator<Entry> wakeComparator =
+        Comparator.<Entry>comparingLong(e -> e.wakeTick).thenComparingLong(e -> e.serialNumber);
+    
+    private final ObjectList<Entry> tasks = new ObjectArrayList<>();
+    private final ObjectList<Entry> tasksToAdd = new ObjectArrayList<>();
+    private final PriorityQueue<Entry> sleepingTasks = new PriorityQueue<>(wakeComparator);
+    private final ObjectList<Entry> nextTasks = new ObjectArrayList<>();
+    private final ObjectList<Entry> deferredTasks = new ObjectArrayList<>();
+    
+    private final LongSupplier nanoTimeSource;
+    private long backgroundTimeBudgetNanos = Helper.secondToNano(0.01);
+    private long currentTick = 0;
+    private long serialNumberCounter = 0;
+    private boolean needsSorting = false;
+    
+    public MyTaskList() {
+        this(System::nanoTime);
+    }
+    
+    public MyTaskList(LongSupplier nanoTimeSource) {
+        this.nanoTimeSource = nanoTimeSource;
+    }
     
     // this method could be invoked while a task is running
     public synchronized void addTask(MyTask task) {
-        tasksToAdd.add(task);
+        addTask(task, PRIORITY_NORMAL);
+    }
+    
+    public synchronized void addTask(MyTask task, int priority) {
+        tasksToAdd.add(new Entry(task, priority, serialNumberCounter++));
+    }
+    
+    public synchronized void setBackgroundTimeBudgetNanos(long nanos) {
+        backgroundTimeBudgetNanos = nanos;
+    }
+    
+    public synchronized long getCurrentTick() {
+        return currentTick;
+    }
+    
+    public synchronized int getTaskNum() {
+        return tasks.size() + tasksToAdd.size() + sleepingTasks.size();
+    }
+    
+    public synchronized int getSleepingTaskNum() {
+        return sleepingTasks.size();
     }
     
     public synchronized void processTasks() {
-        tasks.addAll(tasksToAdd);
-        tasksToAdd.clear();
+        currentTick++;
+        
+        while (!sleepingTasks.isEmpty() && sleepingTasks.peek().wakeTick <= currentTick) {
+            Entry entry = sleepingTasks.poll();
+            entry.task.skipIdleTicks(entry.skippedTicks);
+            tasks.add(entry);
+            needsSorting = true;
+        }
+        
+        if (!tasksToAdd.isEmpty()) {
+            tasks.addAll(tasksToAdd);
+            tasksToAdd.clear();
+            needsSorting = true;
+        }
+        
+        if (needsSorting) {
+            tasks.sort(priorityComparator);
+            needsSorting = false;
+        }
         
-        Helper.removeIf(tasks, task -> {
+        long startTime = nanoTimeSource.getAsLong();
+        boolean backgroundTaskRan = false;
+        
+        for (Entry entry : tasks) {
+            if (entry.priority < PRIORITY_NORMAL) {
+                if (backgroundTaskRan &&
+                    nanoTimeSource.getAsLong() - startTime > backgroundTimeBudgetNanos
+                ) {
+                    deferredTasks.add(entry);
+                    continue;
+                }
+                backgroundTaskRan = true;
+            }
+            
+            boolean finished;
             try {
-                return task.runAndGetIsFinished();
+                finished = entry.task.runAndGetIsFinished();
             }
             catch (Throwable e) {
-                Helper.err("Failed to process task " + task);
+                Helper.err("Failed to process task " + entry.task);
                 e.printStackTrace();
-                return true;
+                finished = true;
+            }
+            
+            if (finished) {
+                continue;
+            }
+            
+            int idleTicks = entry.task.getIdleTicks();
+            if (idleTicks > 0) {
+                entry.wakeTick = currentTick + idleTicks + 1;
+                entry.skippedTicks = idleTicks;
+                sleepingTasks.add(entry);
             }
-        });
+            else {
+                nextTasks.add(entry);
+            }
+        }
+        
+        tasks.clear();
+        if (!deferredTasks.isEmpty()) {
+            // the deferred ones go before the ones that ran in the same priority
+            tasks.addAll(deferredTasks);
+            deferredTasks.clear();
+            needsSorting = true;
+        }
+        tasks.addAll(nextTasks);
+        nextTasks.clear();
     }
     
     public synchronized void forceClearTasks() {
         tasks.clear();
         tasksToAdd.clear();
+        sleepingTasks.clear();
+        nextTasks.clear();
+        deferredTasks.clear();
     }
     
     public static MyTask oneShotTask(Runnable runnable) {
@@ -75,6 +219,21 @@ public class MyTaskList {
                 }
                 return b.runAndGetIsFinished();
             }
+            
+            @Override
+            public int getIdleTicks() {
+                return aFinished ? b.getIdleTicks() : a.getIdleTicks();
+            }
+            
+            @Override
+            public void skipIdleTicks(int ticks) {
+                if (aFinished) {
+                    b.skipIdleTicks(ticks);
+                }
+                else {
+                    a.skipIdleTicks(ticks);
+                }
+            }
         };
     }
     
@@ -92,6 +251,21 @@ public class MyTaskList {
                     return task.runAndGetIsFinished();
                 }
             }
+            
+            @Override
+            public int getIdleTicks() {
+                return counter > 0 ? counter : task.getIdleTicks();
+            }
+            
+            @Override
+            public void skipIdleTicks(int ticks) {
+                if (counter > 0) {
+                    counter -= ticks;
+                }
+                else {
+                    task.skipIdleTicks(ticks);
+                }
+            }
         };
     }
     
@@ -150,6 +324,16 @@ public class MyTaskList {
                 i = 0;
                 return task.runAndGetIsFinished();
             }
+            
+            @Override
+            public int getIdleTicks() {
+                return interval - i;
+            }
+            
+            @Override
+            public void skipIdleTicks(int ticks) {
+                i += ticks;
+            }
         };
     }
     
@@ -171,6 +355,16 @@ public class MyTaskList {
                 }
                 return finished;
             }
+            
+            @Override
+            public int getIdleTicks() {
+                return began ? task.getIdleTicks() : 0;
+            }
+            
+            @Override
+            public void skipIdleTicks(int ticks) {
+                task.skipIdleTicks(ticks);
+            }
         };
     }
     
@@ -187,16 +381,31 @@ public class MyTaskList {
     
     public static MyTask chainTasks(Iterator<MyTask> tasks) {
         PeekingIterator<MyTask> peekingIterator = Iterators.peekingIterator(tasks);
-        return () -> {
-            if (peekingIterator.hasNext()) {
-                MyTask curr = peekingIterator.peek();
-                boolean finished = curr.runAndGetIsFinished();
-                if (finished) {
-                    peekingIterator.next();
+        return new MyTask() {
+            @Override
+            public boolean runAndGetIsFinished() {
+                if (peekingIterator.hasNext()) {
+                    MyTask curr = peekingIterator.peek();
+                    boolean finished = curr.runAndGetIsFinished();
+                    if (finished) {
+                        peekingIterator.next();
+                    }
                 }
+                
+                return !peekingIterator.hasNext();
+            }
+            
+            @Override
+            public int getIdleTicks() {
+                return peekingIterator.hasNext() ? peekingIterator.peek().getIdleTicks() : 0;
             }
             
-            return !peekingIterator.hasNext();
+            @Override
+            public void skipIdleTicks(int ticks) {
+                if (peekingIterator.hasNext()) {
+                    peekingIterator.peek().skipIdleTicks(ticks);
+                }
+            }
         };
     }
     
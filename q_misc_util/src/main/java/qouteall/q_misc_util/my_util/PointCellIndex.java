@@ -0,0 +1,152 @@
+package qouteall.q_misc_util.my_util;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Indexes some objects by their position quantized into cubic cells.
+ * It's used for finding the objects at almost the same position.
+ * A lookup visits the cells that the radius touches and tests the current position of the objects in them.
+ * The stored cell of an object is updated by {@link #update(Object)}.
+ * The objects are compared by identity. It's not thread-safe.
+ */
+public class PointCellIndex<T> {
+    
+    // the cell coordinates wrap around in 21 bits, the colliding objects are filtered by the distance
+    private static final int coordBits = 21;
+    private static final long coordMask = (1L << coordBits) - 1;
+    
+    private final Function<T, Vec3> positionGetter;
+    private final double cellSize;
+    
+    private final Long2ObjectOpenHashMap<ArrayList<T>> cells = new Long2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<T> objectToCell = new Reference2LongOpenHashMap<>();
+    
+    public PointCellIndex(Function<T, Vec3> positionGetter, double cellSize) {
+        this.positionGetter = positionGetter;
+        this.cellSize = cellSize;
+    }
+    
+    public void add(T object) {
+        if (objectToCell.containsKey(object)) {
+            update(object);
+            return;
+        }
+        long cell = getCellKey(positionGetter.apply(object));
+        objectToCell.put(object, cell);
+        cells.computeIfAbsent(cell, k -> new ArrayList<>()).add(object);
+    }
+    
+    public void remove(T object) {
+        if (!objectToCell.containsKey(object)) {
+            return;
+        }
+        long cell = objectToCell.removeLong(object);
+        removeFromCell(object, cell);
+    }
+    
+    /**
+     * Should be called when the object's position changes. It's cheap when the cell does not change.
+     */
+    public void update(T object) {
+        if (!objectToCell.containsKey(object)) {
+            return;
+        }
+        long oldCell = objectToCell.getLong(object);
+        long newCell = getCellKey(positionGetter.apply(object));
+        if (oldCell == newCell) {
+            return;
+        }
+        removeFromCell(object, oldCell);
+        objectToCell.put(object, newCell);
+        cells.computeIfAbsent(newCell, k -> new ArrayList<>()).add(object);
+    }
+    
+    public boolean contains(T object) {
+        return objectToCell.containsKey(object);
+    }
+    
+    /**
+     * @return the first object whose position is closer than the radius to the position
+     * and that matches the predicate
+     */
+    @Nullable
+    public T findFirstWithin(Vec3 pos, double radius, Predicate<T> predicate) {
+        int minX = quantize(pos.x - radius);
+        int minY = quantize(pos.y - radius);
+        int minZ = quantize(pos.z - radius);
+        int maxX = quantize(pos.x + radius);
+        int maxY = quantize(pos.y + radius);
+        int maxZ = quantize(pos.z + radius);
+        
+        double radiusSq = radius * radius;
+        
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                for (int cz = minZ; cz <= maxZ; cz++) {
+                    ArrayList<T> objects = cells.get(getCellKey(cx, cy, cz));
+                    if (objects == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < objects.size(); i++) {
+                        T object = objects.get(i);
+                        if (positionGetter.apply(object).distanceToSqr(pos) < radiusSq &&
+                            predicate.test(object)
+                        ) {
+                            return object;
+                        }
+                    }
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    public int size() {
+        return objectToCell.size();
+    }
+    
+    public void clear() {
+        cells.clear();
+        objectToCell.clear();
+    }
+    
+    private void removeFromCell(T object, long cell) {
+        ArrayList<T> objects = cells.get(cell);
+        if (objects == null) {
+            return;
+        }
+        // by identity
+        for (int i = 0; i < objects.size(); i++) {
+            if (objects.get(i) == object) {
+                objects.remove(i);
+                break;
+            }
+        }
+        if (objects.isEmpty()) {
+            cells.remove(cell);
+        }
+    }
+    
+    private int quantize(double coordinate) {
+        return Mth.floor(coordinate / cellSize);
+    }
+    
+    private long getCellKey(Vec3 pos) {
+        return getCellKey(quantize(pos.x), quantize(pos.y), quantize(pos.z));
+    }
+    
+    private static long getCellKey(int cx, int cy, int cz) {
+        return ((cx & coordMask) << (coordBits * 2)) |
+            ((cy & coordMask) << coordBits) |
+            (cz & coordMask);
+    }
+}
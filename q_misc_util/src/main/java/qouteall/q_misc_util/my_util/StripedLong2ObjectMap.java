@@ -0,0 +1,313 @@
+package qouteall.q_misc_util.my_util;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread-safe long-keyed map made of multiple stripes.
+ * Each stripe is an open addressing hash table guarded by its own {@link StampedLock}.
+ * {@link #get(long)} first tries an optimistic read that does not write to any shared memory.
+ * If the validation fails, it reads again with the read lock.
+ * <p>
+ * The optimistic read may see the table in the middle of a write, so the table is made
+ * safe to be read in any state: the key array, the value array and the mask are replaced
+ * together as one {@link Table} object on rehash, and the probing stops after visiting every slot.
+ * Such a read may give a wrong result, but it cannot throw or loop forever,
+ * and the wrong result is discarded by the validation.
+ * The values should not be null.
+ */
+public class StripedLong2ObjectMap<V> {
+    
+    private static final int initialCapacity = 16;
+    
+    private static final class Table {
+        // 0 means empty slot. the zero key is stored outside the table
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+        
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+    
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        Table table = new Table(initialCapacity);
+        Object zeroKeyValue;
+        // the number of entries in the table, not including the zero key
+        int tableSize;
+        
+        Object find(long key) {
+            if (key == 0) {
+                return zeroKeyValue;
+            }
+            
+            Table t = table;
+            long[] keys = t.keys;
+            int mask = t.mask;
+            int pos = (int) HashCommon.mix(key) & mask;
+            for (int i = 0; i <= mask; i++) {
+                long k = keys[pos];
+                if (k == 0) {
+                    return null;
+                }
+                if (k == key) {
+                    return t.values[pos];
+                }
+                pos = (pos + 1) & mask;
+            }
+            return null;
+        }
+        
+        // should be called with the write lock
+        Object put(long key, Object value) {
+            if (key == 0) {
+                Object old = zeroKeyValue;
+                zeroKeyValue = value;
+                return old;
+            }
+            
+            Table t = table;
+            int pos = (int) HashCommon.mix(key) & t.mask;
+            while (t.keys[pos] != 0) {
+                if (t.keys[pos] == key) {
+                    Object old = t.values[pos];
+                    t.values[pos] = value;
+                    return old;
+                }
+                pos = (pos + 1) & t.mask;
+            }
+            
+            // keep the load factor under 3/4 so that there are always empty slots
+            if ((tableSize + 1) * 4 > t.keys.length * 3) {
+                rehash(t.keys.length * 2);
+                return put(key, value);
+            }
+            
+            // the value is written before the key, so a reader that sees the key is more likely to see the value
+            // the correctness does not rely on it, as the optimistic read is validated
+            t.values[pos] = value;
+            t.keys[pos] = key;
+            tableSize++;
+            return null;
+        }
+        
+        // should be called with the write lock
+        Object remove(long key) {
+            if (key == 0) {
+                Object old = zeroKeyValue;
+                zeroKeyValue = null;
+                return old;
+            }
+            
+            Table t = table;
+            int pos = (int) HashCommon.mix(key) & t.mask;
+            while (t.keys[pos] != 0) {
+                if (t.keys[pos] == key) {
+                    Object old = t.values[pos];
+                    shiftKeys(t, pos);
+                    tableSize--;
+                    return old;
+                }
+                pos = (pos + 1) & t.mask;
+            }
+            return null;
+        }
+        
+        /**
+         * Removes the entry at the position and moves the following entries back,
+         * so that every entry can still be reached by probing from its hash position.
+         * The same as fastutil's shiftKeys.
+         */
+        private static void shiftKeys(Table t, int pos) {
+            long[] keys = t.keys;
+            int mask = t.mask;
+            while (true) {
+                int last = pos;
+                pos = (pos + 1) & mask;
+                long curr;
+                while (true) {
+                    curr = keys[pos];
+                    if (curr == 0) {
+                        keys[last] = 0;
+                        t.values[last] = null;
+                        return;
+                    }
+                    int slot = (int) HashCommon.mix(curr) & mask;
+                    if (last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos)) {
+                        break;
+                    }
+                    pos = (pos + 1) & mask;
+                }
+                keys[last] = curr;
+                t.values[last] = t.values[pos];
+            }
+        }
+        
+        private void rehash(int newCapacity) {
+            Table old = table;
+            Table newTable = new Table(newCapacity);
+            for (int i = 0; i < old.keys.length; i++) {
+                long key = old.keys[i];
+                if (key != 0) {
+                    int pos = (int) HashCommon.mix(key) & newTable.mask;
+                    while (newTable.keys[pos] != 0) {
+                        pos = (pos + 1) & newTable.mask;
+                    }
+                    newTable.keys[pos] = key;
+                    newTable.values[pos] = old.values[i];
+                }
+            }
+            table = newTable;
+        }
+        
+        int size() {
+            return tableSize + (zeroKeyValue != null ? 1 : 0);
+        }
+        
+        void addValuesTo(List<Object> result) {
+            if (zeroKeyValue != null) {
+                result.add(zeroKeyValue);
+            }
+            Table t = table;
+            for (int i = 0; i < t.keys.length; i++) {
+                if (t.keys[i] != 0) {
+                    result.add(t.values[i]);
+                }
+            }
+        }
+    }
+    
+    private final int stripeMask;
+    private final Stripe[] stripes;
+    
+    /**
+     * @param stripeNumLog2 the stripe number is 2 to the power of it
+     */
+    public StripedLong2ObjectMap(int stripeNumLog2) {
+        int stripeNum = 1 << stripeNumLog2;
+        stripeMask = stripeNum - 1;
+        stripes = new Stripe[stripeNum];
+        for (int i = 0; i < stripeNum; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+    
+    private Stripe getStripe(long key) {
+        // the low bits decide the position inside the stripe's table, use the high bits
+        return stripes[((int) (HashCommon.mix(key) >>> 40)) & stripeMask];
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Stripe stripe = getStripe(key);
+        StampedLock lock = stripe.lock;
+        
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Object result = stripe.find(key);
+            if (lock.validate(stamp)) {
+                return (V) result;
+            }
+        }
+        
+        stamp = lock.readLock();
+        try {
+            return (V) stripe.find(key);
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+    
+    /**
+     * @return the old value
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Stripe stripe = getStripe(key);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return (V) stripe.put(key, value);
+        }
+        finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * @return the removed value
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        Stripe stripe = getStripe(key);
+        long stamp = stripe.lock.writeLock();
+        try {
+            return (V) stripe.remove(key);
+        }
+        finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Removes the entry only if it's mapped to the value.
+     */
+    public boolean remove(long key, V value) {
+        Stripe stripe = getStripe(key);
+        long stamp = stripe.lock.writeLock();
+        try {
+            Object current = stripe.find(key);
+            if (current != null && current.equals(value)) {
+                stripe.remove(key);
+                return true;
+            }
+            return false;
+        }
+        finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+    
+    public int size() {
+        int result = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                result += stripe.size();
+            }
+            finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Each stripe is copied under its lock. The stripes are not copied at the same moment.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getCopiedValues() {
+        ArrayList<Object> result = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                stripe.addValuesTo(result);
+            }
+            finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return (List<V>) (List<?>) result;
+    }
+}
@@ -0,0 +1,212 @@
+package qouteall.q_misc_util;
+
+import io.netty.buffer.Unpooled;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Registry;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ImplRemoteProcedureCallTest {
+    
+    private static final String pathPrefix = "qouteall.q_misc_util.ImplRemoteProcedureCallTest.";
+    
+    private static Object[] received;
+    
+    public enum Shape {
+        SQUARE,
+        // a constant with a body is an anonymous subclass of the enum
+        CIRCLE {
+            @Override
+            public String toString() {
+                return "round";
+            }
+        },
+        TRIANGLE
+    }
+    
+    public static class Payload {
+        public String name;
+        public int[] values;
+    }
+    
+    public static class RemoteCallables {
+        public static void numbers(int a, long b, float c, double d, short e, byte f, Integer g, Double h) {
+            received = new Object[]{a, b, c, d, e, f, g, h};
+        }
+        
+        public static void enums(Shape a, Shape b, Shape c) {
+            received = new Object[]{a, b, c};
+        }
+        
+        public static void misc(
+            String a, boolean b, UUID c, BlockPos d, Vec3 e, ResourceLocation f, ResourceKey<Level> g
+        ) {
+            received = new Object[]{a, b, c, d, e, f, g};
+        }
+        
+        public static void json(List<String> a, Map<String, Integer> b, Payload c) {
+            received = new Object[]{a, b, c};
+        }
+        
+        public static void serverSide(ServerPlayer player, int a, String b) {
+            received = new Object[]{player, a, b};
+        }
+    }
+    
+    // not public, so the method handle cannot be got from the public lookup
+    static class HiddenRemoteCallables {
+        public static void hidden(int a) {
+            received = new Object[]{a};
+        }
+    }
+    
+    @BeforeAll
+    public static void bootstrap() {
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+    }
+    
+    private static Object[] roundTrip(String method, boolean isServerSide, Object... arguments) {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+        ImplRemoteProcedureCall.serializeStringWithArguments(pathPrefix + method, isServerSide, arguments, buf);
+        
+        received = null;
+        Runnable handler = isServerSide ?
+            ImplRemoteProcedureCall.serverReadPacketAndGetHandler(null, buf) :
+            ImplRemoteProcedureCall.clientReadPacketAndGetHandler(buf);
+        handler.run();
+        
+        assertEquals(0, buf.readableBytes(), "the receiver should read all bytes");
+        assertNotNull(received);
+        return received;
+    }
+    
+    @Test
+    public void testNumbersConvertedToParameterTypes() {
+        Object[] result = roundTrip(
+            "RemoteCallables.numbers",
+            false,
+            (short) 3, (byte) 4, 5, 6, 7, 8, 9, 10.5f
+        );
+        
+        assertEquals(3, result[0]);
+        assertEquals(4L, result[1]);
+        assertEquals(5.0f, result[2]);
+        assertEquals(6.0, result[3]);
+        assertEquals((short) 7, result[4]);
+        assertEquals((byte) 8, result[5]);
+        assertEquals(9, result[6]);
+        assertEquals(10.5, result[7]);
+    }
+    
+    @Test
+    public void testNumberLimits() {
+        Object[] result = roundTrip(
+            "RemoteCallables.numbers",
+            false,
+            Integer.MIN_VALUE, Long.MAX_VALUE, Float.MIN_VALUE, Double.NaN,
+            Short.MIN_VALUE, Byte.MAX_VALUE, -1, Double.NEGATIVE_INFINITY
+        );
+        
+        assertEquals(Integer.MIN_VALUE, result[0]);
+        assertEquals(Long.MAX_VALUE, result[1]);
+        assertEquals(Float.MIN_VALUE, result[2]);
+        assertTrue(Double.isNaN((Double) result[3]));
+        assertEquals(Short.MIN_VALUE, result[4]);
+        assertEquals(Byte.MAX_VALUE, result[5]);
+        assertEquals(-1, result[6]);
+        assertEquals(Double.NEGATIVE_INFINITY, result[7]);
+    }
+    
+    @Test
+    public void testEnumConstantWithBody() {
+        assertNotEquals(Shape.class, Shape.CIRCLE.getClass());
+        
+        Object[] result = roundTrip(
+            "RemoteCallables.enums", false, Shape.CIRCLE, Shape.SQUARE, Shape.TRIANGLE
+        );
+        
+        assertArrayEquals(new Object[]{Shape.CIRCLE, Shape.SQUARE, Shape.TRIANGLE}, result);
+    }
+    
+    @Test
+    public void testMiscTypes() {
+        UUID uuid = new UUID(123, -456);
+        BlockPos blockPos = new BlockPos(-30000000, -64, 29999999);
+        Vec3 vec = new Vec3(0.1, -2e10, Double.MIN_VALUE);
+        ResourceLocation id = new ResourceLocation("immersive_portals:test");
+        ResourceKey<Level> dimension = ResourceKey.create(
+            Registry.DIMENSION_REGISTRY, new ResourceLocation("minecraft:the_nether")
+        );
+        
+        Object[] result = roundTrip(
+            "RemoteCallables.misc", false,
+            "a \u00e9 \u4e2d", true, uuid, blockPos, vec, id, dimension
+        );
+        
+        assertEquals("a \u00e9 \u4e2d", result[0]);
+        assertEquals(true, result[1]);
+        assertEquals(uuid, result[2]);
+        assertEquals(blockPos, result[3]);
+        assertEquals(vec, result[4]);
+        assertEquals(id, result[5]);
+        assertEquals(dimension.location(), ((ResourceKey<?>) result[6]).location());
+    }
+    
+    @Test
+    public void testJsonFallbackUsesParameterType() {
+        Payload payload = new Payload();
+        payload.name = "p";
+        payload.values = new int[]{1, 2, 3};
+        
+        Object[] result = roundTrip(
+            "RemoteCallables.json", false,
+            Arrays.asList("x", "y"), Map.of("k", 7), payload
+        );
+        
+        assertEquals(List.of("x", "y"), result[0]);
+        assertEquals(Map.of("k", 7), result[1]);
+        assertEquals("p", ((Payload) result[2]).name);
+        assertArrayEquals(new int[]{1, 2, 3}, ((Payload) result[2]).values);
+    }
+    
+    @Test
+    public void testServerSideSkipsPlayerParameter() {
+        Object[] result = roundTrip("RemoteCallables.serverSide", true, 42, "s");
+        
+        assertArrayEquals(new Object[]{null, 42, "s"}, result);
+    }
+    
+    @Test
+    public void testNonPublicClass() {
+        Object[] result = roundTrip("HiddenRemoteCallables.hidden", false, 5);
+        
+        assertArrayEquals(new Object[]{5}, result);
+    }
+    
+    @Test
+    public void testWrongArgumentNum() {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> ImplRemoteProcedureCall.serializeStringWithArguments(
+                pathPrefix + "RemoteCallables.serverSide", true, new Object[]{1}, buf
+            )
+        );
+    }
+}
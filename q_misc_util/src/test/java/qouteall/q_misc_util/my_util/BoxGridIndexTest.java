@@ -0,0 +1,114 @@
+package qouteall.q_misc_util.my_util;
+
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoxGridIndexTest {
+    
+    private static class Box {
+        public AABB box;
+        
+        public Box(AABB box) {
+            this.box = box;
+        }
+    }
+    
+    private static AABB randomBox(Random random) {
+        double x = random.nextDouble() * 1000 - 500;
+        double y = random.nextDouble() * 100;
+        double z = random.nextDouble() * 1000 - 500;
+        // some boxes are large enough to not be put into cells
+        double size = random.nextInt(20) == 0 ? 2000 : random.nextDouble() * 50;
+        return new AABB(x, y, z, x + size, y + random.nextDouble() * 10, z + random.nextDouble() * 10);
+    }
+    
+    private static Set<Box> bruteForce(List<Box> boxes, AABB query) {
+        Set<Box> result = new HashSet<>();
+        for (Box box : boxes) {
+            if (box.box.intersects(query)) {
+                result.add(box);
+            }
+        }
+        return result;
+    }
+    
+    private static Set<Box> query(BoxGridIndex<Box> index, AABB query) {
+        List<Box> list = index.getIntersecting(query);
+        Set<Box> result = new HashSet<>(list);
+        assertEquals(list.size(), result.size(), "an object is returned multiple times");
+        return result;
+    }
+    
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(1);
+        BoxGridIndex<Box> index = new BoxGridIndex<>(b -> b.box);
+        List<Box> boxes = new ArrayList<>();
+        
+        for (int step = 0; step < 3000; step++) {
+            int action = random.nextInt(10);
+            if (action < 5 || boxes.isEmpty()) {
+                Box box = new Box(randomBox(random));
+                boxes.add(box);
+                index.add(box);
+            }
+            else if (action < 7) {
+                Box box = boxes.remove(random.nextInt(boxes.size()));
+                index.remove(box);
+            }
+            else {
+                Box box = boxes.get(random.nextInt(boxes.size()));
+                box.box = random.nextBoolean() ? randomBox(random) : box.box.move(random.nextDouble() * 3, 0, 0);
+                index.update(box);
+            }
+            
+            Vec3 pos = new Vec3(random.nextDouble() * 1200 - 600, random.nextDouble() * 100, random.nextDouble() * 1200 - 600);
+            AABB query = new AABB(pos, pos).inflate(random.nextDouble() * 100);
+            assertEquals(bruteForce(boxes, query), query(index, query));
+            assertEquals(boxes.size(), index.size());
+        }
+        
+        // a query that covers everything
+        AABB all = new AABB(-1e8, -1e8, -1e8, 1e8, 1e8, 1e8);
+        assertEquals(new HashSet<>(boxes), query(index, all));
+    }
+    
+    @Test
+    public void testForeachNear() {
+        BoxGridIndex<Box> index = new BoxGridIndex<>(b -> b.box);
+        Box near = new Box(new AABB(10, 0, 10, 11, 2, 11));
+        Box far = new Box(new AABB(100, 0, 100, 101, 2, 101));
+        index.add(near);
+        index.add(far);
+        
+        List<Box> result = new ArrayList<>();
+        index.foreachNear(new Vec3(0, 0, 0), 16, result::add);
+        assertEquals(List.of(near), result);
+    }
+    
+    @Test
+    public void testAddTwiceAndRebuild() {
+        BoxGridIndex<Box> index = new BoxGridIndex<>(b -> b.box);
+        Box box = new Box(new AABB(0, 0, 0, 1, 1, 1));
+        index.add(box);
+        box.box = new AABB(500, 0, 500, 501, 1, 501);
+        // adding again updates the cells
+        index.add(box);
+        assertEquals(1, index.size());
+        assertEquals(List.of(box), index.getIntersecting(new AABB(499, 0, 499, 502, 2, 502)));
+        assertTrue(index.getIntersecting(new AABB(-1, -1, -1, 2, 2, 2)).isEmpty());
+        
+        index.rebuild(List.of());
+        assertEquals(0, index.size());
+        assertFalse(index.contains(box));
+    }
+}
@@ -0,0 +1,263 @@
+package qouteall.q_misc_util.my_util;
+
+import org.junit.jupiter.api.Test;
+import qouteall.q_misc_util.Helper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the task list with a fake clock.
+ * The tasks should do the same things at the same ticks as invoking every task every tick,
+ * which is what the task list did before the idle tasks were put to sleep.
+ */
+public class MyTaskListTest {
+    
+    private static class FakeClock implements LongSupplier {
+        public long nanoTime = 0;
+        
+        @Override
+        public long getAsLong() {
+            return nanoTime;
+        }
+    }
+    
+    /**
+     * Builds the same random task tree every time with the same seed.
+     * The tasks record what they do with the tick into the log of the tree.
+     */
+    private static class TaskBuilder {
+        private final Random random;
+        private final LongSupplier tick;
+        private final List<String> log;
+        private int leafNum = 0;
+        
+        public TaskBuilder(long seed, LongSupplier tick, List<String> log) {
+            this.random = new Random(seed);
+            this.tick = tick;
+            this.log = log;
+        }
+        
+        private MyTaskList.MyTask leaf() {
+            int id = leafNum++;
+            int workTicks = 1 + random.nextInt(3);
+            return new MyTaskList.MyTask() {
+                int invocations = 0;
+                
+                @Override
+                public boolean runAndGetIsFinished() {
+                    log.add("leaf" + id + "@" + tick.getAsLong());
+                    invocations++;
+                    return invocations >= workTicks;
+                }
+            };
+        }
+        
+        public MyTaskList.MyTask build(int depth) {
+            if (depth == 0) {
+                return leaf();
+            }
+            switch (random.nextInt(8)) {
+                case 0:
+                    return MyTaskList.withDelay(random.nextInt(30), build(depth - 1));
+                case 1:
+                    return MyTaskList.withInterval(random.nextInt(5), build(depth - 1));
+                case 2:
+                    return MyTaskList.chainTask(build(depth - 1), build(depth - 1));
+                case 3: {
+                    int subDepth = depth - 1;
+                    return MyTaskList.repeat(1 + random.nextInt(3), () -> build(subDepth));
+                }
+                case 4: {
+                    int id = leafNum++;
+                    return MyTaskList.withMacroLifecycle(
+                        () -> log.add("begin" + id + "@" + tick.getAsLong()),
+                        () -> log.add("end" + id + "@" + tick.getAsLong()),
+                        build(depth - 1)
+                    );
+                }
+                case 5: {
+                    long cancelTick = 1 + random.nextInt(60);
+                    return MyTaskList.withCancelCondition(() -> tick.getAsLong() >= cancelTick, build(depth - 1));
+                }
+                case 6: {
+                    long delayUntil = 1 + random.nextInt(30);
+                    return MyTaskList.withDelayCondition(() -> tick.getAsLong() < delayUntil, build(depth - 1));
+                }
+                default:
+                    return MyTaskList.withRetryNumberLimit(
+                        random.nextInt(20), build(depth - 1),
+                        () -> log.add("limit@" + tick.getAsLong())
+                    );
+            }
+        }
+    }
+    
+    @Test
+    public void testSameAsPollingEveryTick() {
+        int treeNum = 300;
+        int tickNum = 400;
+        // the first numbers of the randoms with adjacent seeds are similar
+        long[] seeds = new Random(42).longs(treeNum).toArray();
+        
+        // invoke every task every tick
+        long[] naiveTick = new long[1];
+        Map<Integer, List<String>> expectedLogs = new HashMap<>();
+        List<MyTaskList.MyTask> naiveTasks = new ArrayList<>();
+        for (int i = 0; i < treeNum; i++) {
+            List<String> log = new ArrayList<>();
+            expectedLogs.put(i, log);
+            naiveTasks.add(new TaskBuilder(seeds[i], () -> naiveTick[0], log).build(1 + i % 4));
+        }
+        for (int t = 0; t < tickNum; t++) {
+            naiveTick[0]++;
+            naiveTasks.removeIf(MyTaskList.MyTask::runAndGetIsFinished);
+        }
+        
+        MyTaskList taskList = new MyTaskList(new FakeClock());
+        Map<Integer, List<String>> logs = new HashMap<>();
+        for (int i = 0; i < treeNum; i++) {
+            List<String> log = new ArrayList<>();
+            logs.put(i, log);
+            taskList.addTask(new TaskBuilder(seeds[i], taskList::getCurrentTick, log).build(1 + i % 4));
+        }
+        boolean hadSleepingTask = false;
+        for (int t = 0; t < tickNum; t++) {
+            taskList.processTasks();
+            hadSleepingTask |= taskList.getSleepingTaskNum() > 0;
+        }
+        
+        assertTrue(hadSleepingTask);
+        for (int i = 0; i < treeNum; i++) {
+            assertEquals(expectedLogs.get(i), logs.get(i), "task tree " + i);
+        }
+        assertEquals(naiveTasks.size(), taskList.getTaskNum());
+    }
+    
+    @Test
+    public void testDelayedTaskSleeps() {
+        MyTaskList taskList = new MyTaskList(new FakeClock());
+        List<Long> ranTicks = new ArrayList<>();
+        taskList.addTask(MyTaskList.withDelay(100, MyTaskList.oneShotTask(
+            () -> ranTicks.add(taskList.getCurrentTick())
+        )));
+        
+        taskList.processTasks();
+        assertEquals(1, taskList.getSleepingTaskNum());
+        
+        for (int i = 0; i < 200; i++) {
+            taskList.processTasks();
+        }
+        assertEquals(List.of(101L), ranTicks);
+        assertEquals(0, taskList.getTaskNum());
+    }
+    
+    @Test
+    public void testPriorityOrder() {
+        MyTaskList taskList = new MyTaskList(new FakeClock());
+        List<String> order = new ArrayList<>();
+        taskList.addTask(MyTaskList.oneShotTask(() -> order.add("background")), MyTaskList.PRIORITY_BACKGROUND);
+        taskList.addTask(MyTaskList.oneShotTask(() -> order.add("normal1")));
+        taskList.addTask(MyTaskList.oneShotTask(() -> order.add("high")), MyTaskList.PRIORITY_HIGH);
+        taskList.addTask(MyTaskList.oneShotTask(() -> order.add("normal2")), MyTaskList.PRIORITY_NORMAL);
+        
+        taskList.processTasks();
+        
+        assertEquals(List.of("high", "normal1", "normal2", "background"), order);
+    }
+    
+    /**
+     * Each background task takes 4ms of the fake clock. With the 10ms budget, 3 of them run in a tick
+     * (the budget is checked before running a task), and the deferred ones run first in the next tick.
+     */
+    @Test
+    public void testBackgroundTimeBudget() {
+        FakeClock clock = new FakeClock();
+        MyTaskList taskList = new MyTaskList(clock);
+        taskList.setBackgroundTimeBudgetNanos(Helper.secondToNano(0.01));
+        
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int id = i;
+            taskList.addTask(MyTaskList.oneShotTask(() -> {
+                ran.add(id);
+                clock.nanoTime += Helper.secondToNano(0.004);
+            }), MyTaskList.PRIORITY_BACKGROUND);
+        }
+        int[] normalRuns = new int[1];
+        taskList.addTask(() -> {
+            normalRuns[0]++;
+            return false;
+        });
+        
+        taskList.processTasks();
+        assertEquals(List.of(0, 1, 2), ran);
+        taskList.processTasks();
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), ran);
+        for (int i = 0; i < 3; i++) {
+            taskList.processTasks();
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ran);
+        
+        // the normal task is not limited by the budget
+        assertEquals(5, normalRuns[0]);
+    }
+    
+    @Test
+    public void testAtLeastOneBackgroundTaskRuns() {
+        FakeClock clock = new FakeClock();
+        MyTaskList taskList = new MyTaskList(clock);
+        taskList.setBackgroundTimeBudgetNanos(0);
+        
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int id = i;
+            taskList.addTask(MyTaskList.oneShotTask(() -> {
+                ran.add(id);
+                clock.nanoTime += 1;
+            }), MyTaskList.PRIORITY_BACKGROUND);
+        }
+        
+        for (int i = 0; i < 3; i++) {
+            taskList.processTasks();
+            assertEquals(i + 1, ran.size());
+        }
+        assertEquals(List.of(0, 1, 2), ran);
+    }
+    
+    @Test
+    public void testTaskAddedWhileRunning() {
+        MyTaskList taskList = new MyTaskList(new FakeClock());
+        List<Long> ranTicks = new ArrayList<>();
+        taskList.addTask(MyTaskList.oneShotTask(() -> taskList.addTask(MyTaskList.oneShotTask(
+            () -> ranTicks.add(taskList.getCurrentTick())
+        ))));
+        
+        taskList.processTasks();
+        assertTrue(ranTicks.isEmpty());
+        taskList.processTasks();
+        assertEquals(List.of(2L), ranTicks);
+    }
+    
+    @Test
+    public void testFailingTaskIsRemoved() {
+        MyTaskList taskList = new MyTaskList(new FakeClock());
+        int[] runs = new int[1];
+        taskList.addTask(() -> {
+            runs[0]++;
+            throw new RuntimeException("test");
+        });
+        
+        taskList.processTasks();
+        taskList.processTasks();
+        
+        assertEquals(1, runs[0]);
+        assertEquals(0, taskList.getTaskNum());
+    }
+}
@@ -0,0 +1,170 @@
+package qouteall.q_misc_util.my_util;
+
+import net.minecraft.world.phys.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PointCellIndexTest {
+    
+    private static final double cellSize = 0.5;
+    private static final double radius = 0.1;
+    
+    // the cell coordinates wrap around after this distance
+    private static final double wrapDistance = cellSize * (1 << 21);
+    
+    private static class Point {
+        public Vec3 pos;
+        public final int tag;
+        
+        public Point(Vec3 pos, int tag) {
+            this.pos = pos;
+            this.tag = tag;
+        }
+    }
+    
+    /**
+     * The points are clustered on a few anchors so that many of them are within the radius of each other,
+     * some are on the cell boundaries, and some collide with the anchors after the cell coordinates wrap around.
+     */
+    private static Vec3 randomPos(Random random, List<Vec3> anchors) {
+        Vec3 anchor = anchors.get(random.nextInt(anchors.size()));
+        switch (random.nextInt(4)) {
+            case 0:
+                return anchor;
+            case 1:
+                return anchor.add(
+                    (random.nextDouble() - 0.5) * 0.3,
+                    (random.nextDouble() - 0.5) * 0.3,
+                    (random.nextDouble() - 0.5) * 0.3
+                );
+            case 2:
+                return anchor.add(random.nextBoolean() ? wrapDistance : -wrapDistance, 0, 0);
+            default:
+                return new Vec3(
+                    Math.floor(anchor.x / cellSize) * cellSize + (random.nextDouble() - 0.5) * 0.01,
+                    anchor.y,
+                    anchor.z
+                );
+        }
+    }
+    
+    private static Set<Point> bruteForce(List<Point> points, Vec3 pos, Predicate<Point> predicate) {
+        Set<Point> result = new HashSet<>();
+        for (Point point : points) {
+            if (point.pos.distanceToSqr(pos) < radius * radius && predicate.test(point)) {
+                result.add(point);
+            }
+        }
+        return result;
+    }
+    
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(1);
+        List<Vec3> anchors = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            anchors.add(new Vec3(
+                random.nextDouble() * 2000 - 1000, random.nextDouble() * 300, random.nextDouble() * 2000 - 1000
+            ));
+        }
+        // around the world origin the cell coordinates change sign
+        anchors.add(new Vec3(0, 0, 0));
+        anchors.add(new Vec3(-0.25, 0.25, -0.5));
+        
+        PointCellIndex<Point> index = new PointCellIndex<>(p -> p.pos, cellSize);
+        List<Point> points = new ArrayList<>();
+        int foundNum = 0;
+        
+        for (int step = 0; step < 5000; step++) {
+            int action = random.nextInt(10);
+            if (action < 5 || points.isEmpty()) {
+                Point point = new Point(randomPos(random, anchors), random.nextInt(4));
+                points.add(point);
+                index.add(point);
+            }
+            else if (action < 7) {
+                Point point = points.remove(random.nextInt(points.size()));
+                index.remove(point);
+            }
+            else {
+                Point point = points.get(random.nextInt(points.size()));
+                point.pos = random.nextBoolean() ?
+                    randomPos(random, anchors) : point.pos.add(random.nextDouble() * 0.2, 0, 0);
+                index.update(point);
+            }
+            
+            for (int q = 0; q < 5; q++) {
+                Vec3 pos = randomPos(random, anchors);
+                int tag = random.nextInt(4);
+                Predicate<Point> predicate = p -> p.tag == tag;
+                
+                Set<Point> expected = bruteForce(points, pos, predicate);
+                Point found = index.findFirstWithin(pos, radius, predicate);
+                if (expected.isEmpty()) {
+                    assertNull(found);
+                }
+                else {
+                    assertNotNull(found);
+                    assertTrue(expected.contains(found));
+                    foundNum++;
+                }
+            }
+            assertEquals(points.size(), index.size());
+        }
+        
+        // the test is not vacuous
+        assertTrue(foundNum > 1000, "found " + foundNum);
+    }
+    
+    /**
+     * Every matching point can be found when the predicate rejects the others.
+     */
+    @Test
+    public void testFindEachMatching() {
+        Random random = new Random(2);
+        List<Vec3> anchors = List.of(new Vec3(10.5, 64, -3.25), new Vec3(-1000.5, 0, 2000));
+        PointCellIndex<Point> index = new PointCellIndex<>(p -> p.pos, cellSize);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Point point = new Point(randomPos(random, anchors), i);
+            points.add(point);
+            index.add(point);
+        }
+        
+        for (Vec3 anchor : anchors) {
+            for (Point expected : bruteForce(points, anchor, p -> true)) {
+                assertSame(expected, index.findFirstWithin(anchor, radius, p -> p == expected));
+            }
+        }
+    }
+    
+    @Test
+    public void testAddTwiceAndClear() {
+        PointCellIndex<Point> index = new PointCellIndex<>(p -> p.pos, cellSize);
+        Point point = new Point(new Vec3(0, 0, 0), 0);
+        index.add(point);
+        point.pos = new Vec3(100, 0, 100);
+        // adding again updates the cell
+        index.add(point);
+        assertEquals(1, index.size());
+        assertSame(point, index.findFirstWithin(new Vec3(100, 0, 100), radius, p -> true));
+        assertNull(index.findFirstWithin(new Vec3(0, 0, 0), radius, p -> true));
+        
+        // removing a point that is not in the index does nothing
+        index.remove(new Point(new Vec3(100, 0, 100), 0));
+        assertTrue(index.contains(point));
+        
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.contains(point));
+        assertNull(index.findFirstWithin(new Vec3(100, 0, 100), radius, p -> true));
+    }
+}
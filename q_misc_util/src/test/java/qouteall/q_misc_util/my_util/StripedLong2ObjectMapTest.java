@@ -0,0 +1,174 @@
+package qouteall.q_misc_util.my_util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripedLong2ObjectMapTest {
+    
+    private static class Value {
+        public final long key;
+        public final int version;
+        
+        public Value(long key, int version) {
+            this.key = key;
+            this.version = version;
+        }
+    }
+    
+    private static long randomKey(Random random) {
+        // include the zero key and keys that collide in the low bits
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(5) - 2;
+            case 1:
+                return ((long) random.nextInt(200)) << 32;
+            default:
+                return random.nextInt(3000) - 1500;
+        }
+    }
+    
+    @Test
+    public void testSameAsHashMap() {
+        Random random = new Random(1);
+        StripedLong2ObjectMap<Value> map = new StripedLong2ObjectMap<>(2);
+        Map<Long, Value> expected = new HashMap<>();
+        
+        for (int step = 0; step < 200000; step++) {
+            long key = randomKey(random);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Value value = new Value(key, step);
+                assertSame(expected.put(key, value), map.put(key, value));
+            }
+            else if (op < 8) {
+                assertSame(expected.remove(key), map.remove(key));
+            }
+            else if (op < 9) {
+                Value current = expected.get(key);
+                Value toRemove = (current != null && random.nextBoolean()) ? current : new Value(key, -1);
+                boolean removed = expected.remove(key, toRemove);
+                assertEquals(removed, map.remove(key, toRemove));
+            }
+            else {
+                assertSame(expected.get(key), map.get(key));
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+            }
+            
+            if (step % 10000 == 0) {
+                checkAll(expected, map);
+            }
+        }
+        
+        checkAll(expected, map);
+    }
+    
+    private static void checkAll(Map<Long, Value> expected, StripedLong2ObjectMap<Value> map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Value> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+        }
+        List<Value> values = map.getCopiedValues();
+        assertEquals(expected.size(), values.size());
+        for (Value value : values) {
+            assertSame(expected.get(value.key), value);
+        }
+    }
+    
+    /**
+     * The writers keep adding and removing keys, which keeps rehashing and shifting the tables.
+     * The readers check that a found value belongs to the key,
+     * and that the keys that are never removed are always found.
+     */
+    @Test
+    public void testConcurrentReadWrite() throws InterruptedException {
+        // one stripe, so that all threads contend on the same table
+        StripedLong2ObjectMap<Value> map = new StripedLong2ObjectMap<>(0);
+        
+        int stableKeyNum = 500;
+        for (long key = 0; key < stableKeyNum; key++) {
+            map.put(key, new Value(key, 0));
+        }
+        
+        int writerNum = 2;
+        int readerNum = 4;
+        long durationNanos = 1_000_000_000L;
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong readNum = new AtomicLong();
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writerNum; w++) {
+            int writerId = w;
+            threads.add(new Thread(() -> {
+                Random random = new Random(writerId);
+                int version = 0;
+                while (!stop.get()) {
+                    // each writer has its own key range, so the final state is known
+                    long key = stableKeyNum + writerId * 100000L + random.nextInt(20000);
+                    if (random.nextBoolean()) {
+                        map.put(key, new Value(key, ++version));
+                    }
+                    else {
+                        map.remove(key);
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < readerNum; r++) {
+            int readerId = r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(100 + readerId);
+                long localReadNum = 0;
+                while (!stop.get()) {
+                    long stableKey = random.nextInt(stableKeyNum);
+                    Value stableValue = map.get(stableKey);
+                    if (stableValue == null || stableValue.key != stableKey) {
+                        failure.compareAndSet(null, new AssertionError("lost stable key " + stableKey));
+                        return;
+                    }
+                    
+                    long key = stableKeyNum + random.nextInt(writerNum) * 100000L + random.nextInt(20000);
+                    Value value = map.get(key);
+                    if (value != null && value.key != key) {
+                        failure.compareAndSet(null, new AssertionError("wrong value for key " + key));
+                        return;
+                    }
+                    localReadNum += 2;
+                }
+                readNum.addAndGet(localReadNum);
+            }));
+        }
+        
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        Thread.sleep(durationNanos / 1_000_000);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        if (failure.get() != null) {
+            fail(failure.get());
+        }
+        assertTrue(readNum.get() > 0);
+        
+        for (long key = 0; key < stableKeyNum; key++) {
+            assertEquals(key, map.get(key).key);
+        }
+        for (Value value : map.getCopiedValues()) {
+            assertSame(value, map.get(value.key));
+        }
+    }
+}
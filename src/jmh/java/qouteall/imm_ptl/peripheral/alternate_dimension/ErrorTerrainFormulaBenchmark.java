@@ -0,0 +1,103 @@
+package qouteall.imm_ptl.peripheral.alternate_dimension;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The error terrain formulas evaluated for whole chunks, in chunks per second.
+ * The chunks are spread over many regions so that many different formulas are used, like in a real world.
+ * Evaluating block by block is compared with evaluating a section at a time.
+ * Mapping the values to block states is not included, as it needs the bootstrapped registries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ErrorTerrainFormulaBenchmark {
+    
+    public static final int regionNum = 64;
+    
+    private static final int sectionBlockNum = 16 * 16 * 16;
+    
+    // the height of the floating islands generator that error terrain uses
+    @Param({"128"})
+    public int maxY;
+    
+    private FormulaGenerator.CompiledFormula[] formulas;
+    
+    private final double[] xs = new double[sectionBlockNum];
+    private final double[] ys = new double[sectionBlockNum];
+    private final double[] zs = new double[sectionBlockNum];
+    private final double[] values = new double[sectionBlockNum];
+    
+    private int chunkCounter = 0;
+    
+    @Setup
+    public void setup() {
+        FormulaGenerator.init();
+        
+        formulas = new FormulaGenerator.CompiledFormula[regionNum];
+        for (int i = 0; i < regionNum; i++) {
+            formulas[i] = FormulaGenerator.newGetRandomTriCompositeExpression(new Random(i), 3);
+        }
+    }
+    
+    @Benchmark
+    public double chunkByBlock() {
+        FormulaGenerator.CompiledFormula formula = nextFormula();
+        double sum = 0;
+        for (int y = 0; y < maxY; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    sum += formula.eval(x / 64.0, y / ((double) maxY), z / 64.0);
+                }
+            }
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public double chunkBySection() {
+        FormulaGenerator.CompiledFormula formula = nextFormula();
+        double sum = 0;
+        for (int sectionMinY = 0; sectionMinY < maxY; sectionMinY += 16) {
+            int layerNum = Math.min(16, maxY - sectionMinY);
+            int index = 0;
+            for (int localY = 0; localY < layerNum; localY++) {
+                double y = (sectionMinY + localY) / ((double) maxY);
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        xs[index] = x / 64.0;
+                        ys[index] = y;
+                        zs[index] = z / 64.0;
+                        index++;
+                    }
+                }
+            }
+            formula.evalBatch(xs, ys, zs, index, values);
+            for (int i = 0; i < index; i++) {
+                sum += values[i];
+            }
+        }
+        return sum;
+    }
+    
+    private FormulaGenerator.CompiledFormula nextFormula() {
+        chunkCounter++;
+        return formulas[chunkCounter % regionNum];
+    }
+}
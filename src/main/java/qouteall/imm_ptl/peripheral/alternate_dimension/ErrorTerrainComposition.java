@@ -17,7 +17,7 @@ public class ErrorTerrainComposition {
     public static final BlockState water = Blocks.WATER.defaultBlockState();
     
     public static final RegionErrorTerrainGenerator.Composition mountain = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
         if (funcValue > middle) {
             if (funcValue > middle * middle) {
@@ -33,9 +33,9 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition classicalSolid = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
-        double splitPoint = getSplitPointClassical(worldY, middle, 32.0);
+        double splitPoint = getSplitPointClassical(worldY, maxY, middle, 32.0);
         
         if (funcValue > splitPoint) {
             return stone;
@@ -46,9 +46,9 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition classicalHollow = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
-        double splitPoint = getSplitPointClassical(worldY, middle, 32.0);
+        double splitPoint = getSplitPointClassical(worldY, maxY, middle, 32.0);
         
         if (funcValue > splitPoint) {
             if (funcValue > splitPoint + 2) {
@@ -64,9 +64,9 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition classicalWatery = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
-        double splitPoint = getSplitPointClassical(worldY, middle, 16.0);
+        double splitPoint = getSplitPointClassical(worldY, maxY, middle, 16.0);
         
         if (funcValue > splitPoint) {
             if (((int) funcValue) % 23 == 0) {
@@ -82,14 +82,14 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition newSolid = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
         double splitPoint1 = Math.abs(middle);
         splitPoint1 *= Math.exp(Math.abs(worldY - ErrorTerrainGenerator.averageY) / 32.0 - 1);
         
         splitPoint1 *= Math.max(
             1.0,
-            100.0 / Math.max(1, Math.min(worldY, ErrorTerrainGenerator.maxY - worldY))
+            100.0 / Math.max(1, Math.min(worldY, maxY - worldY))
         );
         double splitPoint = splitPoint1;
         
@@ -102,9 +102,9 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition floatingSea = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
-        double splitPoint = getSplitPointClassical(worldY, middle, 16.0);
+        double splitPoint = getSplitPointClassical(worldY, maxY, middle, 16.0);
         
         if (funcValue > splitPoint) {
             if (worldY > 63) {
@@ -120,7 +120,7 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition treasured = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
         double upPoint = Math.max(middle, Math.max(upMiddle, downMiddle));
         double splitPoint = Mth.lerp(
@@ -144,9 +144,9 @@ public class ErrorTerrainComposition {
     };
     
     public static final RegionErrorTerrainGenerator.Composition layeredHollow = (
-        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ
+        worldY, funcValue, middle, upMiddle, downMiddle, worldX, worldZ, maxY
     ) -> {
-        double splitPoint = getSplitPointClassical(worldY, middle, 32.0);
+        double splitPoint = getSplitPointClassical(worldY, maxY, middle, 32.0);
         
         
         if (funcValue > splitPoint) {
@@ -164,13 +164,13 @@ public class ErrorTerrainComposition {
         }
     };
     
-    private static double getSplitPointClassical(int worldY, double middle, double unitFactor) {
+    private static double getSplitPointClassical(int worldY, int maxY, double middle, double unitFactor) {
         double splitPoint = middle;
         splitPoint *= Math.exp(Math.abs(worldY - ErrorTerrainGenerator.averageY) / unitFactor);
         
         splitPoint *= Math.max(
             0.7,
-            30.0 / Math.max(1, Math.min(worldY, ErrorTerrainGenerator.maxY - worldY))
+            30.0 / Math.max(1, Math.min(worldY, maxY - worldY))
         );
         return splitPoint;
     }
@@ -5,10 +5,10 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
-import net.minecraft.core.BlockPos;
 import net.minecraft.core.Holder;
 import net.minecraft.core.HolderSet;
 import net.minecraft.core.Registry;
+import net.minecraft.core.SectionPos;
 import net.minecraft.resources.RegistryOps;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.StructureFeatureManager;
@@ -77,7 +77,6 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
     
     public static final int regionChunkNum = 4;
     public static final int averageY = 64;
-    public static final int maxY = 128;
     
     private final BlockState air = Blocks.AIR.defaultBlockState();
     private final BlockState defaultBlock = Blocks.STONE.defaultBlockState();
@@ -87,6 +86,9 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
     
     public final long seed;
     
+    // the terrain is generated below it, derived from the delegate generator's height
+    public final int maxY;
+    
     public final Registry<Biome> biomeRegistry;
     public final Registry<NormalNoise.NoiseParameters> noiseRegistry;
     
@@ -99,13 +101,16 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
     ) {
         super(structureSets, biomeSource, delegate);
         
+        int maxY = delegate.getMinY() + delegate.getGenDepth();
+        this.maxY = maxY;
+        
         cache = CacheBuilder.newBuilder()
             .maximumSize(10000)
             .expireAfterWrite(30, TimeUnit.SECONDS)
             .build(
                 new CacheLoader<ChunkPos, RegionErrorTerrainGenerator>() {
                     public RegionErrorTerrainGenerator load(ChunkPos key) {
-                        return new RegionErrorTerrainGenerator(key.x, key.z, seed);
+                        return new RegionErrorTerrainGenerator(key.x, key.z, seed, maxY);
                     }
                 });
         
@@ -154,7 +159,6 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
         ChunkPos pos = chunk.getPos();
         Heightmap oceanFloorHeightMap = protoChunk.getOrCreateHeightmapUnprimed(Heightmap.Types.OCEAN_FLOOR_WG);
         Heightmap surfaceHeightMap = protoChunk.getOrCreateHeightmapUnprimed(Heightmap.Types.WORLD_SURFACE_WG);
-        BlockPos.MutableBlockPos mutable = new BlockPos.MutableBlockPos();
         
         int regionX = Math.floorDiv(pos.x, regionChunkNum);
         int regionZ = Math.floorDiv(pos.z, regionChunkNum);
@@ -162,19 +166,32 @@ public class ErrorTerrainGenerator extends DelegatedChunkGenerator {
             cache.get(new ChunkPos(regionX, regionZ))
         );
         
-        for (int sectionY = 0; sectionY < 16; sectionY++) {
-            LevelChunkSection section = protoChunk.getSection(sectionY);
+        RegionErrorTerrainGenerator.SectionBuffer buffer = new RegionErrorTerrainGenerator.SectionBuffer();
+        
+        LevelChunkSection[] sections = protoChunk.getSections();
+        for (int sectionIndex = 0; sectionIndex < sections.length; sectionIndex++) {
+            int sectionMinY = SectionPos.sectionToBlockCoord(
+                protoChunk.getSectionYFromSectionIndex(sectionIndex)
+            );
+            if (sectionMinY >= maxY) {
+                // the sections above are all air
+                break;
+            }
             
-            for (int localX = 0; localX < 16; localX++) {
+            LevelChunkSection section = sections[sectionIndex];
+            
+            generator.evalSection(
+                pos.getMinBlockX(), sectionMinY, pos.getMinBlockZ(), buffer
+            );
+            BlockState[] blockStates = buffer.blockStates;
+            
+            int index = 0;
+            for (int localY = 0; localY < 16; localY++) {
+                int worldY = sectionMinY + localY;
                 for (int localZ = 0; localZ < 16; localZ++) {
-                    for (int localY = 0; localY < 16; localY++) {
-                        int worldX = pos.x * 16 + localX;
-                        int worldY = sectionY * 16 + localY;
-                        int worldZ = pos.z * 16 + localZ;
-                        
-                        BlockState currBlockState = generator.getBlockComposition(
-                            worldX, worldY, worldZ
-                        );
+                    for (int localX = 0; localX < 16; localX++) {
+                        BlockState currBlockState = blockStates[index];
+                        index++;
                         
                         if (currBlockState != air) {
                             section.setBlockState(localX, localY, localZ, currBlockState, false);
@@ -3,8 +3,14 @@ package qouteall.imm_ptl.peripheral.alternate_dimension;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
 
 import java.util.Random;
-import java.util.function.Function;
 
+/**
+ * Generates random formulas for the error terrain.
+ * The functions are represented by opcodes and evaluated by a switch,
+ * so the evaluation does not go through megamorphic lambda calls.
+ * The opcodes and weights are in the same order as the former lambda selectors,
+ * so that the same seed gives the same formula.
+ */
 public class FormulaGenerator {
     
     public static interface TriNumFunction {
@@ -30,65 +36,131 @@ public class FormulaGenerator {
         }
     }
     
-    public static interface UniNumFunction {
-        double eval(double x);
+    // the selection weights of the uni functions, indexed by opcode. see evalUni
+    private static final int[] uniFuncWeights = {
+        30, 30, 30, 30, 10, 7, 7, 10, 10, 5, 10, 5, 10, 10,
+        30, 30, 10, 10, 7, 7, 10, 10
+    };
+    
+    // the uni functions from this opcode take a random argument
+    private static final int firstArgedUniFunc = 14;
+    
+    // the selection weights of the tri functions, indexed by opcode. see evalTri
+    private static final int[] triFuncWeights = {
+        50, 50, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 10, 5, 5, 5, 10, 10
+    };
+    
+    private static RandomSelector<Integer> uniFuncSelector;
+    private static RandomSelector<Integer> triFuncSelector;
+    
+    public static void init() {
+        uniFuncSelector = createOpcodeSelector(uniFuncWeights);
+        triFuncSelector = createOpcodeSelector(triFuncWeights);
     }
     
-    // input 3 nums, output 3 nums.
-    // to avoid garbage generated by Vec3d, use continuation passing style
-    public static interface TriToTriFuncCPS {
-        double eval(double x, double y, double z, TriNumFunction continuation);
-        
-        // CPS combination
-        default TriToTriFuncCPS then(TriToTriFuncCPS other) {
-            return (x, y, z, c) -> this.eval(x, y, z, (nx, ny, nz) -> other.eval(nx, ny, nz, c));
-        }
-        
-        default TriNumFunction finish(TriNumFunction finalCont) {
-            return (x, y, z) -> this.eval(x, y, z, finalCont);
+    private static RandomSelector<Integer> createOpcodeSelector(int[] weights) {
+        RandomSelector.Builder<Integer> builder = new RandomSelector.Builder<>();
+        for (int opcode = 0; opcode < weights.length; opcode++) {
+            builder.add(weights[opcode], opcode);
         }
+        return builder.build();
     }
     
-    private static RandomSelector<Function<Random, UniNumFunction>> uniFuncSelector;
-    private static RandomSelector<TriNumFunction> triFuncSelector;
-    
-    public static void init() {
-        initUniFuncSelector();
-        initTriFuncSelector();
+    private static double evalUni(int opcode, double arg, double x) {
+        switch (opcode) {
+            case 0:
+                return x;
+            case 1:
+                return -x;
+            case 2:
+                return x * x;
+            case 3:
+                return x * x * x;
+            case 4:
+                return Math.max(x, 0);
+            case 5:
+                return Math.sin(x * 3);
+            case 6:
+                return Math.cos(x * 7);
+            case 7:
+                return Math.exp(x * 3);
+            case 8:
+                return Math.log(Math.abs(x) + 1);
+            case 9:
+                return Math.cosh(x);
+            case 10:
+                return Math.abs(x);
+            case 11:
+                return Math.round(x);
+            case 12:
+                return Math.sqrt(Math.abs(x));
+            case 13:
+                return weirdSwap(x);
+            // the ones below take the random argument
+            case 14:
+                return x * arg;
+            case 15:
+                return x / Math.max(arg, 0.1);
+            case 16:
+                return Math.max(x, arg);
+            case 17:
+                return x + arg;
+            case 18:
+                return Math.floor(x * arg * 23);
+            case 19:
+                return Math.floor(x * arg);
+            case 20:
+                return weirdAnd(arg, x);
+            default:
+                return weirdXor(arg, x);
+        }
     }
     
-    private static void initUniFuncSelector() {
-        RandomSelector.Builder<Function<Random, UniNumFunction>> builder = new RandomSelector.Builder<>();
-        
-        Function<Function<Double, UniNumFunction>, Function<Random, UniNumFunction>> applyRandomArg =
-            arged -> random -> arged.apply(random.nextDouble());
-        Function<UniNumFunction, Function<Random, UniNumFunction>> noRandomArg =
-            func -> random -> func;
-        
-        builder.add(30, noRandomArg.apply(x -> x));
-        builder.add(30, noRandomArg.apply(x -> -x));
-        builder.add(30, noRandomArg.apply(x -> x * x));
-        builder.add(30, noRandomArg.apply(x -> x * x * x));
-        builder.add(10, noRandomArg.apply(x -> Math.max(x, 0)));
-        builder.add(7, noRandomArg.apply(x -> Math.sin(x * 3)));
-        builder.add(7, noRandomArg.apply(x -> Math.cos(x * 7)));
-        builder.add(10, noRandomArg.apply(x -> Math.exp(x * 3)));
-        builder.add(10, noRandomArg.apply(x -> Math.log(Math.abs(x) + 1)));
-        builder.add(5, noRandomArg.apply(x -> Math.cosh(x)));
-        builder.add(10, noRandomArg.apply(x -> Math.abs(x)));
-        builder.add(5, noRandomArg.apply(x -> Math.round(x)));
-        builder.add(10, noRandomArg.apply(x -> Math.sqrt(Math.abs(x))));
-        builder.add(10, noRandomArg.apply(x -> weirdSwap(x)));
-        builder.add(30, applyRandomArg.apply(arg -> x -> x * arg));
-        builder.add(30, applyRandomArg.apply(arg -> x -> x / Math.max(arg, 0.1)));
-        builder.add(10, applyRandomArg.apply(arg -> x -> Math.max(x, arg)));
-        builder.add(10, applyRandomArg.apply(arg -> x -> x + arg));
-        builder.add(7, applyRandomArg.apply(arg -> x -> Math.floor(x * arg * 23)));
-        builder.add(7, applyRandomArg.apply(arg -> x -> Math.floor(x * arg)));
-        builder.add(10, applyRandomArg.apply(arg -> x -> weirdAnd(arg, x)));
-        builder.add(10, applyRandomArg.apply(arg -> x -> weirdXor(arg, x)));
-        
-        uniFuncSelector = builder.build();
+    private static double evalTri(int opcode, double x, double y, double z) {
+        switch (opcode) {
+            case 0:
+                return x + y + z;
+            case 1:
+                return x * y * z;
+            case 2:
+                return x * y + z;
+            case 3:
+                return x + y * z;
+            case 4:
+                return x * z + y;
+            case 5:
+                return x + y + z;
+            case 6:
+                return x * x + y * y + z * z;
+            case 7:
+                return x + y * y + z * z;
+            case 8:
+                return x * x + y + z * z;
+            case 9:
+                return x * x + y * y + z;
+            case 10:
+                return -x * x + y * y + z * z;
+            case 11:
+                return x * x - y * y + z * z;
+            case 12:
+                return x * x + y * y - z * z;
+            case 13:
+                return (x + y + z) * (x + y + z);
+            case 14:
+                return (x + y + z) * (x + y - z);
+            case 15:
+                return x * x * x * y * z;
+            case 16:
+                return Math.pow(y, x + z);
+            case 17:
+                return Math.pow(y, x - z);
+            case 18:
+                return Math.pow(x * z, y);
+            case 19:
+                return Math.log(Math.abs(x + y + z) + 0.5);
+            default:
+                return Math.log(Math.abs(x - y * z) + 0.5);
+        }
     }
     
     private static int toInt(double d) {
@@ -115,77 +187,145 @@ public class FormulaGenerator {
         return fromInt(r);
     }
     
-    private static void initTriFuncSelector() {
-        RandomSelector.Builder<TriNumFunction> builder = new RandomSelector.Builder<>();
+    /**
+     * Selects the functions in the same order as the former nested continuation form,
+     * so that the same seed gives the same formula.
+     */
+    public static CompiledFormula newGetRandomTriCompositeExpression(Random random, int nestLayer) {
+        int[] uniFuncs = new int[nestLayer * 3];
+        double[] uniArgs = new double[nestLayer * 3];
+        int[] triFuncs = new int[nestLayer * 3];
         
-        builder.add(50, (x, y, z) -> x + y + z);
-        builder.add(50, (x, y, z) -> x * y * z);
-        builder.add(10, (x, y, z) -> x * y + z);
-        builder.add(10, (x, y, z) -> x + y * z);
-        builder.add(10, (x, y, z) -> x * z + y);
-        builder.add(10, (x, y, z) -> x + y + z);
-        builder.add(10, (x, y, z) -> x * x + y * y + z * z);
-        builder.add(10, (x, y, z) -> x + y * y + z * z);
-        builder.add(10, (x, y, z) -> x * x + y + z * z);
-        builder.add(10, (x, y, z) -> x * x + y * y + z);
-        builder.add(10, (x, y, z) -> -x * x + y * y + z * z);
-        builder.add(10, (x, y, z) -> x * x - y * y + z * z);
-        builder.add(10, (x, y, z) -> x * x + y * y - z * z);
-        builder.add(10, (x, y, z) -> (x + y + z) * (x + y + z));
-        builder.add(10, (x, y, z) -> (x + y + z) * (x + y - z));
-        builder.add(10, (x, y, z) -> x * x * x * y * z);
-        builder.add(5, (x, y, z) -> Math.pow(y, x + z));
-        builder.add(5, (x, y, z) -> Math.pow(y, x - z));
-        builder.add(5, (x, y, z) -> Math.pow(x * z, y));
-        builder.add(10, (x, y, z) -> Math.log(Math.abs(x + y + z) + 0.5));
-        builder.add(10, (x, y, z) -> Math.log(Math.abs(x - y * z) + 0.5));
+        for (int layer = 0; layer < nestLayer; layer++) {
+            for (int i = 0; i < 3; i++) {
+                int opcode = uniFuncSelector.select(random);
+                uniFuncs[layer * 3 + i] = opcode;
+                if (opcode >= firstArgedUniFunc) {
+                    uniArgs[layer * 3 + i] = random.nextDouble();
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                triFuncs[layer * 3 + i] = triFuncSelector.select(random);
+            }
+        }
+        
+        int[] shuffle = shuffleSelector.select(random);
+        int finalFunc = triFuncSelector.select(random);
         
-        triFuncSelector = builder.build();
+        return new CompiledFormula(nestLayer, uniFuncs, uniArgs, triFuncs, shuffle, finalFunc);
     }
     
-    public static TriNumFunction newGetRandomTriCompositeExpression(Random random, int nestLayer) {
-        if (nestLayer == 0) {
-            return shuffleFunSelector.select(random).finish(triFuncSelector.select(random));
+    /**
+     * The flattened form of the composite expression.
+     * Each layer maps x, y, z through 3 uni functions, then maps the results through 3 tri functions.
+     * After the layers, the components are shuffled and put into the final tri function.
+     * The functions are opcodes, so evaluating it does not allocate or call through lambdas.
+     */
+    public static class CompiledFormula implements TriNumFunction {
+        private final int layerNum;
+        // 3 per layer
+        private final int[] uniFuncs;
+        private final double[] uniArgs;
+        private final int[] triFuncs;
+        // the component index of the shuffled x, y, z
+        private final int[] shuffle;
+        private final int finalFunc;
+        
+        public CompiledFormula(
+            int layerNum, int[] uniFuncs, double[] uniArgs, int[] triFuncs,
+            int[] shuffle, int finalFunc
+        ) {
+            this.layerNum = layerNum;
+            this.uniFuncs = uniFuncs;
+            this.uniArgs = uniArgs;
+            this.triFuncs = triFuncs;
+            this.shuffle = shuffle;
+            this.finalFunc = finalFunc;
         }
-        else {
-            TriToTriFuncCPS curr = newGetComplexTriNumFunc2(random);
-            
-            curr = curr.then(newGetComplexTriNumFunc1(random));
+        
+        @Override
+        public double eval(double x, double y, double z) {
+            for (int layer = 0; layer < layerNum; layer++) {
+                int base = layer * 3;
+                double ux = evalUni(uniFuncs[base], uniArgs[base], x);
+                double uy = evalUni(uniFuncs[base + 1], uniArgs[base + 1], y);
+                double uz = evalUni(uniFuncs[base + 2], uniArgs[base + 2], z);
+                x = evalTri(triFuncs[base], ux, uy, uz);
+                y = evalTri(triFuncs[base + 1], ux, uy, uz);
+                z = evalTri(triFuncs[base + 2], ux, uy, uz);
+            }
             
-            return curr.finish(
-                newGetRandomTriCompositeExpression(random, nestLayer - 1)
+            return evalTri(
+                finalFunc,
+                pick(shuffle[0], x, y, z),
+                pick(shuffle[1], x, y, z),
+                pick(shuffle[2], x, y, z)
             );
         }
-    }
-    
-    public static TriToTriFuncCPS newGetComplexTriNumFunc1(Random random) {
-        TriNumFunction f1 = triFuncSelector.select(random);
-        TriNumFunction f2 = triFuncSelector.select(random);
-        TriNumFunction f3 = triFuncSelector.select(random);
         
-        return (x, y, z, c) -> c.eval(
-            f1.eval(x, y, z), f2.eval(x, y, z), f3.eval(x, y, z)
-        );
-    }
-    
-    public static TriToTriFuncCPS newGetComplexTriNumFunc2(Random random) {
-        UniNumFunction f1 = uniFuncSelector.select(random).apply(random);
-        UniNumFunction f2 = uniFuncSelector.select(random).apply(random);
-        UniNumFunction f3 = uniFuncSelector.select(random).apply(random);
+        /**
+         * Evaluates many points. Every function is applied to all points before the next function,
+         * so the switch takes the same branch for a whole loop.
+         * The results are the same as {@link #eval(double, double, double)}.
+         * The input arrays are used as working space and get overwritten.
+         */
+        public void evalBatch(double[] xs, double[] ys, double[] zs, int num, double[] result) {
+            for (int layer = 0; layer < layerNum; layer++) {
+                int base = layer * 3;
+                
+                applyUni(uniFuncs[base], uniArgs[base], xs, num);
+                applyUni(uniFuncs[base + 1], uniArgs[base + 1], ys, num);
+                applyUni(uniFuncs[base + 2], uniArgs[base + 2], zs, num);
+                
+                int t0 = triFuncs[base];
+                int t1 = triFuncs[base + 1];
+                int t2 = triFuncs[base + 2];
+                for (int i = 0; i < num; i++) {
+                    double ux = xs[i];
+                    double uy = ys[i];
+                    double uz = zs[i];
+                    xs[i] = evalTri(t0, ux, uy, uz);
+                    ys[i] = evalTri(t1, ux, uy, uz);
+                    zs[i] = evalTri(t2, ux, uy, uz);
+                }
+            }
+            
+            double[][] components = {xs, ys, zs};
+            double[] sx = components[shuffle[0]];
+            double[] sy = components[shuffle[1]];
+            double[] sz = components[shuffle[2]];
+            for (int i = 0; i < num; i++) {
+                result[i] = evalTri(finalFunc, sx[i], sy[i], sz[i]);
+            }
+        }
         
-        return (x, y, z, c) -> c.eval(
-            f1.eval(x), f2.eval(y), f3.eval(z)
-        );
+        private static void applyUni(int opcode, double arg, double[] values, int num) {
+            for (int i = 0; i < num; i++) {
+                values[i] = evalUni(opcode, arg, values[i]);
+            }
+        }
+        
+        private static double pick(int index, double x, double y, double z) {
+            switch (index) {
+                case 0:
+                    return x;
+                case 1:
+                    return y;
+                default:
+                    return z;
+            }
+        }
     }
     
-    private static final RandomSelector<TriToTriFuncCPS> shuffleFunSelector =
-        new RandomSelector.Builder<TriToTriFuncCPS>()
-            .add(1, (x, y, z, c) -> (c.eval(x, y, z)))
-            .add(1, (x, y, z, c) -> (c.eval(x, z, y)))
-            .add(1, (x, y, z, c) -> (c.eval(y, z, x)))
-            .add(1, (x, y, z, c) -> (c.eval(y, x, z)))
-            .add(1, (x, y, z, c) -> (c.eval(z, x, y)))
-            .add(1, (x, y, z, c) -> (c.eval(z, y, x)))
+    // the component indices of the shuffled x, y, z
+    private static final RandomSelector<int[]> shuffleSelector =
+        new RandomSelector.Builder<int[]>()
+            .add(1, new int[]{0, 1, 2})
+            .add(1, new int[]{0, 2, 1})
+            .add(1, new int[]{1, 2, 0})
+            .add(1, new int[]{1, 0, 2})
+            .add(1, new int[]{2, 0, 1})
+            .add(1, new int[]{2, 1, 0})
             .build();
     
     
@@ -15,13 +15,17 @@ public class RegionErrorTerrainGenerator {
             double upMiddle,
             double downMiddle,
             int worldX,
-            int worldZ
+            int worldZ,
+            int maxY
         );
     }
     
+    public static final int sectionBlockNum = 16 * 16 * 16;
+    
     private int regionX;
     private int regionZ;
-    private FormulaGenerator.TriNumFunction expression;
+    private int maxY;
+    private FormulaGenerator.CompiledFormula expression;
     private double middle;
     private double upMiddle;
     private double downMiddle;
@@ -30,10 +34,12 @@ public class RegionErrorTerrainGenerator {
     public RegionErrorTerrainGenerator(
         int regionX_,
         int regionZ_,
-        long seed
+        long seed,
+        int maxY_
     ) {
         regionX = regionX_;
         regionZ = regionZ_;
+        maxY = maxY_;
         
         initExpression(seed);
         
@@ -78,17 +84,87 @@ public class RegionErrorTerrainGenerator {
         int regionStartZ = regionZ * a;
         return expression.eval(
             (worldX - regionStartX) / ((double) a),
-            worldY / ((double) ErrorTerrainGenerator.maxY),
+            worldY / ((double) maxY),
             (worldZ - regionStartZ) / ((double) a)
         );
     }
     
+    /**
+     * The working space of {@link #evalSection(int, int, int, SectionBuffer)}.
+     * It can be reused for multiple sections but not shared between threads.
+     */
+    public static class SectionBuffer {
+        private final double[] xs = new double[sectionBlockNum];
+        private final double[] ys = new double[sectionBlockNum];
+        private final double[] zs = new double[sectionBlockNum];
+        private final double[] values = new double[sectionBlockNum];
+        
+        // indexed by (localY * 16 + localZ) * 16 + localX, the same order as the section storage
+        public final BlockState[] blockStates = new BlockState[sectionBlockNum];
+    }
+    
+    /**
+     * Evaluates all blocks of a 16x16x16 section into {@link SectionBuffer#blockStates}.
+     * It gives the same result as calling {@link #getBlockComposition(int, int, int)} for each block.
+     */
+    public void evalSection(
+        int sectionMinX, int sectionMinY, int sectionMinZ,
+        SectionBuffer buffer
+    ) {
+        int a = ErrorTerrainGenerator.regionChunkNum * 16;
+        
+        int regionStartX = regionX * a;
+        int regionStartZ = regionZ * a;
+        
+        // the layers at or above maxY are air and not evaluated
+        int layerNum = Math.max(0, Math.min(16, maxY - sectionMinY));
+        int num = layerNum * 256;
+        
+        double[] xs = buffer.xs;
+        double[] ys = buffer.ys;
+        double[] zs = buffer.zs;
+        int index = 0;
+        for (int localY = 0; localY < layerNum; localY++) {
+            double y = (sectionMinY + localY) / ((double) maxY);
+            for (int localZ = 0; localZ < 16; localZ++) {
+                double z = (sectionMinZ + localZ - regionStartZ) / ((double) a);
+                for (int localX = 0; localX < 16; localX++) {
+                    xs[index] = (sectionMinX + localX - regionStartX) / ((double) a);
+                    ys[index] = y;
+                    zs[index] = z;
+                    index++;
+                }
+            }
+        }
+        
+        double[] values = buffer.values;
+        expression.evalBatch(xs, ys, zs, num, values);
+        
+        BlockState[] result = buffer.blockStates;
+        index = 0;
+        for (int localY = 0; localY < layerNum; localY++) {
+            int worldY = sectionMinY + localY;
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localX = 0; localX < 16; localX++) {
+                    result[index] = composition.generate(
+                        worldY, values[index],
+                        middle, upMiddle, downMiddle,
+                        sectionMinX + localX, sectionMinZ + localZ, maxY
+                    );
+                    index++;
+                }
+            }
+        }
+        
+        Arrays.fill(result, num, sectionBlockNum, ErrorTerrainComposition.air);
+    }
+    
     public BlockState getBlockComposition(
         int worldX,
         int worldY,
         int worldZ
     ) {
-        if (worldY >= ErrorTerrainGenerator.maxY) {
+        if (worldY >= maxY) {
             return ErrorTerrainComposition.air;
         }
         
@@ -97,7 +173,7 @@ public class RegionErrorTerrainGenerator {
         return composition.generate(
             worldY, currValue,
             middle, upMiddle, downMiddle,
-            worldX, worldZ
+            worldX, worldZ, maxY
         );
     }
     
@@ -144,7 +144,8 @@ public class DimStackInfo {
             }
             GlobalPortalStorage gps = GlobalPortalStorage.get(McHelper.getServerWorld(entry.dimension));
             gps.bedrockReplacement = bedrockReplacement;
-            gps.onDataChanged();
+            // the portals are synced when they are added. the bedrock replacement is not synced to the client
+            gps.setDirty(true);
         }
         DimStackManagement.bedrockReplacementMap = bedrockReplacementMap;
         
@@ -8,6 +8,7 @@ import com.mojang.serialization.JsonOps;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Registry;
+import net.minecraft.core.SectionPos;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.chat.TranslatableComponent;
 import net.minecraft.resources.ResourceKey;
@@ -19,6 +20,7 @@ import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
 import net.minecraftforge.fml.loading.FMLPaths;
@@ -118,7 +120,8 @@ public class DimStackManagement {
         for (ServerLevel world : server.getAllLevels()) {
             GlobalPortalStorage gps = GlobalPortalStorage.get(world);
             gps.bedrockReplacement = Blocks.OBSIDIAN.defaultBlockState();
-            gps.onDataChanged();
+            // the bedrock replacement is not synced to the client
+            gps.setDirty(true);
         }
         
         updateBedrockReplacementFromStorage(server);
@@ -136,24 +139,40 @@ public class DimStackManagement {
         
         if (replacement != null) {
             BlockPos.MutableBlockPos mutable = new BlockPos.MutableBlockPos();
-            for (int x = 0; x < 16; x++) {
-                for (int z = 0; z < 16; z++) {
-                    for (int y = chunk.getMinBuildHeight(); y < chunk.getMaxBuildHeight(); y++) {
-                        mutable.set(x, y, z);
-                        BlockState blockState = chunk.getBlockState(mutable);
-                        if (blockState.getBlock() == Blocks.BEDROCK) {
-                            chunk.setBlockState(
-                                mutable,
-                                replacement,
-                                false
-                            );
-                        }
-                    }
+            SectionScanning.foreachMatching(
+                chunk.getSections(),
+                sectionIndex -> SectionPos.sectionToBlockCoord(chunk.getSectionYFromSectionIndex(sectionIndex)),
+                bedrockSectionBlocks,
+                (x, y, z) -> {
+                    mutable.set(x, y, z);
+                    chunk.setBlockState(
+                        mutable,
+                        replacement,
+                        false
+                    );
                 }
-            }
+            );
         }
     }
     
+    private static final SectionScanning.SectionBlocks<LevelChunkSection> bedrockSectionBlocks =
+        new SectionScanning.SectionBlocks<>() {
+            // the palette tells whether the section can contain bedrock without scanning the blocks
+            @Override
+            public boolean mayContain(LevelChunkSection section) {
+                return !section.hasOnlyAir() && section.maybeHas(DimStackManagement::isBedrock);
+            }
+            
+            @Override
+            public boolean matches(LevelChunkSection section, int localX, int localY, int localZ) {
+                return isBedrock(section.getBlockState(localX, localY, localZ));
+            }
+        };
+    
+    private static boolean isBedrock(BlockState blockState) {
+        return blockState.getBlock() == Blocks.BEDROCK;
+    }
+    
     public static class RemoteCallables {
         @OnlyIn(Dist.CLIENT)
         public static void clientOpenScreen(List<String> dimensions) {
@@ -220,9 +239,9 @@ public class DimStackManagement {
         MinecraftServer server = MiscHelper.getServer();
         for (ServerLevel world : server.getAllLevels()) {
             GlobalPortalStorage gps = GlobalPortalStorage.get(world);
-            gps.data.removeIf(p -> p instanceof VerticalConnectingPortal);
+            gps.removePortals(p -> p instanceof VerticalConnectingPortal);
             gps.bedrockReplacement = null;
-            gps.onDataChanged();
+            gps.setDirty(true);
         }
         
         updateBedrockReplacementFromStorage(server);
@@ -0,0 +1,53 @@
+package qouteall.imm_ptl.peripheral.dim_stack;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Finds the matching blocks in the sections of a chunk.
+ * The sections that surely don't contain a matching block are skipped without scanning their blocks.
+ * The scanning does not depend on the chunk classes, so it can be tested with synthetic sections.
+ */
+public class SectionScanning {
+    
+    public static interface SectionBlocks<S> {
+        /**
+         * @return false if the section surely does not contain a matching block
+         */
+        boolean mayContain(S section);
+        
+        boolean matches(S section, int localX, int localY, int localZ);
+    }
+    
+    public static interface BlockPosConsumer {
+        void accept(int localX, int y, int localZ);
+    }
+    
+    /**
+     * Iterates in the order of the section's storage.
+     * @param sectionMinYGetter maps the section index to the min block y of the section
+     */
+    public static <S> void foreachMatching(
+        S[] sections, IntUnaryOperator sectionMinYGetter,
+        SectionBlocks<S> blocks, BlockPosConsumer consumer
+    ) {
+        for (int sectionIndex = 0; sectionIndex < sections.length; sectionIndex++) {
+            S section = sections[sectionIndex];
+            
+            if (!blocks.mayContain(section)) {
+                continue;
+            }
+            
+            int sectionMinY = sectionMinYGetter.applyAsInt(sectionIndex);
+            
+            for (int localY = 0; localY < 16; localY++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        if (blocks.matches(section, x, localY, z)) {
+                            consumer.accept(x, sectionMinY + localY, z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
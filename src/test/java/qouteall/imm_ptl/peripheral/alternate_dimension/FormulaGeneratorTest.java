@@ -0,0 +1,100 @@
+package qouteall.imm_ptl.peripheral.alternate_dimension;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormulaGeneratorTest {
+    
+    private static final long[] seeds = {0, 1, 42, 1234567, -987654321L, 20221018};
+    
+    private static final double[][] points = {
+        {0.2, 0.4, 0.8}, {0.5, 0.5, 0.5}, {0.9, 0.1, 0.3}, {0.03, 0.97, 0.61}
+    };
+    
+    // evaluated at the points above by the former lambda based formulas, one row per seed
+    private static final double[][] expectedValues = {
+        {-87347.12458693588, -11508.278791210918, -1141.0014793789014, -69.7783167654506},
+        {3.6355503089869963E31, 29.196740509343538, 7.757032415789226E8, 1.6597070751590843E9},
+        {15901.021793716696, Double.NaN, 142.08236973866758, 419.54269546608356},
+        {6.901488410985117, 1600.150731177766, 6.072887765164345E7, 2.50641066672075872E17},
+        {0.7901585994053189, 1.6599326227963636, 0.29572046380316364, 0.6462995645013154},
+        {61.08812769297716, 261.34977672800323, 2.781522094868726, 196013.23408922862}
+    };
+    
+    @BeforeAll
+    public static void init() {
+        FormulaGenerator.init();
+    }
+    
+    private static FormulaGenerator.CompiledFormula generate(long seed) {
+        return FormulaGenerator.newGetRandomTriCompositeExpression(new Random(seed), 3);
+    }
+    
+    @Test
+    public void testSameAsFormerFormulas() {
+        for (int s = 0; s < seeds.length; s++) {
+            FormulaGenerator.CompiledFormula formula = generate(seeds[s]);
+            for (int p = 0; p < points.length; p++) {
+                // the evaluation order is unchanged, so the results are bit-identical, NaN included
+                assertEquals(
+                    expectedValues[s][p],
+                    formula.eval(points[p][0], points[p][1], points[p][2]),
+                    "seed " + seeds[s] + " point " + p
+                );
+            }
+        }
+    }
+    
+    @Test
+    public void testSameSeedSameFormula() {
+        Random pointRandom = new Random(7);
+        for (long seed = 0; seed < 200; seed++) {
+            FormulaGenerator.CompiledFormula a = generate(seed);
+            FormulaGenerator.CompiledFormula b = generate(seed);
+            for (int i = 0; i < 20; i++) {
+                double x = pointRandom.nextDouble();
+                double y = pointRandom.nextDouble();
+                double z = pointRandom.nextDouble();
+                assertEquals(
+                    Double.doubleToLongBits(a.eval(x, y, z)),
+                    Double.doubleToLongBits(b.eval(x, y, z))
+                );
+            }
+        }
+    }
+    
+    @Test
+    public void testBatchSameAsSingle() {
+        int num = 1000;
+        double[] xs = new double[num];
+        double[] ys = new double[num];
+        double[] zs = new double[num];
+        double[] result = new double[num];
+        
+        Random pointRandom = new Random(11);
+        for (long seed = 0; seed < 200; seed++) {
+            FormulaGenerator.CompiledFormula formula = generate(seed);
+            
+            double[] expected = new double[num];
+            for (int i = 0; i < num; i++) {
+                xs[i] = pointRandom.nextDouble();
+                ys[i] = pointRandom.nextDouble();
+                zs[i] = pointRandom.nextDouble();
+                expected[i] = formula.eval(xs[i], ys[i], zs[i]);
+            }
+            
+            formula.evalBatch(xs, ys, zs, num, result);
+            
+            for (int i = 0; i < num; i++) {
+                assertEquals(
+                    Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(result[i]),
+                    "seed " + seed + " point " + i
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package qouteall.imm_ptl.peripheral.dim_stack;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Scans synthetic sections, in which a block is an int and the bedrock is 7.
+ */
+public class SectionScanningTest {
+    
+    private static final int bedrock = 7;
+    
+    private static class FakeSection {
+        public final int[] blocks = new int[16 * 16 * 16];
+        public int scannedNum = 0;
+        
+        public int get(int x, int y, int z) {
+            return blocks[(y * 16 + z) * 16 + x];
+        }
+        
+        public void set(int x, int y, int z, int block) {
+            blocks[(y * 16 + z) * 16 + x] = block;
+        }
+        
+        // like the palette, it knows which blocks may be in the section
+        public boolean hasBedrockInPalette() {
+            for (int block : blocks) {
+                if (block == bedrock) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    private static final SectionScanning.SectionBlocks<FakeSection> bedrockBlocks =
+        new SectionScanning.SectionBlocks<>() {
+            @Override
+            public boolean mayContain(FakeSection section) {
+                return section.hasBedrockInPalette();
+            }
+            
+            @Override
+            public boolean matches(FakeSection section, int localX, int localY, int localZ) {
+                section.scannedNum++;
+                return section.get(localX, localY, localZ) == bedrock;
+            }
+        };
+    
+    private static int getSectionMinY(int sectionIndex) {
+        return -64 + sectionIndex * 16;
+    }
+    
+    @Test
+    public void testSameAsScanningEveryBlock() {
+        Random random = new Random(1);
+        FakeSection[] sections = new FakeSection[24];
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = new FakeSection();
+            // like the bedrock floor and ceiling, and some random bedrock
+            if (i == 0 || i == sections.length - 1 || random.nextInt(5) == 0) {
+                int bedrockNum = random.nextInt(300);
+                for (int j = 0; j < bedrockNum; j++) {
+                    sections[i].set(random.nextInt(16), random.nextInt(16), random.nextInt(16), bedrock);
+                }
+            }
+            for (int j = 0; j < 1000; j++) {
+                sections[i].set(random.nextInt(16), random.nextInt(16), random.nextInt(16), 1 + random.nextInt(5));
+            }
+        }
+        
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < sections.length; i++) {
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        if (sections[i].get(x, y, z) == bedrock) {
+                            expected.add(x + " " + (getSectionMinY(i) + y) + " " + z);
+                        }
+                    }
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+        
+        List<String> found = new ArrayList<>();
+        SectionScanning.foreachMatching(
+            sections, SectionScanningTest::getSectionMinY, bedrockBlocks,
+            (x, y, z) -> found.add(x + " " + y + " " + z)
+        );
+        
+        assertEquals(expected, found);
+        
+        // the sections without bedrock are not scanned
+        for (FakeSection section : sections) {
+            assertEquals(section.hasBedrockInPalette() ? 4096 : 0, section.scannedNum);
+        }
+    }
+    
+    /**
+     * The consumer can change the block being scanned, like the bedrock replacement.
+     */
+    @Test
+    public void testReplaceWhileScanning() {
+        FakeSection[] sections = {new FakeSection(), new FakeSection()};
+        sections[1].set(3, 0, 5, bedrock);
+        sections[1].set(15, 15, 15, bedrock);
+        
+        List<String> found = new ArrayList<>();
+        SectionScanning.foreachMatching(
+            sections, SectionScanningTest::getSectionMinY, bedrockBlocks,
+            (x, y, z) -> {
+                found.add(x + " " + y + " " + z);
+                sections[1].set(x, y + 64 - 16, z, 2);
+            }
+        );
+        
+        assertEquals(List.of("3 -48 5", "15 -33 15"), found);
+        assertFalse(sections[1].hasBedrockInPalette());
+        assertEquals(0, sections[0].scannedNum);
+    }
+}